@@ -20,7 +20,9 @@
 package com.threerings.cast;
 
 /**
- * A mechanism for caching composited character action animations on disk.
+ * A mechanism for caching composited character action animations on disk. Implementations should
+ * key their entries on {@link CharacterDescriptor#getFingerprint}, which is stable across sessions,
+ * rather than on {@link CharacterDescriptor#hashCode}.
  */
 public interface ActionCache
 {
@@ -30,6 +30,11 @@ import com.threerings.media.image.Colorization;
 /**
  * The character descriptor object details the components that are
  * pieced together to create a single character image.
+ *
+ * <p> Descriptors are compared by way of a {@link #getFingerprint fingerprint} that covers
+ * everything that affects the appearance of the character, which makes them suitable as cache
+ * keys. A descriptor must not be modified once it has been used as such a key (or {@link
+ * CharacterManager#intern interned}).
  */
 public class CharacterDescriptor
 {
@@ -75,6 +80,7 @@ public class CharacterDescriptor
     public void setColorizations (Colorization[][] zations)
     {
         _zations = zations;
+        _fingerprint = 0L;
     }
 
     /**
@@ -92,16 +98,29 @@ public class CharacterDescriptor
     public void setTranslations (Point[] xlations)
     {
         _xlations = xlations;
+        _fingerprint = 0L;
+    }
+
+    /**
+     * Returns a 64-bit hash of the component ids, colorization ids and translations that make up
+     * this character. Descriptors that are equal have the same fingerprint and the fingerprint is
+     * stable across sessions, so it may be used to key persistent caches. It is computed once and
+     * cached until the descriptor is modified.
+     */
+    public long getFingerprint ()
+    {
+        long fingerprint = _fingerprint;
+        if (fingerprint == 0L) {
+            _fingerprint = fingerprint = computeFingerprint();
+        }
+        return fingerprint;
     }
 
     @Override
     public int hashCode ()
     {
-        int code = 0, clength = _components.length;
-        for (int ii = 0; ii < clength; ii++) {
-            code ^= _components[ii];
-        }
-        return code;
+        long fingerprint = getFingerprint();
+        return (int)(fingerprint ^ (fingerprint >>> 32));
     }
 
     @Override
@@ -111,16 +130,23 @@ public class CharacterDescriptor
             return false;
         }
 
-        // both the component ids and the colorizations must be equal
+        // differing fingerprints rule out equality without walking our arrays
         CharacterDescriptor odesc = (CharacterDescriptor)other;
+        if (odesc == this) {
+            return true;
+        } else if (getFingerprint() != odesc.getFingerprint()) {
+            return false;
+        }
+
+        // the component ids, colorizations and translations must all be equal
         if (!Arrays.equals(_components, odesc._components)) {
             return false;
         }
 
         Colorization[][] zations = odesc._zations;
         if (zations == null && _zations == null) {
-            // if neither has colorizations, we're clear
-            return true;
+            // if neither has colorizations, only the translations remain
+            return Arrays.equals(_xlations, odesc._xlations);
 
         } else if (zations == null || _zations == null) {
             // if one has colorizations whilst the other doesn't, they
@@ -149,6 +175,57 @@ public class CharacterDescriptor
             ", colors=" + StringUtil.toString(_zations) + "]";
     }
 
+    /**
+     * Computes our fingerprint, which is never zero (so that zero can mean "not computed").
+     */
+    protected long computeFingerprint ()
+    {
+        long hash = mix(FINGERPRINT_SEED, _components.length);
+        for (int cid : _components) {
+            hash = mix(hash, cid);
+        }
+        if (_zations == null) {
+            hash = mix(hash, -1);
+        } else {
+            hash = mix(hash, _zations.length);
+            for (Colorization[] zations : _zations) {
+                if (zations == null) {
+                    hash = mix(hash, -1);
+                    continue;
+                }
+                hash = mix(hash, zations.length);
+                for (Colorization zation : zations) {
+                    hash = mix(hash, (zation == null) ? Integer.MIN_VALUE : zation.colorizationId);
+                }
+            }
+        }
+        if (_xlations == null) {
+            hash = mix(hash, -1);
+        } else {
+            hash = mix(hash, _xlations.length);
+            for (Point xlation : _xlations) {
+                hash = (xlation == null) ?
+                    mix(hash, Integer.MIN_VALUE) : mix(mix(hash, xlation.x), xlation.y);
+            }
+        }
+
+        // finish with the MurmurHash3 finalizer so that every bit affects every other
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (hash == 0L) ? 1L : hash;
+    }
+
+    /**
+     * Folds the supplied value into a running fingerprint.
+     */
+    protected static long mix (long hash, int value)
+    {
+        return Long.rotateLeft(hash ^ (value * 0x9e3779b97f4a7c15L), 27) * 0x100000001b3L;
+    }
+
     /** The component identifiers comprising the character. */
     protected int[] _components;
 
@@ -157,4 +234,11 @@ public class CharacterDescriptor
 
     /** The translations to apply when compositing this character. */
     protected Point[] _xlations;
+
+    /** Our cached fingerprint, or zero if it has yet to be computed. Volatile so that a
+     * fingerprint computed on one thread is safely published to others. */
+    protected volatile long _fingerprint;
+
+    /** The starting point for all fingerprints; changing it invalidates stored fingerprints. */
+    protected static final long FINGERPRINT_SEED = 0x4e656e7961436173L;
 }
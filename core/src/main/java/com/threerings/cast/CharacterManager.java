@@ -26,6 +26,8 @@ import java.util.Map;
 
 import java.awt.Point;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
@@ -120,6 +122,18 @@ public class CharacterManager
         _acache = cache;
     }
 
+    /**
+     * Returns the canonical descriptor equal to the supplied descriptor, which will be the
+     * supplied descriptor itself if no equal descriptor is in use. Characters that look the same
+     * thereby share a single descriptor (and a single set of composited frames), and cache lookups
+     * on that descriptor are resolved by identity. Interned descriptors must not be modified.
+     * Descriptors are retained only as long as they are referenced elsewhere.
+     */
+    public CharacterDescriptor intern (CharacterDescriptor desc)
+    {
+        return _descriptors.intern(desc);
+    }
+
     /**
      * Returns a {@link CharacterSprite} representing the character
      * described by the given {@link CharacterDescriptor}, or
@@ -147,7 +161,7 @@ public class CharacterManager
     {
         try {
             T sprite = charClass.newInstance();
-            sprite.init(desc, this);
+            sprite.init(intern(desc), this);
             return sprite;
 
         } catch (Exception e) {
@@ -170,7 +184,9 @@ public class CharacterManager
         CharacterDescriptor descrip, String action)
         throws NoSuchComponentException
     {
-        Tuple<CharacterDescriptor, String> key = new Tuple<CharacterDescriptor, String>(descrip, action);
+        descrip = intern(descrip);
+        Tuple<CharacterDescriptor, String> key =
+            new Tuple<CharacterDescriptor, String>(descrip, action);
         ActionFrames frames = _actionFrames.get(key);
         if (frames == null) {
             // this doesn't actually composite the images, but prepares an
@@ -328,6 +344,10 @@ public class CharacterManager
         // use those to create an entity that will lazily composite things
         // together as they are needed
         ComponentFrames[] cfvec = sources.toArray(new ComponentFrames[sources.size()]);
+        ActionSequence actseq = _actions.get(action);
+        if (_sheetFrames.getValue() && actseq != null && actseq.orients != null) {
+            return new CompositedSheetFrames(_imgr, _frameCache, action, cfvec, actseq.orients);
+        }
         return new CompositedActionFrames(_imgr, _frameCache, action, cfvec);
     }
 
@@ -430,6 +450,9 @@ public class CharacterManager
     /** A table of our action sequences. */
     protected Map<String, ActionSequence> _actions = Maps.newHashMap();
 
+    /** Canonicalizes the descriptors of the characters we create. */
+    protected Interner<CharacterDescriptor> _descriptors = Interners.newWeakInterner();
+
     /** A table of composited action sequences (these don't reference the
      * actual image data directly and thus take up little memory). */
     protected Map<Tuple<CharacterDescriptor, String>, ActionFrames> _actionFrames =
@@ -447,6 +470,11 @@ public class CharacterManager
     /** Throttle our cache status logging to once every 30 seconds. */
     protected Throttle _cacheStatThrottle = new Throttle(1, 30000L);
 
+    /** Whether to composite all orientations of an action at once, into a single sheet. */
+    protected static RuntimeAdjust.BooleanAdjust _sheetFrames = new RuntimeAdjust.BooleanAdjust(
+        "Composites all orientations of a character action at once, into a sheet.",
+        "narya.cast.sheet_frames", CastPrefs.config, false);
+
     /** Register our image cache size with the runtime adjustments
      * framework. */
     protected static RuntimeAdjust.IntAdjust _cacheSize =
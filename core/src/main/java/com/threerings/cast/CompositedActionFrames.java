@@ -27,6 +27,7 @@ import com.threerings.util.DirectionCodes;
 
 import com.threerings.media.image.Colorization;
 import com.threerings.media.image.ImageManager;
+import com.threerings.media.perf.FrameMetrics;
 import com.threerings.media.util.MultiFrameImage;
 
 /**
@@ -99,8 +100,11 @@ public class CompositedActionFrames
         CompositedMultiFrameImage cmfi =
             _frameCache.get(_key);
         if (cmfi == null) {
+            CACHE_MISSES.increment();
             cmfi = createFrames(orient);
             _frameCache.put(new CompositedFramesKey(orient), cmfi);
+        } else {
+            CACHE_HITS.increment();
         }
         return cmfi;
     }
@@ -196,4 +200,10 @@ public class CompositedActionFrames
     /** Used to avoid creating a new key object every time we do a cache
      * lookup. */
     protected CompositedFramesKey _key = new CompositedFramesKey(0);
+
+    /** Track composited frame cache hits and misses. */
+    protected static final FrameMetrics.Counter CACHE_HITS =
+        FrameMetrics.counter("cast.frames.hit");
+    protected static final FrameMetrics.Counter CACHE_MISSES =
+        FrameMetrics.counter("cast.frames.miss");
 }
@@ -82,6 +82,13 @@ public class CompositedMaskedImage extends CompositedMultiFrameImage
         return new MaskedMirage(index);
     }
 
+    @Override
+    protected boolean allowIndexedFrames ()
+    {
+        // masking is done with alpha compositing
+        return false;
+    }
+
     /**
      * Combines the image in the first source with the masks in the rest. */
     protected class MaskedMirage extends CompositedVolatileMirage
@@ -28,9 +28,13 @@ import java.awt.Rectangle;
 import java.awt.Transparency;
 import java.awt.image.BufferedImage;
 
+import com.samskivert.swing.RuntimeAdjust;
+
 import com.threerings.media.image.ImageManager;
+import com.threerings.media.image.ImageUtil;
 import com.threerings.media.image.Mirage;
 import com.threerings.media.image.VolatileMirage;
+import com.threerings.media.perf.FrameMetrics;
 
 import com.threerings.cast.CompositedActionFrames.ComponentFrames;
 import com.threerings.cast.bundle.BundledComponentRepository.TileSetFrameImage;
@@ -38,6 +42,11 @@ import com.threerings.cast.bundle.BundledComponentRepository.TileSetFrameImage;
 /**
  * Used to composite the action frames for a particular orientation of a
  * {@link CompositedActionFrames}.
+ *
+ * <p> Where the component frames all come from indexed color tilesets and their (colorized)
+ * palettes merge into 256 colors, frames are composited into 8-bit indexed images with bitmask
+ * transparency, which take a quarter of the memory of ARGB frames in the frame cache. Otherwise
+ * (or where real alpha is needed), frames are composited into ARGB images.
  */
 public class CompositedMultiFrameImage
     implements TrimmedMultiFrameImage
@@ -59,6 +68,20 @@ public class CompositedMultiFrameImage
         }
     }
 
+    /**
+     * Creates a multi-frame image from frames that have already been composited.
+     */
+    protected CompositedMultiFrameImage (
+        ImageManager imgr, ComponentFrames[] sources, String action, int orient,
+        CompositedMirage[] images)
+    {
+        _imgr = imgr;
+        _sources = sources;
+        _action = action;
+        _orient = orient;
+        _images = images;
+    }
+
     // documentation inherited
     public int getFrameCount () {
         return _images.length;
@@ -127,6 +150,15 @@ public class CompositedMultiFrameImage
         return new CompositedVolatileMirage(index);
     }
 
+    /**
+     * Returns true if our frames may be composited into indexed color images (where their sources
+     * allow). Derived classes that need an alpha channel should return false.
+     */
+    protected boolean allowIndexedFrames ()
+    {
+        return _indexedFrames.getValue();
+    }
+
     /**
      * A CompositedMirage that forwards all of its Mirage calls to a delegate Mirage.
      */
@@ -204,6 +236,20 @@ public class CompositedMultiFrameImage
     /** Our composited action frame images. */
     protected CompositedMirage[] _images;
 
+    /** Track how many frames are composited in indexed and in ARGB color. */
+    protected static final FrameMetrics.Counter INDEXED_FRAMES =
+        FrameMetrics.counter("cast.frames.indexed");
+    protected static final FrameMetrics.Counter ARGB_FRAMES =
+        FrameMetrics.counter("cast.frames.argb");
+
+    /** Enables indexed color compositing, which quarters the memory used by composited frames
+     * but may make them slower to paint, as indexed images must be color converted when blitted
+     * to a screen that Java2D cannot accelerate them on. Off by default until a paint benchmark
+     * shows that it does not slow painting on the platforms we care about. */
+    protected static RuntimeAdjust.BooleanAdjust _indexedFrames = new RuntimeAdjust.BooleanAdjust(
+        "Composites character frames into indexed color images where possible.",
+        "narya.cast.indexed_frames", CastPrefs.config, false);
+
     /**
      * Used to create our mirage using the source action frame images.
      */
@@ -283,6 +329,51 @@ public class CompositedMultiFrameImage
             return Transparency.BITMASK;
         }
 
+        @Override
+        protected void createVolatileImage ()
+        {
+            BufferedImage image = allowIndexedFrames() ? compositeIndexed() : null;
+            if (image == null) {
+                ARGB_FRAMES.increment();
+                super.createVolatileImage();
+                return;
+            }
+
+            INDEXED_FRAMES.increment();
+            if (_image != null) {
+                _image.flush();
+            }
+            _image = image;
+            _mask = null;
+        }
+
+        /**
+         * Composites our sources into an indexed color image, returning null if they are not all
+         * indexed color tileset frames or if their palettes cannot be merged.
+         */
+        protected BufferedImage compositeIndexed ()
+        {
+            // sort the sources appropriately for this orientation
+            Arrays.sort(_sources, this);
+
+            int scount = _sources.length;
+            BufferedImage[] images = new BufferedImage[scount];
+            int[] xoffs = new int[scount], yoffs = new int[scount];
+            Rectangle tbounds = new Rectangle();
+            for (int ii = 0; ii < scount; ii++) {
+                if (!(_sources[ii].frames instanceof TileSetFrameImage)) {
+                    return null;
+                }
+                TileSetFrameImage frames = (TileSetFrameImage)_sources[ii].frames;
+                images[ii] = frames.getRawFrameImage(_orient, _index);
+                frames.getTrimmedBounds(_orient, _index, tbounds);
+                xoffs[ii] = tbounds.x - _bounds.x;
+                yoffs[ii] = tbounds.y - _bounds.y;
+            }
+            return ImageUtil.composeIndexedImage(
+                images, xoffs, yoffs, _bounds.width, _bounds.height);
+        }
+
         @Override
         protected void refreshVolatileImage ()
         {
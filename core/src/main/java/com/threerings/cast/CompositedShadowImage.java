@@ -71,6 +71,12 @@ public class CompositedShadowImage extends CompositedMultiFrameImage
         return new CompositedVolatileMirage(index);
     }
 
+    @Override
+    protected boolean allowIndexedFrames () {
+        // our shadows are blended into whatever is beneath them
+        return false;
+    }
+
     @Override
     public void paintFrame (Graphics2D g, int index, int x, int y) {
         Composite ocomp = g.getComposite();
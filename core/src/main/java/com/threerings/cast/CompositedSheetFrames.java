@@ -0,0 +1,81 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.cast;
+
+import java.util.Map;
+
+import com.threerings.media.image.ImageManager;
+
+/**
+ * A {@link CompositedActionFrames} that, the first time any orientation is needed, composites
+ * every orientation of its action at once, in parallel, into a single {@link
+ * CompositedSheetImage}. The sheet is admitted to the frame cache as a single entry, so that the
+ * orientations of an action are charged against (and evicted from) the cache together.
+ */
+public class CompositedSheetFrames extends CompositedActionFrames
+{
+    /**
+     * Creates sheet composited frames for the specified action, which is available in the
+     * specified orientations.
+     */
+    public CompositedSheetFrames (
+        ImageManager imgr, Map<CompositedFramesKey, CompositedMultiFrameImage> frameCache,
+        String action, ComponentFrames[] sources, int[] orients)
+    {
+        super(imgr, frameCache, action, sources);
+        _orients = orients;
+    }
+
+    @Override
+    public TrimmedMultiFrameImage getFrames (int orient)
+    {
+        _key.setOrient(ALL_ORIENTS);
+        CompositedSheetImage sheet = (CompositedSheetImage)_frameCache.get(_key);
+        if (sheet == null) {
+            CACHE_MISSES.increment();
+            sheet = CompositedSheetImage.composite(_imgr, _sources, _action, _orients);
+            _frameCache.put(new CompositedFramesKey(ALL_ORIENTS), sheet);
+        } else {
+            CACHE_HITS.increment();
+        }
+
+        // should we be asked for an orientation in which our action is not available, composite
+        // it on its own
+        CompositedMultiFrameImage frames = sheet.getFrames(orient);
+        return (frames == null) ? super.getFrames(orient) : frames;
+    }
+
+    @Override
+    public ActionFrames cloneTranslated (int dx, int dy)
+    {
+        ComponentFrames[] tsources = new ComponentFrames[_sources.length];
+        for (int ii = 0; ii < _sources.length; ii++) {
+            tsources[ii] = new ComponentFrames(
+                _sources[ii].ccomp, _sources[ii].frames.cloneTranslated(dx, dy));
+        }
+        return new CompositedSheetFrames(_imgr, _frameCache, _action, tsources, _orients);
+    }
+
+    /** The orientations in which our action is available. */
+    protected int[] _orients;
+
+    /** The pseudo-orientation under which our sheet is cached. */
+    protected static final int ALL_ORIENTS = -1;
+}
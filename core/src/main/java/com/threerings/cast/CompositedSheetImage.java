@@ -0,0 +1,342 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.cast;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+import com.google.common.collect.Lists;
+
+import com.threerings.media.image.HitMask;
+import com.threerings.media.image.ImageManager;
+import com.threerings.media.image.ImageUtil;
+
+import com.threerings.cast.CompositedActionFrames.ComponentFrames;
+
+/**
+ * Composites all of the frames of all of the orientations of an action into a single packed
+ * sheet. The render order of the sources and their frame images are determined once per
+ * orientation rather than once per frame, and the orientations are composited in parallel on the
+ * common fork-join pool. The sheet holds the frames of every orientation (in order); those of a
+ * single orientation are obtained via {@link #getFrames}.
+ */
+public class CompositedSheetImage extends CompositedMultiFrameImage
+{
+    /**
+     * Composites the sheet for the specified orientations of an action.
+     */
+    public static CompositedSheetImage composite (
+        ImageManager imgr, ComponentFrames[] sources, String action, int[] orients)
+    {
+        // determine the render order and frame bounds of each orientation
+        Band[] bands = new Band[orients.length];
+        for (int ii = 0; ii < orients.length; ii++) {
+            bands[ii] = new Band(sources, action, orients[ii]);
+        }
+        invokeAll(bands, false);
+
+        // lay the orientations out in successive bands of rows of a roughly square sheet
+        int maxWidth = 1, fcount = 0;
+        long area = 0;
+        for (Band band : bands) {
+            for (Rectangle fbounds : band.bounds) {
+                maxWidth = Math.max(maxWidth, fbounds.width);
+                area += fbounds.width * fbounds.height;
+            }
+            fcount += band.bounds.length;
+        }
+        int rowWidth = Math.max(maxWidth, (int)Math.ceil(Math.sqrt(area)));
+        int y = 0, sheetWidth = 1;
+        for (Band band : bands) {
+            sheetWidth = Math.max(sheetWidth, band.layout(y, rowWidth));
+            y += band.height;
+        }
+        BufferedImage sheet = imgr.createImage(sheetWidth, Math.max(y, 1), Transparency.BITMASK);
+
+        // render the orientations into their bands; the graphics are created up front so that
+        // the sheet's surface is initialized before it is shared by our tasks
+        for (Band band : bands) {
+            band.gfx = sheet.createGraphics();
+        }
+        invokeAll(bands, true);
+
+        CompositedMirage[] images = new CompositedMirage[fcount];
+        int[] starts = new int[bands.length + 1];
+        for (int ii = 0, idx = 0; ii < bands.length; ii++) {
+            Band band = bands[ii];
+            starts[ii] = idx;
+            for (int ff = 0; ff < band.bounds.length; ff++) {
+                images[idx++] = new SheetFrame(
+                    sheet, band.regions[ff], band.xorigins[ff], band.yorigins[ff]);
+            }
+            starts[ii+1] = idx;
+        }
+        return new CompositedSheetImage(imgr, sources, action, orients, starts, images, sheet);
+    }
+
+    /**
+     * Returns the frames of the specified orientation, or null if it is not in our sheet.
+     */
+    public CompositedMultiFrameImage getFrames (int orient)
+    {
+        for (int ii = 0; ii < _orients.length; ii++) {
+            if (_orients[ii] == orient) {
+                return _frames[ii];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public long getEstimatedMemoryUsage ()
+    {
+        long size = ImageUtil.getEstimatedMemoryUsage(_sheet);
+        for (CompositedMirage image : _images) {
+            HitMask mask = ((SheetFrame)image)._mask;
+            if (mask != null) {
+                size += mask.getEstimatedMemoryUsage();
+            }
+        }
+        return size;
+    }
+
+    protected CompositedSheetImage (
+        ImageManager imgr, ComponentFrames[] sources, String action, int[] orients, int[] starts,
+        CompositedMirage[] images, BufferedImage sheet)
+    {
+        super(imgr, sources, action, -1, images);
+        _orients = orients;
+        _sheet = sheet;
+        _frames = new CompositedMultiFrameImage[orients.length];
+        for (int ii = 0; ii < orients.length; ii++) {
+            _frames[ii] = new CompositedMultiFrameImage(
+                imgr, sources, action, orients[ii],
+                Arrays.copyOfRange(images, starts[ii], starts[ii+1]));
+        }
+    }
+
+    /**
+     * Measures or renders the supplied bands in parallel.
+     */
+    protected static void invokeAll (Band[] bands, final boolean render)
+    {
+        List<RecursiveAction> tasks = Lists.newArrayListWithCapacity(bands.length);
+        for (final Band band : bands) {
+            tasks.add(new RecursiveAction() {
+                @Override protected void compute () {
+                    if (render) {
+                        band.render();
+                    } else {
+                        band.measure();
+                    }
+                }
+            });
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /** The frames of a single orientation, and the band of the sheet into which they go. */
+    protected static class Band
+    {
+        /** The orientation in question. */
+        public final int orient;
+
+        /** The frames of our sources, in render order. */
+        public TrimmedMultiFrameImage[] frames;
+
+        /** The bounds enclosing all of the sources in each frame, and their origins. */
+        public Rectangle[] bounds;
+        public int[] xorigins, yorigins;
+
+        /** The region of the sheet into which each frame is rendered. */
+        public Rectangle[] regions;
+
+        /** The height of our band. */
+        public int height;
+
+        /** The graphics with which we render into the sheet. */
+        public Graphics2D gfx;
+
+        public Band (ComponentFrames[] sources, String action, int orient) {
+            this.orient = orient;
+            _sources = sources;
+            _action = action;
+        }
+
+        /**
+         * Sorts our sources into render order and determines the bounds of each frame.
+         */
+        public void measure () {
+            // sort a copy of our sources (which are shared with other orientations)
+            ComponentFrames[] sources = _sources.clone();
+            Arrays.sort(sources, new Comparator<ComponentFrames>() {
+                public int compare (ComponentFrames cf1, ComponentFrames cf2) {
+                    return cf1.ccomp.getRenderPriority(_action, orient) -
+                        cf2.ccomp.getRenderPriority(_action, orient);
+                }
+            });
+            int scount = sources.length;
+            frames = new TrimmedMultiFrameImage[scount];
+            for (int ii = 0; ii < scount; ii++) {
+                frames[ii] = sources[ii].frames.getFrames(orient);
+            }
+
+            int fcount = frames[0].getFrameCount();
+            bounds = new Rectangle[fcount];
+            xorigins = new int[fcount];
+            yorigins = new int[fcount];
+            Rectangle tbounds = new Rectangle();
+            for (int ff = 0; ff < fcount; ff++) {
+                Rectangle fbounds = bounds[ff] = new Rectangle();
+                for (int ii = 0; ii < scount; ii++) {
+                    frames[ii].getTrimmedBounds(ff, tbounds);
+                    if (fbounds.width == 0 && fbounds.height == 0) {
+                        fbounds.setBounds(tbounds);
+                    } else {
+                        fbounds.add(tbounds);
+                    }
+                }
+                fbounds.width = Math.max(fbounds.width, 1);
+                fbounds.height = Math.max(fbounds.height, 1);
+                xorigins[ff] = _sources[0].frames.getXOrigin(orient, ff) - fbounds.x;
+                yorigins[ff] = _sources[0].frames.getYOrigin(orient, ff) - fbounds.y;
+            }
+        }
+
+        /**
+         * Lays our frames out in rows of the specified width, starting at the specified offset
+         * into the sheet, and returns the width used.
+         */
+        public int layout (int top, int rowWidth) {
+            regions = new Rectangle[bounds.length];
+            int x = 0, y = top, rowHeight = 0, width = 0;
+            for (int ff = 0; ff < bounds.length; ff++) {
+                Rectangle fbounds = bounds[ff];
+                if (x + fbounds.width > rowWidth) {
+                    x = 0;
+                    y += rowHeight;
+                    rowHeight = 0;
+                }
+                regions[ff] = new Rectangle(x, y, fbounds.width, fbounds.height);
+                x += fbounds.width;
+                width = Math.max(width, x);
+                rowHeight = Math.max(rowHeight, fbounds.height);
+            }
+            height = y + rowHeight - top;
+            return width;
+        }
+
+        /**
+         * Renders every frame of every source into place.
+         */
+        public void render () {
+            try {
+                for (int ff = 0; ff < regions.length; ff++) {
+                    Rectangle region = regions[ff];
+                    gfx.setClip(region.x, region.y, region.width, region.height);
+                    int dx = region.x - bounds[ff].x, dy = region.y - bounds[ff].y;
+                    for (TrimmedMultiFrameImage source : frames) {
+                        source.paintFrame(gfx, ff, dx, dy);
+                    }
+                }
+            } finally {
+                gfx.dispose();
+                gfx = null;
+            }
+        }
+
+        protected ComponentFrames[] _sources;
+        protected String _action;
+    }
+
+    /** A single frame: a region of our sheet. */
+    protected static class SheetFrame implements CompositedMirage
+    {
+        public SheetFrame (BufferedImage sheet, Rectangle region, int xorigin, int yorigin) {
+            _sheet = sheet;
+            _region = region;
+            _xorigin = xorigin;
+            _yorigin = yorigin;
+        }
+
+        public int getXOrigin () {
+            return _xorigin;
+        }
+
+        public int getYOrigin () {
+            return _yorigin;
+        }
+
+        public void paint (Graphics2D gfx, int x, int y) {
+            Rectangle r = _region;
+            gfx.drawImage(_sheet, x, y, x + r.width, y + r.height,
+                          r.x, r.y, r.x + r.width, r.y + r.height, null);
+        }
+
+        public int getWidth () {
+            return _region.width;
+        }
+
+        public int getHeight () {
+            return _region.height;
+        }
+
+        public boolean hitTest (int x, int y) {
+            HitMask mask = _mask;
+            if (mask == null) {
+                _mask = mask = HitMask.create(getSnapshot());
+            }
+            return mask.hitTest(x, y);
+        }
+
+        public BufferedImage getSnapshot () {
+            return _sheet.getSubimage(_region.x, _region.y, _region.width, _region.height);
+        }
+
+        public long getEstimatedMemoryUsage () {
+            // our share of the sheet
+            long sheetArea = (long)_sheet.getWidth() * _sheet.getHeight();
+            return ImageUtil.getEstimatedMemoryUsage(_sheet) *
+                _region.width * _region.height / sheetArea;
+        }
+
+        protected final BufferedImage _sheet;
+        protected final Rectangle _region;
+        protected final int _xorigin, _yorigin;
+        protected HitMask _mask;
+    }
+
+    /** The orientations in our sheet. */
+    protected int[] _orients;
+
+    /** The frames of each of our orientations. */
+    protected CompositedMultiFrameImage[] _frames;
+
+    /** The image into which all of our frames are composited. */
+    protected BufferedImage _sheet;
+}
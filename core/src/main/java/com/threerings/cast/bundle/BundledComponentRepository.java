@@ -525,6 +525,14 @@ public class BundledComponentRepository
             return _set.getTileMirage(getTileIndex(orient, index));
         }
 
+        /**
+         * Returns the raw (colorized, but unprepared) image for the specified frame, which is
+         * positioned within the frame as described by {@link #getTrimmedBounds}.
+         */
+        public BufferedImage getRawFrameImage (int orient, int index) {
+            return _set.getRawTileImage(getTileIndex(orient, index));
+        }
+
         /** The tileset from which we obtain our frame images. */
         protected TileSet _set;
 
@@ -0,0 +1,298 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.chat;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Shape;
+
+import com.google.common.collect.Maps;
+
+import com.samskivert.util.HashIntMap;
+
+/**
+ * A spatial index of the screen territory claimed by chat bubbles, used to quickly find a place
+ * for a new bubble that does not overlap existing bubbles or other things to be avoided.
+ *
+ * <p> Territories are bucketed into a sparse grid of fixed size cells, so inserting, removing or
+ * moving a bubble touches only the handful of cells it overlaps, and testing a candidate position
+ * for overlap only examines the bubbles in nearby cells. Placement searches outward from the
+ * ideal position, nearest candidates first, where the candidates are the positions just clear of
+ * each obstacle encountered along the way.
+ *
+ * @param <K> the type of key used to identify a bubble's speaker. Bubbles from the speaker for
+ * whom a bubble is being placed are not avoided.
+ */
+public class BubbleIndex<K>
+{
+    /**
+     * Creates an index with the default cell size.
+     */
+    public BubbleIndex ()
+    {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Creates an index with the specified cell size, which should be on the order of the size of
+     * a typical bubble.
+     */
+    public BubbleIndex (int cellSize)
+    {
+        _cellSize = cellSize;
+    }
+
+    /**
+     * Adds or updates the territory claimed by the specified bubble.
+     *
+     * @param speaker the speaker of the bubble, or null.
+     */
+    public void update (Object bubble, K speaker, Rectangle territory)
+    {
+        Entry<K> entry = _entries.get(bubble);
+        if (entry == null) {
+            _entries.put(bubble, entry = new Entry<K>(speaker));
+        } else if (entry.bounds.equals(territory)) {
+            return;
+        } else {
+            unlink(entry);
+        }
+        entry.bounds.setBounds(territory);
+        link(entry);
+    }
+
+    /**
+     * Removes the specified bubble from the index.
+     */
+    public void remove (Object bubble)
+    {
+        Entry<K> entry = _entries.remove(bubble);
+        if (entry != null) {
+            unlink(entry);
+        }
+    }
+
+    /**
+     * Removes all bubbles from the index.
+     */
+    public void clear ()
+    {
+        _entries.clear();
+        _cells.clear();
+    }
+
+    /**
+     * Returns the number of bubbles in the index.
+     */
+    public int size ()
+    {
+        return _entries.size();
+    }
+
+    /**
+     * Moves the supplied rectangle to the location nearest its current location at which it lies
+     * entirely within the supplied bounds and does not overlap the territory of any bubble (other
+     * than the speaker's own) or any of the supplied shapes.
+     *
+     * @param speaker the speaker whose bubbles need not be avoided, or null.
+     * @param avoid additional shapes to be avoided, or null.
+     * @return true if the rectangle was positioned, false if no suitable location was found, in
+     * which case the rectangle is not modified.
+     */
+    public boolean positionRect (Rectangle r, Rectangle bounds, K speaker, List<Shape> avoid)
+    {
+        if (r.width > bounds.width || r.height > bounds.height) {
+            return false;
+        }
+
+        // the search is nearest-first from the (bounds constrained) starting location
+        final int sx = clamp(r.x, bounds.x, bounds.x + bounds.width - r.width);
+        final int sy = clamp(r.y, bounds.y, bounds.y + bounds.height - r.height);
+        PriorityQueue<Point> queue = new PriorityQueue<Point>(16, new Comparator<Point>() {
+            public int compare (Point p1, Point p2) {
+                return Long.compare(dist(p1), dist(p2));
+            }
+            protected long dist (Point p) {
+                long dx = p.x - sx, dy = p.y - sy;
+                return dx * dx + dy * dy;
+            }
+        });
+        Set<Point> seen = new HashSet<Point>();
+        Point start = new Point(sx, sy);
+        queue.add(start);
+        seen.add(start);
+
+        Rectangle test = new Rectangle(r.width, r.height);
+        int minx = bounds.x, maxx = bounds.x + bounds.width - r.width;
+        int miny = bounds.y, maxy = bounds.y + bounds.height - r.height;
+        for (int ii = 0; ii < MAX_CANDIDATES && !queue.isEmpty(); ii++) {
+            Point pt = queue.poll();
+            test.setLocation(pt);
+            Rectangle blocker = findBlocker(test, speaker, avoid);
+            if (blocker == null) {
+                r.setLocation(pt);
+                return true;
+            }
+
+            // try each of the positions just clear of the blocker, sliding along the current row
+            // or column so that we stay close to where we started
+            addCandidate(queue, seen, blocker.x - r.width, pt.y, minx, maxx, miny, maxy);
+            addCandidate(queue, seen, blocker.x + blocker.width, pt.y, minx, maxx, miny, maxy);
+            addCandidate(queue, seen, pt.x, blocker.y - r.height, minx, maxx, miny, maxy);
+            addCandidate(queue, seen, pt.x, blocker.y + blocker.height, minx, maxx, miny, maxy);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the bounds of a bubble territory or avoidable shape that overlaps the supplied
+     * rectangle, or null if it overlaps nothing.
+     */
+    protected Rectangle findBlocker (Rectangle r, K speaker, List<Shape> avoid)
+    {
+        if (avoid != null) {
+            for (int ii = 0, nn = avoid.size(); ii < nn; ii++) {
+                Shape shape = avoid.get(ii);
+                if (shape.intersects(r)) {
+                    return shape.getBounds();
+                }
+            }
+        }
+
+        int cx1 = cell(r.x), cx2 = cell(r.x + r.width - 1);
+        int cy1 = cell(r.y), cy2 = cell(r.y + r.height - 1);
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                List<Entry<K>> cell = _cells.get(cellKey(cx, cy));
+                if (cell == null) {
+                    continue;
+                }
+                for (int ii = 0, nn = cell.size(); ii < nn; ii++) {
+                    Entry<K> entry = cell.get(ii);
+                    if (entry.bounds.intersects(r) &&
+                        (speaker == null || !speaker.equals(entry.speaker))) {
+                        return entry.bounds;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the specified candidate location (constrained to the supplied limits) to the queue if
+     * it has not already been considered.
+     */
+    protected void addCandidate (PriorityQueue<Point> queue, Set<Point> seen, int x, int y,
+                                 int minx, int maxx, int miny, int maxy)
+    {
+        Point pt = new Point(clamp(x, minx, maxx), clamp(y, miny, maxy));
+        if (seen.add(pt)) {
+            queue.add(pt);
+        }
+    }
+
+    /**
+     * Adds the supplied entry to all of the cells it overlaps.
+     */
+    protected void link (Entry<K> entry)
+    {
+        Rectangle b = entry.bounds;
+        for (int cy = cell(b.y), cy2 = cell(b.y + b.height - 1); cy <= cy2; cy++) {
+            for (int cx = cell(b.x), cx2 = cell(b.x + b.width - 1); cx <= cx2; cx++) {
+                int key = cellKey(cx, cy);
+                List<Entry<K>> cell = _cells.get(key);
+                if (cell == null) {
+                    _cells.put(key, cell = new ArrayList<Entry<K>>(4));
+                }
+                cell.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Removes the supplied entry from all of the cells it overlaps.
+     */
+    protected void unlink (Entry<K> entry)
+    {
+        Rectangle b = entry.bounds;
+        for (int cy = cell(b.y), cy2 = cell(b.y + b.height - 1); cy <= cy2; cy++) {
+            for (int cx = cell(b.x), cx2 = cell(b.x + b.width - 1); cx <= cx2; cx++) {
+                int key = cellKey(cx, cy);
+                List<Entry<K>> cell = _cells.get(key);
+                if (cell != null && cell.remove(entry) && cell.isEmpty()) {
+                    _cells.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cell coordinate containing the supplied pixel coordinate.
+     */
+    protected final int cell (int coord)
+    {
+        return Math.floorDiv(coord, _cellSize);
+    }
+
+    protected static int cellKey (int cx, int cy)
+    {
+        return (cx << 16) | (cy & 0xFFFF);
+    }
+
+    protected static int clamp (int value, int min, int max)
+    {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /** Tracks the territory claimed by a single bubble. */
+    protected static class Entry<K>
+    {
+        public final K speaker;
+        public final Rectangle bounds = new Rectangle();
+
+        public Entry (K speaker) {
+            this.speaker = speaker;
+        }
+    }
+
+    /** The size of our grid cells. */
+    protected int _cellSize;
+
+    /** Our entries, keyed on the bubble they represent. */
+    protected Map<Object, Entry<K>> _entries = Maps.newIdentityHashMap();
+
+    /** The entries overlapping each (non-empty) grid cell. */
+    protected HashIntMap<List<Entry<K>>> _cells = new HashIntMap<List<Entry<K>>>();
+
+    /** The default size of our grid cells. */
+    protected static final int DEFAULT_CELL_SIZE = 64;
+
+    /** The maximum number of candidate locations to consider before giving up. */
+    protected static final int MAX_CANDIDATES = 512;
+}
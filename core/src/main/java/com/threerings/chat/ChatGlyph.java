@@ -27,8 +27,10 @@ import java.awt.Point;
 import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.awt.Shape;
+import java.awt.Transparency;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
+import java.awt.image.BufferedImage;
 
 import javax.swing.Icon;
 
@@ -239,10 +241,10 @@ public class ChatGlyph extends Animation
         if (alpha != 1f) {
             Composite ocomp = gfx.getComposite();
             gfx.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
-            render(gfx);
+            renderCached(gfx);
             gfx.setComposite(ocomp);
         } else {
-            render(gfx);
+            renderCached(gfx);
         }
     }
 
@@ -251,6 +253,45 @@ public class ChatGlyph extends Animation
         return _background;
     }
 
+    /**
+     * Renders the glyph by blitting a cached rendering of it, creating that rendering first if
+     * necessary. Our shape, label and icon all move in lockstep with our bounds, so the rendering
+     * remains valid until our appearance changes (see {@link #flushImage}).
+     */
+    protected void renderCached (Graphics2D gfx)
+    {
+        if (!_owner.isGlyphImagesCached()) {
+            render(gfx);
+            return;
+        }
+
+        ChatGlyphCache cache = _owner.getGlyphCache();
+        if (_image == null) {
+            _image = gfx.getDeviceConfiguration().createCompatibleImage(
+                _bounds.width, _bounds.height, Transparency.TRANSLUCENT);
+            Graphics2D igfx = _image.createGraphics();
+            try {
+                igfx.translate(-_bounds.x, -_bounds.y);
+                render(igfx);
+            } finally {
+                igfx.dispose();
+            }
+            cache.noteImageRendered(_bounds.width * _bounds.height * 4L);
+        } else {
+            cache.noteImageBlitted();
+        }
+        gfx.drawImage(_image, _bounds.x, _bounds.y, null);
+    }
+
+    /**
+     * Discards our cached rendering. This must be called whenever something changes our
+     * appearance other than our location or alpha.
+     */
+    protected void flushImage ()
+    {
+        _image = null;
+    }
+
     /**
      * The damn repaint manager expects 1 more pixel than the shape gives, so we manually resize.
      */
@@ -302,6 +343,9 @@ public class ChatGlyph extends Animation
     /** Our background color. */
     protected Color _background;
 
+    /** A cached rendering of this glyph, or null. */
+    protected BufferedImage _image;
+
     /** The initial alpha of all chat glyphs. */
     protected static final float ALPHA = .9f;
 }
@@ -0,0 +1,215 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.chat;
+
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+
+import com.samskivert.swing.Label;
+import com.samskivert.util.LRUHashMap;
+
+/**
+ * Caches the expensive bits of creating chat glyphs: laid out labels (which require font metrics
+ * and possibly several layout passes) and bubble shapes (which are built from many {@link Area}
+ * unions). Chat overlays consult this cache when creating glyphs, so a flurry of repeated
+ * messages, or the repeated creation of history subtitles as the history is scrolled, does not
+ * require relayout.
+ *
+ * <p> Cached labels are shared between glyphs and must therefore not be modified after they are
+ * laid out. Cached shapes are stored at the origin and copied into place on every lookup, as
+ * glyphs translate their shapes in place. Like the rest of the chat system, this cache is only
+ * to be used from the AWT thread.
+ */
+public class ChatGlyphCache
+{
+    /** Creates (and lays out) labels on a cache miss. */
+    public static interface LabelFactory
+    {
+        /** Creates and lays out a label for the supplied text, font and target width. */
+        public Label createLabel (String text, Font font, int width, int type);
+    }
+
+    /** Creates shapes on a cache miss. */
+    public static interface ShapeFactory
+    {
+        /** Creates a shape for the specified type of glyph bounded by the supplied rectangle. */
+        public Shape createShape (int type, Rectangle r);
+    }
+
+    /**
+     * Creates a glyph cache that will hold at most the specified number of labels and shapes.
+     */
+    public ChatGlyphCache (int maxLabels, int maxShapes)
+    {
+        _labels = new LRUHashMap<LabelKey, Label>(maxLabels);
+        _labels.setTracking(true);
+        _shapes = new LRUHashMap<ShapeKey, Area>(maxShapes);
+        _shapes.setTracking(true);
+    }
+
+    /**
+     * Returns a laid out label for the specified text, from the cache if possible.
+     *
+     * @param kind identifies the sort of label being created (a bubble label, a subtitle label),
+     * as each is laid out differently by its factory and must not share cache entries.
+     * @param type the chat type for which the label is being created, which is included in the
+     * cache key as different types may be laid out differently.
+     */
+    public Label getLabel (
+        String kind, String text, Font font, int width, int type, LabelFactory factory)
+    {
+        LabelKey key = new LabelKey(kind, text, font, width, type);
+        Label label = _labels.get(key);
+        if (label == null) {
+            label = factory.createLabel(text, font, width, type);
+            _labels.put(key, label);
+        }
+        return label;
+    }
+
+    /**
+     * Returns a freshly translated copy of the shape for the specified type of glyph bounded by
+     * the supplied rectangle, creating and caching the shape at the origin if needed.
+     */
+    public Area getShape (int type, Rectangle r, ShapeFactory factory)
+    {
+        ShapeKey key = new ShapeKey(type, r.width, r.height);
+        Area shape = _shapes.get(key);
+        if (shape == null) {
+            shape = new Area(factory.createShape(type, new Rectangle(0, 0, r.width, r.height)));
+            _shapes.put(key, shape);
+        }
+        Area copy = new Area(shape);
+        if (r.x != 0 || r.y != 0) {
+            copy.transform(AffineTransform.getTranslateInstance(r.x, r.y));
+        }
+        return copy;
+    }
+
+    /**
+     * Notes that a glyph rendered itself into a cached image of the specified size.
+     */
+    public void noteImageRendered (long bytes)
+    {
+        _imageRenders++;
+        _imageBytes += bytes;
+    }
+
+    /**
+     * Notes that a glyph painted itself by blitting a previously rendered image.
+     */
+    public void noteImageBlitted ()
+    {
+        _imageBlits++;
+    }
+
+    /**
+     * Clears out all cached labels and shapes.
+     */
+    public void clear ()
+    {
+        _labels.clear();
+        _shapes.clear();
+    }
+
+    /**
+     * Returns a summary of the cache's effectiveness, suitable for logging.
+     */
+    public String getStats ()
+    {
+        int[] leff = _labels.getTrackedEffectiveness();
+        int[] seff = _shapes.getTrackedEffectiveness();
+        return "[labels=" + _labels.size() + ", labelHits=" + leff[0] +
+            ", labelMisses=" + leff[1] + ", shapes=" + _shapes.size() + ", shapeHits=" + seff[0] +
+            ", shapeMisses=" + seff[1] + ", imageRenders=" + _imageRenders +
+            ", imageBlits=" + _imageBlits + ", imageRenderMem=" + (_imageBytes / 1024) + "k]";
+    }
+
+    @Override
+    public String toString ()
+    {
+        return getStats();
+    }
+
+    /** Identifies a laid out label. */
+    protected static class LabelKey
+    {
+        public LabelKey (String kind, String text, Font font, int width, int type) {
+            _kind = kind;
+            _text = text;
+            _font = font;
+            _width = width;
+            _type = type;
+        }
+
+        @Override
+        public boolean equals (Object other) {
+            LabelKey okey = (LabelKey)other;
+            return _width == okey._width && _type == okey._type && _kind.equals(okey._kind) &&
+                _text.equals(okey._text) && _font.equals(okey._font);
+        }
+
+        @Override
+        public int hashCode () {
+            int hash = (_kind.hashCode() * 31 + _text.hashCode()) * 31 + _font.hashCode();
+            return (hash * 31 + _width) * 31 + _type;
+        }
+
+        protected String _kind, _text;
+        protected Font _font;
+        protected int _width, _type;
+    }
+
+    /** Identifies a glyph shape. */
+    protected static class ShapeKey
+    {
+        public ShapeKey (int type, int width, int height) {
+            _type = type;
+            _width = width;
+            _height = height;
+        }
+
+        @Override
+        public boolean equals (Object other) {
+            ShapeKey okey = (ShapeKey)other;
+            return _type == okey._type && _width == okey._width && _height == okey._height;
+        }
+
+        @Override
+        public int hashCode () {
+            return (_type * 31 + _width) * 31 + _height;
+        }
+
+        protected int _type, _width, _height;
+    }
+
+    /** Our cached labels. */
+    protected LRUHashMap<LabelKey, Label> _labels;
+
+    /** Our cached shapes, positioned at the origin. */
+    protected LRUHashMap<ShapeKey, Area> _shapes;
+
+    /** Glyph image statistics: images rendered, images blitted and total bytes rendered. */
+    protected int _imageRenders, _imageBlits;
+    protected long _imageBytes;
+}
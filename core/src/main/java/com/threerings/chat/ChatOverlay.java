@@ -142,6 +142,32 @@ public abstract class ChatOverlay
     {
     }
 
+    /**
+     * Returns the cache used to avoid relaying out labels and rebuilding shapes when creating
+     * chat glyphs. Its statistics can be logged to gauge its effectiveness.
+     */
+    public ChatGlyphCache getGlyphCache ()
+    {
+        return _glyphCache;
+    }
+
+    /**
+     * Configures whether our glyphs render themselves into images which are then blitted when the
+     * glyphs are repainted (the default), or render themselves afresh every time they're painted.
+     */
+    public void setGlyphImagesCached (boolean cached)
+    {
+        _glyphImagesCached = cached;
+    }
+
+    /**
+     * Returns true if our glyphs should render themselves into cached images.
+     */
+    public boolean isGlyphImagesCached ()
+    {
+        return _glyphImagesCached;
+    }
+
     /**
      * Construct a chat overlay.
      */
@@ -199,4 +225,17 @@ public abstract class ChatOverlay
 
     /** Whether the chat glyphs are dimmed or not. */
     protected boolean _dimmed;
+
+    /** Caches laid out labels and glyph shapes. */
+    protected ChatGlyphCache _glyphCache =
+        new ChatGlyphCache(LABEL_CACHE_SIZE, SHAPE_CACHE_SIZE);
+
+    /** Whether our glyphs render themselves into cached images. */
+    protected boolean _glyphImagesCached = true;
+
+    /** The maximum number of laid out labels to cache. */
+    protected static final int LABEL_CACHE_SIZE = 256;
+
+    /** The maximum number of glyph shapes to cache. */
+    protected static final int SHAPE_CACHE_SIZE = 64;
 }
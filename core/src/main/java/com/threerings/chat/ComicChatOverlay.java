@@ -39,7 +39,6 @@ import javax.swing.JScrollBar;
 import com.google.common.collect.Lists;
 
 import com.samskivert.swing.Label;
-import com.samskivert.swing.util.SwingUtil;
 
 import com.threerings.util.MessageBundle;
 import com.threerings.util.Name;
@@ -109,6 +108,11 @@ public class ComicChatOverlay extends SubtitleChatOverlay
     {
         super.viewDidScroll(dx, dy);
         viewDidScroll(_bubbles, dx, dy);
+
+        // most bubbles scroll with the view and thus don't move, but update any that did
+        for (int ii = 0, nn = _bubbles.size(); ii < nn; ii++) {
+            updateBubbleIndex(_bubbles.get(ii));
+        }
     }
 
     @Override
@@ -125,6 +129,7 @@ public class ComicChatOverlay extends SubtitleChatOverlay
             BubbleGlyph rec = iter.next();
             if (rec.isSpeaker(speaker)) {
                 _target.abortAnimation(rec);
+                _bubbleIndex.remove(rec);
                 iter.remove();
             }
         }
@@ -146,6 +151,7 @@ public class ComicChatOverlay extends SubtitleChatOverlay
             ChatGlyph rec = iter.next();
             if (all || isPlaceOrientedType(rec.getType())) {
                 _target.abortAnimation(rec);
+                _bubbleIndex.remove(rec);
                 iter.remove();
             }
         }
@@ -271,8 +277,7 @@ public class ComicChatOverlay extends SubtitleChatOverlay
     protected boolean createBubble (
         Graphics2D gfx, int type, long timestamp, String text, Name speaker, Point speakerloc)
     {
-        Label label = layoutText(gfx, _logic.getFont(type), text);
-        label.setAlignment(Label.CENTER);
+        Label label = getBubbleLabel(gfx, type, text);
         gfx.dispose();
 
         // get the size of the new bubble
@@ -303,7 +308,7 @@ public class ComicChatOverlay extends SubtitleChatOverlay
         // (making sure we only put it in the area above the subtitles)
         Rectangle vbounds = new Rectangle(_target.getViewBounds());
         vbounds.height -= _subtitleHeight;
-        if (!SwingUtil.positionRect(placer, vbounds, getAvoidList(speaker))) {
+        if (!_bubbleIndex.positionRect(placer, vbounds, speaker, getProviderAvoidList(speaker))) {
             // we couldn't fit the bubble!
             return false;
         }
@@ -323,6 +328,7 @@ public class ComicChatOverlay extends SubtitleChatOverlay
                 int xadjust = dx - (ob.x - bigR.x) +
                     (placer.width - ob.width) / 2;
                 bub.translate(xadjust, dy);
+                updateBubbleIndex(bub);
             }
 
             // and position 'r' in the right place relative to 'placer'
@@ -330,7 +336,11 @@ public class ComicChatOverlay extends SubtitleChatOverlay
                           placer.y + placer.height - r.height);
         }
 
-        Shape shape = getBubbleShape(type, r);
+        Shape shape = _glyphCache.getShape(type, r, new ChatGlyphCache.ShapeFactory() {
+            public Shape createShape (int type, Rectangle r) {
+                return getBubbleShape(type, r);
+            }
+        });
         Shape full = shape;
 
         // if we have a tail, the full area should include that.
@@ -347,6 +357,7 @@ public class ComicChatOverlay extends SubtitleChatOverlay
             speaker, _logic.getOutlineColor(type));
         newbub.setDim(_dimmed);
         _bubbles.add(newbub);
+        updateBubbleIndex(newbub);
         _target.addAnimation(newbub);
 
         // and we need to dirty all the bubbles because they'll all be painted in slightly
@@ -705,11 +716,14 @@ public class ComicChatOverlay extends SubtitleChatOverlay
         if (oldbubs.size() >= MAX_BUBBLES_PER_USER) {
             BubbleGlyph bub = oldbubs.remove(0);
             _bubbles.remove(bub);
+            _bubbleIndex.remove(bub);
             _target.abortAnimation(bub);
 
             // or some other old bubble
         } else if (num >= MAX_BUBBLES) {
-            _target.abortAnimation(_bubbles.remove(0));
+            BubbleGlyph bub = _bubbles.remove(0);
+            _bubbleIndex.remove(bub);
+            _target.abortAnimation(bub);
         }
 
         // return the speaker's old bubbles
@@ -721,6 +735,32 @@ public class ComicChatOverlay extends SubtitleChatOverlay
     {
         super.glyphExpired(glyph);
         _bubbles.remove(glyph);
+        _bubbleIndex.remove(glyph);
+    }
+
+    /**
+     * Updates the territory claimed by the supplied bubble in our placement index.
+     */
+    protected void updateBubbleIndex (BubbleGlyph bub)
+    {
+        _bubbleIndex.update(bub, bub.getSpeaker(), bub.getBubbleTerritory().getBounds());
+    }
+
+    /**
+     * Returns a centered label for a bubble of the specified type, laying one out (via {@link
+     * #layoutText}) only if a suitable label is not in our glyph cache.
+     */
+    protected Label getBubbleLabel (final Graphics2D gfx, int type, String text)
+    {
+        int width = _target.getViewBounds().width - PAD * 2;
+        return _glyphCache.getLabel(BUBBLE_LABEL, text, _logic.getFont(type), width, type,
+            new ChatGlyphCache.LabelFactory() {
+                public Label createLabel (String text, Font font, int width, int type) {
+                    Label label = layoutText(gfx, font, text);
+                    label.setAlignment(Label.CENTER);
+                    return label;
+                }
+            });
     }
 
     /**
@@ -780,14 +820,11 @@ public class ComicChatOverlay extends SubtitleChatOverlay
      */
     protected List<Shape> getAvoidList (Name speaker)
     {
-        List<Shape> avoid = Lists.newArrayList();
+        List<Shape> avoid = getProviderAvoidList(speaker);
         if (_provider == null) {
             return avoid;
         }
 
-        // for now we don't accept low-priority avoids
-        _provider.getAvoidables(speaker, avoid, null);
-
         // add the existing chatbub non-tail areas from other speakers
         for (BubbleGlyph bub : _bubbles) {
             if (!bub.isSpeaker(speaker)) {
@@ -798,6 +835,21 @@ public class ComicChatOverlay extends SubtitleChatOverlay
         return avoid;
     }
 
+    /**
+     * Return a list of the areas provided by our {@link InfoProvider} that we should avoid while
+     * laying out a bubble for the specified speaker. Unlike {@link #getAvoidList}, this does not
+     * include other bubbles, which are avoided by way of our bubble index.
+     */
+    protected List<Shape> getProviderAvoidList (Name speaker)
+    {
+        List<Shape> avoid = Lists.newArrayList();
+        if (_provider != null) {
+            // for now we don't accept low-priority avoids
+            _provider.getAvoidables(speaker, avoid, null);
+        }
+        return avoid;
+    }
+
     @Override
     protected int getDisplayDurationOffset ()
     {
@@ -825,7 +877,10 @@ public class ComicChatOverlay extends SubtitleChatOverlay
         }
 
         public void setAgeLevel (int agelevel) {
-            _agelevel = agelevel;
+            if (_agelevel != agelevel) {
+                _agelevel = agelevel;
+                flushImage();
+            }
             invalidate();
         }
 
@@ -863,6 +918,13 @@ public class ComicChatOverlay extends SubtitleChatOverlay
             return _sansTail.getBounds();
         }
 
+        /**
+         * Returns the speaker of this bubble, or null.
+         */
+        public Name getSpeaker () {
+            return _speaker;
+        }
+
         /**
          * Is the specified player the speaker of this bubble?
          */
@@ -878,6 +940,7 @@ public class ComicChatOverlay extends SubtitleChatOverlay
             _shape = _sansTail;
             _bounds = _shape.getBounds();
             jiggleBounds();
+            flushImage();
             invalidate();
         }
 
@@ -897,6 +960,9 @@ public class ComicChatOverlay extends SubtitleChatOverlay
     /** The currently displayed bubble areas. */
     protected List<BubbleGlyph> _bubbles = Lists.newArrayList();
 
+    /** Indexes the territory claimed by our bubbles for fast placement of new bubbles. */
+    protected BubbleIndex<Name> _bubbleIndex = new BubbleIndex<Name>();
+
     /** The minimum width of a bubble's label before we consider splitting lines. */
     protected static final int MINIMUM_SPLIT_WIDTH = 90;
 
@@ -918,6 +984,9 @@ public class ComicChatOverlay extends SubtitleChatOverlay
     /** The maximum number of bubbles to show per user. */
     protected static final int MAX_BUBBLES_PER_USER = 3;
 
+    /** Identifies our centered bubble labels in the glyph cache. */
+    protected static final String BUBBLE_LABEL = "bubble";
+
     /** The background colors to use when drawing bubbles. */
     protected static final Color[] BACKGROUNDS = new Color[MAX_BUBBLES];
     static {
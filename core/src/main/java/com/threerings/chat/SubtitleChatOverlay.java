@@ -23,6 +23,7 @@ import java.util.Iterator;
 import java.util.List;
 
 import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
@@ -637,13 +638,20 @@ public class SubtitleChatOverlay extends ChatOverlay
         }
 
         Rectangle vbounds = _target.getViewBounds();
-        Label label = _logic.createLabel(text);
-        label.setFont(_logic.getFont(type));
         int paddedIconWidth = (icon == null) ? 0 : is.width + ICON_PADDING;
-        label.setTargetWidth(
-            vbounds.width - indent - paddedIconWidth -
-            2 * (_subtitleXSpacing + Math.max(UIManager.getInt("ScrollBar.width"), PAD)));
-        label.layout(gfx);
+        int width = vbounds.width - indent - paddedIconWidth -
+            2 * (_subtitleXSpacing + Math.max(UIManager.getInt("ScrollBar.width"), PAD));
+        final Graphics2D lgfx = gfx;
+        Label label = _glyphCache.getLabel(SUBTITLE_LABEL, text, _logic.getFont(type), width, type,
+            new ChatGlyphCache.LabelFactory() {
+                public Label createLabel (String text, Font font, int width, int type) {
+                    Label label = _logic.createLabel(text);
+                    label.setFont(font);
+                    label.setTargetWidth(width);
+                    label.layout(lgfx);
+                    return label;
+                }
+            });
         gfx.dispose();
 
         Dimension ls = label.getSize();
@@ -829,6 +837,9 @@ public class SubtitleChatOverlay extends ChatOverlay
     /** The amount of space to insert between the icon and the text. */
     protected static final int ICON_PADDING = 4;
 
+    /** Identifies our subtitle labels in the glyph cache. */
+    protected static final String SUBTITLE_LABEL = "subtitle";
+
     /** The padding in each direction around the text to the edges of a chat 'bubble'. */
     protected static final int PAD = ChatLogic.PAD;
 }
@@ -35,6 +35,7 @@ import com.samskivert.util.StringUtil;
 
 import com.samskivert.swing.RuntimeAdjust;
 
+import com.threerings.media.perf.FrameMetrics;
 import com.threerings.media.timer.CalibratingTimer;
 import com.threerings.media.timer.MediaTimer;
 import com.threerings.media.timer.MillisTimer;
@@ -382,11 +383,22 @@ public abstract class FrameManager
         // if our frame is not showing (or is impossibly sized), don't try rendering anything
         if (_window.isShowing() && _window.getWidth() > 0 && _window.getHeight() > 0) {
             // tick our participants
-            tickParticipants(tickStamp);
+            long pstart = TICK_SPAN.start();
+            try {
+                tickParticipants(tickStamp);
+            } finally {
+                TICK_SPAN.end(pstart);
+            }
             paint = _timer.getElapsedMicros();
             // repaint our participants and components
-            paint(tickStamp);
+            pstart = PAINT_SPAN.start();
+            try {
+                paint(tickStamp);
+            } finally {
+                PAINT_SPAN.end(pstart);
+            }
         }
+        FrameMetrics.frameEnded();
 
         if (_perfDebug.getValue()) {
             long end = _timer.getElapsedMicros();
@@ -539,7 +551,12 @@ public abstract class FrameManager
 
         // if we have a media overlay, give it a chance to paint on top of everything
         if (_overlay != null) {
-            pcomp |= _overlay.paint(gfx);
+            long ostart = OVERLAY_SPAN.start();
+            try {
+                pcomp |= _overlay.paint(gfx);
+            } finally {
+                OVERLAY_SPAN.end(ostart);
+            }
         }
 
         // let the caller know if anybody painted anything
@@ -789,6 +806,15 @@ public abstract class FrameManager
         "Toggles frames per second and dirty regions per tick rendering.",
         "narya.media.fps_display", MediaPrefs.config, false);
 
+    /** Measures the ticking of our frame participants. */
+    protected static final FrameMetrics.Span TICK_SPAN = FrameMetrics.span("frame.tick");
+
+    /** Measures the painting of our frame participants and components. */
+    protected static final FrameMetrics.Span PAINT_SPAN = FrameMetrics.span("frame.paint");
+
+    /** Measures the painting of our media overlay. */
+    protected static final FrameMetrics.Span OVERLAY_SPAN = FrameMetrics.span("paint.overlay");
+
     /** The name of the high-performance timer class we attempt to load. */
     protected static final String[] PERF_TIMERS = {
         "com.threerings.media.timer.NanoTimer",
@@ -43,6 +43,7 @@ import com.samskivert.swing.event.CommandEvent;
 
 import com.threerings.media.animation.Animation;
 import com.threerings.media.animation.AnimationManager;
+import com.threerings.media.perf.FrameMetrics;
 import com.threerings.media.sprite.Sprite;
 import com.threerings.media.sprite.SpriteManager;
 import com.threerings.media.sprite.action.ActionSprite;
@@ -547,7 +548,12 @@ public class MediaPanel extends JComponent
      */
     protected void paintBits (Graphics2D gfx, int layer, Rectangle dirty)
     {
-        _metamgr.paintMedia(gfx, layer, dirty);
+        long start = SPRITE_SPAN.start();
+        try {
+            _metamgr.paintMedia(gfx, layer, dirty);
+        } finally {
+            SPRITE_SPAN.end(start);
+        }
     }
 
     /**
@@ -676,4 +682,7 @@ public class MediaPanel extends JComponent
     /** Anyone registered as someone who might obscure the media panel (and thus require extra
      * redrawing. */
     protected ArrayList<Obscurer> _obscurerList;
+
+    /** Measures the painting of sprites and animations. */
+    protected static final FrameMetrics.Span SPRITE_SPAN = FrameMetrics.span("paint.sprites");
 }
@@ -26,6 +26,8 @@ import java.awt.Rectangle;
 
 import com.google.common.collect.Lists;
 
+import com.threerings.media.perf.FrameMetrics;
+
 import static com.threerings.media.Log.log;
 
 /**
@@ -129,31 +131,39 @@ public class RegionManager
      */
     public Rectangle[] getDirtyRegions ()
     {
-        List<Rectangle> merged = Lists.newArrayList();
-
-        for (int ii = _dirty.size() - 1; ii >= 0; ii--) {
-            // pop the next rectangle from the dirty list
-            Rectangle mr = _dirty.remove(ii);
-
-            // merge in any overlapping rectangles
-            for (int jj = ii - 1; jj >= 0; jj--) {
-                Rectangle r = _dirty.get(jj);
-                if (mr.intersects(r)) {
-                    // remove the overlapping rectangle from the list
-                    _dirty.remove(jj);
-                    ii--;
-                    // grow the merged dirty rectangle
-                    mr.add(r);
+        long start = MERGE_SPAN.start();
+        try {
+            List<Rectangle> merged = Lists.newArrayList();
+
+            for (int ii = _dirty.size() - 1; ii >= 0; ii--) {
+                // pop the next rectangle from the dirty list
+                Rectangle mr = _dirty.remove(ii);
+
+                // merge in any overlapping rectangles
+                for (int jj = ii - 1; jj >= 0; jj--) {
+                    Rectangle r = _dirty.get(jj);
+                    if (mr.intersects(r)) {
+                        // remove the overlapping rectangle from the list
+                        _dirty.remove(jj);
+                        ii--;
+                        // grow the merged dirty rectangle
+                        mr.add(r);
+                    }
                 }
+
+                // add the merged rectangle to the list
+                merged.add(mr);
             }
 
-            // add the merged rectangle to the list
-            merged.add(mr);
+            return merged.toArray(new Rectangle[merged.size()]);
+        } finally {
+            MERGE_SPAN.end(start);
         }
-
-        return merged.toArray(new Rectangle[merged.size()]);
     }
 
     /** A list of dirty rectangles. */
     protected List<Rectangle> _dirty = Lists.newArrayList();
+
+    /** Measures the merging of dirty regions. */
+    protected static final FrameMetrics.Span MERGE_SPAN = FrameMetrics.span("paint.dirty_merge");
 }
@@ -0,0 +1,211 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.image;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static com.threerings.media.Log.log;
+
+/**
+ * A mirage whose prepared image lives in a region of an {@link ImageAtlas} page rather than in an
+ * image of its own. The region is allocated when the mirage is first painted and, if the page is
+ * evicted, reallocated (and the image re-rendered from its source) the next time it is painted. If
+ * the image manager stops using an atlas, the mirage falls back to an image of its own.
+ *
+ * <p> These objects are never created directly, but always obtained from the {@link
+ * ImageManager}.
+ */
+public class AtlasMirage implements Mirage
+{
+    /**
+     * Creates a mirage with the supplied regeneration information, whose region will be allocated
+     * in the supplied atlas.
+     */
+    protected AtlasMirage (ImageManager imgr, ImageAtlas atlas, ImageManager.ImageKey source,
+                           Rectangle bounds, Colorization[] zations)
+    {
+        _imgr = imgr;
+        _atlas = atlas;
+        _source = source;
+        _bounds = bounds;
+        _zations = zations;
+    }
+
+    // documentation inherited from interface
+    public void paint (Graphics2D gfx, int x, int y)
+    {
+        Mirage fallback = checkAtlas();
+        if (fallback != null) {
+            fallback.paint(gfx, x, y);
+            return;
+        }
+        ImageAtlas.Region region = _region;
+        if (region == null || !region.paint(gfx, x, y)) {
+            // we've not yet been placed or our page was evicted, so we need to render ourselves
+            // into a new region
+            allocateRegion();
+            region = _region;
+            if (region != null) {
+                region.paint(gfx, x, y);
+            }
+        }
+    }
+
+    // documentation inherited from interface
+    public int getWidth ()
+    {
+        return _bounds.width;
+    }
+
+    // documentation inherited from interface
+    public int getHeight ()
+    {
+        return _bounds.height;
+    }
+
+    // documentation inherited from interface
+    public boolean hitTest (int x, int y)
+    {
+        HitMask mask = _mask;
+        if (mask == null) {
+            BufferedImage snapshot = getSnapshot();
+            if (snapshot == null) {
+                return false;
+            }
+            _mask = mask = HitMask.create(snapshot);
+        }
+        return mask.hitTest(x, y);
+    }
+
+    // documentation inherited from interface
+    public BufferedImage getSnapshot ()
+    {
+        Mirage fallback = checkAtlas();
+        if (fallback != null) {
+            return fallback.getSnapshot();
+        }
+        ImageAtlas.Placement p = getPlacement();
+        return (p == null) ? null : p.image.getSubimage(p.x, p.y, _bounds.width, _bounds.height);
+    }
+
+    // documentation inherited from interface
+    public long getEstimatedMemoryUsage ()
+    {
+        // we account only for our share of our page
+        HitMask mask = _mask;
+        Mirage fallback = _fallback;
+        if (fallback != null) {
+            return fallback.getEstimatedMemoryUsage() +
+                ((mask == null) ? 0 : mask.getEstimatedMemoryUsage());
+        }
+        return (long)_bounds.width * _bounds.height * 4 +
+            ((mask == null) ? 0 : mask.getEstimatedMemoryUsage());
+    }
+
+    @Override
+    public String toString ()
+    {
+        return "[key=" + _source + ", bounds=" + _bounds + ", region=" + _region + "]";
+    }
+
+    /**
+     * Checks that our atlas is still the one in use by our image manager, dropping our region if
+     * it is not (the old atlas having been cleared).
+     *
+     * @return the mirage to which we delegate if our manager no longer uses an atlas, or null if
+     * we are displayed from a region of the atlas.
+     */
+    protected Mirage checkAtlas ()
+    {
+        ImageAtlas atlas = _imgr.getAtlas();
+        if (atlas != _atlas) {
+            _atlas = atlas;
+            _region = null;
+            _fallback = (atlas == null) ?
+                new CachedVolatileMirage(_imgr, _source, _bounds, _zations) : null;
+        }
+        return _fallback;
+    }
+
+    /**
+     * Returns our current placement, reallocating our region if it has been evicted.
+     */
+    protected ImageAtlas.Placement getPlacement ()
+    {
+        ImageAtlas.Region region = _region;
+        ImageAtlas.Placement p = (region == null) ? null : region.getPlacement();
+        if (p == null) {
+            allocateRegion();
+            p = (_region == null) ? null : _region.getPlacement();
+        }
+        return p;
+    }
+
+    /**
+     * Renders our source image into a newly allocated atlas region.
+     */
+    protected void allocateRegion ()
+    {
+        ImageAtlas atlas = _atlas;
+        if (atlas == null) {
+            return;
+        }
+        try {
+            BufferedImage source = _imgr.getImage(_source, _zations);
+            if (source == null) {
+                return;
+            }
+            // our page must be of the same transparency as our source, so that a bitmask source
+            // is not blended (and an opaque one not given an alpha channel) when painted
+            _region = atlas.allocate(this, source.getSubimage(
+                _bounds.x, _bounds.y, _bounds.width, _bounds.height),
+                source.getColorModel().getTransparency());
+        } catch (Exception e) {
+            log.warning("Failure allocating atlas region " + this + ".", e);
+        }
+    }
+
+    /** The image manager from which we obtain our source image. */
+    protected ImageManager _imgr;
+
+    /** The atlas in which our image resides. */
+    protected volatile ImageAtlas _atlas;
+
+    /** The key that identifies our source image. */
+    protected ImageManager.ImageKey _source;
+
+    /** The bounds of our image within our source image. */
+    protected Rectangle _bounds;
+
+    /** Optional colorizations that are applied to our source image. */
+    protected Colorization[] _zations;
+
+    /** Our region of the atlas, or null if we have not been able to allocate one. */
+    protected volatile ImageAtlas.Region _region;
+
+    /** The mirage to which we delegate if our image manager stops using an atlas, or null. */
+    protected volatile Mirage _fallback;
+
+    /** The mask against which we hit test, created on first use (and retained across page
+     * evictions, as our image does not change). */
+    protected HitMask _mask;
+}
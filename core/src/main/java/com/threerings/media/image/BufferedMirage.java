@@ -64,14 +64,19 @@ public class BufferedMirage implements Mirage
     // documentation inherited from interface
     public boolean hitTest (int x, int y)
     {
-        return ImageUtil.hitTest(_image, x, y);
+        HitMask mask = _mask;
+        if (mask == null) {
+            _mask = mask = HitMask.create(_image);
+        }
+        return mask.hitTest(x, y);
     }
 
     // documentation inherited from interface
     public long getEstimatedMemoryUsage ()
     {
+        HitMask mask = _mask;
         return (long)(ImageUtil.getEstimatedMemoryUsage(_image.getRaster()) *
-                _percentageOfDataBuffer);
+                _percentageOfDataBuffer) + ((mask == null) ? 0 : mask.getEstimatedMemoryUsage());
     }
 
     // documentation inherited from interface
@@ -83,4 +88,7 @@ public class BufferedMirage implements Mirage
     protected float _percentageOfDataBuffer;
 
     protected BufferedImage _image;
+
+    /** The mask against which we hit test, created on first use. */
+    protected HitMask _mask;
 }
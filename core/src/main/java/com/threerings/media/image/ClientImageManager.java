@@ -68,6 +68,13 @@ public class ClientImageManager extends ImageManager
         return _runCacheSize;
     }
 
+    @Override
+    public void setUseAtlas (boolean useAtlas)
+    {
+        _atlasConfigured = true;
+        super.setUseAtlas(useAtlas);
+    }
+
     @Override
     public Mirage getMirage (ImageKey key, Rectangle bounds, Colorization[] zations)
     {
@@ -93,12 +100,27 @@ public class ClientImageManager extends ImageManager
         if (_runBlank.getValue()) {
             return new BlankMirage(bounds.width, bounds.height);
         } else if (_runPrepareImages) {
-            return new CachedVolatileMirage(this, key, bounds, zations);
+            return createPreparedMirage(key, bounds, zations);
         } else {
             return new BufferedMirage(src, percentageOfDataBuffer);
         }
     }
 
+    @Override
+    protected Mirage createPreparedMirage (
+        ImageKey key, Rectangle bounds, Colorization[] zations)
+    {
+        // our atlas is configured when the first prepared mirage is needed rather than when we
+        // are constructed, unless we were explicitly configured before then
+        if (!_atlasConfigured) {
+            setUseAtlas(_useAtlas.getValue());
+        }
+        return super.createPreparedMirage(key, bounds, zations);
+    }
+
+    /** Whether our use of an image atlas has been configured. */
+    protected volatile boolean _atlasConfigured;
+
     /** Register our image cache size with the runtime adjustments framework. */
     protected static RuntimeAdjust.IntAdjust _cacheSize = new RuntimeAdjust.IntAdjust(
         "Size (in kb of memory used) of the image manager LRU cache [requires restart]",
@@ -120,6 +142,11 @@ public class ClientImageManager extends ImageManager
      */
     protected static boolean _runPrepareImages = _prepareImages.getValue();
 
+    /** Controls whether or not prepared images share the pages of an image atlas. */
+    protected static RuntimeAdjust.BooleanAdjust _useAtlas = new RuntimeAdjust.BooleanAdjust(
+        "Cause image manager to pack prepared images into shared atlas pages [requires restart].",
+        "narya.media.image.atlas", MediaPrefs.config, false);
+
     /** A debug toggle for running entirely without rendering images. */
     protected static RuntimeAdjust.BooleanAdjust _runBlank = new RuntimeAdjust.BooleanAdjust(
         "Cause image manager to return blank images.",
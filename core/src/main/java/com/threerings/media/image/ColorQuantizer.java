@@ -0,0 +1,269 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.image;
+
+import java.util.List;
+import java.util.Map;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.threerings.resource.FastImageIO;
+
+/**
+ * Converts true-color images into 8-bit indexed images with at most 256 colors, which can be
+ * stored using {@link FastImageIO} and recolored. Images with no more colors than that are
+ * converted exactly; otherwise an optimal palette is chosen via {@link OctreeQuantizer}.
+ *
+ * <p> The colors matching each colorization class (as would be recolored by {@link
+ * ImageUtil#recolorImage(BufferedImage,Colorization[])}) are quantized separately from the colors
+ * matching other classes or none, and every palette entry is guaranteed to match the same class as
+ * the colors it replaces, so recoloring a quantized image affects the same pixels as it would have
+ * in the original.
+ *
+ * <p> This class is safe to use from multiple threads.
+ */
+public class ColorQuantizer
+{
+    /**
+     * Creates a quantizer that preserves the colorization classes in the supplied pository.
+     */
+    public ColorQuantizer (ColorPository pository)
+    {
+        List<Colorization> classes = Lists.newArrayList();
+        for (ColorPository.ClassRecord crec : pository.getClasses()) {
+            classes.add(new Colorization(crec.classId, crec, new float[3]));
+        }
+        _classes = classes.toArray(new Colorization[classes.size()]);
+    }
+
+    /**
+     * Creates a quantizer that preserves the source ranges of the supplied colorizations.
+     */
+    public ColorQuantizer (Colorization[] classes)
+    {
+        _classes = classes;
+    }
+
+    /**
+     * Returns an 8-bit indexed version of the supplied image, or the image itself if it is already
+     * in that form. Returns null if the image cannot be represented with an indexed color model
+     * because it has translucent (neither opaque nor fully transparent) pixels.
+     */
+    public BufferedImage quantize (BufferedImage image)
+    {
+        if (image.getColorModel() instanceof IndexColorModel &&
+            image.getColorModel().getPixelSize() == 8 && FastImageIO.canWrite(image)) {
+            return image;
+        }
+
+        // tally up the distinct opaque colors (in order of appearance)
+        int width = image.getWidth(), height = image.getHeight();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        Map<Integer, int[]> counts = Maps.newLinkedHashMap();
+        boolean trans = false;
+        for (int pixel : argb) {
+            int alpha = pixel >>> 24;
+            if (alpha == 0) {
+                trans = true;
+            } else if (alpha != 0xFF) {
+                return null;
+            } else {
+                int[] count = counts.get(pixel);
+                if (count == null) {
+                    counts.put(pixel, count = new int[1]);
+                }
+                count[0]++;
+            }
+        }
+
+        // choose our palette and map each color to its entry
+        List<Integer> palette = Lists.newArrayList();
+        Map<Integer, Integer> indices = Maps.newHashMap();
+        int budget = MAX_COLORS - (trans ? 1 : 0);
+        if (counts.size() <= budget) {
+            for (Integer color : counts.keySet()) {
+                indices.put(color, palette.size());
+                palette.add(color);
+            }
+        } else {
+            quantize(counts, budget, palette, indices);
+        }
+
+        // create our indexed image, with the transparent color (if any) in the first entry
+        int offset = trans ? 1 : 0;
+        int[] cmap = new int[palette.size() + offset];
+        for (int ii = 0; ii < palette.size(); ii++) {
+            cmap[ii + offset] = palette.get(ii);
+        }
+        IndexColorModel icm = new IndexColorModel(
+            8, cmap.length, cmap, 0, true, trans ? 0 : -1, DataBuffer.TYPE_BYTE);
+        BufferedImage quantized = new BufferedImage(
+            width, height, BufferedImage.TYPE_BYTE_INDEXED, icm);
+        byte[] data = ((DataBufferByte)quantized.getRaster().getDataBuffer()).getData();
+        for (int ii = 0; ii < argb.length; ii++) {
+            data[ii] = (argb[ii] >>> 24 == 0) ? 0 : (byte)(indices.get(argb[ii]) + offset);
+        }
+        return quantized;
+    }
+
+    /**
+     * Chooses a palette of at most <code>budget</code> entries for the supplied colors (and their
+     * pixel counts), quantizing the colors of each colorization class separately.
+     */
+    protected void quantize (Map<Integer, int[]> counts, int budget, List<Integer> palette,
+                             Map<Integer, Integer> indices)
+    {
+        // partition the colors by the colorization class that matches them (the last partition
+        // holding those that match no class)
+        int pcount = _classes.length + 1;
+        List<Map<Integer, int[]>> parts = Lists.newArrayList();
+        for (int ii = 0; ii < pcount; ii++) {
+            parts.add(Maps.<Integer, int[]>newLinkedHashMap());
+        }
+        long[] pixels = new long[pcount];
+        long total = 0;
+        for (Map.Entry<Integer, int[]> entry : counts.entrySet()) {
+            int part = classify(entry.getKey());
+            parts.get(part).put(entry.getKey(), entry.getValue());
+            pixels[part] += entry.getValue()[0];
+            total += entry.getValue()[0];
+        }
+
+        // divvy up our palette between the partitions in proportion to their pixel counts, making
+        // sure that every partition gets at least one entry and none gets more than it needs
+        int[] alloc = new int[pcount];
+        int used = 0;
+        for (int ii = 0; ii < pcount; ii++) {
+            int colors = parts.get(ii).size();
+            if (colors > 0) {
+                alloc[ii] = (int)Math.max(1, Math.min(colors, budget * pixels[ii] / total));
+                used += alloc[ii];
+            }
+        }
+        while (used > budget) {
+            int most = 0;
+            for (int ii = 1; ii < pcount; ii++) {
+                most = (alloc[ii] > alloc[most]) ? ii : most;
+            }
+            alloc[most]--;
+            used--;
+        }
+        while (used < budget) {
+            int best = -1;
+            for (int ii = 0; ii < pcount; ii++) {
+                if (alloc[ii] < parts.get(ii).size() && (best == -1 ||
+                        pixels[ii] * alloc[best] > pixels[best] * alloc[ii])) {
+                    best = ii;
+                }
+            }
+            if (best == -1) {
+                break;
+            }
+            alloc[best]++;
+            used++;
+        }
+
+        for (int ii = 0; ii < pcount; ii++) {
+            Map<Integer, int[]> part = parts.get(ii);
+            if (part.isEmpty()) {
+                continue;
+            }
+            int base = palette.size();
+            if (part.size() <= alloc[ii]) {
+                for (Integer color : part.keySet()) {
+                    indices.put(color, palette.size());
+                    palette.add(color);
+                }
+                continue;
+            }
+
+            // quantize this partition's colors, weighted by the number of pixels using each
+            int[] colors = new int[part.size()], ccounts = new int[colors.length];
+            int pos = 0;
+            for (Map.Entry<Integer, int[]> entry : part.entrySet()) {
+                colors[pos] = entry.getKey();
+                ccounts[pos++] = entry.getValue()[0];
+            }
+            int[] cindices = new int[colors.length];
+            int[] cmap = OctreeQuantizer.quantize(colors, ccounts, alloc[ii], cindices);
+            for (int cc = 0; cc < colors.length; cc++) {
+                indices.put(colors[cc], base + cindices[cc]);
+            }
+
+            // the mean of a set of colors may fall outside of the class that matches them, in
+            // which case we use the closest of those colors instead
+            for (int cc = 0; cc < cmap.length; cc++) {
+                int color = cmap[cc] | 0xFF000000;
+                if (classify(color) != ii) {
+                    color = closest(color, part.keySet());
+                }
+                palette.add(color);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first of our classes that matches the supplied color, or the
+     * number of classes if none match.
+     */
+    protected int classify (int color)
+    {
+        float[] hsv = Color.RGBtoHSB((color >> 16) & 0xFF, (color >> 8) & 0xFF, color & 0xFF, null);
+        int[] fhsv = Colorization.toFixedHSV(hsv, new int[3]);
+        for (int ii = 0; ii < _classes.length; ii++) {
+            if (_classes[ii].matches(hsv, fhsv)) {
+                return ii;
+            }
+        }
+        return _classes.length;
+    }
+
+    /**
+     * Returns the color in the supplied set that is closest to the given color.
+     */
+    protected static int closest (int color, Iterable<Integer> colors)
+    {
+        int best = color, bdist = Integer.MAX_VALUE;
+        for (int candidate : colors) {
+            int dr = ((color >> 16) & 0xFF) - ((candidate >> 16) & 0xFF);
+            int dg = ((color >> 8) & 0xFF) - ((candidate >> 8) & 0xFF);
+            int db = (color & 0xFF) - (candidate & 0xFF);
+            int dist = dr*dr + dg*dg + db*db;
+            if (dist < bdist) {
+                best = candidate;
+                bdist = dist;
+            }
+        }
+        return best;
+    }
+
+    /** The colorization classes whose ranges we preserve. */
+    protected Colorization[] _classes;
+
+    /** The maximum number of entries in our palettes. */
+    protected static final int MAX_COLORS = 256;
+}
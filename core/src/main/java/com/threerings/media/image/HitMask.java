@@ -0,0 +1,123 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.image;
+
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * A compact (one bit per pixel) record of which pixels of an image are non-transparent, used to
+ * hit test mirages without reading back their (possibly accelerated) image data on every query.
+ * Opaque images need no bits at all.
+ */
+public class HitMask
+{
+    /**
+     * Creates a mask from the supplied image, in which a pixel is a hit if it is not fully
+     * transparent (matching {@link ImageUtil#hitTest}).
+     */
+    public static HitMask create (BufferedImage image)
+    {
+        int width = image.getWidth(), height = image.getHeight();
+        if (image.getColorModel().getTransparency() == Transparency.OPAQUE) {
+            return new HitMask(width, height, null);
+        }
+
+        int stride = (width + 63) >> 6;
+        long[] bits = new long[stride * height];
+        ImageUtil.PixelReader reader = new ImageUtil.PixelReader(image);
+        int[] row = new int[width];
+        for (int yy = 0; yy < height; yy++) {
+            reader.read(yy, row);
+            setRow(bits, yy * stride, row, width);
+        }
+        return new HitMask(width, height, bits);
+    }
+
+    /**
+     * Returns true if the specified pixel is non-transparent, false if it is transparent or
+     * outside the bounds of the mask.
+     */
+    public boolean hitTest (int x, int y)
+    {
+        if (x < 0 || y < 0 || x >= _width || y >= _height) {
+            return false;
+        }
+        return (_bits == null) ||
+            (_bits[y * _stride + (x >> 6)] & (1L << (x & 63))) != 0;
+    }
+
+    /**
+     * Returns the width of the mask.
+     */
+    public int getWidth ()
+    {
+        return _width;
+    }
+
+    /**
+     * Returns the height of the mask.
+     */
+    public int getHeight ()
+    {
+        return _height;
+    }
+
+    /**
+     * Returns the estimated memory used by this mask.
+     */
+    public long getEstimatedMemoryUsage ()
+    {
+        return OVERHEAD + ((_bits == null) ? 0 : 8L * _bits.length);
+    }
+
+    protected HitMask (int width, int height, long[] bits)
+    {
+        _width = width;
+        _height = height;
+        _stride = (width + 63) >> 6;
+        _bits = bits;
+    }
+
+    /**
+     * Sets the bits of a row of the mask from a row of ARGB pixels.
+     */
+    protected static void setRow (long[] bits, int bidx, int[] argb, int width)
+    {
+        for (int xx = 0; xx < width; xx += 64) {
+            long word = 0L;
+            for (int bb = 0, end = Math.min(64, width - xx); bb < end; bb++) {
+                if ((argb[xx + bb] >>> 24) != 0) {
+                    word |= (1L << bb);
+                }
+            }
+            bits[bidx++] = word;
+        }
+    }
+
+    /** Our dimensions and the number of words in each row of our mask. */
+    protected int _width, _height, _stride;
+
+    /** Our mask bits, row by row, or null if we're entirely opaque. */
+    protected long[] _bits;
+
+    /** Our estimate of the size of a mask exclusive of its bits. */
+    protected static final int OVERHEAD = 40;
+}
@@ -0,0 +1,536 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.image;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import com.google.common.collect.Lists;
+
+import com.threerings.media.perf.FrameMetrics;
+
+import static com.threerings.media.Log.log;
+
+/**
+ * Packs many small prepared images (generally tiles) into a few large shared pages, so that a
+ * scene made up of thousands of tiles does not require thousands of separately allocated images.
+ * Images are packed into pages of like transparency using a skyline (bottom-left) packer.
+ *
+ * <p> Each allocated {@link Region} is weakly tied to an owner (generally the mirage that displays
+ * it); when the owner is collected, its region is freed. Freed space is not immediately reused,
+ * but a page that becomes sparse is compacted by repacking its live regions into a fresh image.
+ * The total size of the pages is held within a budget by evicting the least recently painted page
+ * when a new page is needed; owners of evicted regions must reallocate them (see
+ * {@link Region#getPlacement}).
+ *
+ * <p> Allocation and freeing are synchronized; painting a region requires no locking.
+ */
+public class ImageAtlas
+{
+    /** The location of a region within a page image. Placements are immutable; a region that is
+     * moved (by compaction) is given a new placement. */
+    public static class Placement
+    {
+        /** The page image that contains the region. */
+        public final BufferedImage image;
+
+        /** The location of the region in the page image. */
+        public final int x, y;
+
+        public Placement (BufferedImage image, int x, int y) {
+            this.image = image;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /** A rectangular region of a page allocated to an owner. */
+    public static class Region extends WeakReference<Object>
+    {
+        /** The dimensions of the region. */
+        public final int width, height;
+
+        /**
+         * Returns the current placement of this region, or null if its page has been evicted, in
+         * which case the region must be reallocated.
+         */
+        public Placement getPlacement () {
+            return _placement;
+        }
+
+        /**
+         * Paints this region at the specified location, returning false if it has been evicted
+         * (in which case nothing is painted).
+         */
+        public boolean paint (Graphics2D gfx, int x, int y) {
+            Placement p = _placement;
+            Page page = _page;
+            if (p == null || page == null) {
+                return false;
+            }
+            gfx.drawImage(p.image, x, y, x + width, y + height,
+                          p.x, p.y, p.x + width, p.y + height, null);
+            page.lastUsed = ++_paints;
+            return true;
+        }
+
+        protected Region (Object owner, ReferenceQueue<Object> queue, int width, int height) {
+            super(owner, queue);
+            this.width = width;
+            this.height = height;
+        }
+
+        protected volatile Page _page;
+        protected volatile Placement _placement;
+    }
+
+    /**
+     * Packs rectangles into a fixed size area using the skyline bottom-left heuristic: each
+     * rectangle is placed at the lowest (and then leftmost) position at which it fits atop the
+     * skyline formed by the rectangles placed so far.
+     */
+    public static class Skyline
+    {
+        public Skyline (int width, int height)
+        {
+            _width = width;
+            _height = height;
+            _xs[0] = 0;
+            _ys[0] = 0;
+            _ws[0] = width;
+            _count = 1;
+        }
+
+        /**
+         * Places a rectangle of the specified size, returning its location packed into a long
+         * (x in the high 32 bits, y in the low), or -1 if it does not fit.
+         */
+        public long insert (int width, int height)
+        {
+            int best = -1, bestY = Integer.MAX_VALUE, bestX = 0;
+            for (int ii = 0; ii < _count; ii++) {
+                int x = _xs[ii];
+                if (x + width > _width) {
+                    break;
+                }
+                // find the height of the skyline across the span of the rectangle
+                int y = 0, remain = width;
+                for (int jj = ii; remain > 0; jj++) {
+                    y = Math.max(y, _ys[jj]);
+                    remain -= _ws[jj];
+                }
+                if (y + height <= _height && y < bestY) {
+                    best = ii;
+                    bestY = y;
+                    bestX = x;
+                }
+            }
+            if (best < 0) {
+                return -1L;
+            }
+
+            // raise the skyline over the placed rectangle: insert the new segment and trim (or
+            // remove) the segments that it covers
+            insertSegment(best, bestX, bestY + height, width);
+            int end = bestX + width;
+            for (int ii = best + 1; ii < _count; ) {
+                if (_xs[ii] >= end) {
+                    break;
+                }
+                int over = end - _xs[ii];
+                if (over >= _ws[ii]) {
+                    removeSegment(ii);
+                } else {
+                    _xs[ii] += over;
+                    _ws[ii] -= over;
+                    break;
+                }
+            }
+            // merge adjacent segments of equal height
+            for (int ii = 0; ii < _count - 1; ) {
+                if (_ys[ii] == _ys[ii+1]) {
+                    _ws[ii] += _ws[ii+1];
+                    removeSegment(ii+1);
+                } else {
+                    ii++;
+                }
+            }
+            _area += (long)width * height;
+            return ((long)bestX << 32) | bestY;
+        }
+
+        /**
+         * Returns the total area of the rectangles placed so far.
+         */
+        public long getArea ()
+        {
+            return _area;
+        }
+
+        protected void insertSegment (int idx, int x, int y, int width)
+        {
+            if (_count == _xs.length) {
+                _xs = Arrays.copyOf(_xs, _count * 2);
+                _ys = Arrays.copyOf(_ys, _count * 2);
+                _ws = Arrays.copyOf(_ws, _count * 2);
+            }
+            System.arraycopy(_xs, idx, _xs, idx + 1, _count - idx);
+            System.arraycopy(_ys, idx, _ys, idx + 1, _count - idx);
+            System.arraycopy(_ws, idx, _ws, idx + 1, _count - idx);
+            _xs[idx] = x;
+            _ys[idx] = y;
+            _ws[idx] = width;
+            _count++;
+        }
+
+        protected void removeSegment (int idx)
+        {
+            System.arraycopy(_xs, idx + 1, _xs, idx, _count - idx - 1);
+            System.arraycopy(_ys, idx + 1, _ys, idx, _count - idx - 1);
+            System.arraycopy(_ws, idx + 1, _ws, idx, _count - idx - 1);
+            _count--;
+        }
+
+        protected int _width, _height;
+        protected long _area;
+
+        /** The segments of the skyline, in order of increasing x. */
+        protected int[] _xs = new int[16], _ys = new int[16], _ws = new int[16];
+        protected int _count;
+    }
+
+    /**
+     * Creates an atlas that creates its pages with the supplied image creator and keeps their
+     * total (estimated) size within the specified budget.
+     */
+    public ImageAtlas (ImageUtil.ImageCreator icreator, long budget)
+    {
+        this(icreator, budget, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Creates an atlas with pages of the specified size (on a side).
+     */
+    public ImageAtlas (ImageUtil.ImageCreator icreator, long budget, int pageSize)
+    {
+        _icreator = icreator;
+        _budget = budget;
+        _pageSize = pageSize;
+    }
+
+    /**
+     * Returns true if images of the specified size are small enough to be placed in the atlas.
+     */
+    public boolean accepts (int width, int height)
+    {
+        int max = _pageSize / MAX_REGION_FRACTION;
+        return width > 0 && height > 0 && width <= max && height <= max;
+    }
+
+    /**
+     * Allocates a region for the supplied image and copies the image into it.
+     *
+     * @param owner the object whose lifetime governs that of the region.
+     * @param transparency the transparency of the page into which the image should be placed.
+     *
+     * @return the allocated region, or null if the image is not {@link #accepts accepted}.
+     */
+    public synchronized Region allocate (Object owner, BufferedImage image, int transparency)
+    {
+        int width = image.getWidth(), height = image.getHeight();
+        if (!accepts(width, height)) {
+            return null;
+        }
+        sweep();
+
+        // look for room in an existing page (the most recently created first, as older pages
+        // are generally full)
+        Page page = null;
+        long pos = -1L;
+        for (int ii = _pages.size() - 1; ii >= 0 && pos < 0; ii--) {
+            Page candidate = _pages.get(ii);
+            if (candidate.transparency == transparency) {
+                pos = candidate.skyline.insert(width + PADDING, height + PADDING);
+                if (pos < 0) {
+                    candidate.full = true;
+                } else {
+                    page = candidate;
+                }
+            }
+        }
+
+        // otherwise make room for and create a new page
+        if (page == null) {
+            page = createPage(transparency);
+            pos = page.skyline.insert(width + PADDING, height + PADDING);
+        }
+
+        Region region = new Region(owner, _queue, width, height);
+        region._page = page;
+        page.regions.add(region);
+        page.used += (long)width * height;
+        place(region, page.image, (int)(pos >>> 32), (int)pos, image);
+        _allocations++;
+        return region;
+    }
+
+    /**
+     * Frees all pages; owners will have to reallocate their regions.
+     */
+    public synchronized void clear ()
+    {
+        while (!_pages.isEmpty()) {
+            evict(_pages.get(0));
+        }
+    }
+
+    /**
+     * Returns the number of pages currently allocated.
+     */
+    public synchronized int getPageCount ()
+    {
+        return _pages.size();
+    }
+
+    /**
+     * Returns the estimated memory used by our pages.
+     */
+    public synchronized long getEstimatedMemoryUsage ()
+    {
+        return _pages.size() * getPageMemory();
+    }
+
+    /**
+     * Returns a summary of the state of the atlas, suitable for logging.
+     */
+    public synchronized String getStats ()
+    {
+        long used = 0, packed = 0;
+        int regions = 0;
+        for (Page page : _pages) {
+            used += page.used;
+            packed += page.skyline.getArea();
+            regions += page.regions.size();
+        }
+        long area = (long)_pages.size() * _pageSize * _pageSize;
+        return "[pages=" + _pages.size() + ", regions=" + regions +
+            ", used=" + (area == 0 ? 0 : used * 100 / area) + "%" +
+            ", packed=" + (area == 0 ? 0 : packed * 100 / area) + "%" +
+            ", allocations=" + _allocations + ", evictions=" + _evictions +
+            ", compactions=" + _compactions + "]";
+    }
+
+    /**
+     * Frees the regions whose owners have been collected, compacting or freeing pages as they
+     * become sparse.
+     */
+    protected void sweep ()
+    {
+        Region region;
+        while ((region = (Region)_queue.poll()) != null) {
+            Page page = region._page;
+            if (page == null || !page.regions.remove(region)) {
+                continue; // its page was already evicted
+            }
+            page.used -= (long)region.width * region.height;
+            if (page.regions.isEmpty()) {
+                _pages.remove(page);
+            } else if (page.full && page.used < page.skyline.getArea() * SPARSE_RATIO) {
+                compact(page);
+            }
+        }
+    }
+
+    /**
+     * Repacks the live regions of the supplied page into a fresh image.
+     */
+    protected void compact (Page page)
+    {
+        List<Region> regions = Lists.newArrayList(page.regions);
+        Collections.sort(regions, TALLEST_FIRST);
+        Skyline skyline = new Skyline(_pageSize, _pageSize);
+        long[] positions = new long[regions.size()];
+        for (int ii = 0; ii < positions.length; ii++) {
+            Region region = regions.get(ii);
+            positions[ii] = skyline.insert(region.width + PADDING, region.height + PADDING);
+            if (positions[ii] < 0) {
+                log.warning("Failed to compact atlas page", "regions", regions.size());
+                page.full = false; // don't try again until it fills up once more
+                return;
+            }
+        }
+
+        BufferedImage image = _icreator.createImage(_pageSize, _pageSize, page.transparency);
+        for (int ii = 0; ii < positions.length; ii++) {
+            Region region = regions.get(ii);
+            Placement old = region._placement;
+            place(region, image, (int)(positions[ii] >>> 32), (int)positions[ii],
+                  old.image.getSubimage(old.x, old.y, region.width, region.height));
+        }
+        page.image = image;
+        page.skyline = skyline;
+        page.full = false;
+        _compactions++;
+    }
+
+    /**
+     * Creates a new page, evicting the least recently used pages as necessary to stay within our
+     * budget.
+     */
+    protected Page createPage (int transparency)
+    {
+        long pageMem = getPageMemory();
+        while (!_pages.isEmpty() && (_pages.size() + 1) * pageMem > _budget) {
+            Page lru = _pages.get(0);
+            for (Page page : _pages) {
+                if (page.lastUsed < lru.lastUsed) {
+                    lru = page;
+                }
+            }
+            evict(lru);
+        }
+
+        Page page = new Page(transparency);
+        page.image = _icreator.createImage(_pageSize, _pageSize, transparency);
+        page.skyline = new Skyline(_pageSize, _pageSize);
+        page.lastUsed = _paints;
+        _pages.add(page);
+        return page;
+    }
+
+    /**
+     * Removes the supplied page, invalidating all of its regions.
+     */
+    protected void evict (Page page)
+    {
+        for (Region region : page.regions) {
+            region._placement = null;
+            region._page = null;
+        }
+        page.regions.clear();
+        _pages.remove(page);
+        _evictions++;
+        EVICTIONS.increment();
+    }
+
+    /**
+     * Copies the supplied image into the specified location of a page image and publishes the
+     * region's new placement.
+     */
+    protected void place (Region region, BufferedImage pimage, int x, int y, BufferedImage image)
+    {
+        Graphics2D gfx = pimage.createGraphics();
+        try {
+            gfx.setComposite(AlphaComposite.Src);
+            gfx.drawImage(image, x, y, null);
+        } finally {
+            gfx.dispose();
+        }
+        region._placement = new Placement(pimage, x, y);
+    }
+
+    /**
+     * Returns the estimated memory used by a single page.
+     */
+    protected long getPageMemory ()
+    {
+        return (long)_pageSize * _pageSize * BYTES_PER_PIXEL;
+    }
+
+    /** A single page of the atlas. */
+    protected static class Page
+    {
+        public final int transparency;
+        public BufferedImage image;
+        public Skyline skyline;
+        public List<Region> regions = new ArrayList<Region>();
+
+        /** The area occupied by live regions. */
+        public long used;
+
+        /** Set when an allocation fails to fit on this page. */
+        public boolean full;
+
+        /** The paint count as of the last time one of our regions was painted. */
+        public volatile long lastUsed;
+
+        public Page (int transparency) {
+            this.transparency = transparency;
+        }
+    }
+
+    /** Creates our page images. */
+    protected ImageUtil.ImageCreator _icreator;
+
+    /** The maximum estimated memory to be used by our pages. */
+    protected long _budget;
+
+    /** The size of our pages on a side. */
+    protected int _pageSize;
+
+    /** Our pages, in order of creation. */
+    protected List<Page> _pages = Lists.newArrayList();
+
+    /** Notifies us of regions whose owners have been collected. */
+    protected ReferenceQueue<Object> _queue = new ReferenceQueue<Object>();
+
+    /** Statistics. */
+    protected int _allocations, _evictions, _compactions;
+
+    /** A count of all region paints, used to find the least recently used page. */
+    protected static long _paints;
+
+    /** Orders regions from tallest to shortest, for repacking. */
+    protected static final Comparator<Region> TALLEST_FIRST = new Comparator<Region>() {
+        public int compare (Region r1, Region r2) {
+            return r2.height - r1.height;
+        }
+    };
+
+    /** The default size of our pages on a side. */
+    protected static final int DEFAULT_PAGE_SIZE = 1024;
+
+    /** Regions larger than this fraction of a page on a side are not accepted. */
+    protected static final int MAX_REGION_FRACTION = 4;
+
+    /** The (transparent) space left between regions to keep them from bleeding into one another
+     * when scaled. */
+    protected static final int PADDING = 1;
+
+    /** A full page whose live regions occupy less than this fraction of its packed area is
+     * compacted. */
+    protected static final double SPARSE_RATIO = 0.5;
+
+    /** Our estimate of the size of a page pixel. */
+    protected static final int BYTES_PER_PIXEL = 4;
+
+    /** Tracks page evictions across all atlases. */
+    protected static final FrameMetrics.Counter EVICTIONS =
+        FrameMetrics.counter("image.atlas.evict");
+}
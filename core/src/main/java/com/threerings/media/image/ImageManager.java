@@ -45,6 +45,8 @@ import com.samskivert.util.Tuple;
 
 import com.threerings.resource.ResourceManager;
 
+import com.threerings.media.perf.FrameMetrics;
+
 import static com.threerings.media.Log.log;
 
 /**
@@ -127,6 +129,11 @@ public class ImageManager
             }
         });
         _ccache.setTracking(true);
+        _ccache.setRemovalObserver(new LRUHashMap.RemovalObserver<ImageKey, CacheRecord>() {
+            public void removedFromMap (LRUHashMap<ImageKey, CacheRecord> map, CacheRecord rec) {
+                CACHE_EVICTIONS.increment();
+            }
+        });
     }
 
     /**
@@ -156,6 +163,40 @@ public class ImageManager
         synchronized (_ccache) {
             _ccache.clear();
         }
+        if (_atlas != null) {
+            _atlas.clear();
+        }
+    }
+
+    /**
+     * Configures whether prepared mirages share pages of an {@link ImageAtlas} or are each given
+     * an image of their own (the default). The atlas does not add to our memory footprint: while
+     * it is in use, half of the image cache budget (see {@link #getCacheSize}) is given over to
+     * it. Mirages already placed in an atlas are moved out of it if its use is turned off.
+     */
+    public synchronized void setUseAtlas (boolean useAtlas)
+    {
+        int budget = getCacheSize() * 1024;
+        if (useAtlas && _atlas == null) {
+            _atlas = new ImageAtlas(this, budget / 2);
+            synchronized (_ccache) {
+                _ccache.setMaxSize(budget - budget / 2);
+            }
+        } else if (!useAtlas && _atlas != null) {
+            _atlas.clear();
+            _atlas = null;
+            synchronized (_ccache) {
+                _ccache.setMaxSize(budget);
+            }
+        }
+    }
+
+    /**
+     * Returns the atlas in which prepared mirages are placed, or null if we are not using one.
+     */
+    public ImageAtlas getAtlas ()
+    {
+        return _atlas;
     }
 
     /**
@@ -285,9 +326,11 @@ public class ImageManager
         }
         if (crec != null) {
 //             log.info("Cache hit", "key", key, "crec", crec);
+            CACHE_HITS.increment();
             return crec.getImage(zations, _ccache);
         }
 //         log.info("Cache miss", "key", key, "crec", crec);
+        CACHE_MISSES.increment();
 
         // load up the raw image
         BufferedImage image = loadImage(key);
@@ -362,8 +405,22 @@ public class ImageManager
             src = getImage(key, zations);
             bounds = new Rectangle(0, 0, src.getWidth(), src.getHeight());
         }
-        return new CachedVolatileMirage(this, key, bounds, zations);
+        return createPreparedMirage(key, bounds, zations);
+    }
 
+    /**
+     * Creates a mirage that displays a copy of the specified region of the source image prepared
+     * for rendering to the screen: in our atlas if we have one and the region is small enough,
+     * otherwise in an image of its own.
+     */
+    protected Mirage createPreparedMirage (
+        ImageKey key, Rectangle bounds, Colorization[] zations)
+    {
+        ImageAtlas atlas = _atlas;
+        if (atlas != null && atlas.accepts(bounds.width, bounds.height)) {
+            return new AtlasMirage(this, atlas, key, bounds, zations);
+        }
+        return new CachedVolatileMirage(this, key, bounds, zations);
     }
 
     /**
@@ -539,6 +596,9 @@ public class ImageManager
     /** A cache of loaded images. */
     protected LRUHashMap<ImageKey, CacheRecord> _ccache;
 
+    /** The atlas in which we place prepared mirages, or null. */
+    protected volatile ImageAtlas _atlas;
+
     /** The set of all keys we've ever seen. */
     protected HashSet<ImageKey> _keySet = Sets.newHashSet();
 
@@ -560,4 +620,12 @@ public class ImageManager
 
     /** Default amount of data we'll store in our image cache. */
     protected static int DEFAULT_CACHE_SIZE = 32768;
+
+    /** Track image cache hits, misses and evictions (including those of a cache clear). */
+    protected static final FrameMetrics.Counter CACHE_HITS =
+        FrameMetrics.counter("image.cache.hit");
+    protected static final FrameMetrics.Counter CACHE_MISSES =
+        FrameMetrics.counter("image.cache.miss");
+    protected static final FrameMetrics.Counter CACHE_EVICTIONS =
+        FrameMetrics.counter("image.cache.evict");
 }
@@ -21,6 +21,7 @@ package com.threerings.media.image;
 
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Map;
 
 import java.awt.AlphaComposite;
 import java.awt.Color;
@@ -40,6 +41,8 @@ import java.awt.image.IndexColorModel;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 
+import com.google.common.collect.Maps;
+
 import com.samskivert.util.Logger;
 
 import com.samskivert.swing.Label;
@@ -291,43 +294,67 @@ public class ImageUtil
         int spixel = (tcolor.getRGB() & RGB_MASK);
         int salpha = (int)(startAlpha * 255);
         int tpixel = (spixel | (salpha << 24));
-        boolean[] traced = new boolean[wid * hei];
         int stepAlpha = (thickness <= 1) ? 0 :
             (int)(((startAlpha - endAlpha) * 255) / (thickness - 1));
 
-        // TODO: this could be made more efficient, e.g., if we made four passes through the image
-        // in a vertical scan, horizontal scan, and opposing diagonal scans, making sure each
-        // non-transparent pixel found during each scan is traced on both sides of the respective
-        // scan direction. For now, we just naively check all eight pixels surrounding each pixel
-        // in the image and fill the center pixel with the tracing color if it's transparent but
-        // has a non-transparent pixel around it.
+        // each pass traces the transparent pixels that border (in any of the eight directions) a
+        // pixel that was non-transparent at the start of the pass; we find those by noting the
+        // non-transparent pixels and spreading them first horizontally and then vertically
+        PixelReader sreader = new PixelReader(src), dreader = new PixelReader(dest);
+        boolean direct = (dest.getType() == BufferedImage.TYPE_INT_ARGB);
+        WritableRaster draster = dest.getRaster();
+        int[] srow = new int[wid], drow = new int[wid];
+        byte[] solid = new byte[wid * hei], spread = new byte[wid * hei];
         for (int tt = 0; tt < thickness; tt++) {
             if (tt > 0) {
-                // clear out the array of pixels traced this go-around
-                Arrays.fill(traced, false);
-                // use the destination image as our new source
-                src = dest;
                 // decrement the trace pixel alpha-level
                 salpha -= Math.max(0, stepAlpha);
                 tpixel = (spixel | (salpha << 24));
             }
 
-            for (int yy = 0; yy < hei; yy++) {
-                for (int xx = 0; xx < wid; xx++) {
-                    // get the pixel we're checking
-                    int argb = src.getRGB(xx, yy);
+            // after the first pass, the destination image is our source
+            PixelReader reader = (tt == 0) ? sreader : dreader;
+            for (int yy = 0, idx = 0; yy < hei; yy++) {
+                reader.read(yy, srow);
+                for (int xx = 0; xx < wid; xx++, idx++) {
+                    solid[idx] = (byte)((srow[xx] >>> 24) == 0 ? 0 : 1);
+                }
+            }
+            for (int yy = 0, idx = 0; yy < hei; yy++, idx += wid) {
+                spreadRow(solid, spread, idx, wid);
+            }
 
-                    if ((argb & TRANS_MASK) != 0) {
-                        // copy any pixel that isn't transparent
+            for (int yy = 0, idx = 0; yy < hei; yy++, idx += wid) {
+                if (tt == 0) {
+                    sreader.read(yy, srow);
+                }
+                if (direct) {
+                    dreader.read(yy, drow);
+                }
+                int above = (yy > 0) ? idx - wid : idx, below = (yy < hei - 1) ? idx + wid : idx;
+                for (int xx = 0; xx < wid; xx++) {
+                    int argb;
+                    if (solid[idx + xx] != 0) {
+                        // copy any pixel that isn't transparent (we need only do so the first
+                        // time through, after which the destination is our source)
+                        if (tt > 0) {
+                            continue;
+                        }
+                        argb = srow[xx];
+                    } else if ((spread[above + xx] | spread[idx + xx] | spread[below + xx]) != 0) {
+                        argb = tpixel;
+                    } else {
+                        continue;
+                    }
+                    if (direct) {
+                        drow[xx] = argb;
+                    } else {
                         dest.setRGB(xx, yy, argb);
-
-                    } else if (bordersNonTransparentPixel(src, wid, hei, traced, xx, yy)) {
-                        dest.setRGB(xx, yy, tpixel);
-                        // note that we traced this pixel this pass so
-                        // that it doesn't impact other-pixel borderedness
-                        traced[(yy*wid)+xx] = true;
                     }
                 }
+                if (direct) {
+                    draster.setDataElements(0, yy, wid, 1, drow);
+                }
             }
         }
 
@@ -335,52 +362,20 @@ public class ImageUtil
     }
 
     /**
-     * Returns whether the given pixel is bordered by any non-transparent pixel.
+     * Marks each pixel in the specified row of <code>spread</code> for which the corresponding
+     * pixel of <code>solid</code>, or either of its horizontal neighbors, is set.
      */
-    protected static boolean bordersNonTransparentPixel (
-        BufferedImage data, int wid, int hei, boolean[] traced, int x, int y)
+    protected static void spreadRow (byte[] solid, byte[] spread, int idx, int wid)
     {
-        // check the three-pixel row above the pixel
-        if (y > 0) {
-            for (int rxx = x - 1; rxx <= x + 1; rxx++) {
-                if (rxx < 0 || rxx >= wid || traced[((y-1)*wid)+rxx]) {
-                    continue;
-                }
-
-                if ((data.getRGB(rxx, y - 1) & TRANS_MASK) != 0) {
-                    return true;
-                }
-            }
-        }
-
-        // check the pixel to the left
-        if (x > 0 && !traced[(y*wid)+(x-1)]) {
-            if ((data.getRGB(x - 1, y) & TRANS_MASK) != 0) {
-                return true;
-            }
-        }
-
-        // check the pixel to the right
-        if (x < wid - 1 && !traced[(y*wid)+(x+1)]) {
-            if ((data.getRGB(x + 1, y) & TRANS_MASK) != 0) {
-                return true;
-            }
+        if (wid == 1) {
+            spread[idx] = solid[idx];
+            return;
         }
-
-        // check the three-pixel row below the pixel
-        if (y < hei - 1) {
-            for (int rxx = x - 1; rxx <= x + 1; rxx++) {
-                if (rxx < 0 || rxx >= wid || traced[((y+1)*wid)+rxx]) {
-                    continue;
-                }
-
-                if ((data.getRGB(rxx, y + 1) & TRANS_MASK) != 0) {
-                    return true;
-                }
-            }
+        spread[idx] = (byte)(solid[idx] | solid[idx + 1]);
+        for (int ii = idx + 1, end = idx + wid - 1; ii < end; ii++) {
+            spread[ii] = (byte)(solid[ii - 1] | solid[ii] | solid[ii + 1]);
         }
-
-        return false;
+        spread[idx + wid - 1] = (byte)(solid[idx + wid - 2] | solid[idx + wid - 1]);
     }
 
     /**
@@ -392,6 +387,23 @@ public class ImageUtil
         int wid = base.getWidth();
         int hei = base.getHeight();
 
+        // combine the pixels directly if both images are in the common int ARGB format
+        if (mask.getType() == BufferedImage.TYPE_INT_ARGB &&
+                base.getType() == BufferedImage.TYPE_INT_ARGB) {
+            Raster mraster = mask.getRaster(), braster = base.getRaster();
+            WritableRaster target = braster.createCompatibleWritableRaster(wid, hei);
+            int[] mrow = new int[wid], brow = new int[wid];
+            for (int yy = 0; yy < hei; yy++) {
+                mraster.getDataElements(0, yy, wid, 1, mrow);
+                braster.getDataElements(0, yy, wid, 1, brow);
+                for (int xx = 0; xx < wid; xx++) {
+                    brow[xx] = (mrow[xx] & TRANS_MASK) | (brow[xx] & RGB_MASK);
+                }
+                target.setDataElements(0, yy, wid, 1, brow);
+            }
+            return new BufferedImage(mask.getColorModel(), target, true, null);
+        }
+
         Raster maskdata = mask.getData();
         Raster basedata = base.getData();
 
@@ -460,6 +472,96 @@ public class ImageUtil
         return target;
     }
 
+    /**
+     * Composites the supplied indexed color images, in order, into an 8-bit indexed image of the
+     * specified dimensions with a palette merged from theirs, in which index zero is transparent.
+     * Each image is positioned at the corresponding offset and clipped to the target. Only the
+     * palette entries actually used are merged, so components drawn from differently colorized
+     * tilesets will usually fit.
+     *
+     * @return the composited image or null if an image does not use an {@link IndexColorModel},
+     * uses a partially transparent color (which requires a real alpha channel), or if the merged
+     * palette would need more than 255 opaque colors.
+     */
+    public static BufferedImage composeIndexedImage (
+        BufferedImage[] images, int[] xoffs, int[] yoffs, int width, int height)
+    {
+        // first map every palette entry in use by a source into our merged palette
+        int[] palette = new int[256];
+        int ncolors = 1;
+        Map<Integer, Integer> colors = Maps.newHashMap();
+        int[][] remaps = new int[images.length][];
+        for (int ii = 0; ii < images.length; ii++) {
+            ColorModel cm = images[ii].getColorModel();
+            if (!(cm instanceof IndexColorModel)) {
+                return null;
+            }
+            IndexColorModel icm = (IndexColorModel)cm;
+            int[] remap = remaps[ii] = new int[icm.getMapSize()];
+            Arrays.fill(remap, -1);
+            Raster raster = images[ii].getRaster();
+            int wid = raster.getWidth(), hei = raster.getHeight();
+            int[] row = new int[wid];
+            for (int yy = 0; yy < hei; yy++) {
+                raster.getSamples(0, yy, wid, 1, 0, row);
+                for (int xx = 0; xx < wid; xx++) {
+                    int pidx = row[xx];
+                    if (remap[pidx] != -1) {
+                        continue;
+                    }
+                    int argb = icm.getRGB(pidx), alpha = argb >>> 24;
+                    if (alpha == 0) {
+                        remap[pidx] = 0;
+                        continue;
+                    } else if (alpha != 0xFF) {
+                        return null;
+                    }
+                    Integer cidx = colors.get(argb);
+                    if (cidx == null) {
+                        if (ncolors == palette.length) {
+                            return null;
+                        }
+                        palette[ncolors] = argb;
+                        colors.put(argb, cidx = ncolors++);
+                    }
+                    remap[pidx] = cidx;
+                }
+            }
+        }
+
+        // then copy the opaque pixels of each source into place; we composite into an array of
+        // our own and hand it to the raster in one go, as grabbing the raster's data buffer would
+        // prevent Java2D from ever caching the image in video memory
+        byte[] data = new byte[width * height];
+        for (int ii = 0; ii < images.length; ii++) {
+            Raster raster = images[ii].getRaster();
+            int[] remap = remaps[ii];
+            int x0 = Math.max(0, -xoffs[ii]), x1 = Math.min(raster.getWidth(), width - xoffs[ii]);
+            int y0 = Math.max(0, -yoffs[ii]), y1 = Math.min(raster.getHeight(), height - yoffs[ii]);
+            if (x0 >= x1) {
+                continue;
+            }
+            int[] row = new int[x1 - x0];
+            for (int yy = y0; yy < y1; yy++) {
+                raster.getSamples(x0, yy, x1 - x0, 1, 0, row);
+                int didx = (yy + yoffs[ii]) * width + x0 + xoffs[ii];
+                for (int xx = 0; xx < row.length; xx++, didx++) {
+                    int cidx = remap[row[xx]];
+                    if (cidx != 0) {
+                        data[didx] = (byte)cidx;
+                    }
+                }
+            }
+        }
+
+        IndexColorModel icm = new IndexColorModel(
+            8, Math.max(ncolors, 2), palette, 0, false, 0, DataBuffer.TYPE_BYTE);
+        BufferedImage target = new BufferedImage(
+            width, height, BufferedImage.TYPE_BYTE_INDEXED, icm);
+        target.getRaster().setDataElements(0, 0, width, height, data);
+        return target;
+    }
+
     /**
      * Returns true if the supplied image contains a non-transparent pixel at the specified
      * coordinates, false otherwise.
@@ -473,40 +575,35 @@ public class ImageUtil
 
     /**
      * Computes the bounds of the smallest rectangle that contains all non-transparent pixels of
-     * this image. This isn't extremely efficient, so you shouldn't be doing this anywhere
-     * exciting.
+     * this image.
      */
     public static void computeTrimmedBounds (BufferedImage image, Rectangle tbounds)
     {
-        // this could be more efficient, but it's run as a batch process and doesn't really take
-        // that long anyway
         int width = image.getWidth(), height = image.getHeight();
+        PixelReader reader = new PixelReader(image);
+        int[] row = new int[width];
 
         int firstrow = -1, lastrow = -1, minx = width, maxx = 0;
         for (int yy = 0; yy < height; yy++) {
+            reader.read(yy, row);
 
-            int firstidx = -1, lastidx = -1;
-            for (int xx = 0; xx < width; xx++) {
-                // if this pixel is transparent, do nothing
-                int argb = image.getRGB(xx, yy);
-                if ((argb >> 24) == 0) {
-                    continue;
-                }
-
-                // otherwise, if we've not seen a non-transparent pixel, make a note that this is
-                // the first non-transparent pixel in the row
-                if (firstidx == -1) {
-                    firstidx = xx;
-                }
-                // keep track of the last non-transparent pixel we saw
-                lastidx = xx;
+            // find the first non-transparent pixel in the row
+            int firstidx = 0;
+            while (firstidx < width && (row[firstidx] >>> 24) == 0) {
+                firstidx++;
             }
 
-            // if we saw no pixels on this row, we can bail now
-            if (firstidx == -1) {
+            // if we saw no pixels on this row, we can move on now
+            if (firstidx == width) {
                 continue;
             }
 
+            // otherwise find the last non-transparent pixel (we know there is one)
+            int lastidx = width - 1;
+            while ((row[lastidx] >>> 24) == 0) {
+                lastidx--;
+            }
+
             // update our min and maxx
             minx = Math.min(firstidx, minx);
             maxx = Math.max(lastidx, maxx);
@@ -592,6 +689,82 @@ public class ImageUtil
         return _gc;
     }
 
+    /**
+     * Reads the rows of an image as (non-premultiplied) ARGB pixels. The common int and byte
+     * formats are read in bulk straight from the raster (in a way that does not disturb any
+     * acceleration of the image); others go through the image's color model.
+     */
+    protected static class PixelReader
+    {
+        public PixelReader (BufferedImage image)
+        {
+            _image = image;
+            _raster = image.getRaster();
+            _type = image.getType();
+            switch (_type) {
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                _bytes = new byte[image.getWidth() * 4];
+                break;
+            case BufferedImage.TYPE_BYTE_INDEXED:
+                IndexColorModel icm = (IndexColorModel)image.getColorModel();
+                if (icm.getPixelSize() == 8) {
+                    _bytes = new byte[image.getWidth()];
+                    _rgbs = new int[256];
+                    icm.getRGBs(_rgbs);
+                } else {
+                    _type = BufferedImage.TYPE_CUSTOM;
+                }
+                break;
+            }
+        }
+
+        /**
+         * Reads the specified row into the supplied array.
+         */
+        public void read (int y, int[] row)
+        {
+            int width = _image.getWidth();
+            switch (_type) {
+            case BufferedImage.TYPE_INT_ARGB:
+                _raster.getDataElements(0, y, width, 1, row);
+                break;
+
+            case BufferedImage.TYPE_INT_RGB:
+                _raster.getDataElements(0, y, width, 1, row);
+                for (int xx = 0; xx < width; xx++) {
+                    row[xx] |= TRANS_MASK;
+                }
+                break;
+
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                // the data elements are in band (RGBA) order
+                _raster.getDataElements(0, y, width, 1, _bytes);
+                for (int xx = 0, bb = 0; xx < width; xx++, bb += 4) {
+                    row[xx] = ((_bytes[bb + 3] & 0xFF) << 24) | ((_bytes[bb] & 0xFF) << 16) |
+                        ((_bytes[bb + 1] & 0xFF) << 8) | (_bytes[bb + 2] & 0xFF);
+                }
+                break;
+
+            case BufferedImage.TYPE_BYTE_INDEXED:
+                _raster.getDataElements(0, y, width, 1, _bytes);
+                for (int xx = 0; xx < width; xx++) {
+                    row[xx] = _rgbs[_bytes[xx] & 0xFF];
+                }
+                break;
+
+            default:
+                _image.getRGB(0, y, width, 1, row, 0, width);
+                break;
+            }
+        }
+
+        protected BufferedImage _image;
+        protected Raster _raster;
+        protected int _type;
+        protected byte[] _bytes;
+        protected int[] _rgbs;
+    }
+
     /** The graphics configuration for the default screen device. */
     protected static GraphicsConfiguration _gc;
 
@@ -61,7 +61,9 @@ public class NinePatchMirage
 
     public long getEstimatedMemoryUsage ()
     {
-        return ImageUtil.getEstimatedMemoryUsage(_ninePatch._img.getRaster());
+        HitMask mask = _mask;
+        return ImageUtil.getEstimatedMemoryUsage(_ninePatch._img.getRaster()) +
+            ((mask == null) ? 0 : mask.getEstimatedMemoryUsage());
     }
 
     public BufferedImage getSnapshot ()
@@ -85,8 +87,12 @@ public class NinePatchMirage
 
     public boolean hitTest (int x, int y)
     {
-        // This is stupidly expensive.
-        return ImageUtil.hitTest(getSnapshot(), x, y);
+        // rendering the patch is expensive, so we do so only once, to build our mask
+        HitMask mask = _mask;
+        if (mask == null) {
+            _mask = mask = HitMask.create(getSnapshot());
+        }
+        return mask.hitTest(x, y);
     }
 
     public void paint (Graphics2D gfx, int x, int y)
@@ -97,4 +103,7 @@ public class NinePatchMirage
     protected final NinePatch _ninePatch;
     protected final int _width;
     protected final int _height;
+
+    /** The mask against which we hit test, created on first use. */
+    protected HitMask _mask;
 }
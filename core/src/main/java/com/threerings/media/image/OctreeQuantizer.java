@@ -0,0 +1,766 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.image;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Reduces images to a palette of at most 256 colors using the same octree algorithm as {@link
+ * Quantize}, but considerably faster: pixels are read directly from integer rasters where possible
+ * rather than being copied into a two dimensional array, the image's distinct colors are tallied
+ * (optionally in parallel, over strips of the image) so that the tree is built from the histogram
+ * rather than pixel by pixel, and the tree is stored in flat arrays rather than as node objects.
+ * Floyd-Steinberg dithering may optionally be applied when mapping pixels to the palette.
+ *
+ * <p> As with {@link Quantize}, pixels that are not fully opaque are considered transparent and
+ * are mapped to palette entry zero, which is transparent. A quantizer may be used from multiple
+ * threads.
+ */
+public class OctreeQuantizer
+{
+    /**
+     * Creates a quantizer that produces palettes of at most the specified number of colors
+     * (including the transparent color, if needed), which must be no more than 256.
+     */
+    public OctreeQuantizer (int maxColors)
+    {
+        if (maxColors < 2 || maxColors > 256) {
+            throw new IllegalArgumentException("Invalid palette size: " + maxColors);
+        }
+        _maxColors = maxColors;
+    }
+
+    /**
+     * Configures whether Floyd-Steinberg dithering is used when mapping pixels to the palette.
+     */
+    public OctreeQuantizer setDither (boolean dither)
+    {
+        _dither = dither;
+        return this;
+    }
+
+    /**
+     * Configures whether large images are processed in parallel, in strips, on the common fork
+     * join pool. The results are the same either way.
+     */
+    public OctreeQuantizer setParallel (boolean parallel)
+    {
+        _parallel = parallel;
+        return this;
+    }
+
+    /**
+     * Quantizes the supplied image, returning an 8-bit indexed image.
+     */
+    public BufferedImage quantize (BufferedImage image)
+    {
+        int width = image.getWidth(), height = image.getHeight();
+        byte[] indices = new byte[width * height];
+        IndexColorModel icm = quantize(getARGB(image), width, indices);
+        WritableRaster raster = Raster.createInterleavedRaster(
+            new DataBufferByte(indices, indices.length), width, height, width, 1, new int[] { 0 },
+            null);
+        return new BufferedImage(icm, raster, false, null);
+    }
+
+    /**
+     * Quantizes the supplied ARGB pixels (in rows of the specified width), filling in the palette
+     * index of each pixel and returning the palette.
+     */
+    public IndexColorModel quantize (int[] argb, int width, byte[] indices)
+    {
+        // tally up our distinct opaque colors
+        ColorTable table = tally(argb, width);
+        boolean trans = table.transparent;
+        int offset = trans ? 1 : 0;
+
+        // build our palette from the colors, sorted so that the results are deterministic
+        int[] colors = table.keys(), counts = new int[colors.length];
+        Arrays.sort(colors);
+        for (int ii = 0; ii < colors.length; ii++) {
+            counts[ii] = table.get(colors[ii]);
+        }
+        int ncolors = _maxColors - offset;
+        Octree tree = (colors.length > ncolors) ?
+            createTree(colors, counts, ncolors, _maxColors) : null;
+        int[] palette = (tree == null) ? opaque(colors) : tree.getPalette();
+
+        int[] cmap = new int[palette.length + offset];
+        System.arraycopy(palette, 0, cmap, offset, palette.length);
+        IndexColorModel icm = new IndexColorModel(
+            8, cmap.length, cmap, 0, trans, trans ? 0 : -1, DataBuffer.TYPE_BYTE);
+
+        // now map our pixels to the palette
+        if (_dither && tree != null) {
+            dither(argb, width, tree, offset, indices);
+        } else {
+            for (int ii = 0; ii < colors.length; ii++) {
+                table.put(colors[ii], ((tree == null) ? ii : tree.assign(colors[ii])) + offset);
+            }
+            map(argb, width, table, indices);
+        }
+        return icm;
+    }
+
+    /**
+     * Chooses a palette of at most the specified number of colors for the supplied distinct
+     * (opaque) colors, weighted by the supplied pixel counts.
+     *
+     * @param indices filled in with the index in the palette of each of the supplied colors.
+     *
+     * @return the palette, whose entries are opaque.
+     */
+    public static int[] quantize (int[] colors, int[] counts, int maxColors, int[] indices)
+    {
+        // if we have few enough colors, we need not do any work at all
+        if (colors.length <= maxColors) {
+            for (int ii = 0; ii < colors.length; ii++) {
+                indices[ii] = ii;
+            }
+            return opaque(colors);
+        }
+
+        Octree tree = createTree(colors, counts, maxColors, maxColors);
+        for (int ii = 0; ii < colors.length; ii++) {
+            indices[ii] = tree.assign(colors[ii]);
+        }
+        return tree.getPalette();
+    }
+
+    /**
+     * Creates a tree from the supplied colors and reduces it to the specified number of colors.
+     * The depth of the tree is that appropriate for a palette of <code>depthColors</code>
+     * entries: like {@link Quantize}, we choose the depth based on the size of the entire
+     * palette, including any transparent entry.
+     */
+    protected static Octree createTree (
+        int[] colors, int[] counts, int maxColors, int depthColors)
+    {
+        Octree tree = new Octree(maxColors, depthColors, colors.length);
+        for (int ii = 0; ii < colors.length; ii++) {
+            tree.classify(colors[ii], counts[ii]);
+        }
+        tree.reduce();
+        tree.createPalette();
+        return tree;
+    }
+
+    /**
+     * Returns a copy of the supplied colors with their alpha components set to opaque.
+     */
+    protected static int[] opaque (int[] colors)
+    {
+        int[] palette = new int[colors.length];
+        for (int ii = 0; ii < colors.length; ii++) {
+            palette[ii] = colors[ii] | 0xFF000000;
+        }
+        return palette;
+    }
+
+    /**
+     * Returns the ARGB pixels of the supplied image, straight from its raster if possible.
+     */
+    protected int[] getARGB (BufferedImage image)
+    {
+        int width = image.getWidth(), height = image.getHeight();
+        Raster raster = image.getRaster();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB &&
+            raster.getDataBuffer().getSize() == width * height &&
+            raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0) {
+            return ((DataBufferInt)raster.getDataBuffer()).getData();
+        }
+
+        final int[] argb = new int[width * height];
+        final BufferedImage fimage = image;
+        final boolean opaque = !image.getColorModel().hasAlpha();
+        forEachStrip(width, height, new StripOp() {
+            public void apply (int width, int y0, int y1) {
+                fimage.getRGB(0, y0, width, y1 - y0, argb, y0 * width, width);
+                if (opaque) {
+                    for (int ii = y0 * width, ll = y1 * width; ii < ll; ii++) {
+                        argb[ii] |= 0xFF000000;
+                    }
+                }
+            }
+        });
+        return argb;
+    }
+
+    /**
+     * Tallies up the distinct opaque colors in the supplied pixels.
+     */
+    protected ColorTable tally (final int[] argb, int width)
+    {
+        int height = argb.length / width;
+        final List<ColorTable> tables = Lists.newArrayList();
+        forEachStrip(width, height, new StripOp() {
+            public void apply (int width, int y0, int y1) {
+                ColorTable table = new ColorTable(256);
+                for (int ii = y0 * width, ll = y1 * width; ii < ll; ii++) {
+                    int pixel = argb[ii];
+                    if ((pixel >>> 24) == 0xFF) {
+                        table.add(pixel, 1);
+                    } else {
+                        table.transparent = true;
+                    }
+                }
+                synchronized (tables) {
+                    tables.add(table);
+                }
+            }
+        });
+
+        ColorTable table = tables.get(0);
+        for (int ii = 1; ii < tables.size(); ii++) {
+            table.addAll(tables.get(ii));
+        }
+        return table;
+    }
+
+    /**
+     * Maps the supplied pixels to the palette indices in the supplied table.
+     */
+    protected void map (final int[] argb, int width, final ColorTable table, final byte[] indices)
+    {
+        forEachStrip(width, argb.length / width, new StripOp() {
+            public void apply (int width, int y0, int y1) {
+                for (int ii = y0 * width, ll = y1 * width; ii < ll; ii++) {
+                    int pixel = argb[ii];
+                    indices[ii] = ((pixel >>> 24) == 0xFF) ? (byte)table.get(pixel) : 0;
+                }
+            }
+        });
+    }
+
+    /**
+     * Maps the supplied pixels to the entries in the palette of the supplied tree, diffusing the
+     * error of each pixel into its neighbors.
+     */
+    protected void dither (int[] argb, int width, Octree tree, int offset, byte[] indices)
+    {
+        int height = argb.length / width;
+        int[] palette = tree.getPalette();
+        ColorTable closest = new ColorTable(1024);
+
+        // the accumulated error for the current and next rows (with a pixel of padding on each
+        // side), in red, green, blue triplets
+        int[] cerr = new int[(width + 2) * 3], nerr = new int[(width + 2) * 3];
+        for (int yy = 0; yy < height; yy++) {
+            for (int xx = 0; xx < width; xx++) {
+                int idx = yy * width + xx, pixel = argb[idx];
+                if ((pixel >>> 24) != 0xFF) {
+                    indices[idx] = 0;
+                    continue;
+                }
+                int eidx = (xx + 1) * 3;
+                int red = clamp(((pixel >> 16) & 0xFF) + cerr[eidx] / 16);
+                int green = clamp(((pixel >> 8) & 0xFF) + cerr[eidx + 1] / 16);
+                int blue = clamp((pixel & 0xFF) + cerr[eidx + 2] / 16);
+                int color = 0xFF000000 | (red << 16) | (green << 8) | blue;
+
+                int pidx = closest.get(color);
+                if (pidx < 0) {
+                    closest.put(color, pidx = tree.assign(color));
+                }
+                indices[idx] = (byte)(pidx + offset);
+
+                // distribute the error: 7/16 right, 3/16 below left, 5/16 below, 1/16 below right
+                int chosen = palette[pidx];
+                int[] errs = { red - ((chosen >> 16) & 0xFF), green - ((chosen >> 8) & 0xFF),
+                               blue - (chosen & 0xFF) };
+                for (int cc = 0; cc < 3; cc++) {
+                    int err = errs[cc];
+                    cerr[eidx + 3 + cc] += err * 7;
+                    nerr[eidx - 3 + cc] += err * 3;
+                    nerr[eidx + cc] += err * 5;
+                    nerr[eidx + 3 + cc] += err;
+                }
+            }
+            int[] tmp = cerr;
+            cerr = nerr;
+            nerr = tmp;
+            Arrays.fill(nerr, 0);
+        }
+    }
+
+    /**
+     * Performs the supplied operation on strips of rows of an image, in parallel if we're so
+     * configured and the image is large enough to make it worthwhile.
+     */
+    protected void forEachStrip (final int width, int height, final StripOp op)
+    {
+        int strips = (_parallel && width * height >= PARALLEL_PIXELS) ?
+            Math.min(height, Runtime.getRuntime().availableProcessors() * 2) : 1;
+        if (strips <= 1) {
+            op.apply(width, 0, height);
+            return;
+        }
+
+        List<RecursiveAction> tasks = Lists.newArrayList();
+        for (int ii = 0; ii < strips; ii++) {
+            final int y0 = height * ii / strips, y1 = height * (ii + 1) / strips;
+            tasks.add(new RecursiveAction() {
+                @Override protected void compute () {
+                    op.apply(width, y0, y1);
+                }
+            });
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    protected static int clamp (int value)
+    {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    /** An operation on a strip of rows of an image. */
+    protected interface StripOp
+    {
+        /** Applies this operation to rows <code>y0</code> (inclusive) to <code>y1</code>
+         * (exclusive). */
+        void apply (int width, int y0, int y1);
+    }
+
+    /**
+     * An open addressing map from opaque colors (which are never zero) to integers.
+     */
+    protected static class ColorTable
+    {
+        /** Whether any transparent pixels were encountered while building this table. */
+        public boolean transparent;
+
+        public ColorTable (int capacity) {
+            allocate(Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1);
+        }
+
+        /** Returns the value for the specified color, or -1 if it has none. */
+        public int get (int color) {
+            for (int ii = slot(color); ; ii = (ii + 1) & (_keys.length - 1)) {
+                if (_keys[ii] == color) {
+                    return _values[ii];
+                } else if (_keys[ii] == 0) {
+                    return -1;
+                }
+            }
+        }
+
+        /** Sets the value for the specified color. */
+        public void put (int color, int value) {
+            int slot = insert(color);
+            _values[slot] = value;
+        }
+
+        /** Adds the supplied amount to the value for the specified color (zero if none). */
+        public void add (int color, int amount) {
+            int slot = insert(color);
+            _values[slot] += amount;
+        }
+
+        /** Adds the values (and transparency) of the supplied table to ours. */
+        public void addAll (ColorTable other) {
+            for (int ii = 0; ii < other._keys.length; ii++) {
+                if (other._keys[ii] != 0) {
+                    add(other._keys[ii], other._values[ii]);
+                }
+            }
+            transparent |= other.transparent;
+        }
+
+        /** Returns the colors in this table. */
+        public int[] keys () {
+            int[] keys = new int[_size];
+            for (int ii = 0, kk = 0; ii < _keys.length; ii++) {
+                if (_keys[ii] != 0) {
+                    keys[kk++] = _keys[ii];
+                }
+            }
+            return keys;
+        }
+
+        protected int insert (int color) {
+            for (int ii = slot(color); ; ii = (ii + 1) & (_keys.length - 1)) {
+                if (_keys[ii] == color) {
+                    return ii;
+                } else if (_keys[ii] == 0) {
+                    if (++_size * 2 > _keys.length) {
+                        grow();
+                        return insert(color);
+                    }
+                    _keys[ii] = color;
+                    _values[ii] = 0;
+                    return ii;
+                }
+            }
+        }
+
+        protected void grow () {
+            int[] okeys = _keys, ovalues = _values;
+            allocate(okeys.length * 2);
+            _size = 0;
+            for (int ii = 0; ii < okeys.length; ii++) {
+                if (okeys[ii] != 0) {
+                    int slot = insert(okeys[ii]);
+                    _values[slot] = ovalues[ii];
+                }
+            }
+        }
+
+        protected void allocate (int capacity) {
+            _keys = new int[capacity];
+            _values = new int[capacity];
+            _shift = Integer.numberOfLeadingZeros(capacity) + 1;
+        }
+
+        protected int slot (int color) {
+            return (color * 0x9E3779B9) >>> _shift;
+        }
+
+        protected int[] _keys, _values;
+        protected int _size, _shift;
+    }
+
+    /**
+     * The color description tree of {@link Quantize}, stored in flat arrays indexed by node. See
+     * that class for a detailed description of the algorithm.
+     */
+    protected static class Octree
+    {
+        public Octree (int maxColors, int depthColors, int ncolors)
+        {
+            _maxColors = maxColors;
+
+            // the depth of the tree is log4 of the number of colors, between 2 and 8
+            int ii = depthColors;
+            for (_depth = 1; ii != 0; _depth++) {
+                ii /= 4;
+            }
+            if (_depth > 1) {
+                _depth--;
+            }
+            _depth = Math.max(2, Math.min(MAX_TREE_DEPTH, _depth));
+
+            allocate(Math.max(64, Math.min(ncolors * 2, MAX_NODES)));
+            _count[ROOT] = Long.MAX_VALUE;
+            _mid[ROOT * 3] = _mid[ROOT * 3 + 1] = _mid[ROOT * 3 + 2] = (MAX_RGB + 1) >> 1;
+            _parent[ROOT] = ROOT;
+            _used = 1;
+        }
+
+        /**
+         * Adds the specified number of pixels of the supplied color to the tree.
+         */
+        public void classify (int color, int count)
+        {
+            int red = (color >> 16) & 0xFF, green = (color >> 8) & 0xFF, blue = color & 0xFF;
+
+            // a hard limit on the number of nodes in the tree
+            if (_nodes > MAX_NODES) {
+                pruneLevel(ROOT);
+                _depth--;
+            }
+
+            int node = ROOT;
+            for (int level = 1; level <= _depth; level++) {
+                int id = childId(node, red, green, blue);
+                int child = _child[node * 8 + id];
+                if (child == NONE) {
+                    child = createNode(node, id, level);
+                }
+                node = child;
+                _count[node] += (long)SHIFT[level] * count;
+            }
+            _unique[node] += count;
+            _sums[node * 3] += (long)red * count;
+            _sums[node * 3 + 1] += (long)green * count;
+            _sums[node * 3 + 2] += (long)blue * count;
+        }
+
+        /**
+         * Prunes the tree until it represents no more than our maximum number of colors.
+         */
+        public void reduce ()
+        {
+            long threshold = 1;
+            while (_colors > _maxColors) {
+                _colors = 0;
+                threshold = reduce(ROOT, threshold, Long.MAX_VALUE);
+            }
+        }
+
+        /**
+         * Assigns palette entries to the nodes that represent colors.
+         */
+        public void createPalette ()
+        {
+            _palette = new int[_colors];
+            _colors = 0;
+            createPalette(ROOT);
+        }
+
+        /**
+         * Returns our palette, once created.
+         */
+        public int[] getPalette ()
+        {
+            return _palette;
+        }
+
+        /**
+         * Returns the index of the palette entry that best represents the supplied color.
+         */
+        public int assign (int color)
+        {
+            int red = (color >> 16) & 0xFF, green = (color >> 8) & 0xFF, blue = color & 0xFF;
+
+            // find the deepest node containing the color, then search its parent's subtree
+            int node = ROOT;
+            while (true) {
+                int child = _child[node * 8 + childId(node, red, green, blue)];
+                if (child == NONE) {
+                    break;
+                }
+                node = child;
+            }
+            _bestDist = Integer.MAX_VALUE;
+            closestColor(_parent[node], red, green, blue);
+            return _best;
+        }
+
+        protected int childId (int node, int red, int green, int blue)
+        {
+            int mid = node * 3;
+            return (red > _mid[mid] ? 1 : 0) | (green > _mid[mid + 1] ? 2 : 0) |
+                (blue > _mid[mid + 2] ? 4 : 0);
+        }
+
+        protected int createNode (int parent, int id, int level)
+        {
+            int node;
+            if (_free != NONE) {
+                node = _free;
+                _free = _parent[node];
+            } else {
+                if (_used == _parent.length) {
+                    allocate(_used * 2);
+                }
+                node = _used++;
+            }
+
+            Arrays.fill(_child, node * 8, node * 8 + 8, NONE);
+            _nchild[node] = 0;
+            _parent[node] = parent;
+            _id[node] = (byte)id;
+            _level[node] = (byte)level;
+            _count[node] = 0;
+            _unique[node] = 0;
+            _sums[node * 3] = _sums[node * 3 + 1] = _sums[node * 3 + 2] = 0;
+            int bi = (1 << (MAX_TREE_DEPTH - level)) >> 1;
+            for (int cc = 0; cc < 3; cc++) {
+                _mid[node * 3 + cc] = _mid[parent * 3 + cc] + (((id >> cc) & 1) != 0 ? bi : -bi);
+            }
+
+            _nodes++;
+            if (level == _depth) {
+                _colors++;
+            }
+            _nchild[parent]++;
+            _child[parent * 8 + id] = node;
+            return node;
+        }
+
+        /**
+         * Removes the supplied node, merging its statistics into its parent.
+         */
+        protected void pruneChild (int node)
+        {
+            int parent = _parent[node];
+            _nchild[parent]--;
+            _unique[parent] += _unique[node];
+            for (int cc = 0; cc < 3; cc++) {
+                _sums[parent * 3 + cc] += _sums[node * 3 + cc];
+            }
+            _child[parent * 8 + _id[node]] = NONE;
+            _nodes--;
+
+            // add the node to our free list
+            _parent[node] = _free;
+            _free = node;
+        }
+
+        protected void pruneLevel (int node)
+        {
+            if (_nchild[node] != 0) {
+                for (int id = 0; id < 8; id++) {
+                    int child = _child[node * 8 + id];
+                    if (child != NONE) {
+                        pruneLevel(child);
+                    }
+                }
+            }
+            if (_level[node] == _depth) {
+                pruneChild(node);
+            }
+        }
+
+        protected long reduce (int node, long threshold, long nextThreshold)
+        {
+            if (_nchild[node] != 0) {
+                for (int id = 0; id < 8; id++) {
+                    int child = _child[node * 8 + id];
+                    if (child != NONE) {
+                        nextThreshold = reduce(child, threshold, nextThreshold);
+                    }
+                }
+            }
+            if (_count[node] <= threshold) {
+                pruneChild(node);
+            } else {
+                if (_unique[node] != 0) {
+                    _colors++;
+                }
+                nextThreshold = Math.min(nextThreshold, _count[node]);
+            }
+            return nextThreshold;
+        }
+
+        protected void createPalette (int node)
+        {
+            if (_nchild[node] != 0) {
+                for (int id = 0; id < 8; id++) {
+                    int child = _child[node * 8 + id];
+                    if (child != NONE) {
+                        createPalette(child);
+                    }
+                }
+            }
+            long unique = _unique[node];
+            if (unique != 0) {
+                int red = (int)((_sums[node * 3] + (unique >> 1)) / unique);
+                int green = (int)((_sums[node * 3 + 1] + (unique >> 1)) / unique);
+                int blue = (int)((_sums[node * 3 + 2] + (unique >> 1)) / unique);
+                _palette[_colors] = 0xFF000000 | (red << 16) | (green << 8) | blue;
+                _colorNumber[node] = _colors++;
+            }
+        }
+
+        protected void closestColor (int node, int red, int green, int blue)
+        {
+            if (_nchild[node] != 0) {
+                for (int id = 0; id < 8; id++) {
+                    int child = _child[node * 8 + id];
+                    if (child != NONE) {
+                        closestColor(child, red, green, blue);
+                    }
+                }
+            }
+            if (_unique[node] != 0) {
+                int color = _palette[_colorNumber[node]];
+                int dr = ((color >> 16) & 0xFF) - red, dg = ((color >> 8) & 0xFF) - green;
+                int db = (color & 0xFF) - blue;
+                int dist = dr*dr + dg*dg + db*db;
+                if (dist < _bestDist) {
+                    _bestDist = dist;
+                    _best = _colorNumber[node];
+                }
+            }
+        }
+
+        protected void allocate (int capacity)
+        {
+            int ocap = (_parent == null) ? 0 : _parent.length;
+            _parent = grow(_parent, capacity);
+            _nchild = grow(_nchild, capacity);
+            _colorNumber = grow(_colorNumber, capacity);
+            _child = grow(_child, capacity * 8);
+            _mid = grow(_mid, capacity * 3);
+            _id = (_id == null) ? new byte[capacity] : Arrays.copyOf(_id, capacity);
+            _level = (_level == null) ? new byte[capacity] : Arrays.copyOf(_level, capacity);
+            _count = (_count == null) ? new long[capacity] : Arrays.copyOf(_count, capacity);
+            _unique = (_unique == null) ? new long[capacity] : Arrays.copyOf(_unique, capacity);
+            _sums = (_sums == null) ? new long[capacity * 3] : Arrays.copyOf(_sums, capacity * 3);
+            if (ocap == 0) {
+                Arrays.fill(_child, NONE);
+            }
+        }
+
+        protected static int[] grow (int[] array, int size)
+        {
+            return (array == null) ? new int[size] : Arrays.copyOf(array, size);
+        }
+
+        /** Our configuration and the depth of our tree. */
+        protected int _maxColors, _depth;
+
+        /** The number of colors and nodes in our tree, the number of node slots used, and the
+         * head of our list of freed nodes. */
+        protected int _colors, _nodes, _used, _free = NONE;
+
+        /** Per node: parent, number of children, palette index, children (eight per node),
+         * midpoint (three per node), index within parent and level. */
+        protected int[] _parent, _nchild, _colorNumber, _child, _mid;
+        protected byte[] _id, _level;
+
+        /** Per node: weighted pixel count of the subtree, number of pixels and the sums of
+         * their red, green and blue components (three per node). */
+        protected long[] _count, _unique, _sums;
+
+        /** Our palette, once created. */
+        protected int[] _palette;
+
+        /** The results of the most recent closest color search. */
+        protected int _best, _bestDist;
+    }
+
+    /** The maximum number of colors in our palettes. */
+    protected int _maxColors;
+
+    /** Whether we dither and whether we work in parallel. */
+    protected boolean _dither, _parallel;
+
+    /** The number of pixels above which we'll work in parallel. */
+    protected static final int PARALLEL_PIXELS = 1 << 16;
+
+    /** Constants shared with {@link Quantize}. */
+    protected static final int MAX_RGB = 255, MAX_NODES = 266817, MAX_TREE_DEPTH = 8;
+
+    /** The index of the root node and the marker for a missing child. */
+    protected static final int ROOT = 0, NONE = -1;
+
+    /** The weight of a pixel at each level of the tree. */
+    protected static final int[] SHIFT = new int[MAX_TREE_DEPTH + 1];
+    static {
+        for (int ii = 0; ii <= MAX_TREE_DEPTH; ii++) {
+            SHIFT[ii] = 1 << (15 - ii);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.image;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * A minimal PNG encoder that favors speed over size: images are written as 8-bit truecolor
+ * (with alpha, unless the image is opaque), without row filtering, using a configurable (and by
+ * default, fast) deflate level. This is much faster than going through ImageIO for the small
+ * images that we generate on the fly, at the cost of somewhat larger output.
+ */
+public class PNGEncoder
+{
+    /**
+     * Encodes the supplied image using {@link Deflater#BEST_SPEED}.
+     */
+    public static byte[] encode (BufferedImage image)
+    {
+        return encode(image, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Encodes the supplied image using the specified deflate level (0 for no compression through
+     * 9 for maximum compression).
+     */
+    public static byte[] encode (BufferedImage image, int level)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+            image.getWidth() * image.getHeight() + 1024);
+        try {
+            write(image, out, level);
+        } catch (IOException ioe) {
+            throw new AssertionError(ioe); // not possible with a byte array stream
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the supplied image to the supplied stream in PNG format using the specified deflate
+     * level. The stream is not closed.
+     */
+    public static void write (BufferedImage image, OutputStream out, int level)
+        throws IOException
+    {
+        int width = image.getWidth(), height = image.getHeight();
+        boolean alpha = (image.getColorModel().getTransparency() != Transparency.OPAQUE);
+        int bpp = alpha ? 4 : 3;
+
+        DataOutputStream dout = new DataOutputStream(out);
+        dout.write(SIGNATURE);
+
+        // the header: dimensions, bit depth, color type, compression, filter and interlace
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream(13);
+        DataOutputStream cout = new DataOutputStream(chunk);
+        cout.writeInt(width);
+        cout.writeInt(height);
+        cout.writeByte(8);
+        cout.writeByte(alpha ? COLOR_RGBA : COLOR_RGB);
+        cout.writeByte(0);
+        cout.writeByte(0);
+        cout.writeByte(0);
+        writeChunk(dout, "IHDR", chunk.toByteArray(), chunk.size());
+
+        // the image data: each row is preceded by its filter type (none)
+        chunk = new ByteArrayOutputStream(height * (width * bpp + 1) / 2 + 64);
+        Deflater deflater = new Deflater(level);
+        try {
+            DeflaterOutputStream zout = new DeflaterOutputStream(chunk, deflater, 8192);
+            int[] argb = new int[width];
+            byte[] row = new byte[width * bpp + 1];
+            for (int yy = 0; yy < height; yy++) {
+                image.getRGB(0, yy, width, 1, argb, 0, width);
+                int pos = 1;
+                for (int xx = 0; xx < width; xx++) {
+                    int pixel = argb[xx];
+                    row[pos++] = (byte)(pixel >> 16);
+                    row[pos++] = (byte)(pixel >> 8);
+                    row[pos++] = (byte)pixel;
+                    if (alpha) {
+                        row[pos++] = (byte)(pixel >>> 24);
+                    }
+                }
+                zout.write(row);
+            }
+            zout.finish();
+        } finally {
+            deflater.end();
+        }
+        writeChunk(dout, "IDAT", chunk.toByteArray(), chunk.size());
+
+        writeChunk(dout, "IEND", new byte[0], 0);
+        dout.flush();
+    }
+
+    /**
+     * Writes a chunk with the specified type and data, followed by its checksum.
+     */
+    protected static void writeChunk (DataOutputStream out, String type, byte[] data, int length)
+        throws IOException
+    {
+        byte[] tbytes = type.getBytes(US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(tbytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(tbytes);
+        out.write(data, 0, length);
+        out.writeInt((int)crc.getValue());
+    }
+
+    /** The PNG file signature. */
+    protected static final byte[] SIGNATURE = {
+        (byte)137, (byte)80, (byte)78, (byte)71, (byte)13, (byte)10, (byte)26, (byte)10 };
+
+    /** PNG color types. */
+    protected static final int COLOR_RGB = 2, COLOR_RGBA = 6;
+}
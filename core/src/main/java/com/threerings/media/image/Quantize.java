@@ -19,6 +19,9 @@
 
 package com.threerings.media.image;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+
 /*
  * @(#)Quantize.java    0.90 9/19/00 Adam Doppelt
  */
@@ -315,6 +318,29 @@ public class Quantize {
         return cube.colormap;
     }
 
+    /**
+     * Reduces the supplied image to the given number of colors, returning an 8-bit indexed image.
+     * This uses the considerably faster {@link OctreeQuantizer}.
+     */
+    public static BufferedImage quantizeImage (BufferedImage image, int max_colors)
+    {
+        return new OctreeQuantizer(max_colors).quantize(image);
+    }
+
+    /**
+     * Reduces the supplied ARGB pixels (in rows of the given width) to the given number of colors
+     * using {@link OctreeQuantizer}.
+     *
+     * @param indices filled in with the color palette index of each pixel.
+     *
+     * @return The new color palette.
+     */
+    public static IndexColorModel quantizeImage (
+        int[] argb, int width, int max_colors, byte[] indices)
+    {
+        return new OctreeQuantizer(max_colors).quantize(argb, width, indices);
+    }
+
     static class Cube {
         int pixels[][];
         int max_colors;
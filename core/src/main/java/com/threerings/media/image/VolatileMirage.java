@@ -117,13 +117,19 @@ public abstract class VolatileMirage implements Mirage
     public boolean hitTest (int x, int y)
     {
 //         return ImageUtil.hitTest(_image.getSnapshot(), x, y);
-        return ImageUtil.hitTest(_image, x, y);
+        HitMask mask = _mask;
+        if (mask == null) {
+            _mask = mask = HitMask.create(_image);
+        }
+        return mask.hitTest(x, y);
     }
 
     // documentation inherited from interface
     public long getEstimatedMemoryUsage ()
     {
-        return ImageUtil.getEstimatedMemoryUsage(_image.getRaster());
+        HitMask mask = _mask;
+        return ImageUtil.getEstimatedMemoryUsage(_image.getRaster()) +
+            ((mask == null) ? 0 : mask.getEstimatedMemoryUsage());
     }
 
     // documentation inherited from interface
@@ -152,6 +158,9 @@ public abstract class VolatileMirage implements Mirage
 
         // render our source image into the volatile image
         refreshVolatileImage();
+
+        // our hit mask will be recreated from the new image as needed
+        _mask = null;
     }
 
     /**
@@ -193,6 +202,9 @@ public abstract class VolatileMirage implements Mirage
 //     protected VolatileImage _image;
     protected BufferedImage _image;
 
+    /** The mask against which we hit test, created on first use. */
+    protected HitMask _mask;
+
     /** Turns off image rendering for testing. */
     protected static final boolean IMAGE_DEBUG = false;
 }
@@ -0,0 +1,270 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.perf;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.samskivert.util.ArrayUtil;
+
+/**
+ * The hub of our performance instrumentation. Code that wishes to be measured obtains named
+ * {@link Span}s (for timing intervals, such as the painting of a frame's tiles) and {@link
+ * Counter}s (for cache hits and the like) once, up front, and reports to them as it runs. Those
+ * reports are passed along to whatever {@link MetricsSink}s have been registered; when there are
+ * none, reporting costs a single volatile read.
+ *
+ * <pre>{@code
+ * protected static final FrameMetrics.Span PAINT_TILES = FrameMetrics.span("paint.tiles");
+ * ...
+ * long start = PAINT_TILES.start();
+ * paintTiles(gfx, clip);
+ * PAINT_TILES.end(start);
+ * }</pre>
+ */
+public class FrameMetrics
+{
+    /**
+     * A named interval, the durations of which are reported to our sinks.
+     */
+    public static final class Span
+    {
+        /** The name of this span, e.g. <code>paint.tiles</code>. */
+        public final String name;
+
+        /**
+         * Notes the start of an interval. The returned value must be passed to {@link #end}.
+         */
+        public long start ()
+        {
+            // avoid even reading the clock if no one is listening
+            return (_sink == null) ? 0L : System.nanoTime();
+        }
+
+        /**
+         * Notes the end of an interval started with {@link #start}.
+         */
+        public void end (long start)
+        {
+            if (start != 0L) {
+                MetricsSink sink = _sink;
+                if (sink != null) {
+                    sink.spanEnded(this, start, System.nanoTime() - start);
+                }
+            }
+        }
+
+        @Override
+        public String toString ()
+        {
+            return name;
+        }
+
+        protected Span (String name)
+        {
+            this.name = name;
+        }
+    }
+
+    /**
+     * A named count of events, increments to which are reported to our sinks.
+     */
+    public static final class Counter
+    {
+        /** The name of this counter, e.g. <code>image.cache.hit</code>. */
+        public final String name;
+
+        /**
+         * Counts a single event.
+         */
+        public void increment ()
+        {
+            MetricsSink sink = _sink;
+            if (sink != null) {
+                sink.counted(this, 1L);
+            }
+        }
+
+        /**
+         * Counts the specified number of events.
+         */
+        public void add (long delta)
+        {
+            MetricsSink sink = _sink;
+            if (sink != null) {
+                sink.counted(this, delta);
+            }
+        }
+
+        @Override
+        public String toString ()
+        {
+            return name;
+        }
+
+        protected Counter (String name)
+        {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Returns the span with the specified name, creating it if necessary.
+     */
+    public static Span span (String name)
+    {
+        Span span = _spans.get(name);
+        if (span == null) {
+            Span nspan = new Span(name);
+            span = _spans.putIfAbsent(name, nspan);
+            if (span == null) {
+                span = nspan;
+            }
+        }
+        return span;
+    }
+
+    /**
+     * Returns the counter with the specified name, creating it if necessary.
+     */
+    public static Counter counter (String name)
+    {
+        Counter counter = _counters.get(name);
+        if (counter == null) {
+            Counter ncounter = new Counter(name);
+            counter = _counters.putIfAbsent(name, ncounter);
+            if (counter == null) {
+                counter = ncounter;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Returns all spans created thus far.
+     */
+    public static Collection<Span> getSpans ()
+    {
+        return _spans.values();
+    }
+
+    /**
+     * Returns all counters created thus far.
+     */
+    public static Collection<Counter> getCounters ()
+    {
+        return _counters.values();
+    }
+
+    /**
+     * Returns true if any sinks are registered, in which case metrics are being collected.
+     */
+    public static boolean isEnabled ()
+    {
+        return _sink != null;
+    }
+
+    /**
+     * Registers a sink to which metrics will be reported.
+     */
+    public static synchronized void addSink (MetricsSink sink)
+    {
+        _sinks = ArrayUtil.append(_sinks, sink);
+        updateSink();
+    }
+
+    /**
+     * Unregisters a sink previously registered with {@link #addSink}.
+     */
+    public static synchronized void removeSink (MetricsSink sink)
+    {
+        int idx = ArrayUtil.indexOf(_sinks, sink);
+        if (idx >= 0) {
+            _sinks = ArrayUtil.splice(_sinks, idx, 1);
+            updateSink();
+        }
+    }
+
+    /**
+     * Informs our sinks that a frame has been completed. Called by the frame manager at the end
+     * of each tick.
+     */
+    public static void frameEnded ()
+    {
+        MetricsSink sink = _sink;
+        if (sink != null) {
+            sink.frameEnded();
+        }
+    }
+
+    /**
+     * Recomputes the sink to which we report: null if we have none, the sink itself if we have
+     * one, or one that reports to all of them.
+     */
+    protected static void updateSink ()
+    {
+        final MetricsSink[] sinks = _sinks;
+        switch (sinks.length) {
+        case 0:
+            _sink = null;
+            break;
+        case 1:
+            _sink = sinks[0];
+            break;
+        default:
+            _sink = new MetricsSink() {
+                public void spanEnded (Span span, long start, long nanos) {
+                    for (MetricsSink sink : sinks) {
+                        sink.spanEnded(span, start, nanos);
+                    }
+                }
+                public void counted (Counter counter, long delta) {
+                    for (MetricsSink sink : sinks) {
+                        sink.counted(counter, delta);
+                    }
+                }
+                public void frameEnded () {
+                    for (MetricsSink sink : sinks) {
+                        sink.frameEnded();
+                    }
+                }
+                @Override public String toString () {
+                    return Arrays.toString(sinks);
+                }
+            };
+            break;
+        }
+    }
+
+    /** The sink to which we report, or null if no one is listening. */
+    protected static volatile MetricsSink _sink;
+
+    /** Our registered sinks. */
+    protected static MetricsSink[] _sinks = new MetricsSink[0];
+
+    /** Our spans, by name. */
+    protected static ConcurrentMap<String, Span> _spans = new ConcurrentHashMap<String, Span>();
+
+    /** Our counters, by name. */
+    protected static ConcurrentMap<String, Counter> _counters =
+        new ConcurrentHashMap<String, Counter>();
+}
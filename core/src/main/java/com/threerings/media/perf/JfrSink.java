@@ -0,0 +1,119 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.perf;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Reports metrics as Java Flight Recorder events, so that they can be examined alongside GC,
+ * allocation and lock activity in JDK Mission Control. Each span is reported as an event; counts
+ * are accumulated and reported once per frame, so as not to flood the recording. When no
+ * recording is in progress (or our events are disabled in its settings), the cost is negligible.
+ */
+public class JfrSink implements MetricsSink
+{
+    /** Reports the completion of a span. */
+    @Name("com.threerings.media.Span")
+    @Label("Span")
+    @Category({ "Nenya", "Media" })
+    @Description("An instrumented interval in the media stack")
+    @StackTrace(false)
+    public static class SpanEvent extends Event
+    {
+        @Label("Name")
+        public String name;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        public long nanos;
+    }
+
+    /** Reports the counts accumulated over a frame. */
+    @Name("com.threerings.media.Counter")
+    @Label("Counter")
+    @Category({ "Nenya", "Media" })
+    @Description("Occurrences of a counted media event over a frame")
+    @StackTrace(false)
+    public static class CounterEvent extends Event
+    {
+        @Label("Name")
+        public String name;
+
+        @Label("Count")
+        public long count;
+    }
+
+    // from interface MetricsSink
+    public void spanEnded (FrameMetrics.Span span, long start, long nanos)
+    {
+        SpanEvent event = new SpanEvent();
+        if (event.isEnabled()) {
+            event.name = span.name;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    // from interface MetricsSink
+    public void counted (FrameMetrics.Counter counter, long delta)
+    {
+        AtomicLong count = _counts.get(counter);
+        if (count == null) {
+            AtomicLong ncount = new AtomicLong();
+            count = _counts.putIfAbsent(counter, ncount);
+            if (count == null) {
+                count = ncount;
+            }
+        }
+        count.addAndGet(delta);
+    }
+
+    // from interface MetricsSink
+    public void frameEnded ()
+    {
+        for (Map.Entry<FrameMetrics.Counter, AtomicLong> entry : _counts.entrySet()) {
+            long count = entry.getValue().getAndSet(0L);
+            if (count == 0L) {
+                continue;
+            }
+            CounterEvent event = new CounterEvent();
+            if (event.isEnabled()) {
+                event.name = entry.getKey().name;
+                event.count = count;
+                event.commit();
+            }
+        }
+    }
+
+    /** The counts accumulated since the end of the last frame. */
+    protected ConcurrentMap<FrameMetrics.Counter, AtomicLong> _counts =
+        new ConcurrentHashMap<FrameMetrics.Counter, AtomicLong>();
+}
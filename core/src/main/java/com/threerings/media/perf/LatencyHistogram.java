@@ -0,0 +1,194 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.perf;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations (in nanoseconds) with log-linear buckets, in the manner of HDR
+ * histograms: each power of two is split into {@link #SUB_BUCKETS} linear buckets, so values
+ * are recorded with a relative precision of about three percent from a nanosecond up to
+ * several minutes in a fixed and modest amount of memory. Recording is lock-free and may be
+ * done from any thread.
+ */
+public class LatencyHistogram
+{
+    /**
+     * Records the supplied duration, in nanoseconds. Negative durations are recorded as zero and
+     * overlong ones as the longest duration we can represent.
+     */
+    public void record (long nanos)
+    {
+        long value = Math.max(0L, Math.min(nanos, MAX_VALUE));
+        _counts.incrementAndGet(index(value));
+        _total.addAndGet(value);
+        long max;
+        while (value > (max = _max.get()) && !_max.compareAndSet(max, value)) {
+            // loop until we've won or someone else has recorded something larger
+        }
+    }
+
+    /**
+     * Returns the number of durations recorded.
+     */
+    public long getCount ()
+    {
+        long count = 0;
+        for (int ii = 0, ll = _counts.length(); ii < ll; ii++) {
+            count += _counts.get(ii);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the sum of the durations recorded, in nanoseconds.
+     */
+    public long getTotal ()
+    {
+        return _total.get();
+    }
+
+    /**
+     * Returns the longest duration recorded, in nanoseconds.
+     */
+    public long getMax ()
+    {
+        return _max.get();
+    }
+
+    /**
+     * Returns the mean duration recorded, in nanoseconds, or zero if nothing has been recorded.
+     */
+    public double getMean ()
+    {
+        long count = getCount();
+        return (count == 0) ? 0 : (double)getTotal() / count;
+    }
+
+    /**
+     * Returns (an approximation of) the specified percentile of the recorded durations, in
+     * nanoseconds, or zero if nothing has been recorded.
+     *
+     * @param percentile the percentile, from 0 to 100.
+     */
+    public long getPercentile (double percentile)
+    {
+        long[] counts = new long[_counts.length()];
+        long count = 0;
+        for (int ii = 0; ii < counts.length; ii++) {
+            count += (counts[ii] = _counts.get(ii));
+        }
+        if (count == 0) {
+            return 0L;
+        }
+        long rank = Math.max(1L, (long)Math.ceil(count * Math.min(percentile, 100) / 100));
+        long seen = 0;
+        for (int ii = 0; ii < counts.length; ii++) {
+            seen += counts[ii];
+            if (seen >= rank) {
+                return Math.min(getMidpoint(ii), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Adds the durations recorded in the supplied histogram to this one.
+     */
+    public void add (LatencyHistogram other)
+    {
+        for (int ii = 0, ll = _counts.length(); ii < ll; ii++) {
+            long count = other._counts.get(ii);
+            if (count != 0) {
+                _counts.addAndGet(ii, count);
+            }
+        }
+        _total.addAndGet(other._total.get());
+        long omax = other._max.get(), max;
+        while (omax > (max = _max.get()) && !_max.compareAndSet(max, omax)) {
+            // loop until we've won or someone else has recorded something larger
+        }
+    }
+
+    /**
+     * Clears out all recorded durations.
+     */
+    public void reset ()
+    {
+        for (int ii = 0, ll = _counts.length(); ii < ll; ii++) {
+            _counts.set(ii, 0L);
+        }
+        _total.set(0L);
+        _max.set(0L);
+    }
+
+    @Override
+    public String toString ()
+    {
+        return "[count=" + getCount() + ", mean=" + format((long)getMean()) +
+            ", p50=" + format(getPercentile(50)) + ", p90=" + format(getPercentile(90)) +
+            ", p99=" + format(getPercentile(99)) + ", max=" + format(getMax()) + "]";
+    }
+
+    /**
+     * Formats the supplied duration (in nanoseconds) in microseconds, for human consumption.
+     */
+    public static String format (long nanos)
+    {
+        return (nanos / 1000) + "." + ((nanos / 100) % 10) + "us";
+    }
+
+    /**
+     * Returns the index of the bucket into which the supplied (non-negative) value falls.
+     */
+    protected static int index (long value)
+    {
+        // values below twice our sub-bucket count are recorded exactly, above that each power of
+        // two gets SUB_BUCKETS buckets
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return (shift << SUB_BITS) + (int)(value >>> shift);
+    }
+
+    /**
+     * Returns the value in the middle of the range covered by the specified bucket.
+     */
+    protected static long getMidpoint (int index)
+    {
+        int shift = Math.max(0, (index >> SUB_BITS) - 1);
+        long lower = (long)(index - (shift << SUB_BITS)) << shift;
+        return lower + ((1L << shift) >> 1);
+    }
+
+    /** The number of times a value has landed in each of our buckets. */
+    protected AtomicLongArray _counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+
+    /** The sum and maximum of the values we've recorded. */
+    protected AtomicLong _total = new AtomicLong(), _max = new AtomicLong();
+
+    /** The base two log of the number of linear buckets per power of two. */
+    protected static final int SUB_BITS = 5;
+
+    /** The number of linear buckets per power of two. */
+    protected static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** The largest value we can record (about nine minutes, in nanoseconds). */
+    protected static final long MAX_VALUE = (1L << 39) - 1;
+}
@@ -0,0 +1,46 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.perf;
+
+/**
+ * Receives the metrics reported via {@link FrameMetrics}. Sinks may be called from any thread
+ * (spans and counters are reported on the thread that did the work), and should be quick about
+ * it, as they're called in the midst of painting.
+ */
+public interface MetricsSink
+{
+    /**
+     * Reports the completion of an interval.
+     *
+     * @param start the {@link System#nanoTime} at which the interval started.
+     * @param nanos the duration of the interval, in nanoseconds.
+     */
+    public void spanEnded (FrameMetrics.Span span, long start, long nanos);
+
+    /**
+     * Reports the occurrence of one or more counted events.
+     */
+    public void counted (FrameMetrics.Counter counter, long delta);
+
+    /**
+     * Reports the completion of a frame.
+     */
+    public void frameEnded ();
+}
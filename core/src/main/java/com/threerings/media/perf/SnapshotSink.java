@@ -0,0 +1,152 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.perf;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulates metrics in memory, from which a {@link Snapshot} can be taken at any time (for
+ * display in a debug overlay, logging or inspection by tests).
+ */
+public class SnapshotSink implements MetricsSink
+{
+    /**
+     * An immutable summary of the metrics accumulated by a sink.
+     */
+    public static class Snapshot
+    {
+        /** The number of frames completed. */
+        public final long frames;
+
+        /** The durations recorded for each span, by span name. */
+        public final Map<String, LatencyHistogram> spans;
+
+        /** The total of each counter, by counter name. */
+        public final Map<String, Long> counters;
+
+        public Snapshot (long frames, Map<String, LatencyHistogram> spans,
+                         Map<String, Long> counters)
+        {
+            this.frames = frames;
+            this.spans = Collections.unmodifiableMap(spans);
+            this.counters = Collections.unmodifiableMap(counters);
+        }
+
+        /**
+         * Returns the total of the specified counter, or zero if it has not been counted.
+         */
+        public long getCount (String counter)
+        {
+            Long count = counters.get(counter);
+            return (count == null) ? 0L : count;
+        }
+
+        @Override
+        public String toString ()
+        {
+            StringBuilder buf = new StringBuilder("[frames=").append(frames);
+            for (Map.Entry<String, LatencyHistogram> entry : spans.entrySet()) {
+                buf.append(", ").append(entry.getKey()).append("=").append(entry.getValue());
+            }
+            for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                buf.append(", ").append(entry.getKey()).append("=").append(entry.getValue());
+            }
+            return buf.append("]").toString();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the metrics accumulated since this sink was created or last reset.
+     */
+    public Snapshot snapshot ()
+    {
+        Map<String, LatencyHistogram> spans = new TreeMap<String, LatencyHistogram>();
+        for (Map.Entry<FrameMetrics.Span, LatencyHistogram> entry : _spans.entrySet()) {
+            LatencyHistogram histo = new LatencyHistogram();
+            histo.add(entry.getValue());
+            spans.put(entry.getKey().name, histo);
+        }
+        Map<String, Long> counters = new TreeMap<String, Long>();
+        for (Map.Entry<FrameMetrics.Counter, AtomicLong> entry : _counters.entrySet()) {
+            counters.put(entry.getKey().name, entry.getValue().get());
+        }
+        return new Snapshot(_frames.get(), spans, counters);
+    }
+
+    /**
+     * Clears out all accumulated metrics.
+     */
+    public void reset ()
+    {
+        _spans.clear();
+        _counters.clear();
+        _frames.set(0L);
+    }
+
+    // from interface MetricsSink
+    public void spanEnded (FrameMetrics.Span span, long start, long nanos)
+    {
+        LatencyHistogram histo = _spans.get(span);
+        if (histo == null) {
+            LatencyHistogram nhisto = new LatencyHistogram();
+            histo = _spans.putIfAbsent(span, nhisto);
+            if (histo == null) {
+                histo = nhisto;
+            }
+        }
+        histo.record(nanos);
+    }
+
+    // from interface MetricsSink
+    public void counted (FrameMetrics.Counter counter, long delta)
+    {
+        AtomicLong count = _counters.get(counter);
+        if (count == null) {
+            AtomicLong ncount = new AtomicLong();
+            count = _counters.putIfAbsent(counter, ncount);
+            if (count == null) {
+                count = ncount;
+            }
+        }
+        count.addAndGet(delta);
+    }
+
+    // from interface MetricsSink
+    public void frameEnded ()
+    {
+        _frames.incrementAndGet();
+    }
+
+    /** Our accumulated span durations. */
+    protected ConcurrentMap<FrameMetrics.Span, LatencyHistogram> _spans =
+        new ConcurrentHashMap<FrameMetrics.Span, LatencyHistogram>();
+
+    /** Our accumulated counts. */
+    protected ConcurrentMap<FrameMetrics.Counter, AtomicLong> _counters =
+        new ConcurrentHashMap<FrameMetrics.Counter, AtomicLong>();
+
+    /** The number of frames completed. */
+    protected AtomicLong _frames = new AtomicLong();
+}
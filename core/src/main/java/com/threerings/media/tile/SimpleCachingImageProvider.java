@@ -37,18 +37,24 @@ import static com.threerings.media.Log.log;
 
 /**
  * An image provider that can be used by command line tools to load images and provide them to
- * tilesets when doing things like preprocessing tileset images.
+ * tilesets when doing things like preprocessing tileset images. It may be used from multiple
+ * threads, though an image requested concurrently by several threads may be loaded more than once.
  */
 public abstract class SimpleCachingImageProvider implements ImageProvider
 {
     // documentation inherited from interface
     public BufferedImage getTileSetImage (String path, Colorization[] zations)
     {
-        BufferedImage image = _cache.get(path);
+        BufferedImage image;
+        synchronized (_cache) {
+            image = _cache.get(path);
+        }
         if (image == null) {
             try {
                 image = loadImage(path);
-                _cache.put(path, image);
+                synchronized (_cache) {
+                    _cache.put(path, image);
+                }
             } catch (IOException ioe) {
                 log.warning("Failed to load image", "path", path, "ioe", ioe);
             }
@@ -19,6 +19,8 @@
 
 package com.threerings.media.tile;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
 
 import java.util.Iterator;
@@ -37,6 +39,7 @@ import com.threerings.media.image.BufferedMirage;
 import com.threerings.media.image.Colorization;
 import com.threerings.media.image.ImageUtil;
 import com.threerings.media.image.Mirage;
+import com.threerings.media.perf.FrameMetrics;
 import com.threerings.media.tile.Tile.Key;
 
 import static com.threerings.media.Log.log;
@@ -206,6 +209,7 @@ public abstract class TileSet
         // first look in the active set; if it's in use by anyone or in the cache, it will be in
         // the active set
         synchronized (_atiles) {
+            purgeCollectedTiles();
             _key.tileSet = this;
             _key.tileIndex = tileIndex;
             _key.zations = zations;
@@ -217,12 +221,15 @@ public abstract class TileSet
 
         // if it's not in the active set, it's not in memory; so load it
         if (tile == null) {
+            CACHE_MISSES.increment();
             tile = createTile();
             tile.key = new Tile.Key(this, tileIndex, zations);
             initTile(tile, tileIndex, zations);
             synchronized (_atiles) {
-                _atiles.put(tile.key, new SoftReference<Tile>(tile));
+                _atiles.put(tile.key, new TileReference(tile));
             }
+        } else {
+            CACHE_HITS.increment();
         }
 
         // periodically report our image cache performance
@@ -405,6 +412,34 @@ public abstract class TileSet
             "tmem", (Tile._totalTileMemory / 1024) + "k", "seen", _atiles.size(), "asize", + asize);
     }
 
+    /**
+     * Removes the entries for tiles that have been collected from the active set, counting each
+     * as an eviction. Must be called while synchronized on {@link #_atiles}.
+     */
+    protected static void purgeCollectedTiles ()
+    {
+        Reference<? extends Tile> ref;
+        while ((ref = _collected.poll()) != null) {
+            Key key = ((TileReference)ref).key;
+            if (_atiles.get(key) == ref) {
+                _atiles.remove(key);
+            }
+            CACHE_EVICTIONS.increment();
+        }
+    }
+
+    /** Refers softly to an active tile, and remembers its key so that it can be purged. */
+    protected static class TileReference extends SoftReference<Tile>
+    {
+        /** The key of the referenced tile. */
+        public final Key key;
+
+        public TileReference (Tile tile) {
+            super(tile, _collected);
+            key = tile.key;
+        }
+    }
+
     /**
      * Derived classes can override this, calling <code>super.toString(buf)</code> and then
      * appending additional information to the buffer.
@@ -434,9 +469,20 @@ public abstract class TileSet
     /** A map containing weak references to all "active" tiles. */
     protected static Map<Key, SoftReference<Tile>> _atiles = Maps.newHashMap();
 
+    /** Receives the references to active tiles once they have been collected. */
+    protected static ReferenceQueue<Tile> _collected = new ReferenceQueue<Tile>();
+
     /** A key used to look things up in the cache without creating craploads of keys unduly. */
     protected static Tile.Key _key = new Tile.Key(null, 0, null);
 
     /** Throttle our cache status logging to once every 300 seconds. */
     protected static Throttle _cacheStatThrottle = new Throttle(1, 300000L);
+
+    /** Track active tile set hits, misses and evictions (tiles that were collected). */
+    protected static final FrameMetrics.Counter CACHE_HITS =
+        FrameMetrics.counter("tile.cache.hit");
+    protected static final FrameMetrics.Counter CACHE_MISSES =
+        FrameMetrics.counter("tile.cache.miss");
+    protected static final FrameMetrics.Counter CACHE_EVICTIONS =
+        FrameMetrics.counter("tile.cache.evict");
 }
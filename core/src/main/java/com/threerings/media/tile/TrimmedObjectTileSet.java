@@ -25,6 +25,7 @@ import java.io.OutputStream;
 import java.io.Serializable;
 
 import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 
 import com.samskivert.util.ListUtil;
 import com.samskivert.util.StringUtil;
@@ -121,6 +122,16 @@ public class TrimmedObjectTileSet extends TileSet
         return _ometrics[tileIdx].height;
     }
 
+    /**
+     * Moves the image data for the specified tile to the supplied location in our tileset image.
+     * This is used when tiles are repacked into an image shared with other tilesets, in which case
+     * the image path must also be updated.
+     */
+    public void setImageLocation (int tileIdx, int x, int y)
+    {
+        _bounds[tileIdx].setLocation(x, y);
+    }
+
     @Override
     protected Colorization[] getColorizations (int tileIndex, Colorizer rizer)
     {
@@ -200,7 +211,45 @@ public class TrimmedObjectTileSet extends TileSet
         TileSetTrimmer.Packer packer)
         throws IOException
     {
-        final TrimmedObjectTileSet tset = new TrimmedObjectTileSet();
+        TrimmedObjectTileSet tset = createTrimmed(source);
+        TileSetTrimmer.trimTileSet(
+            source, destImage, tset.createMetricsReceiver(), imgFormat, packer);
+
+//         Log.info("Trimmed object tileset [bounds=" + StringUtil.toString(tset._bounds) +
+//                  ", metrics=" + StringUtil.toString(tset._ometrics) + "].");
+
+        return tset;
+    }
+
+    /**
+     * Creates a trimmed object tileset from the supplied source object tileset, keeping the
+     * trimmed image in memory rather than writing it out. The returned tileset is configured with
+     * an image provider that supplies that image (regardless of image path), so that its trimmed
+     * tile images may be obtained via {@link #getRawTileImage} for further processing.
+     */
+    public static TrimmedObjectTileSet trimObjectTileSet (
+        ObjectTileSet source, TileSetTrimmer.Packer packer)
+        throws IOException
+    {
+        TrimmedObjectTileSet tset = createTrimmed(source);
+        final BufferedImage image = TileSetTrimmer.createTrimmedImage(
+            source, tset.createMetricsReceiver(), packer);
+        tset.setImageProvider(new SimpleCachingImageProvider() {
+            @Override
+            protected BufferedImage loadImage (String path) {
+                return image;
+            }
+        });
+        return tset;
+    }
+
+    /**
+     * Creates a trimmed object tileset with the untrimmed metrics and bits of the supplied
+     * source. The trimmed metrics are filled in via {@link #createMetricsReceiver}.
+     */
+    protected static TrimmedObjectTileSet createTrimmed (ObjectTileSet source)
+    {
+        TrimmedObjectTileSet tset = new TrimmedObjectTileSet();
         tset.setName(source.getName());
         int tcount = source.getTileCount();
 
@@ -249,21 +298,22 @@ public class TrimmedObjectTileSet extends TileSet
             }
         }
 
-        // create the trimmed tileset image
-        TileSetTrimmer.TrimMetricsReceiver tmr = new TileSetTrimmer.TrimMetricsReceiver() {
+        return tset;
+    }
+
+    /**
+     * Returns a receiver that adjusts our metrics to account for the trimming of our tiles.
+     */
+    protected TileSetTrimmer.TrimMetricsReceiver createMetricsReceiver ()
+    {
+        return new TileSetTrimmer.TrimMetricsReceiver() {
             public void trimmedTile (int tileIndex, int imageX, int imageY,
                                      int trimX, int trimY, int trimWidth, int trimHeight) {
-                tset._ometrics[tileIndex].x -= trimX;
-                tset._ometrics[tileIndex].y -= trimY;
-                tset._bounds[tileIndex] = new Rectangle(imageX, imageY, trimWidth, trimHeight);
+                _ometrics[tileIndex].x -= trimX;
+                _ometrics[tileIndex].y -= trimY;
+                _bounds[tileIndex] = new Rectangle(imageX, imageY, trimWidth, trimHeight);
             }
         };
-        TileSetTrimmer.trimTileSet(source, destImage, tmr, imgFormat, packer);
-
-//         Log.info("Trimmed object tileset [bounds=" + StringUtil.toString(tset._bounds) +
-//                  ", metrics=" + StringUtil.toString(tset._ometrics) + "].");
-
-        return tset;
     }
 
     /** Extra bits related to object tiles. */
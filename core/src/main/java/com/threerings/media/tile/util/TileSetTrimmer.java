@@ -125,6 +125,25 @@ public class TileSetTrimmer
         TileSet source, OutputStream destImage, TrimMetricsReceiver tmr, String imgFormat,
         Packer packer)
         throws IOException
+    {
+        BufferedImage image = createTrimmedImage(source, tmr, packer);
+        if (destImage != null) {
+            // write out trimmed image
+            if (imgFormat == null || FastImageIO.FILE_SUFFIX.equals(imgFormat)) {
+                FastImageIO.write(image, destImage);
+            } else {
+                ImageIO.write(image, imgFormat, destImage);
+            }
+        }
+    }
+
+    /**
+     * Generates a trimmed tileset image from the supplied source tileset, as with {@link
+     * #trimTileSet}, but returns the image rather than writing it out.
+     */
+    public static BufferedImage createTrimmedImage (
+        TileSet source, TrimMetricsReceiver tmr, Packer packer)
+        throws IOException
     {
         int tcount = source.getTileCount();
         BufferedImage[] timgs = new BufferedImage[tcount];
@@ -184,15 +203,7 @@ public class TileSetTrimmer
                 tb.x, tb.y, tb.width, tb.height, 0, 0, null);
             drast.setRect(pos.x, pos.y, srast);
         }
-
-        if (destImage != null) {
-            // write out trimmed image
-            if (imgFormat == null || FastImageIO.FILE_SUFFIX.equals(imgFormat)) {
-                FastImageIO.write(image, destImage);
-            } else {
-                ImageIO.write(image, imgFormat, destImage);
-            }
-        }
+        return image;
     }
 
     /** Includes some boilerplate to handle bits of the packing process. */
@@ -0,0 +1,625 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+
+import com.google.common.collect.Lists;
+
+import com.threerings.media.util.AStarPathUtil.ExtendedTraversalPred;
+import com.threerings.media.util.AStarPathUtil.TraversalPred;
+
+import static com.threerings.media.util.AStarPathUtil.ADJACENT_COST;
+import static com.threerings.media.util.AStarPathUtil.DIAGONAL_COST;
+
+/**
+ * An A* path finder that performs the same search as {@link AStarPathUtil} but without
+ * allocating per node. Search nodes live in parallel int arrays indexed by node number, the open
+ * list is a binary heap of node numbers supporting decrease-key, and coordinates are mapped to
+ * node numbers by an open-addressed hash table. All of these are kept in a per-thread arena and
+ * reused from search to search, so a search allocates only the points in the resulting path.
+ *
+ * <p> Path finders are immutable and may be shared between threads. Statistics for a search are
+ * collected in a caller supplied {@link Stats} object rather than in static state. With the
+ * default {@link #EUCLIDEAN} heuristic and diagonals enabled, the paths found are identical to
+ * those found by {@link AStarPathUtil#getPath(TraversalPred,Object,int,int,int,int,int,boolean)}.
+ */
+public class AStarPathFinder
+{
+    /**
+     * Estimates the cost of travelling between two tile coordinates, in the units of
+     * {@link AStarPathUtil#ADJACENT_COST}. Heuristics that never overestimate yield shortest
+     * paths; larger estimates yield faster searches for somewhat longer paths.
+     */
+    public static interface Heuristic
+    {
+        /** Returns the estimated cost to get from <code>(ax, ay)</code> to
+         * <code>(bx, by)</code>. */
+        public int estimate (int ax, int ay, int bx, int by);
+    }
+
+    /** The straight line distance heuristic used by {@link AStarPathUtil}. */
+    public static final Heuristic EUCLIDEAN = new Heuristic() {
+        public int estimate (int ax, int ay, int bx, int by) {
+            int dx = bx - ax, dy = by - ay;
+            return (int)(ADJACENT_COST * Math.sqrt(dx * dx + dy * dy));
+        }
+    };
+
+    /** The exact cost of an unobstructed path when diagonal steps are allowed. */
+    public static final Heuristic OCTILE = new Heuristic() {
+        public int estimate (int ax, int ay, int bx, int by) {
+            int dx = Math.abs(bx - ax), dy = Math.abs(by - ay);
+            return ADJACENT_COST * Math.max(dx, dy) +
+                (DIAGONAL_COST - ADJACENT_COST) * Math.min(dx, dy);
+        }
+    };
+
+    /** The exact cost of an unobstructed path when only orthogonal steps are allowed. */
+    public static final Heuristic MANHATTAN = new Heuristic() {
+        public int estimate (int ax, int ay, int bx, int by) {
+            return ADJACENT_COST * (Math.abs(bx - ax) + Math.abs(by - ay));
+        }
+    };
+
+    /** No estimate at all, which degrades the search to Dijkstra's algorithm. */
+    public static final Heuristic DIJKSTRA = new Heuristic() {
+        public int estimate (int ax, int ay, int bx, int by) {
+            return 0;
+        }
+    };
+
+    /**
+     * Statistics about a single search.
+     */
+    public static class Stats
+    {
+        /** The number of nodes added to or updated in the open list (this is the same quantity
+         * reported by {@link AStarPathUtil#getConsidered}). */
+        public int considered;
+
+        /** The number of nodes removed from the open list and expanded. */
+        public int expanded;
+
+        /** The number of closed nodes reopened because a cheaper route to them was found. */
+        public int reopened;
+
+        /** The largest size attained by the open list. */
+        public int maxOpen;
+
+        /** Whether the search reached its destination. */
+        public boolean complete;
+
+        /** The duration of the search in nanoseconds. */
+        public long nanos;
+
+        /**
+         * Clears these statistics.
+         */
+        public void reset ()
+        {
+            considered = expanded = reopened = maxOpen = 0;
+            complete = false;
+            nanos = 0L;
+        }
+
+        @Override
+        public String toString ()
+        {
+            return "[considered=" + considered + ", expanded=" + expanded +
+                ", reopened=" + reopened + ", maxOpen=" + maxOpen + ", complete=" + complete +
+                ", micros=" + (nanos / 1000) + "]";
+        }
+    }
+
+    /**
+     * A traversal predicate backed by a bitmap of passable tiles covering a rectangular region.
+     * Tiles outside the region are impassable. When a path finder is given a bitmap, it queries
+     * the bitmap directly rather than through the {@link TraversalPred} interface.
+     */
+    public static class TraversalBitmap
+        implements TraversalPred
+    {
+        /**
+         * Creates a bitmap covering the specified region, with all tiles impassable.
+         */
+        public TraversalBitmap (int x, int y, int width, int height)
+        {
+            _x = x;
+            _y = y;
+            _width = width;
+            _height = height;
+            _stride = (width + 63) >>> 6;
+            _bits = new long[_stride * height];
+        }
+
+        /**
+         * Creates a bitmap covering the specified region and populates it by querying the
+         * supplied predicate for every tile in the region.
+         */
+        public TraversalBitmap (Rectangle region, TraversalPred tpred, Object trav)
+        {
+            this(region.x, region.y, region.width, region.height);
+            for (int yy = 0; yy < _height; yy++) {
+                for (int xx = 0; xx < _width; xx++) {
+                    if (tpred.canTraverse(trav, _x + xx, _y + yy)) {
+                        _bits[yy * _stride + (xx >>> 6)] |= 1L << xx;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the region covered by this bitmap.
+         */
+        public Rectangle getBounds ()
+        {
+            return new Rectangle(_x, _y, _width, _height);
+        }
+
+        /**
+         * Marks the specified tile as passable or not. Tiles outside the bitmap's region are
+         * ignored.
+         */
+        public void setPassable (int x, int y, boolean passable)
+        {
+            int xx = x - _x, yy = y - _y;
+            if (xx < 0 || yy < 0 || xx >= _width || yy >= _height) {
+                return;
+            }
+            int idx = yy * _stride + (xx >>> 6);
+            if (passable) {
+                _bits[idx] |= 1L << xx;
+            } else {
+                _bits[idx] &= ~(1L << xx);
+            }
+        }
+
+        /**
+         * Returns true if the specified tile is passable.
+         */
+        public final boolean isPassable (int x, int y)
+        {
+            int xx = x - _x, yy = y - _y;
+            return xx >= 0 && yy >= 0 && xx < _width && yy < _height &&
+                (_bits[yy * _stride + (xx >>> 6)] & (1L << xx)) != 0;
+        }
+
+        // from interface TraversalPred
+        public boolean canTraverse (Object traverser, int x, int y)
+        {
+            return isPassable(x, y);
+        }
+
+        protected final int _x, _y, _width, _height, _stride;
+        protected final long[] _bits;
+    }
+
+    /**
+     * Creates a path finder that uses the {@link #EUCLIDEAN} heuristic and considers diagonal
+     * steps.
+     */
+    public AStarPathFinder ()
+    {
+        this(EUCLIDEAN, true);
+    }
+
+    /**
+     * Creates a path finder with the specified configuration.
+     */
+    public AStarPathFinder (Heuristic heuristic, boolean considerDiagonals)
+    {
+        _heuristic = heuristic;
+        _steps = considerDiagonals ? 8 : 4;
+    }
+
+    /**
+     * Return a list of <code>Point</code> objects representing a path from coordinates
+     * <code>(ax, by)</code> to <code>(bx, by)</code>, inclusive. Assumes the starting and
+     * destination nodes are traversable by the specified traverser.
+     *
+     * @param tpred lets us know what tiles are traversible. This may be a {@link
+     * TraversalBitmap} or an {@link ExtendedTraversalPred}.
+     * @param trav the traverser to follow the path.
+     * @param longest the longest allowable path in tile traversals. This arg must be less than
+     * Integer.MAX_VALUE / ADJACENT_COST.
+     * @param partial if true, a partial path will be returned that gets us as close as we can to
+     * the goal in the event that a complete path cannot be located.
+     * @param stats if non-null, will be filled in with statistics about the search.
+     *
+     * @return the list of points in the path, or null if no path could be found.
+     */
+    public List<Point> getPath (TraversalPred tpred, Object trav, int longest,
+                                int ax, int ay, int bx, int by, boolean partial, Stats stats)
+    {
+        long start = System.nanoTime();
+        Arena arena = _arenas.get();
+        arena.reset();
+
+        TraversalBitmap bitmap = (tpred instanceof TraversalBitmap) ? (TraversalBitmap)tpred : null;
+        ExtendedTraversalPred epred = (tpred instanceof ExtendedTraversalPred) ?
+            (ExtendedTraversalPred)tpred : null;
+        Heuristic heuristic = _heuristic;
+        int maxcost = longest * ADJACENT_COST;
+        int considered = 1, expanded = 0, reopened = 0, maxOpen = 1;
+
+        // set up the starting node and push it on the open list
+        int snode = arena.create(ax, ay);
+        arena.g[snode] = 0;
+        arena.f[snode] = heuristic.estimate(ax, ay, bx, by);
+        arena.parent[snode] = -1;
+        arena.push(snode);
+
+        // track the best path
+        float bestdist = Float.MAX_VALUE;
+        int best = -1, goal = -1;
+
+        while (arena.heapSize > 0) {
+            // pop the best node so far from open
+            int n = arena.pop();
+            int nx = arena.x[n], ny = arena.y[n];
+            if (nx == bx && ny == by) {
+                goal = n;
+                break;
+
+            } else if (partial) {
+                float pathdist = MathUtil.distance(nx, ny, bx, by);
+                if (pathdist < bestdist) {
+                    bestdist = pathdist;
+                    best = n;
+                }
+            }
+            expanded++;
+
+            // consider each successor of the node
+            int ng = arena.g[n];
+            for (int ii = 0; ii < _steps; ii++) {
+                int sx = nx + STEP_DX[ii], sy = ny + STEP_DY[ii];
+
+                // skip the step if it's impassable
+                if (epred != null) {
+                    if (!epred.canTraverse(trav, nx, ny, sx, sy)) {
+                        continue;
+                    }
+                } else if (bitmap != null ? !bitmap.isPassable(sx, sy) :
+                           !tpred.canTraverse(trav, sx, sy)) {
+                    continue;
+                }
+                // if the step is diagonal, make sure the corners don't impede our progress
+                if (ii >= 4 && (bitmap != null ?
+                                !(bitmap.isPassable(sx, ny) && bitmap.isPassable(nx, sy)) :
+                                !(tpred.canTraverse(trav, sx, ny) &&
+                                  tpred.canTraverse(trav, nx, sy)))) {
+                    continue;
+                }
+
+                // make sure the cost is reasonable
+                int newg = ng + STEP_COST[ii];
+                if (newg > maxcost) {
+                    continue;
+                }
+
+                // skip the node if it's already open or closed with a cost no greater than ours
+                int np = arena.find(sx, sy);
+                if (np < 0) {
+                    np = arena.create(sx, sy);
+                } else if (arena.g[np] <= newg) {
+                    continue;
+                }
+
+                // update the node's information and (re)position it in the open list
+                arena.parent[np] = n;
+                arena.g[np] = newg;
+                arena.f[np] = newg + heuristic.estimate(sx, sy, bx, by);
+                int hpos = arena.heapPos[np];
+                if (hpos >= 0) {
+                    arena.siftUp(hpos);
+                } else {
+                    if (hpos == CLOSED) {
+                        reopened++;
+                    }
+                    arena.push(np);
+                    maxOpen = Math.max(maxOpen, arena.heapSize);
+                }
+                considered++;
+            }
+
+            // note that the node is closed
+            arena.heapPos[n] = CLOSED;
+        }
+
+        int end = (goal >= 0) ? goal : best;
+        List<Point> path = (end >= 0) ? arena.getPath(end) : null;
+
+        if (stats != null) {
+            stats.considered = considered;
+            stats.expanded = expanded;
+            stats.reopened = reopened;
+            stats.maxOpen = maxOpen;
+            stats.complete = (goal >= 0);
+            stats.nanos = System.nanoTime() - start;
+        }
+
+        // don't hang on to enormous arenas between searches
+        if (arena.capacity() > MAX_RETAINED_NODES) {
+            _arenas.remove();
+        }
+        return path;
+    }
+
+    /**
+     * Gets a path, returning no statistics.
+     */
+    public List<Point> getPath (TraversalPred tpred, Object trav, int longest,
+                                int ax, int ay, int bx, int by, boolean partial)
+    {
+        return getPath(tpred, trav, longest, ax, ay, bx, by, partial, null);
+    }
+
+    /**
+     * Contains the search state, which is reused from search to search.
+     */
+    protected static final class Arena
+    {
+        /** The coordinates of each node. */
+        public int[] x, y;
+
+        /** The actual cheapest cost of arriving at each node from the start, and that cost plus
+         * the heuristic estimate of the cost to the goal. */
+        public int[] g, f;
+
+        /** The node from which we reached each node, or -1. */
+        public int[] parent;
+
+        /** The position of each node in the heap, or {@link #CLOSED} or {@link #NEW}. */
+        public int[] heapPos;
+
+        /** The open list, a binary heap of node numbers ordered by f and then by node number. */
+        public int[] heap;
+
+        /** The number of nodes in the heap. */
+        public int heapSize;
+
+        /** The number of nodes created in the current search. */
+        public int nodeCount;
+
+        public Arena () {
+            resizeNodes(INITIAL_NODES);
+            resizeTable(INITIAL_NODES * 2);
+        }
+
+        /** Returns the number of nodes for which we have allocated space. */
+        public int capacity () {
+            return x.length;
+        }
+
+        /** Prepares the arena for a new search. */
+        public void reset () {
+            nodeCount = 0;
+            heapSize = 0;
+            if (++_stamp == 0) {
+                // we've wrapped around, so all the stamps must be cleared
+                Arrays.fill(_stamps, 0);
+                _stamp = 1;
+            }
+        }
+
+        /** Returns the node at the specified coordinates, or -1 if there is no such node. */
+        public int find (int nx, int ny) {
+            long key = key(nx, ny);
+            for (int slot = hash(key) & _mask; _stamps[slot] == _stamp; slot = (slot + 1) & _mask) {
+                if (_keys[slot] == key) {
+                    return _nodes[slot];
+                }
+            }
+            return -1;
+        }
+
+        /** Creates a node at the specified coordinates, which must not already have a node. */
+        public int create (int nx, int ny) {
+            if (nodeCount == x.length) {
+                resizeNodes(nodeCount * 2);
+            }
+            if ((nodeCount + 1) * 2 > _keys.length) {
+                resizeTable(_keys.length * 2);
+            }
+            int node = nodeCount++;
+            x[node] = nx;
+            y[node] = ny;
+            heapPos[node] = NEW;
+            insert(node);
+            return node;
+        }
+
+        /** Adds a node to the heap. */
+        public void push (int node) {
+            int pos = heapSize++;
+            heap[pos] = node;
+            heapPos[node] = pos;
+            siftUp(pos);
+        }
+
+        /** Removes and returns the best node from the heap. */
+        public int pop () {
+            int top = heap[0];
+            int last = heap[--heapSize];
+            heapPos[top] = NEW;
+            if (heapSize > 0) {
+                heap[0] = last;
+                heapPos[last] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        /** Moves the node at the specified heap position up until the heap is ordered. */
+        public void siftUp (int pos) {
+            int node = heap[pos];
+            while (pos > 0) {
+                int ppos = (pos - 1) >>> 1;
+                int pnode = heap[ppos];
+                if (!before(node, pnode)) {
+                    break;
+                }
+                heap[pos] = pnode;
+                heapPos[pnode] = pos;
+                pos = ppos;
+            }
+            heap[pos] = node;
+            heapPos[node] = pos;
+        }
+
+        /** Moves the node at the specified heap position down until the heap is ordered. */
+        public void siftDown (int pos) {
+            int node = heap[pos];
+            int half = heapSize >>> 1;
+            while (pos < half) {
+                int cpos = 2 * pos + 1;
+                int cnode = heap[cpos];
+                int rpos = cpos + 1;
+                if (rpos < heapSize && before(heap[rpos], cnode)) {
+                    cpos = rpos;
+                    cnode = heap[rpos];
+                }
+                if (!before(cnode, node)) {
+                    break;
+                }
+                heap[pos] = cnode;
+                heapPos[cnode] = pos;
+                pos = cpos;
+            }
+            heap[pos] = node;
+            heapPos[node] = pos;
+        }
+
+        /** Returns the path ending at the specified node. */
+        public List<Point> getPath (int end) {
+            int length = 0;
+            for (int cur = end; cur >= 0; cur = parent[cur]) {
+                length++;
+            }
+            ArrayList<Point> path = Lists.newArrayListWithCapacity(length);
+            for (int ii = 0; ii < length; ii++) {
+                path.add(null);
+            }
+            for (int cur = end, ii = length - 1; cur >= 0; cur = parent[cur], ii--) {
+                path.set(ii, new Point(x[cur], y[cur]));
+            }
+            return path;
+        }
+
+        /** Returns true if the first node should be popped before the second. Ties are broken
+         * in order of creation, just as {@link AStarPathUtil.Node} does. */
+        protected boolean before (int n1, int n2) {
+            int f1 = f[n1], f2 = f[n2];
+            return (f1 < f2) || (f1 == f2 && n1 < n2);
+        }
+
+        protected void insert (int node) {
+            long key = key(x[node], y[node]);
+            int slot = hash(key) & _mask;
+            while (_stamps[slot] == _stamp) {
+                slot = (slot + 1) & _mask;
+            }
+            _stamps[slot] = _stamp;
+            _keys[slot] = key;
+            _nodes[slot] = node;
+        }
+
+        protected void resizeNodes (int size) {
+            int count = (x == null) ? 0 : nodeCount;
+            x = grow(x, size, count);
+            y = grow(y, size, count);
+            g = grow(g, size, count);
+            f = grow(f, size, count);
+            parent = grow(parent, size, count);
+            heapPos = grow(heapPos, size, count);
+            heap = grow(heap, size, heapSize);
+        }
+
+        protected void resizeTable (int size) {
+            _keys = new long[size];
+            _nodes = new int[size];
+            _stamps = new int[size];
+            _mask = size - 1;
+            _stamp = 1;
+            for (int node = 0; node < nodeCount; node++) {
+                insert(node);
+            }
+        }
+
+        protected static int[] grow (int[] array, int size, int count) {
+            int[] narray = new int[size];
+            if (array != null) {
+                System.arraycopy(array, 0, narray, 0, count);
+            }
+            return narray;
+        }
+
+        protected static long key (int nx, int ny) {
+            return ((long)nx << 32) | (ny & 0xFFFFFFFFL);
+        }
+
+        protected static int hash (long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int)(h ^ (h >>> 32));
+        }
+
+        /** The coordinate to node hash table; slots whose stamp is not the current stamp are
+         * empty, which saves us from clearing the table between searches. */
+        protected long[] _keys;
+        protected int[] _nodes, _stamps;
+        protected int _mask, _stamp;
+    }
+
+    /** Our distance estimator. */
+    protected final Heuristic _heuristic;
+
+    /** The number of steps we consider (the first four are orthogonal, the rest diagonal). */
+    protected final int _steps;
+
+    /** The search state for each thread. */
+    protected static final ThreadLocal<Arena> _arenas = new ThreadLocal<Arena>() {
+        @Override protected Arena initialValue () {
+            return new Arena();
+        }
+    };
+
+    /** The steps we consider, in the same order as {@link AStarPathUtil.Stepper}. */
+    protected static final int[] STEP_DX = { 0, 0, -1, 1, -1, 1, -1, 1 };
+    protected static final int[] STEP_DY = { -1, 1, 0, 0, -1, -1, 1, 1 };
+    protected static final int[] STEP_COST = {
+        ADJACENT_COST, ADJACENT_COST, ADJACENT_COST, ADJACENT_COST,
+        DIAGONAL_COST, DIAGONAL_COST, DIAGONAL_COST, DIAGONAL_COST };
+
+    /** Heap positions indicating a node that is not in the open list. */
+    protected static final int NEW = -1, CLOSED = -2;
+
+    /** The number of nodes for which an arena initially allocates space. */
+    protected static final int INITIAL_NODES = 1024;
+
+    /** Arenas that grow beyond this many nodes are discarded after their search. */
+    protected static final int MAX_RETAINED_NODES = 1 << 18;
+}
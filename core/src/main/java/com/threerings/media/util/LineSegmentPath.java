@@ -137,6 +137,45 @@ public class LineSegmentPath
         _vel = velocity;
     }
 
+    /**
+     * Returns the velocity of this path in pixels per millisecond.
+     */
+    public float getVelocity ()
+    {
+        return _vel;
+    }
+
+    /**
+     * Computes where a pathable presently at the specified location will be once it has traveled
+     * the specified distance further along this path (or where it will stop, if the path ends
+     * sooner).
+     *
+     * @return false if the path is not presently being traversed, in which case
+     * <code>where</code> is not modified, true otherwise.
+     */
+    public boolean getProjectedLocation (int x, int y, float distance, Point where)
+    {
+        if (_niter == null || _dest == null) {
+            return false;
+        }
+
+        float px = x, py = y;
+        for (int ii = _destIdx; ii < _nodes.size() && distance > 0; ii++) {
+            Point loc = _nodes.get(ii).loc;
+            float seglen = (float)Math.hypot(loc.x - px, loc.y - py);
+            if (seglen > distance) {
+                px += (loc.x - px) * distance / seglen;
+                py += (loc.y - py) * distance / seglen;
+                break;
+            }
+            px = loc.x;
+            py = loc.y;
+            distance -= seglen;
+        }
+        where.setLocation(Math.round(px), Math.round(py));
+        return true;
+    }
+
     /**
      * Computes the velocity at which the pathable will need to travel along this path such that
      * it will arrive at the destination in approximately the specified number of milliseconds.
@@ -188,6 +227,7 @@ public class LineSegmentPath
 
         // and an enumeration of the path nodes
         _niter = _nodes.iterator();
+        _destIdx = -1;
 
         // pretend like we were previously heading to our starting position
         _dest = getNextNode();
@@ -333,6 +373,7 @@ public class LineSegmentPath
      */
     protected PathNode getNextNode ()
     {
+        _destIdx++;
         return _niter.next();
     }
 
@@ -348,6 +389,9 @@ public class LineSegmentPath
     /** When moving, the pathable's destination path node. */
     protected PathNode _dest;
 
+    /** When moving, the index of {@link #_dest} in {@link #_nodes}. */
+    protected int _destIdx;
+
     /** The time at which we started traversing the current node. */
     protected long _nodestamp;
 
@@ -0,0 +1,172 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.miso.client;
+
+import java.util.Map;
+import java.util.Set;
+
+import java.awt.Rectangle;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import com.threerings.media.util.MathUtil;
+
+/**
+ * Exchanges the coverage of scene blocks' object footprints between neighboring blocks. Each
+ * resolved block registers the blocks into which its objects' footprints extend, so that its
+ * coverage can be merged into a neighbor whenever either of them resolves, without rescanning
+ * every block. Like the blocks of its panel, this is only to be used on the AWT thread.
+ */
+public class BlockCoverage
+{
+    /**
+     * Creates a coverage tracker for the supplied blocks, keyed as by {@link
+     * MisoScenePanel#compose}, which the caller will continue to maintain.
+     */
+    public BlockCoverage (Map<Integer, SceneBlock> blocks)
+    {
+        _blocks = blocks;
+    }
+
+    /**
+     * Registers the coverage of the supplied (newly resolved) block's object footprints with the
+     * blocks into which they extend, merging it into those blocks that are resolved, and merges
+     * any coverage registered for the block by its already resolved neighbors.
+     */
+    public void link (SceneBlock block)
+    {
+        for (Map.Entry<Integer, long[]> entry : block.getFootprints().entrySet()) {
+            Set<SceneBlock> coverers = _coverers.get(entry.getKey());
+            if (coverers == null) {
+                _coverers.put(entry.getKey(), coverers = Sets.newHashSet());
+            }
+            coverers.add(block);
+            SceneBlock target = _blocks.get(entry.getKey());
+            if (target != null && target.isResolved()) {
+                target.addCoverage(entry.getValue());
+            }
+        }
+
+        int bkey = blockKey(block);
+        Set<SceneBlock> coverers = _coverers.get(bkey);
+        if (coverers != null) {
+            for (SceneBlock coverer : coverers) {
+                block.addCoverage(coverer.getFootprints().get(bkey));
+            }
+        }
+    }
+
+    /**
+     * Removes the supplied block's registered footprint coverage. The coverage already merged
+     * into its neighbors is not affected.
+     */
+    public void unlink (SceneBlock block)
+    {
+        Map<Integer, long[]> footprints = block.getFootprints();
+        if (footprints != null) {
+            unlink(block, footprints);
+        }
+    }
+
+    /**
+     * Called when the objects (and thus the footprint coverage) of a resolved block that is
+     * linked into this tracker have changed. Recomputes the coverage of the block and of any
+     * blocks its objects did or now do extend into.
+     *
+     * @param ofootprints the footprints of the block prior to the change.
+     */
+    public void update (SceneBlock block, Map<Integer, long[]> ofootprints)
+    {
+        // withdraw our old coverage and recompute that of the blocks that had it
+        unlink(block, ofootprints);
+        for (Integer bkey : ofootprints.keySet()) {
+            SceneBlock target = _blocks.get(bkey);
+            if (target != null && target.isResolved()) {
+                target.resetCoverage();
+                Set<SceneBlock> coverers = _coverers.get(bkey);
+                if (coverers != null) {
+                    for (SceneBlock coverer : coverers) {
+                        target.addCoverage(coverer.getFootprints().get(bkey));
+                    }
+                }
+            }
+        }
+
+        // then start afresh with our own and share our new coverage
+        block.resetCoverage();
+        link(block);
+    }
+
+    /**
+     * Returns the linked blocks whose object footprints extend into the block with the specified
+     * key, or null if there are none.
+     */
+    public Set<SceneBlock> getCoverers (int bkey)
+    {
+        return _coverers.get(bkey);
+    }
+
+    /**
+     * Returns the number of blocks into which linked blocks' footprints extend.
+     */
+    public int size ()
+    {
+        return _coverers.size();
+    }
+
+    /**
+     * Forgets all registered coverage.
+     */
+    public void clear ()
+    {
+        _coverers.clear();
+    }
+
+    /**
+     * Removes the supplied block's registrations for the supplied footprints.
+     */
+    protected void unlink (SceneBlock block, Map<Integer, long[]> footprints)
+    {
+        for (Integer bkey : footprints.keySet()) {
+            Set<SceneBlock> coverers = _coverers.get(bkey);
+            if (coverers != null && coverers.remove(block) && coverers.isEmpty()) {
+                _coverers.remove(bkey);
+            }
+        }
+    }
+
+    /**
+     * Returns the key of the supplied block.
+     */
+    protected static int blockKey (SceneBlock block)
+    {
+        Rectangle bounds = block.getBounds();
+        return MisoScenePanel.compose(MathUtil.floorDiv(bounds.x, bounds.width),
+                                      MathUtil.floorDiv(bounds.y, bounds.height));
+    }
+
+    /** The blocks of our panel. */
+    protected Map<Integer, SceneBlock> _blocks;
+
+    /** The linked blocks whose object footprints extend into each block, by block key. Their
+     * coverage is merged into that block whenever it resolves. */
+    protected Map<Integer, Set<SceneBlock>> _coverers = Maps.newHashMap();
+}
@@ -38,8 +38,6 @@ import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
-import java.awt.image.BufferedImage;
-import java.lang.ref.WeakReference;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -62,11 +60,13 @@ import com.samskivert.swing.RuntimeAdjust;
 import com.samskivert.swing.event.CommandEvent;
 
 import com.threerings.media.VirtualMediaPanel;
+import com.threerings.media.perf.FrameMetrics;
 import com.threerings.media.sprite.Sprite;
 import com.threerings.media.tile.ObjectTile;
 import com.threerings.media.tile.Tile;
 import com.threerings.media.tile.TileManager;
 import com.threerings.media.tile.TileSet;
+import com.threerings.media.util.AStarPathFinder;
 import com.threerings.media.util.AStarPathUtil;
 import com.threerings.media.util.MathUtil;
 import com.threerings.media.util.Path;
@@ -76,7 +76,7 @@ import com.threerings.miso.client.DirtyItemList.DirtyItem;
 import com.threerings.miso.data.MisoSceneModel;
 import com.threerings.miso.data.ObjectInfo;
 import com.threerings.miso.tile.BaseTile;
-import com.threerings.miso.tile.AutoFringer.FringeTile;
+import com.threerings.miso.util.HierarchicalPathFinder;
 import com.threerings.miso.util.MisoContext;
 import com.threerings.miso.util.MisoSceneMetrics;
 import com.threerings.miso.util.MisoUtil;
@@ -103,6 +103,19 @@ public class MisoScenePanel extends VirtualMediaPanel
         _metrics = metrics;
         _rethinkOp = new RethinkOp(_metrics);
         _applicator = new TileOpApplicator(_metrics);
+        Rectangle fbounds = MisoUtil.getFootprintPolygon(
+            _metrics, 0, 0, _metrics.blockwid, _metrics.blockhei).getBounds();
+        _prefetch = new PrefetchPolicy(fbounds.width, fbounds.height);
+        _blockPathFinder = new HierarchicalPathFinder(new HierarchicalPathFinder.BlockSource() {
+            public int getBlockVersion (int bx, int by) {
+                SceneBlock block = _blocks.get(compose(bx, by));
+                return (block == null || !block.isResolved()) ? -1 : block.getTraversalVersion();
+            }
+            public boolean isPassable (int tx, int ty) {
+                SceneBlock block = getBlock(tx, ty);
+                return (block != null) && block.canTraverse(null, tx, ty);
+            }
+        }, _metrics.blockwid, _metrics.blockhei, _pathFinder);
 
         // set ourselves up
         setOpaque(true);
@@ -148,9 +161,9 @@ public class MisoScenePanel extends VirtualMediaPanel
     protected void clearScene ()
     {
         _blocks.clear();
+        _coverage.clear();
+        _blockPathFinder.clear();
         _vizobjs.clear();
-        _fringes.clear();
-        _masks.clear();
         if (_dpanel != null) {
             _dpanel.newScene();
         }
@@ -294,19 +307,27 @@ public class MisoScenePanel extends VirtualMediaPanel
             _metrics, sprite.getX(), sprite.getY(), new Point());
         Point dest = MisoUtil.screenToTile(_metrics, x, y, new Point());
 
-        // compute our longest path from the screen size
-        int longestPath = 3 * (getWidth() / _metrics.tilewid);
+        // long walks are planned over the graph of resolved blocks, which is not limited in
+        // length; if that fails (or the walk is short), we search the tiles directly
+        AStarPathFinder.Stats stats = new AStarPathFinder.Stats();
+        List<Point> points = null;
+        if (_blockPathFinder.isDistant(src.x, src.y, dest.x, dest.y)) {
+            points = _blockPathFinder.getPath(
+                this, sprite, src.x, src.y, dest.x, dest.y, stats);
+        }
+        if (points == null) {
+            // compute our longest path from the screen size
+            int longestPath = 3 * (getWidth() / _metrics.tilewid);
 
-        // get a reasonable tile path through the scene
-        long start = System.currentTimeMillis();
-        List<Point> points = AStarPathUtil.getPath(
-            this, sprite, longestPath, src.x, src.y, dest.x, dest.y, loose);
-        long duration = System.currentTimeMillis() - start;
+            // get a reasonable tile path through the scene
+            points = _pathFinder.getPath(
+                this, sprite, longestPath, src.x, src.y, dest.x, dest.y, loose, stats);
+        }
+        long duration = stats.nanos / 1000000L;
 
         // sanity check the number of nodes searched so that we can keep an eye out for bogosity
         if (duration > 500L) {
-            int considered = AStarPathUtil.getConsidered();
-            log.warning("Considered " + considered + " nodes for path from " +
+            log.warning("Considered " + stats.considered + " nodes for path from " +
                         StringUtil.toString(src) + " to " +
                         StringUtil.toString(dest) +
                         " [duration=" + duration + "].");
@@ -717,6 +738,7 @@ public class MisoScenePanel extends VirtualMediaPanel
     protected void viewLocationDidChange (int dx, int dy)
     {
         super.viewLocationDidChange(dx, dy);
+        _prefetch.viewMoved(_nx, _ny, getTimeStamp());
 
         // compute the tile coordinates of our upper left screen coordinate and request a rethink
         // if they've changed
@@ -814,9 +836,15 @@ public class MisoScenePanel extends VirtualMediaPanel
                     _dpanel.blockCleared(block);
                 }
                 iter.remove();
+                // the coverage it contributes to its neighbors remains valid, as its objects have
+                // not gone anywhere
+                unlinkCoverage(block);
+                _blockPathFinder.invalidate(MathUtil.floorDiv(key.x, _metrics.blockwid),
+                                            MathUtil.floorDiv(key.y, _metrics.blockhei));
             }
         }
 
+        List<SceneBlock> prefetch = Lists.newArrayList();
         for (Point origin : _rethinkOp.blocks) {
             int bx = MathUtil.floorDiv(origin.x, _metrics.blockwid);
             int by = MathUtil.floorDiv(origin.y, _metrics.blockhei);
@@ -828,19 +856,32 @@ public class MisoScenePanel extends VirtualMediaPanel
                 block.setVisiBlock(visible);
                 _blocks.put(bkey, block);
 
-                // queue the block up to be resolved
+                // queue visible blocks up to be resolved immediately, the rest once we know
+                // which of them we'll need soonest
                 _pendingBlocks++;
                 if (visible) {
                     _visiBlocks.add(block);
-                }
-                _resolver.resolveBlock(block, visible);
-                if (_dpanel != null) {
-                    _dpanel.queuedBlock(block);
+                    queueBlock(block, true);
+                } else {
+                    prefetch.add(block);
                 }
             }
         }
         _rethinkOp.blocks.clear();
 
+        // rank the remaining blocks by how soon we expect them to become visible
+        if (prefetch.size() > 1) {
+            final Map<SceneBlock, Float> etas = Maps.newHashMap();
+            for (SceneBlock block : prefetch) {
+                etas.put(block, _prefetch.getTimeToVisibility(
+                             _vbounds, block.getFootprint().getBounds()));
+            }
+            prefetch.sort((b1, b2) -> Float.compare(etas.get(b1), etas.get(b2)));
+        }
+        for (SceneBlock block : prefetch) {
+            queueBlock(block, false);
+        }
+
         // recompute our visible object set
         recomputeVisible();
 
@@ -848,12 +889,31 @@ public class MisoScenePanel extends VirtualMediaPanel
         return _visiBlocks.size();
     }
     /**
-     * Calls through to {@link #computeInfluentialBounds(Rectangle, Rectangle, Rectangle)} with
-     * _vbounds, _ibounds and _vibounds.
+     * Queues the supplied block up for resolution.
+     */
+    protected void queueBlock (SceneBlock block, boolean hipri)
+    {
+        _resolver.resolveBlock(block, hipri);
+        if (_dpanel != null) {
+            _dpanel.queuedBlock(block);
+        }
+    }
+
+    /**
+     * Computes _ibounds and _vibounds from _vbounds, via our {@link PrefetchPolicy} which extends
+     * the influential bounds in the direction in which we're scrolling, or via {@link
+     * #computeInfluentialBounds(Rectangle, Rectangle, Rectangle)} if predictive prefetching is
+     * disabled.
      */
     protected void computeInfluentialBounds ()
     {
-        computeInfluentialBounds(_vbounds, _ibounds, _vibounds);
+        if (_predictivePrefetch.getValue()) {
+            _prefetch.noteResolver(_resolver.getMeanResolveTime(), _resolver.queueSize());
+            _prefetch.computeInfluentialBounds(
+                _vbounds, getTimeStamp(), _fpath, _ibounds, _vibounds);
+        } else {
+            computeInfluentialBounds(_vbounds, _ibounds, _vibounds);
+        }
     }
 
 
@@ -921,6 +981,11 @@ public class MisoScenePanel extends VirtualMediaPanel
             _dpanel.resolvedBlock(block);
         }
 
+        // exchange object footprint coverage with our neighbors
+        if (_blocks.get(blockKey(block)) == block) {
+            linkCoverage(block);
+        }
+
         Rectangle sbounds = block.getScreenBounds();
         if (!_delayRepaint && sbounds != null && sbounds.intersects(_vbounds)) {
 //            warnVisible(block, sbounds);
@@ -975,6 +1040,48 @@ public class MisoScenePanel extends VirtualMediaPanel
                     " vbounds:" + StringUtil.toString(_vbounds) + ".");
     }
 
+    /**
+     * Registers the coverage of the supplied (newly resolved) block's object footprints with the
+     * blocks into which they extend. See {@link BlockCoverage#link}.
+     */
+    protected void linkCoverage (SceneBlock block)
+    {
+        _coverage.link(block);
+    }
+
+    /**
+     * Removes the supplied block's registered footprint coverage. The coverage already merged
+     * into its neighbors is not affected.
+     */
+    protected void unlinkCoverage (SceneBlock block)
+    {
+        _coverage.unlink(block);
+    }
+
+    /**
+     * Called by a resolved scene block when its objects (and thus its footprint coverage) have
+     * changed. Recomputes the coverage of the block and of any blocks its objects did or now do
+     * extend into.
+     */
+    protected void blockCoverageChanged (SceneBlock block, Map<Integer, long[]> ofootprints)
+    {
+        if (_blocks.get(blockKey(block)) != block) {
+            block.resetCoverage();
+        } else {
+            _coverage.update(block, ofootprints);
+        }
+    }
+
+    /**
+     * Returns the key of the supplied block in {@link #_blocks}.
+     */
+    protected int blockKey (SceneBlock block)
+    {
+        Rectangle bounds = block.getBounds();
+        return compose(MathUtil.floorDiv(bounds.x, _metrics.blockwid),
+                       MathUtil.floorDiv(bounds.y, _metrics.blockhei));
+    }
+
     /**
      * Recomputes our set of visible objects and their indicators.
      */
@@ -993,9 +1100,6 @@ public class MisoScenePanel extends VirtualMediaPanel
                 continue;
             }
 
-            // links this block to its neighbors; computes coverage
-            block.update(_blocks);
-
             // see which of this block's objects are visible
             SceneObject[] objs = block.getObjects();
             for (SceneObject obj : objs) {
@@ -1233,7 +1337,12 @@ public class MisoScenePanel extends VirtualMediaPanel
     protected void paintBetween (Graphics2D gfx, Rectangle dirty)
     {
         // render any intersecting tiles
-        paintTiles(gfx, dirty);
+        long start = TILE_SPAN.start();
+        try {
+            paintTiles(gfx, dirty);
+        } finally {
+            TILE_SPAN.end(start);
+        }
 
         // render anything that goes on top of the tiles
         paintBaseDecorations(gfx, dirty);
@@ -1301,8 +1410,18 @@ public class MisoScenePanel extends VirtualMediaPanel
 //         Log.info("paintDirtyItems [items=" + _dirtyItems.size() + "].");
 
         // sort the dirty items so that we can paint them back-to-front
-        _dirtyItems.sort();
-        _dirtyItems.paintAndClear(gfx);
+        long start = SORT_SPAN.start();
+        try {
+            _dirtyItems.sort();
+        } finally {
+            SORT_SPAN.end(start);
+        }
+        start = SPRITE_SPAN.start();
+        try {
+            _dirtyItems.paintAndClear(gfx);
+        } finally {
+            SPRITE_SPAN.end(start);
+        }
     }
 
     /**
@@ -1402,8 +1521,7 @@ public class MisoScenePanel extends VirtualMediaPanel
     /** Computes the fringe tile for the specified coordinate. */
     protected BaseTile computeFringeTile (int tx, int ty)
     {
-        return _ctx.getTileManager().getAutoFringer().getFringeTile(_model, tx, ty, _fringes,
-            _masks);
+        return _ctx.getTileManager().getAutoFringer().getFringeTile(_model, tx, ty);
     }
 
     /**
@@ -1533,10 +1651,16 @@ public class MisoScenePanel extends VirtualMediaPanel
     /** Used by {@link #rethink}. */
     protected RethinkOp _rethinkOp;
 
+    /** Decides which blocks to resolve ahead of their becoming visible. */
+    protected PrefetchPolicy _prefetch;
+
     /** Contains our scene blocks. See {@link #getBlock} for details. */
     protected ConcurrentHashMap<Integer, SceneBlock> _blocks =
         new ConcurrentHashMap<Integer, SceneBlock>();
 
+    /** Exchanges object footprint coverage between our resolved blocks. */
+    protected BlockCoverage _coverage = new BlockCoverage(_blocks);
+
     /** A count of blocks in the process of being resolved. */
     protected int _pendingBlocks;
 
@@ -1550,21 +1674,6 @@ public class MisoScenePanel extends VirtualMediaPanel
     /** A list of the potentially visible objects in the scene. */
     protected List<SceneObject> _vizobjs = Lists.newArrayList();
 
-    /**
-     * Map of the masks used to calculate fringes in this scene.
-     */
-    protected Map<Long, BufferedImage> _masks = Maps.newHashMap();
-
-    /**
-     * Map of active fringe tiles. Scene blocks have hard references to fringe tiles in this map
-     * for the tiles they're using, so the blocks coming in and out of the influential bounds
-     * determines which tiles remain in the map. The map is from FringeTile to FringeTile so a
-     * fully created FringeTile can be extracted from the map using a tile that contains only
-     * what's needed for hashCode and equals: id and passability.
-     */
-    protected Map<FringeTile, WeakReference<FringeTile>> _fringes =
-        new WeakHashMap<FringeTile, WeakReference<FringeTile>>();
-
     /** The dirty sprites and objects that need to be re-painted. */
     protected DirtyItemList _dirtyItems = new DirtyItemList();
 
@@ -1609,6 +1718,12 @@ public class MisoScenePanel extends VirtualMediaPanel
     /** The scene block resolver for this scene panel's context. */
     protected SceneBlockResolver _resolver;
 
+    /** Used to compute long paths through the scene. */
+    protected HierarchicalPathFinder _blockPathFinder;
+
+    /** Used to compute paths through the scene. */
+    protected static final AStarPathFinder _pathFinder = new AStarPathFinder();
+
     /** Scene block resolvers shared by all scene panels in a context. */
     protected static Map<MisoContext, SceneBlockResolver> _resolvers =
         new WeakHashMap<MisoContext, SceneBlockResolver>();
@@ -1639,6 +1754,18 @@ public class MisoScenePanel extends VirtualMediaPanel
             "Toggles debug rendering of sprite paths in the iso scene view.",
             "narya.miso.iso_paths_debug_render", MisoPrefs.config, false);
 
+    /** Measures the painting of our base and fringe tiles. */
+    protected static final FrameMetrics.Span TILE_SPAN = FrameMetrics.span("paint.tiles");
+
+    /** Measures the sorting of our dirty sprites and objects. */
+    protected static final FrameMetrics.Span SORT_SPAN = FrameMetrics.span("paint.dirty_sort");
+
+    /** Toggles the biasing of block resolution in the direction in which we're scrolling. */
+    protected static RuntimeAdjust.BooleanAdjust _predictivePrefetch =
+        new RuntimeAdjust.BooleanAdjust(
+            "Resolves scene blocks ahead of the view in the direction in which it is moving.",
+            "narya.miso.predictive_prefetch", MisoPrefs.config, true);
+
     /** A debug hook that toggles the block resolution display. */
     protected static RuntimeAdjust.BooleanAdjust _resolveDebug =
         new RuntimeAdjust.BooleanAdjust(
@@ -0,0 +1,232 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.miso.client;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+
+import com.threerings.media.sprite.Sprite;
+import com.threerings.media.util.LineSegmentPath;
+import com.threerings.media.util.Path;
+import com.threerings.media.util.Pathable;
+
+/**
+ * Decides which parts of a scene should be resolved ahead of being scrolled into view. The
+ * region around the view is biased in the direction in which the view is heading (as measured
+ * from its recent movement, or from the remaining path of the pathable it is following) by the
+ * distance it is expected to travel in the time that it takes to resolve a leading edge's worth
+ * of blocks, which is in turn estimated from the measured throughput of the block resolver.
+ * Blocks can then be ranked by their estimated time to visibility.
+ */
+public class PrefetchPolicy
+{
+    /**
+     * Creates a policy for blocks whose footprints have the specified screen dimensions.
+     */
+    public PrefetchPolicy (int blockWidth, int blockHeight)
+    {
+        _blockWidth = Math.max(blockWidth, 1);
+        _blockHeight = Math.max(blockHeight, 1);
+    }
+
+    /**
+     * Notes that the view has moved to the specified (screen) location at the specified time.
+     */
+    public void viewMoved (int x, int y, long now)
+    {
+        long elapsed = now - _stamp;
+        if (_stamp == 0L || elapsed > IDLE_TIME) {
+            // we were at rest: start afresh
+            _vx = _vy = 0;
+        } else if (elapsed <= 0) {
+            // moved again on the same tick, accumulate the motion until the next one
+            return;
+        } else {
+            float alpha = 1f - (float)Math.exp(-elapsed / SMOOTHING_TIME);
+            _vx += alpha * ((x - _x) / (float)elapsed - _vx);
+            _vy += alpha * ((y - _y) / (float)elapsed - _vy);
+        }
+        _x = x;
+        _y = y;
+        _stamp = now;
+    }
+
+    /**
+     * Notes the resolver's recent performance.
+     *
+     * @param resolveTime the mean time in milliseconds taken to resolve a block, or a negative
+     * value if that is not yet known.
+     * @param backlog the number of blocks waiting to be resolved.
+     */
+    public void noteResolver (float resolveTime, int backlog)
+    {
+        _resolveTime = (resolveTime < 0) ? DEFAULT_RESOLVE_TIME : resolveTime;
+        _backlog = backlog;
+    }
+
+    /**
+     * Computes the influential and visible block bounds for the supplied view bounds (see {@link
+     * MisoScenePanel#computeInfluentialBounds(Rectangle,Rectangle,Rectangle)}), extending the
+     * former in the direction in which the view is heading.
+     *
+     * @param followed the pathable being followed by the view, or null.
+     */
+    public void computeInfluentialBounds (Rectangle vbounds, long now, Pathable followed,
+                                          Rectangle ibounds, Rectangle vibounds)
+    {
+        MisoScenePanel.computeInfluentialBounds(vbounds, ibounds, vibounds);
+
+        // if we've not moved in a while, we're at rest
+        if (now - _stamp > IDLE_TIME) {
+            _vx = _vy = 0;
+        }
+        _hx = _vx;
+        _hy = _vy;
+
+        // determine how far ahead we need to look: long enough to resolve our backlog and then
+        // the strip of blocks along the leading edge of the view
+        int edgeBlocks = vbounds.width / _blockWidth + vbounds.height / _blockHeight + 2;
+        float lookahead = _resolveTime * (_backlog + edgeBlocks) * SAFETY_FACTOR;
+        lookahead = Math.max(MIN_LOOKAHEAD, Math.min(MAX_LOOKAHEAD, lookahead));
+
+        // if we're following something along a path, that tells us where we're headed
+        if (followed instanceof Sprite) {
+            Path path = ((Sprite)followed).getPath();
+            if (path instanceof LineSegmentPath) {
+                LineSegmentPath lpath = (LineSegmentPath)path;
+                int fx = followed.getX(), fy = followed.getY();
+                if (lpath.getProjectedLocation(fx, fy, lpath.getVelocity() * lookahead, _ppos)) {
+                    _hx = (_ppos.x - fx) / lookahead;
+                    _hy = (_ppos.y - fy) / lookahead;
+                }
+            }
+        }
+
+        // lead by the distance we expect to travel, but not absurdly far
+        int leadx = (int)Math.max(-MAX_LEAD * vbounds.width,
+                                  Math.min(MAX_LEAD * vbounds.width, _hx * lookahead));
+        int leady = (int)Math.max(-MAX_LEAD * vbounds.height,
+                                  Math.min(MAX_LEAD * vbounds.height, _hy * lookahead));
+        if (leadx == 0 && leady == 0) {
+            return;
+        }
+
+        // extend the leading margins and trim the trailing ones
+        int left = vbounds.x - ibounds.x, top = vbounds.y - ibounds.y;
+        int right = ibounds.x + ibounds.width - (vbounds.x + vbounds.width);
+        int bottom = ibounds.y + ibounds.height - (vbounds.y + vbounds.height);
+        left = adjustMargin(left, -leadx);
+        right = adjustMargin(right, leadx);
+        top = adjustMargin(top, -leady);
+        bottom = adjustMargin(bottom, leady);
+        ibounds.setBounds(vbounds.x - left, vbounds.y - top, vbounds.width + left + right,
+                          vbounds.height + top + bottom);
+    }
+
+    /**
+     * Returns the estimated time (in milliseconds) until a block with the supplied (screen)
+     * bounds becomes visible, given the heading computed by the most recent call to {@link
+     * #computeInfluentialBounds}. Blocks that we are not heading toward are ranked by their
+     * distance from the view.
+     */
+    public float getTimeToVisibility (Rectangle vbounds, Rectangle bounds)
+    {
+        float tx = getTimeToReach(vbounds.x, vbounds.x + vbounds.width,
+                                  bounds.x, bounds.x + bounds.width, _hx);
+        float ty = getTimeToReach(vbounds.y, vbounds.y + vbounds.height,
+                                  bounds.y, bounds.y + bounds.height, _hy);
+        return Math.max(tx, ty);
+    }
+
+    /**
+     * Extends a margin by the supplied lead if it is positive, or trims it (to no less than a
+     * fraction of its original size) if it is negative.
+     */
+    protected static int adjustMargin (int margin, int lead)
+    {
+        return (lead >= 0) ? margin + lead :
+            Math.max(margin + lead, (int)(margin * MIN_TRAILING_MARGIN));
+    }
+
+    /**
+     * Returns the time until the view span [vmin, vmax) reaches the span [bmin, bmax) when moving
+     * at the specified velocity along a single axis.
+     */
+    protected static float getTimeToReach (int vmin, int vmax, int bmin, int bmax, float vel)
+    {
+        int gap;
+        if (bmin >= vmax) {
+            gap = bmin - vmax;
+        } else if (bmax <= vmin) {
+            gap = bmax - vmin;
+        } else {
+            return 0;
+        }
+        // if we're not moving toward it, assume that we'll drift over at a leisurely pace
+        float toward = (gap > 0) ? vel : -vel;
+        return Math.abs(gap) / Math.max(toward, IDLE_VELOCITY);
+    }
+
+    /** The screen dimensions of a block's footprint. */
+    protected int _blockWidth, _blockHeight;
+
+    /** The last noted view position and when we noted it. */
+    protected int _x, _y;
+    protected long _stamp;
+
+    /** The smoothed view velocity, in pixels per millisecond. */
+    protected float _vx, _vy;
+
+    /** The heading used for our most recent computation, in pixels per millisecond. */
+    protected float _hx, _hy;
+
+    /** The mean time to resolve a block, in milliseconds. */
+    protected float _resolveTime = DEFAULT_RESOLVE_TIME;
+
+    /** The number of blocks waiting to be resolved. */
+    protected int _backlog;
+
+    /** Used to project the followed pathable's location. */
+    protected Point _ppos = new Point();
+
+    /** The time constant of our view velocity smoothing, in milliseconds. */
+    protected static final float SMOOTHING_TIME = 150f;
+
+    /** The time after which a view that has not moved is considered to be at rest. */
+    protected static final long IDLE_TIME = 500L;
+
+    /** The assumed block resolution time before we have measured any. */
+    protected static final float DEFAULT_RESOLVE_TIME = 20f;
+
+    /** The factor by which we pad our estimate of the time needed to resolve upcoming blocks. */
+    protected static final float SAFETY_FACTOR = 2f;
+
+    /** The bounds on the time for which we look ahead, in milliseconds. */
+    protected static final float MIN_LOOKAHEAD = 250f, MAX_LOOKAHEAD = 3000f;
+
+    /** The maximum lead, as a fraction of the view dimensions. */
+    protected static final float MAX_LEAD = 1.5f;
+
+    /** The smallest fraction of its default size to which a trailing margin is trimmed. */
+    protected static final float MIN_TRAILING_MARGIN = 1/3f;
+
+    /** The speed at which we assume the view moves toward blocks we're not heading toward. */
+    protected static final float IDLE_VELOCITY = 0.05f;
+}
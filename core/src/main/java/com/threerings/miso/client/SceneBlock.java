@@ -24,11 +24,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.awt.Polygon;
 import java.awt.Rectangle;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import com.samskivert.util.ArrayUtil;
 import com.samskivert.util.StringUtil;
@@ -76,7 +78,14 @@ public class SceneBlock
         _bounds = new Rectangle(tx, ty, width, height);
         _base = new BaseTile[width*height];
         _fringe = new BaseTile[width*height];
-        _covered = new boolean[width*height];
+        int words = (width*height + 63) >> 6;
+        _ownCoverage = new long[words];
+        _covered = new long[words];
+        _impassable = new long[words];
+        // nothing is traversable until we're resolved
+        _blocked = new long[words];
+        Arrays.fill(_blocked, -1L);
+        _traversalVersion = nextTraversalVersion();
 
         // compute our screen-coordinate footprint polygon
         _footprint = MisoUtil.getFootprintPolygon(_metrics, tx, ty, width, height);
@@ -180,6 +189,11 @@ public class SceneBlock
         }
         _objects = scobjs.toArray(new SceneObject[scobjs.size()]);
 
+        // compute the tiles covered by our objects' footprints; coverage that falls into other
+        // blocks is merged into them by our panel once we and they are resolved
+        long[] own = new long[_ownCoverage.length];
+        Map<Integer, long[]> footprints = computeCoverage(own);
+
         // resolve our default tileset
         int bsetid = _model.getDefaultBaseTileSet();
         try {
@@ -196,6 +210,15 @@ public class SceneBlock
         synchronized (this) {
             _obounds = obounds;
             _sbounds = sbounds;
+            _ownCoverage = own;
+            _covered = own.clone();
+            _footprints = footprints;
+            for (int yy = _bounds.y, ey = yy + _bounds.height; yy < ey; yy++) {
+                for (int xx = _bounds.x, ex = xx + _bounds.width; xx < ex; xx++) {
+                    updateImpassable(xx, yy);
+                }
+            }
+            updateBlocked();
         }
 
         return true;
@@ -337,6 +360,7 @@ public class SceneBlock
             log.warning(errmsg + " [fqtid=" + fqTileId +
                         ", x=" + tx + ", y=" + ty + "].");
         }
+        tileChanged(tx, ty);
     }
 
     /**
@@ -348,13 +372,13 @@ public class SceneBlock
         int tidx = index(tx, ty);
         if (_base[tidx] != null) {
             _fringe[tidx] = computeFringeTile(tx, ty);
+            tileChanged(tx, ty);
         }
     }
 
     /**
-     * Adds the supplied object to this block. Coverage is not computed
-     * for the added object, a subsequent call to {@link #update} will be
-     * needed.
+     * Adds the supplied object to this block, updating the coverage of
+     * its footprint (in neighboring blocks too, if we belong to a panel).
      *
      * @return true if the object was added, false if it was not because
      * another object of the same type already occupies that location.
@@ -370,16 +394,13 @@ public class SceneBlock
         }
 
         _objects = ArrayUtil.append(_objects, makeSceneObject(info));
-
-        // clear out our neighbors array so that the subsequent update
-        // causes us to recompute our coverage
-        Arrays.fill(_neighbors, null);
+        objectsChanged();
         return true;
     }
 
     /**
-     * Removes the specified object from this block. Coverage is not
-     * recomputed, so a subsequent call to {@link #update} will be needed.
+     * Removes the specified object from this block, updating the coverage
+     * of the remaining objects' footprints.
      *
      * @return true if the object was deleted, false if it was not found
      * in our object list.
@@ -397,10 +418,7 @@ public class SceneBlock
             return false;
         }
         _objects = ArrayUtil.splice(_objects, oidx, 1);
-
-        // clear out our neighbors array so that the subsequent update
-        // causes us to recompute our coverage
-        Arrays.fill(_neighbors, null);
+        objectsChanged();
         return true;
     }
 
@@ -410,19 +428,27 @@ public class SceneBlock
      */
     public boolean canTraverse (Object traverser, int tx, int ty)
     {
-        if (_covered[index(tx, ty)]) {
-            return false;
-        }
+        return !isSet(_blocked, index(tx, ty));
+    }
 
-        // null base or impassable base kills traversal
-        BaseTile base = getBaseTile(tx, ty);
-        if ((base == null) || !base.isPassable()) {
-            return false;
-        }
+    /**
+     * Returns true if the specified tile (which is assumed to be in the
+     * bounds of this scene block) is covered by the footprint of an object
+     * in this or a neighboring block.
+     */
+    public boolean isCovered (int tx, int ty)
+    {
+        return isSet(_covered, index(tx, ty));
+    }
 
-        // fringe can only kill traversal if it is present
-        BaseTile fringe = getFringeTile(tx, ty);
-        return (fringe == null) || fringe.isPassable();
+    /**
+     * Returns a stamp that changes whenever the traversability of any of this block's tiles may
+     * have changed. Stamps are unique across all blocks, so a block that replaces another never
+     * reuses its predecessor's stamp.
+     */
+    public int getTraversalVersion ()
+    {
+        return _traversalVersion;
     }
 
     /**
@@ -507,76 +533,178 @@ public class SceneBlock
     }
 
     /**
-     * Links this block to its neighbors; informs neighboring blocks of
-     * object coverage.
+     * Returns the coverage of our objects' footprints in other blocks, as a
+     * mapping from block key (see {@link MisoScenePanel#compose}) to a bitset
+     * of the covered tiles in that block. Returns null if we are not resolved.
      */
-    protected void update (Map<Integer, SceneBlock> blocks)
+    protected Map<Integer, long[]> getFootprints ()
     {
-        boolean recover = false;
+        return _footprints;
+    }
 
-        // link up to our neighbors
-        for (int ii = 0; ii < DX.length; ii++) {
-            SceneBlock neigh = blocks.get(neighborKey(DX[ii], DY[ii]));
-            if (neigh != _neighbors[ii]) {
-                _neighbors[ii] = neigh;
-                // if we're linking up to a neighbor for the first time;
-                // we need to recalculate our coverage
-                recover = recover || (neigh != null);
-//                 Log.info(this + " was introduced to " + neigh + ".");
+    /**
+     * Marks the tiles in the supplied bitset (provided by the block whose
+     * objects cover them) as covered.
+     */
+    protected void addCoverage (long[] coverage)
+    {
+        boolean changed = false;
+        for (int ii = 0; ii < _covered.length; ii++) {
+            long covered = _covered[ii] | coverage[ii];
+            if (covered != _covered[ii]) {
+                _covered[ii] = covered;
+                changed = true;
             }
         }
+        if (changed) {
+            updateBlocked();
+        }
+    }
+
+    /**
+     * Resets our coverage to only that of our own objects' footprints. The
+     * coverage of our neighbors must subsequently be added anew.
+     */
+    protected void resetCoverage ()
+    {
+        _covered = _ownCoverage.clone();
+        updateBlocked();
+    }
 
-        // if we need to regenerate the set of tiles covered by our
-        // objects, do so
-        if (recover) {
-            for (SceneObject _object : _objects) {
-                setCovered(blocks, _object);
+    /**
+     * Computes the tiles covered by the footprints of our objects, setting
+     * those in our bounds in the supplied bitset and returning the rest as a
+     * mapping from block key to coverage bitset (or an empty map).
+     */
+    protected Map<Integer, long[]> computeCoverage (long[] own)
+    {
+        Map<Integer, long[]> footprints = Maps.newHashMap();
+        for (SceneObject scobj : _objects) {
+            if (scobj.tile == null) {
+                continue;
+            }
+            int endx = scobj.info.x - scobj.tile.getBaseWidth() + 1;
+            int endy = scobj.info.y - scobj.tile.getBaseHeight() + 1;
+            for (int yy = scobj.info.y; yy >= endy; yy--) {
+                for (int xx = scobj.info.x; xx >= endx; xx--) {
+                    if (_bounds.contains(xx, yy)) {
+                        set(own, index(xx, yy));
+                        continue;
+                    }
+                    int bx = MathUtil.floorDiv(xx, _bounds.width);
+                    int by = MathUtil.floorDiv(yy, _bounds.height);
+                    int bkey = MisoScenePanel.compose(bx, by);
+                    long[] coverage = footprints.get(bkey);
+                    if (coverage == null) {
+                        footprints.put(bkey, coverage = new long[own.length]);
+                    }
+                    set(coverage, (yy - by*_bounds.height)*_bounds.width +
+                        (xx - bx*_bounds.width));
+                }
             }
         }
+        return footprints;
     }
 
-    /** Computes the key of our neighbor. */
-    protected final int neighborKey (int dx, int dy)
+    /**
+     * Recomputes our coverage after our set of objects has changed and has
+     * our panel update that of our neighbors.
+     */
+    protected void objectsChanged ()
     {
-        int nx = MathUtil.floorDiv(_bounds.x, _bounds.width)+dx;
-        int ny = MathUtil.floorDiv(_bounds.y, _bounds.height)+dy;
-        return MisoScenePanel.compose(nx, ny);
+        Map<Integer, long[]> ofootprints = _footprints;
+        if (ofootprints == null) {
+            // we're not yet resolved, resolution will compute our coverage
+            return;
+        }
+        long[] own = new long[_ownCoverage.length];
+        _footprints = computeCoverage(own);
+        _ownCoverage = own;
+        if (_panel != null) {
+            _panel.blockCoverageChanged(this, ofootprints);
+        } else {
+            resetCoverage();
+        }
     }
 
-    /** Computes the key for the block that holds the specified tile. */
-    protected final int blockKey (int tx, int ty)
+    /**
+     * Updates the traversability of the specified tile after its base or
+     * fringe has changed.
+     */
+    protected void tileChanged (int tx, int ty)
     {
-        int bx = MathUtil.floorDiv(tx, _bounds.width);
-        int by = MathUtil.floorDiv(ty, _bounds.height);
-        return MisoScenePanel.compose(bx, by);
+        // prior to resolution, we'll compute traversability en masse once our tiles are loaded
+        if (_footprints != null) {
+            updateImpassable(tx, ty);
+            updateBlocked();
+        } else {
+            traversalChanged();
+        }
     }
 
     /**
-     * Sets the footprint of this object tile
+     * Updates the impassability bit for the specified tile from its base and
+     * fringe tiles.
      */
-    protected void setCovered (Map<Integer, SceneBlock> blocks, SceneObject scobj)
+    protected void updateImpassable (int tx, int ty)
     {
-        int endx = scobj.info.x - scobj.tile.getBaseWidth() + 1;
-        int endy = scobj.info.y - scobj.tile.getBaseHeight() + 1;
+        // null base or impassable base kills traversal; fringe can only kill traversal if it is
+        // present
+        BaseTile base = getBaseTile(tx, ty), fringe = getFringeTile(tx, ty);
+        boolean impassable = (base == null) || !base.isPassable() ||
+            (fringe != null && !fringe.isPassable());
+        int tidx = index(tx, ty);
+        if (impassable) {
+            set(_impassable, tidx);
+        } else {
+            _impassable[tidx >> 6] &= ~(1L << tidx);
+        }
+    }
 
-        for (int xx = scobj.info.x; xx >= endx; xx--) {
-            for (int yy = scobj.info.y; yy >= endy; yy--) {
-                SceneBlock block = blocks.get(blockKey(xx, yy));
-                if (block != null) {
-                    block.setCovered(xx, yy);
-                }
-            }
+    /**
+     * Recombines our coverage and impassability into the single bitset
+     * consulted by {@link #canTraverse}.
+     */
+    protected void updateBlocked ()
+    {
+        long[] blocked = new long[_covered.length];
+        for (int ii = 0; ii < blocked.length; ii++) {
+            blocked[ii] = _covered[ii] | _impassable[ii];
         }
+        _blocked = blocked;
+        traversalChanged();
+    }
+
+    /**
+     * Returns true if the specified bit is set in the supplied bitset.
+     */
+    protected static boolean isSet (long[] bits, int idx)
+    {
+        return (bits[idx >> 6] & (1L << idx)) != 0;
+    }
+
+    /**
+     * Sets the specified bit in the supplied bitset.
+     */
+    protected static void set (long[] bits, int idx)
+    {
+        bits[idx >> 6] |= (1L << idx);
+    }
 
-//         Log.info("Updated coverage " + scobj.info + ".");
+    /**
+     * Notes that the traversability of one or more of our tiles may have changed.
+     */
+    protected void traversalChanged ()
+    {
+        _traversalVersion = nextTraversalVersion();
     }
 
     /**
-     * Indicates that this tile is covered by an object footprint.
+     * Returns a new, unique traversal version.
      */
-    protected void setCovered (int tx, int ty)
+    protected static int nextTraversalVersion ()
     {
-        _covered[index(tx, ty)] = true;
+        return _traversalVersions.incrementAndGet() & Integer.MAX_VALUE;
     }
 
     /** The panel for which we contain a block or null if we aren't backed by a panel. */
@@ -609,22 +737,34 @@ public class SceneBlock
     /** Our fringe tiles. */
     protected BaseTile[] _fringe;
 
-    /** Indicates whether our tiles are covered by an object. */
-    protected boolean[] _covered;
+    /** The tiles covered by the footprints of our own objects, one bit per tile. */
+    protected long[] _ownCoverage;
+
+    /** The tiles covered by the footprints of our own and our neighbors' objects. */
+    protected long[] _covered;
+
+    /** The tiles whose base or fringe is impassable (or missing). */
+    protected long[] _impassable;
+
+    /** The union of {@link #_covered} and {@link #_impassable}: the untraversable tiles. */
+    protected volatile long[] _blocked;
+
+    /** The coverage of our objects' footprints in other blocks (see {@link #getFootprints}), or
+     * null if we are not yet resolved. */
+    protected Map<Integer, long[]> _footprints;
 
     /** Info on our objects. */
     protected SceneObject[] _objects;
 
-    /** Our neighbors in the eight cardinal directions. */
-    protected SceneBlock[] _neighbors = new SceneBlock[DX.length];
-
     /** A debug flag indicating whether we were visible at creation. */
     protected boolean _visi;
 
     /** If we discovered we were no longer needed in our last call to resolve. */
     protected boolean _wasAbandoned;
 
-    // used to link up to our neighbors
-    protected static final int[] DX = { -1, -1,  0,  1, 1, 1, 0, -1 };
-    protected static final int[] DY = {  0, -1, -1, -1, 0, 1, 1,  1 };
+    /** Changes whenever our traversability changes, see {@link #getTraversalVersion}. */
+    protected volatile int _traversalVersion;
+
+    /** Used to assign unique traversal versions. */
+    protected static final AtomicInteger _traversalVersions = new AtomicInteger();
 }
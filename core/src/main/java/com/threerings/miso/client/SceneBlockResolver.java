@@ -25,6 +25,8 @@ import com.samskivert.util.Histogram;
 import com.samskivert.util.LoopingThread;
 import com.samskivert.util.Queue;
 
+import com.threerings.media.perf.FrameMetrics;
+
 import static com.threerings.miso.Log.log;
 
 /**
@@ -76,6 +78,15 @@ public class SceneBlockResolver extends LoopingThread
         return _queue.size();
     }
 
+    /**
+     * Returns the mean time (in milliseconds) taken to resolve a block, based on the blocks
+     * resolved thus far, or -1 if no blocks have yet been resolved.
+     */
+    public synchronized float getMeanResolveTime ()
+    {
+        return (_resolveCount == 0) ? -1 : _resolveTotal / (float)_resolveCount;
+    }
+
     @Override
     public void iterate ()
     {
@@ -94,11 +105,17 @@ public class SceneBlockResolver extends LoopingThread
         try {
             long start = System.currentTimeMillis();
             log.debug("Resolving block " + block + ".");
-            if (block.resolve()) {
-                log.debug("Resolved block " + block + ".");
+            long sstart = RESOLVE_SPAN.start();
+            try {
+                if (block.resolve()) {
+                    log.debug("Resolved block " + block + ".");
+                }
+            } finally {
+                RESOLVE_SPAN.end(sstart);
             }
             long elapsed = System.currentTimeMillis() - start;
             _histo.addValue((int)elapsed);
+            noteResolveTime(elapsed);
 
             // warn if a block takes a long time to resolve
             if (elapsed > LONG_RESOLVE_TIME) {
@@ -124,6 +141,15 @@ public class SceneBlockResolver extends LoopingThread
         }
     }
 
+    /**
+     * Adds the supplied resolution time to our running mean.
+     */
+    protected synchronized void noteResolveTime (long elapsed)
+    {
+        _resolveTotal += elapsed;
+        _resolveCount++;
+    }
+
     /** The invoker's queue of units to be executed. */
     protected Queue<SceneBlock> _queue = new Queue<SceneBlock>();
 
@@ -133,6 +159,13 @@ public class SceneBlockResolver extends LoopingThread
     /** Used to time block loading. */
     protected Histogram _histo = new Histogram(0, 25, 100);
 
+    /** The total time (in milliseconds) spent resolving blocks and the number resolved; tracked
+     * separately from our histogram, which does not distinguish slow resolutions. */
+    protected long _resolveTotal, _resolveCount;
+
     /** Blocks shouldn't take too long to resolve. */
     protected static final long LONG_RESOLVE_TIME = 500L;
+
+    /** Tracks the time spent resolving blocks. */
+    protected static final FrameMetrics.Span RESOLVE_SPAN = FrameMetrics.span("miso.block.resolve");
 }
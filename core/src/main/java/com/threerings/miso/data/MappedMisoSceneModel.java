@@ -0,0 +1,602 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.miso.data;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.awt.Rectangle;
+
+import com.google.common.collect.Maps;
+
+import com.samskivert.util.LRUHashMap;
+
+import com.threerings.media.util.MathUtil;
+
+import com.threerings.miso.data.SparseMisoSceneModel.Section;
+import com.threerings.miso.util.ObjectSet;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A scene model for very large scenes, backed by a memory-mapped file of fixed-size sections.
+ * Sections are decoded only when they are first needed (which is generally when a scene block
+ * that overlaps them is resolved) and are retained in a size-bounded cache, from which cold
+ * sections are paged out. The file is written by {@link #write} from a {@link
+ * SparseMisoSceneModel}.
+ *
+ * <p> The file consists of a header (magic number, version, section dimensions, default base
+ * tileset and section count), a directory of (section key, offset, length) triples sorted by key
+ * and the section data itself: the base tile ids, the uninteresting object table and the
+ * interesting objects of each section.
+ *
+ * <p> Modifications are permitted (for the benefit of the editor and fringer), but a modified
+ * section is pinned in memory from then on; use {@link #toSparseModel} and {@link #write} to
+ * persist them. This model is not meant to be streamed: ship the file and map it on the other
+ * end instead. Its methods may be called from any thread.
+ */
+public class MappedMisoSceneModel extends MisoSceneModel
+{
+    /**
+     * Maps the specified scene file, with the default section cache size.
+     */
+    public MappedMisoSceneModel (File file)
+        throws IOException
+    {
+        this(file, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Maps the specified scene file.
+     *
+     * @param cacheSize the (approximate) number of bytes of decoded section data to retain.
+     */
+    public MappedMisoSceneModel (File file, int cacheSize)
+        throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Scene file too large to map [file=" + file + "].");
+            }
+            // the mapping remains valid after the channel is closed
+            init(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), cacheSize);
+        }
+    }
+
+    /**
+     * Creates a model that reads its data from the supplied buffer, which must contain data in the
+     * format produced by {@link #write}.
+     */
+    public MappedMisoSceneModel (ByteBuffer buffer, int cacheSize)
+        throws IOException
+    {
+        init(buffer, cacheSize);
+    }
+
+    /**
+     * Returns the width of our sections (in tiles).
+     */
+    public int getSectionWidth ()
+    {
+        return _swidth;
+    }
+
+    /**
+     * Returns the height of our sections (in tiles).
+     */
+    public int getSectionHeight ()
+    {
+        return _sheight;
+    }
+
+    /**
+     * Returns the number of sections in the scene file.
+     */
+    public int getSectionCount ()
+    {
+        return _keys.length;
+    }
+
+    /**
+     * Returns a summary of our section cache's effectiveness, suitable for logging.
+     */
+    public String getStats ()
+    {
+        synchronized (_sections) {
+            int[] eff = _sections.getTrackedEffectiveness();
+            return "[sections=" + _keys.length + ", resident=" + _sections.size() +
+                ", modified=" + _dirty.size() + ", hits=" + eff[0] + ", misses=" + eff[1] + "]";
+        }
+    }
+
+    /**
+     * Decodes this entire scene into a {@link SparseMisoSceneModel}, including any modifications
+     * made to this model.
+     */
+    public SparseMisoSceneModel toSparseModel ()
+    {
+        SparseMisoSceneModel model = new SparseMisoSceneModel(_swidth, _sheight);
+        model.defTileSet = _defTileSet;
+        for (int ii = 0; ii < _keys.length; ii++) {
+            Section sect = getSection(_keys[ii]);
+            model.setSection(sect.clone());
+        }
+        synchronized (_sections) {
+            for (Section sect : _dirty.values()) {
+                model.setSection(sect.clone());
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Writes the supplied model to the specified file in the format read by this class.
+     */
+    public static void write (SparseMisoSceneModel model, File file)
+        throws IOException
+    {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            write(model, out);
+        }
+    }
+
+    /**
+     * Writes the supplied model to the supplied stream in the format read by this class. Blank
+     * sections are omitted. The stream is not closed.
+     */
+    public static void write (SparseMisoSceneModel model, OutputStream out)
+        throws IOException
+    {
+        // encode the sections, sorted by key, so that we know where each one will be
+        Map<Integer, byte[]> sections = Maps.newTreeMap();
+        for (Iterator<Section> iter = model.getSections(); iter.hasNext(); ) {
+            Section sect = iter.next();
+            if (!sect.isBlank()) {
+                sections.put(model.key(sect.x, sect.y), encode(sect));
+            }
+        }
+
+        DataOutputStream dout = new DataOutputStream(out);
+        dout.writeInt(MAGIC);
+        dout.writeShort(VERSION);
+        dout.writeShort(model.swidth);
+        dout.writeShort(model.sheight);
+        dout.writeInt(model.defTileSet);
+        dout.writeInt(sections.size());
+        long offset = HEADER_SIZE + (long)sections.size() * DIRECTORY_ENTRY_SIZE;
+        for (Map.Entry<Integer, byte[]> entry : sections.entrySet()) {
+            if (offset + entry.getValue().length > Integer.MAX_VALUE) {
+                throw new IOException("Scene too large to map [sections=" + sections.size() + "].");
+            }
+            dout.writeInt(entry.getKey());
+            dout.writeInt((int)offset);
+            dout.writeInt(entry.getValue().length);
+            offset += entry.getValue().length;
+        }
+        for (byte[] data : sections.values()) {
+            dout.write(data);
+        }
+        dout.flush();
+    }
+
+    @Override
+    public int getBaseTileId (int x, int y)
+    {
+        Section sect = getSection(x, y);
+        return (sect == null) ? -1 : sect.getBaseTileId(x, y);
+    }
+
+    @Override
+    public boolean setBaseTile (int fqTileId, int x, int y)
+    {
+        synchronized (_sections) {
+            getDirtySection(x, y).setBaseTile(x, y, fqTileId);
+        }
+        return true;
+    }
+
+    @Override
+    public int getDefaultBaseTileSet ()
+    {
+        return _defTileSet;
+    }
+
+    @Override
+    public void setDefaultBaseTileSet (int tileSetId)
+    {
+        _defTileSet = tileSetId;
+    }
+
+    @Override
+    public void getObjects (Rectangle region, ObjectSet set)
+    {
+        int minx = MathUtil.floorDiv(region.x, _swidth)*_swidth;
+        int maxx = MathUtil.floorDiv(region.x+region.width-1, _swidth)*_swidth;
+        int miny = MathUtil.floorDiv(region.y, _sheight)*_sheight;
+        int maxy = MathUtil.floorDiv(region.y+region.height-1, _sheight)*_sheight;
+        for (int yy = miny; yy <= maxy; yy += _sheight) {
+            for (int xx = minx; xx <= maxx; xx += _swidth) {
+                Section sect = getSection(xx, yy);
+                if (sect != null) {
+                    sect.getObjects(region, set);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean addObject (ObjectInfo info)
+    {
+        synchronized (_sections) {
+            return getDirtySection(info.x, info.y).addObject(info);
+        }
+    }
+
+    @Override
+    public void updateObject (ObjectInfo info)
+    {
+        // not efficient, but this is only done in editing situations
+        removeObject(info);
+        addObject(info);
+    }
+
+    @Override
+    public boolean removeObject (ObjectInfo info)
+    {
+        synchronized (_sections) {
+            // don't create (and pin) an empty section just to find nothing to remove from it
+            int key = key(info.x, info.y);
+            if (!_dirty.containsKey(key) && Arrays.binarySearch(_keys, key) < 0) {
+                return false;
+            }
+            return getDirtySection(info.x, info.y).removeObject(info);
+        }
+    }
+
+    @Override
+    public MappedMisoSceneModel clone ()
+    {
+        MappedMisoSceneModel model = (MappedMisoSceneModel)super.clone();
+        model._sections = createCache(_cacheSize);
+        model._dirty = Maps.newHashMap();
+        model._last = null;
+        synchronized (_sections) {
+            for (Map.Entry<Integer, Section> entry : _dirty.entrySet()) {
+                model._dirty.put(entry.getKey(), entry.getValue().clone());
+            }
+        }
+        return model;
+    }
+
+    @Override
+    protected void toString (StringBuilder buf)
+    {
+        super.toString(buf);
+        buf.append(", swidth=").append(_swidth).append(", sheight=").append(_sheight);
+        buf.append(", sections=").append(_keys.length);
+    }
+
+    /**
+     * Reads our header and section directory from the supplied buffer.
+     */
+    private void init (ByteBuffer buffer, int cacheSize)
+        throws IOException
+    {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a mapped scene file.");
+        }
+        int version = buffer.getShort(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported mapped scene version [version=" + version + "].");
+        }
+        _swidth = buffer.getShort(6);
+        _sheight = buffer.getShort(8);
+        _defTileSet = buffer.getInt(10);
+        int count = buffer.getInt(14);
+        if (_swidth <= 0 || _sheight <= 0 || count < 0 ||
+                HEADER_SIZE + (long)count * DIRECTORY_ENTRY_SIZE > buffer.limit()) {
+            throw new IOException("Corrupt mapped scene header.");
+        }
+
+        _keys = new int[count];
+        _offsets = new int[count];
+        _lengths = new int[count];
+        for (int ii = 0, pos = HEADER_SIZE; ii < count; ii++, pos += DIRECTORY_ENTRY_SIZE) {
+            _keys[ii] = buffer.getInt(pos);
+            _offsets[ii] = buffer.getInt(pos + 4);
+            _lengths[ii] = buffer.getInt(pos + 8);
+            if (_offsets[ii] < 0 || _lengths[ii] < 0 ||
+                    (long)_offsets[ii] + _lengths[ii] > buffer.limit()) {
+                throw new IOException("Corrupt mapped scene directory [index=" + ii + "].");
+            }
+        }
+        _buffer = buffer;
+        _cacheSize = cacheSize;
+        _sections = createCache(cacheSize);
+    }
+
+    /**
+     * Returns the key for the section that contains the specified tile coordinate.
+     */
+    protected final int key (int x, int y)
+    {
+        int sx = MathUtil.floorDiv(x, _swidth);
+        int sy = MathUtil.floorDiv(y, _sheight);
+        return (sx << 16) | (sy & 0xFFFF);
+    }
+
+    /**
+     * Returns the section that contains the specified tile coordinate, or null if there is none.
+     */
+    protected Section getSection (int x, int y)
+    {
+        // callers generally ask for many tiles in a row from the same section
+        Section last = _last;
+        if (last != null && x >= last.x && x < last.x + _swidth &&
+                y >= last.y && y < last.y + _sheight) {
+            return last;
+        }
+        Section sect = getSection(key(x, y));
+        if (sect != null) {
+            _last = sect;
+        }
+        return sect;
+    }
+
+    /**
+     * Returns the section with the specified key, decoding it if it is not resident, or null if
+     * there is no such section.
+     */
+    protected Section getSection (int key)
+    {
+        synchronized (_sections) {
+            Section sect = _dirty.get(key);
+            if (sect == null) {
+                sect = _sections.get(key);
+            }
+            if (sect != null) {
+                return sect;
+            }
+        }
+
+        int idx = Arrays.binarySearch(_keys, key);
+        if (idx < 0) {
+            return null;
+        }
+        // we decode outside the lock; if two threads race to decode the same section, one of them
+        // simply wastes its effort
+        Section sect = decode(_buffer, _offsets[idx], _lengths[idx]);
+        synchronized (_sections) {
+            Section dsect = _dirty.get(key);
+            if (dsect != null) {
+                return dsect;
+            }
+            Section osect = _sections.get(key);
+            if (osect != null) {
+                return osect;
+            }
+            _sections.put(key, sect);
+        }
+        return sect;
+    }
+
+    /**
+     * Returns the section that contains the specified tile coordinate, creating it if necessary,
+     * and pins it in memory so that modifications to it are not lost. Must be called while
+     * synchronized on {@link #_sections}.
+     */
+    protected Section getDirtySection (int x, int y)
+    {
+        int key = key(x, y);
+        Section sect = _dirty.get(key);
+        if (sect == null) {
+            sect = _sections.remove(key);
+            int idx = Arrays.binarySearch(_keys, key);
+            if (sect == null && idx >= 0) {
+                sect = decode(_buffer, _offsets[idx], _lengths[idx]);
+            }
+            if (sect == null) {
+                short sx = (short)(MathUtil.floorDiv(x, _swidth)*_swidth);
+                short sy = (short)(MathUtil.floorDiv(y, _sheight)*_sheight);
+                sect = new Section(sx, sy, (short)_swidth, (short)_sheight);
+            }
+            _dirty.put(key, sect);
+        }
+        _last = null;
+        return sect;
+    }
+
+    /**
+     * Creates our cache of decoded sections.
+     */
+    protected static LRUHashMap<Integer, Section> createCache (int cacheSize)
+    {
+        LRUHashMap<Integer, Section> sections = new LRUHashMap<Integer, Section>(
+            cacheSize, new LRUHashMap.ItemSizer<Section>() {
+            public int computeSize (Section sect) {
+                return 64 + 4 * sect.baseTileIds.length + 8 * sect.objectTileIds.length +
+                    64 * sect.objectInfo.length;
+            }
+        });
+        sections.setTracking(true);
+        return sections;
+    }
+
+    /**
+     * Encodes the supplied section.
+     */
+    protected static byte[] encode (Section sect)
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(
+            16 + 4 * sect.baseTileIds.length + 8 * sect.objectTileIds.length);
+        DataOutputStream out = new DataOutputStream(bout);
+        out.writeShort(sect.x);
+        out.writeShort(sect.y);
+        out.writeShort(sect.width);
+        out.writeShort(sect.baseTileIds.length / sect.width);
+        for (int tileId : sect.baseTileIds) {
+            out.writeInt(tileId);
+        }
+        out.writeInt(sect.objectTileIds.length);
+        for (int ii = 0; ii < sect.objectTileIds.length; ii++) {
+            out.writeInt(sect.objectTileIds[ii]);
+            out.writeShort(sect.objectXs[ii]);
+            out.writeShort(sect.objectYs[ii]);
+        }
+        out.writeInt(sect.objectInfo.length);
+        for (ObjectInfo info : sect.objectInfo) {
+            out.writeInt(info.tileId);
+            out.writeShort(info.x);
+            out.writeShort(info.y);
+            out.writeByte(info.priority);
+            out.writeByte(info.sx);
+            out.writeByte(info.sy);
+            out.writeByte(info.sorient);
+            out.writeInt(info.zations);
+            if (info.action == null) {
+                out.writeShort(-1);
+            } else {
+                byte[] action = info.action.getBytes(UTF_8);
+                if (action.length > Short.MAX_VALUE) {
+                    throw new IOException(
+                        "Object action too long to encode [tileId=" + info.tileId + ", x=" + info.x +
+                        ", y=" + info.y + ", bytes=" + action.length + "]");
+                }
+                out.writeShort(action.length);
+                out.write(action);
+            }
+        }
+        out.flush();
+        return bout.toByteArray();
+    }
+
+    /**
+     * Decodes the section at the specified position in the supplied buffer. Only absolute reads
+     * are used, so the buffer may be shared between threads.
+     */
+    protected static Section decode (ByteBuffer buffer, int offset, int length)
+    {
+        int pos = offset;
+        Section sect = new Section();
+        sect.x = buffer.getShort(pos);
+        sect.y = buffer.getShort(pos + 2);
+        sect.width = buffer.getShort(pos + 4);
+        int height = buffer.getShort(pos + 6);
+        pos += 8;
+
+        sect.baseTileIds = new int[sect.width * height];
+        for (int ii = 0; ii < sect.baseTileIds.length; ii++, pos += 4) {
+            sect.baseTileIds[ii] = buffer.getInt(pos);
+        }
+
+        int ocount = buffer.getInt(pos);
+        pos += 4;
+        sect.objectTileIds = new int[ocount];
+        sect.objectXs = new short[ocount];
+        sect.objectYs = new short[ocount];
+        for (int ii = 0; ii < ocount; ii++, pos += 8) {
+            sect.objectTileIds[ii] = buffer.getInt(pos);
+            sect.objectXs[ii] = buffer.getShort(pos + 4);
+            sect.objectYs[ii] = buffer.getShort(pos + 6);
+        }
+
+        int icount = buffer.getInt(pos);
+        pos += 4;
+        sect.objectInfo = new ObjectInfo[icount];
+        for (int ii = 0; ii < icount; ii++) {
+            ObjectInfo info = new ObjectInfo(
+                buffer.getInt(pos), buffer.getShort(pos + 4), buffer.getShort(pos + 6));
+            info.priority = buffer.get(pos + 8);
+            info.sx = buffer.get(pos + 9);
+            info.sy = buffer.get(pos + 10);
+            info.sorient = buffer.get(pos + 11);
+            info.zations = buffer.getInt(pos + 12);
+            int alength = buffer.getShort(pos + 16);
+            pos += 18;
+            if (alength >= 0) {
+                byte[] action = new byte[alength];
+                buffer.get(pos, action);
+                info.action = new String(action, UTF_8);
+                pos += alength;
+            }
+            sect.objectInfo[ii] = info;
+        }
+
+        if (pos != offset + length) {
+            throw new IllegalStateException("Corrupt mapped scene section [x=" + sect.x +
+                                            ", y=" + sect.y + ", length=" + length + "].");
+        }
+        return sect;
+    }
+
+    /** The mapped scene file. */
+    protected transient ByteBuffer _buffer;
+
+    /** The dimensions of our sections (in tiles). */
+    protected transient int _swidth, _sheight;
+
+    /** The tileset to use when we have no tile data. */
+    protected transient int _defTileSet;
+
+    /** The keys of the sections in the file, sorted, and their offsets and lengths. */
+    protected transient int[] _keys, _offsets, _lengths;
+
+    /** The approximate number of bytes of decoded section data to retain. */
+    protected transient int _cacheSize;
+
+    /** Recently used decoded sections. Also used to synchronize access to {@link #_dirty}. */
+    protected transient LRUHashMap<Integer, Section> _sections;
+
+    /** Sections that have been modified, which are never paged out. */
+    protected transient Map<Integer, Section> _dirty = Maps.newHashMap();
+
+    /** The most recently accessed section. */
+    protected transient volatile Section _last;
+
+    /** Identifies a mapped scene file ("MISO"). */
+    protected static final int MAGIC = 0x4D49534F;
+
+    /** The version of the file format. */
+    protected static final int VERSION = 1;
+
+    /** The size of the file header, in bytes. */
+    protected static final int HEADER_SIZE = 18;
+
+    /** The size of a section directory entry, in bytes. */
+    protected static final int DIRECTORY_ENTRY_SIZE = 12;
+
+    /** The default number of bytes of decoded section data to retain. */
+    protected static final int DEFAULT_CACHE_SIZE = 8 * 1024 * 1024;
+}
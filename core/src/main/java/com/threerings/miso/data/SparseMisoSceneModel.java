@@ -21,7 +21,9 @@ package com.threerings.miso.data;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Map;
 
 import java.awt.Rectangle;
 
@@ -52,6 +54,14 @@ public class SparseMisoSceneModel extends MisoSceneModel
         public void visit (ObjectInfo info);
     }
 
+    /** An interface that allows external entities to inspect the "uninteresting" objects in this
+     * scene without an {@link ObjectInfo} record being created for each one. */
+    public static interface ObjectTileVisitor
+    {
+        /** Called for each uninteresting object visited. */
+        public void visit (int tileId, int x, int y);
+    }
+
     /** Contains information on a section of this scene. This is only
      * public so that the scene model parser can do its job, so don't go
      * poking around in here. */
@@ -138,6 +148,7 @@ public class SparseMisoSceneModel extends MisoSceneModel
                 objectTileIds = ArrayUtil.append(objectTileIds, info.tileId);
                 objectXs = ArrayUtil.append(objectXs, (short)info.x);
                 objectYs = ArrayUtil.append(objectYs, (short)info.y);
+                _order = null;
             }
             return true;
         }
@@ -156,6 +167,7 @@ public class SparseMisoSceneModel extends MisoSceneModel
                 objectTileIds = ArrayUtil.splice(objectTileIds, oidx, 1);
                 objectXs = ArrayUtil.splice(objectXs, oidx, 1);
                 objectYs = ArrayUtil.splice(objectYs, oidx, 1);
+                _order = null;
                 return true;
             }
 
@@ -197,12 +209,74 @@ public class SparseMisoSceneModel extends MisoSceneModel
             }
 
             // now look for intersecting non-interesting objects
-            for (int ii = 0; ii < objectTileIds.length; ii++) {
-                int x = objectXs[ii], y = objectYs[ii];
-                if (region.contains(x, y)) {
-                    set.insert(new ObjectInfo(objectTileIds[ii], x, y));
+            final ObjectSet fset = set;
+            visitObjectTiles(region, new ObjectTileVisitor() {
+                public void visit (int tileId, int x, int y) {
+                    fset.insert(new ObjectInfo(tileId, x, y));
+                }
+            });
+        }
+
+        /**
+         * Informs the supplied visitor of each uninteresting object in this section that lies
+         * within the specified region (which may be null to visit them all).
+         */
+        public void visitObjectTiles (Rectangle region, ObjectTileVisitor visitor) {
+            int count = objectTileIds.length;
+            if (region == null || (region.x <= x && region.y <= y &&
+                                   region.x + region.width >= x + width &&
+                                   region.y + region.height >= y + baseTileIds.length / width)) {
+                // the region contains the whole section
+                for (int ii = 0; ii < count; ii++) {
+                    visitor.visit(objectTileIds[ii], objectXs[ii], objectYs[ii]);
+                }
+                return;
+            }
+
+            // find the first object on or below the top of the region and visit the objects from
+            // there to the bottom of the region
+            int[] order = getOrder();
+            int low = 0, high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (objectYs[order[mid]] < region.y) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int maxy = region.y + region.height, maxx = region.x + region.width;
+            for (int ii = low; ii < count; ii++) {
+                int oidx = order[ii], ox = objectXs[oidx], oy = objectYs[oidx];
+                if (oy >= maxy) {
+                    break;
+                }
+                if (ox >= region.x && ox < maxx) {
+                    visitor.visit(objectTileIds[oidx], ox, oy);
+                }
+            }
+        }
+
+        /**
+         * Returns the indices of our uninteresting objects ordered by y coordinate (and then by
+         * x), computing them if necessary.
+         */
+        protected int[] getOrder () {
+            int[] order = _order;
+            if (order == null || order.length != objectTileIds.length) {
+                int count = objectTileIds.length;
+                long[] keys = new long[count];
+                for (int ii = 0; ii < count; ii++) {
+                    keys[ii] = ((long)objectYs[ii] << 48) + ((long)objectXs[ii] << 32) + ii;
+                }
+                Arrays.sort(keys);
+                order = new int[count];
+                for (int ii = 0; ii < count; ii++) {
+                    order[ii] = (int)keys[ii];
                 }
+                _order = order;
             }
+            return order;
         }
 
         /**
@@ -231,6 +305,7 @@ public class SparseMisoSceneModel extends MisoSceneModel
                 section.objectTileIds = objectTileIds.clone();
                 section.objectXs = objectXs.clone();
                 section.objectYs = objectYs.clone();
+                section._order = null;
                 section.objectInfo = new ObjectInfo[objectInfo.length];
                 for (int ii = 0; ii < objectInfo.length; ii++) {
                     section.objectInfo[ii] = objectInfo[ii].clone();
@@ -250,6 +325,10 @@ public class SparseMisoSceneModel extends MisoSceneModel
                     objectInfo.length, objectTileIds.length);
             }
         }
+
+        /** The indices of our uninteresting objects in order of their coordinates (see {@link
+         * #getOrder}), or null if they have not been computed since we last changed. */
+        protected transient volatile int[] _order;
     }
 
     /** The dimensions of a section of our scene. */
@@ -334,6 +413,37 @@ public class SparseMisoSceneModel extends MisoSceneModel
         }
     }
 
+    /**
+     * Informs the supplied visitor of each uninteresting object in this scene, without creating
+     * an {@link ObjectInfo} record for each.
+     */
+    public void visitObjectTiles (ObjectTileVisitor visitor)
+    {
+        for (Iterator<Section> iter = getSections(); iter.hasNext(); ) {
+            iter.next().visitObjectTiles(null, visitor);
+        }
+    }
+
+    /**
+     * Informs the supplied visitor of each uninteresting object in the specified region of this
+     * scene, without creating an {@link ObjectInfo} record for each.
+     */
+    public void visitObjectTiles (Rectangle region, ObjectTileVisitor visitor)
+    {
+        int minx = MathUtil.floorDiv(region.x, swidth)*swidth;
+        int maxx = MathUtil.floorDiv(region.x+region.width-1, swidth)*swidth;
+        int miny = MathUtil.floorDiv(region.y, sheight)*sheight;
+        int maxy = MathUtil.floorDiv(region.y+region.height-1, sheight)*sheight;
+        for (int yy = miny; yy <= maxy; yy += sheight) {
+            for (int xx = minx; xx <= maxx; xx += swidth) {
+                Section sec = getSection(xx, yy, false);
+                if (sec != null) {
+                    sec.visitObjectTiles(region, visitor);
+                }
+            }
+        }
+    }
+
     @Override
     public int getBaseTileId (int col, int row)
     {
@@ -409,7 +519,12 @@ public class SparseMisoSceneModel extends MisoSceneModel
      */
     public void setSection (Section section)
     {
-        _sections.put(key(section.x, section.y), section);
+        int key = key(section.x, section.y);
+        _sections.put(key, section);
+        SectionMap smap = _smap;
+        if (smap != null) {
+            smap.put(key, section);
+        }
     }
 
     /**
@@ -443,21 +558,39 @@ public class SparseMisoSceneModel extends MisoSceneModel
     protected final Section getSection (int x, int y, boolean create)
     {
         int key = key(x, y);
-        Section sect = _sections.get(key);
+        Section sect = getSectionMap().get(key);
         if (sect == null && create) {
             short sx = (short)(MathUtil.floorDiv(x, swidth)*swidth);
             short sy = (short)(MathUtil.floorDiv(y, sheight)*sheight);
-            _sections.put(key, sect = new Section(sx, sy, swidth, sheight));
+            setSection(sect = new Section(sx, sy, swidth, sheight));
 //             Log.info("Created new section " + sect + ".");
         }
         return sect;
     }
 
+    /**
+     * Returns the map via which we look up our sections, creating it if necessary (it is not
+     * streamed).
+     */
+    protected final SectionMap getSectionMap ()
+    {
+        SectionMap smap = _smap;
+        if (smap == null) {
+            smap = new SectionMap(_sections.size());
+            for (Map.Entry<Integer, Section> entry : _sections.entrySet()) {
+                smap.put(entry.getKey(), entry.getValue());
+            }
+            _smap = smap;
+        }
+        return smap;
+    }
+
     @Override
     public SparseMisoSceneModel clone ()
     {
         SparseMisoSceneModel model = (SparseMisoSceneModel)super.clone();
         model._sections = StreamableHashMap.newMap();
+        model._smap = null;
         for (Iterator<Section> iter = getSections(); iter.hasNext(); ) {
             Section sect = iter.next();
             model.setSection(sect.clone());
@@ -465,6 +598,78 @@ public class SparseMisoSceneModel extends MisoSceneModel
         return model;
     }
 
-    /** Contains our sections in row major order. */
+    /**
+     * An open addressed map from section key to section.
+     */
+    protected static class SectionMap
+    {
+        public SectionMap (int expected)
+        {
+            int capacity = 16;
+            while (capacity < expected * 2) {
+                capacity <<= 1;
+            }
+            _keys = new int[capacity];
+            _values = new Section[capacity];
+        }
+
+        /** Returns the section with the specified key, or null. */
+        public Section get (int key)
+        {
+            int mask = _keys.length - 1;
+            for (int idx = hash(key) & mask; ; idx = (idx + 1) & mask) {
+                Section value = _values[idx];
+                if (value == null || _keys[idx] == key) {
+                    return value;
+                }
+            }
+        }
+
+        /** Maps the specified key to the supplied section. */
+        public void put (int key, Section value)
+        {
+            if ((_size + 1) * 2 > _keys.length) {
+                int[] okeys = _keys;
+                Section[] ovalues = _values;
+                _keys = new int[okeys.length * 2];
+                _values = new Section[okeys.length * 2];
+                _size = 0;
+                for (int ii = 0; ii < okeys.length; ii++) {
+                    if (ovalues[ii] != null) {
+                        put(okeys[ii], ovalues[ii]);
+                    }
+                }
+            }
+            int mask = _keys.length - 1;
+            for (int idx = hash(key) & mask; ; idx = (idx + 1) & mask) {
+                if (_values[idx] == null) {
+                    _keys[idx] = key;
+                    _values[idx] = value;
+                    _size++;
+                    return;
+                } else if (_keys[idx] == key) {
+                    _values[idx] = value;
+                    return;
+                }
+            }
+        }
+
+        protected static int hash (int key)
+        {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        protected int[] _keys;
+        protected Section[] _values;
+        protected int _size;
+    }
+
+    /** Contains our sections in row major order. This is the form in which our sections are
+     * streamed; lookups go through {@link #_smap}. */
     protected StreamableHashMap<Integer, Section> _sections = StreamableHashMap.newMap();
+
+    /** Our sections, keyed on primitive section key; created from {@link #_sections} on first
+     * use. */
+    protected transient volatile SectionMap _smap;
 }
@@ -19,12 +19,8 @@
 
 package com.threerings.miso.tile;
 
-import java.lang.ref.WeakReference;
-
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
 
 import java.awt.Graphics2D;
 import java.awt.Transparency;
@@ -98,16 +94,25 @@ public class AutoFringer
     }
 
     /**
-     * Compute and return the fringe tile to be inserted at the specified location.
+     * Returns the cache in which composed fringe tiles are shared.
      */
-    public BaseTile getFringeTile (MisoSceneModel scene, int col, int row,
-        Map<FringeTile, WeakReference<FringeTile>> fringes, Map<Long, BufferedImage> masks)
+    public FringeCache getFringeCache ()
+    {
+        return _cache;
+    }
+
+    /**
+     * Compute and return the fringe tile to be inserted at the specified location. Composed tiles
+     * are shared (via our {@link FringeCache}) with all other callers. This method may be called
+     * simultaneously from multiple threads.
+     */
+    public BaseTile getFringeTile (MisoSceneModel scene, int col, int row)
     {
         // get the tileset id of the base tile we are considering
         int underset = adjustTileSetId(scene.getBaseTileId(col, row) >> 16);
 
         // start with a clean temporary fringer map
-        _fringers.clear();
+        CheapIntMap fringerMap = new CheapIntMap(16);
         boolean passable = true;
 
         // walk through our influence tiles
@@ -129,10 +134,10 @@ public class AutoFringer
                     continue;
                 }
 
-                FringerRec fringer = (FringerRec)_fringers.get(baseset);
+                FringerRec fringer = (FringerRec)fringerMap.get(baseset);
                 if (fringer == null) {
                     fringer = new FringerRec(baseset, pri);
-                    _fringers.put(baseset, fringer);
+                    fringerMap.put(baseset, fringer);
                 }
 
                 // now turn on the appropriate fringebits
@@ -154,7 +159,7 @@ public class AutoFringer
         }
 
         // if nothing fringed, we're done
-        int numfringers = _fringers.size();
+        int numfringers = fringerMap.size();
         if (numfringers == 0) {
             return null;
         }
@@ -162,83 +167,75 @@ public class AutoFringer
         // otherwise compose a FringeTile from the specified fringes
         FringerRec[] frecs = new FringerRec[numfringers];
         for (int ii = 0, pp = 0; ii < 16; ii++) {
-            FringerRec rec = (FringerRec)_fringers.getValue(ii);
+            FringerRec rec = (FringerRec)fringerMap.getValue(ii);
             if (rec != null) {
                 frecs[pp++] = rec;
             }
         }
 
-        return composeFringeTile(frecs, fringes, TileUtil.getTileHash(col, row), passable, masks);
+        return composeFringeTile(frecs, TileUtil.getTileHash(col, row), passable);
     }
 
     /**
      * Compose a FringeTile out of the various fringe images needed.
      */
-    protected FringeTile composeFringeTile (FringerRec[] fringers,
-        Map<FringeTile, WeakReference<FringeTile>> fringes, int hashValue, boolean passable,
-        Map<Long, BufferedImage> masks)
+    protected FringeTile composeFringeTile (
+        final FringerRec[] fringers, final int hashValue, boolean passable)
     {
         // sort the array so that higher priority fringers get drawn first
         QuickSort.sort(fringers);
 
         // Generate an identifier for the fringe tile being created as an array of the keys of its
         // component tiles in the order they'll be drawn in the fringe tile.
-        List<Long> keys = Lists.newArrayList();
-        for (FringerRec fringer : fringers) {
-            int[] indexes = getFringeIndexes(fringer.bits);
-            FringeConfiguration.FringeTileSetRecord tsr = _fringeconf.getFringe(
-                fringer.baseset, hashValue);
-            int fringeset = tsr.fringe_tsid;
-            for (int index : indexes) {
+        final FringeConfiguration.FringeTileSetRecord[] tsrs =
+            new FringeConfiguration.FringeTileSetRecord[fringers.length];
+        final int[][] indexes = new int[fringers.length][];
+        int count = 0;
+        for (int ii = 0; ii < fringers.length; ii++) {
+            indexes[ii] = getFringeIndexes(fringers[ii].bits);
+            tsrs[ii] = _fringeconf.getFringe(fringers[ii].baseset, hashValue);
+            count += indexes[ii].length;
+        }
+        long[] fringeId = new long[count];
+        for (int ii = 0, pp = 0; ii < fringers.length; ii++) {
+            for (int index : indexes[ii]) {
                 // Add a key for this tile as a long containing its base tile, the fringe set it's
                 // working with and the index used in that set.
-                keys.add((((long)fringer.baseset) << 32) + (fringeset << 16) + index);
-            }
-        }
-        long[] fringeId = new long[keys.size()];
-        for (int ii = 0; ii < fringeId.length; ii++) {
-            fringeId[ii] = keys.get(ii);
-        }
-        FringeTile frTile = new FringeTile(fringeId, passable);
-
-        // If the fringes map contains something with the same fringe identifier, this will pull
-        // it out and we can use it instead.
-        WeakReference<FringeTile> result = fringes.get(frTile);
-        if (result != null) {
-            FringeTile fringe = result.get();
-            if (fringe != null) {
-                return fringe;
+                fringeId[pp++] = getFringeKey(fringers[ii].baseset, tsrs[ii].fringe_tsid, index);
             }
         }
 
-        // There's no fringe with he same identifier, so we need to create the tile.
-        BufferedImage img = null;
-        for (FringerRec fringer : fringers) {
-            int[] indexes = getFringeIndexes(fringer.bits);
-            FringeConfiguration.FringeTileSetRecord tsr = _fringeconf.getFringe(
-                fringer.baseset, hashValue);
-            for (int index : indexes) {
-                try {
-                    img = getTileImage(img, tsr, fringer.baseset, index, hashValue, masks);
-                } catch (NoSuchTileSetException nstse) {
-                    log.warning("Autofringer couldn't find a needed tileset", nstse);
+        // If the cache contains a tile with the same fringe identifier, we use it; otherwise the
+        // cache has us create it.
+        return _cache.getTile(fringeId, passable, new FringeCache.TileComposer() {
+            public FringeTile compose (long[] fringeId, boolean passable) {
+                BufferedImage img = null;
+                for (int ii = 0; ii < fringers.length; ii++) {
+                    for (int index : indexes[ii]) {
+                        try {
+                            img = getTileImage(img, tsrs[ii], fringers[ii].baseset, index,
+                                               hashValue);
+                        } catch (NoSuchTileSetException nstse) {
+                            log.warning("Autofringer couldn't find a needed tileset", nstse);
+                        }
+                    }
                 }
+                FringeTile frTile = new FringeTile(fringeId, passable);
+                frTile.setImage(new BufferedMirage(img));
+                return frTile;
             }
-        }
-        frTile.setImage(new BufferedMirage(img));
-        fringes.put(frTile, new WeakReference<FringeTile>(frTile));
-        return frTile;
+        });
     }
 
     /**
      * Retrieve or compose an image for the specified fringe.
      */
     protected BufferedImage getTileImage (BufferedImage img,
-        FringeConfiguration.FringeTileSetRecord tsr, int baseset, int index, int hashValue,
-        Map<Long, BufferedImage> masks)
+        FringeConfiguration.FringeTileSetRecord tsr, final int baseset, final int index,
+        int hashValue)
         throws NoSuchTileSetException
     {
-        int fringeset = tsr.fringe_tsid;
+        final int fringeset = tsr.fringe_tsid;
         TileSet fset = _tmgr.getTileSet(fringeset);
         if (!tsr.mask) {
             // oh good, this is easy
@@ -247,18 +244,35 @@ public class AutoFringer
         }
 
         // otherwise, it's a mask..
-        Long maskkey = Long.valueOf((((long)baseset) << 32) + (fringeset << 16) + index);
-        BufferedImage mask = masks.get(maskkey);
+        BufferedImage mask = _cache.getMask(getFringeKey(baseset, fringeset, index),
+                                            new FringeCache.MaskComposer() {
+            public BufferedImage compose (long maskKey) {
+                try {
+                    BufferedImage fsrc = _tmgr.getTileSet(fringeset).getRawTileImage(index);
+                    BufferedImage bsrc = _tmgr.getTileSet(baseset).getRawTileImage(0);
+                    return ImageUtil.composeMaskedImage(_imgr, fsrc, bsrc);
+                } catch (NoSuchTileSetException nstse) {
+                    log.warning("Autofringer couldn't find a needed tileset", nstse);
+                    return null;
+                }
+            }
+        });
         if (mask == null) {
-            BufferedImage fsrc = _tmgr.getTileSet(fringeset).getRawTileImage(index);
-            BufferedImage bsrc = _tmgr.getTileSet(baseset).getRawTileImage(0);
-            mask = ImageUtil.composeMaskedImage(_imgr, fsrc, bsrc);
-            masks.put(maskkey, mask);
+            return img;
         }
 
         return stampTileImage(mask, img, mask.getWidth(null), mask.getHeight(null));
     }
 
+    /**
+     * Returns the key that identifies the specified fringe tile of the specified fringe set as
+     * applied to the specified base set.
+     */
+    protected static long getFringeKey (int baseset, int fringeset, int index)
+    {
+        return (((long)baseset) << 32) + (fringeset << 16) + index;
+    }
+
     /** Helper function for {@link #getTileImage}. */
     protected BufferedImage stampTileImage (Object stamp, BufferedImage ftimg, int width,
         int height)
@@ -450,5 +464,10 @@ public class AutoFringer
     protected ImageManager _imgr;
     protected TileManager _tmgr;
     protected FringeConfiguration _fringeconf;
-    protected CheapIntMap _fringers = new CheapIntMap(16);
+
+    /** The cache in which we share composed fringe tiles. */
+    protected FringeCache _cache = new FringeCache(DEFAULT_CACHE_BUDGET);
+
+    /** The number of bytes of fringe tiles that we strongly retain by default. */
+    protected static final long DEFAULT_CACHE_BUDGET = 16 * 1024 * 1024;
 }
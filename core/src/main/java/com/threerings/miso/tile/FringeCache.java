@@ -0,0 +1,370 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.miso.tile;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.awt.image.BufferedImage;
+
+import com.google.common.collect.Lists;
+
+import com.threerings.media.image.ImageUtil;
+import com.threerings.media.perf.FrameMetrics;
+
+import com.threerings.miso.tile.AutoFringer.FringeTile;
+
+/**
+ * Caches composed fringe tiles (and the masked images from which they are composed) so that they
+ * can be shared by all scene panels and composed but once, even when requested simultaneously by
+ * multiple resolver threads.
+ *
+ * <p> Tiles and masks are held strongly up to a (soft) memory budget. When the budget is
+ * exceeded, the least recently requested masks are dropped (they are only needed to compose new
+ * tiles) and then the least recently requested tiles are demoted to weak references: those still
+ * in use by some scene block continue to be shared, the rest are collected and eventually purged
+ * from the cache.
+ */
+public class FringeCache
+{
+    /** Composes fringe tiles on behalf of the cache. */
+    public interface TileComposer
+    {
+        /** Composes the tile with the specified id and passability. */
+        FringeTile compose (long[] fringeId, boolean passable);
+    }
+
+    /** Composes mask images on behalf of the cache. */
+    public interface MaskComposer
+    {
+        /** Composes the mask with the specified key (or returns null if it cannot). */
+        BufferedImage compose (long maskKey);
+    }
+
+    /**
+     * Creates a cache that will strongly retain up to the specified number of bytes of tiles and
+     * masks.
+     */
+    public FringeCache (long budget)
+    {
+        _budget = budget;
+    }
+
+    /**
+     * Updates our memory budget, trimming the cache if necessary.
+     */
+    public void setBudget (long budget)
+    {
+        _budget = budget;
+        if (_size.get() > budget) {
+            trim();
+        }
+    }
+
+    /**
+     * Returns the fringe tile with the specified id and passability, composing it with the supplied
+     * composer if it is not cached. Only one thread will compose any particular tile; others that
+     * request it in the meanwhile will wait for and share the result. The id array must not be
+     * modified after it is passed to this method.
+     */
+    public FringeTile getTile (long[] fringeId, boolean passable, TileComposer composer)
+    {
+        Key key = new Key(fringeId, passable);
+        Slot slot = _slots.get(key);
+        if (slot == null) {
+            Slot nslot = new Slot(key);
+            slot = _slots.putIfAbsent(key, nslot);
+            if (slot == null) {
+                slot = nslot;
+            }
+        }
+
+        FringeTile tile;
+        long added = 0;
+        synchronized (slot) {
+            tile = slot.tile;
+            if (tile == null && slot.weak != null) {
+                // the tile was demoted but is still in use somewhere, so promote it once more
+                tile = slot.weak.get();
+                if (tile != null) {
+                    slot.tile = tile;
+                    added = slot.size;
+                    _revivals.incrementAndGet();
+                    CACHE_HITS.increment();
+                }
+            }
+            if (tile == null) {
+                tile = composer.compose(fringeId, passable);
+                slot.tile = tile;
+                slot.weak = new WeakReference<FringeTile>(tile);
+                added = slot.size = tile.getEstimatedMemoryUsage();
+                _composed.incrementAndGet();
+                CACHE_MISSES.increment();
+            } else if (added == 0) {
+                _hits.incrementAndGet();
+                CACHE_HITS.increment();
+            }
+        }
+        slot.lastUsed = _clock.incrementAndGet();
+
+        if (added > 0 && _size.addAndGet(added) > _budget) {
+            trim();
+        }
+        return tile;
+    }
+
+    /**
+     * Returns the mask image with the specified key, composing it with the supplied composer if
+     * it is not cached. Only one thread will compose any particular mask.
+     */
+    public BufferedImage getMask (long maskKey, final MaskComposer composer)
+    {
+        Long key = maskKey;
+        MaskEntry entry = _masks.get(key);
+        if (entry == null) {
+            entry = _masks.computeIfAbsent(key, k -> {
+                BufferedImage image = composer.compose(k);
+                if (image == null) {
+                    return null;
+                }
+                MaskEntry nentry = new MaskEntry(image);
+                _size.addAndGet(nentry.size);
+                return nentry;
+            });
+            if (entry == null) {
+                return null;
+            }
+            if (_size.get() > _budget) {
+                trim();
+            }
+        }
+        entry.lastUsed = _clock.incrementAndGet();
+        return entry.image;
+    }
+
+    /**
+     * Clears out all cached tiles and masks.
+     */
+    public void clear ()
+    {
+        _slots.clear();
+        _masks.clear();
+        _size.set(0);
+    }
+
+    /**
+     * Returns the estimated memory used by the tiles and masks that we are strongly retaining.
+     */
+    public long getEstimatedMemoryUsage ()
+    {
+        return _size.get();
+    }
+
+    /**
+     * Returns a summary of the effectiveness of the cache, suitable for logging.
+     */
+    public String getStats ()
+    {
+        return "[tiles=" + _slots.size() + ", masks=" + _masks.size() +
+            ", size=" + (_size.get() / 1024) + "k, hits=" + _hits.get() +
+            ", revivals=" + _revivals.get() + ", composed=" + _composed.get() +
+            ", demotions=" + _demotions.get() + ", maskEvictions=" + _maskEvictions.get() + "]";
+    }
+
+    /**
+     * Drops the least recently used masks and then demotes the least recently used tiles to weak
+     * references until we are comfortably within our budget, and purges slots whose tiles have
+     * been collected. Only one thread trims at a time; others carry on regardless.
+     */
+    protected void trim ()
+    {
+        if (!_trimming.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long target = _budget * TRIM_PERCENT / 100;
+            List<Map.Entry<Long, MaskEntry>> masks = Lists.newArrayList(_masks.entrySet());
+            Collections.sort(masks, LEAST_RECENTLY_USED_MASK);
+            for (Map.Entry<Long, MaskEntry> mask : masks) {
+                if (_size.get() <= target) {
+                    break;
+                }
+                if (_masks.remove(mask.getKey(), mask.getValue())) {
+                    _size.addAndGet(-mask.getValue().size);
+                    _maskEvictions.incrementAndGet();
+                    DEMOTIONS.increment();
+                }
+            }
+
+            List<Slot> slots = Lists.newArrayList(_slots.values());
+            Collections.sort(slots, LEAST_RECENTLY_USED);
+            for (Slot slot : slots) {
+                if (_size.get() <= target) {
+                    break;
+                }
+                synchronized (slot) {
+                    if (slot.tile != null) {
+                        slot.tile = null;
+                        _size.addAndGet(-slot.size);
+                        _demotions.incrementAndGet();
+                        DEMOTIONS.increment();
+                    }
+                }
+            }
+            for (Slot slot : slots) {
+                synchronized (slot) {
+                    if (slot.tile == null && slot.weak != null && slot.weak.get() == null) {
+                        _slots.remove(slot.key, slot);
+                    }
+                }
+            }
+        } finally {
+            _trimming.set(false);
+        }
+    }
+
+    /** Identifies a fringe tile. */
+    protected static class Key
+    {
+        public final long[] fringeId;
+        public final boolean passable;
+
+        public Key (long[] fringeId, boolean passable) {
+            this.fringeId = fringeId;
+            this.passable = passable;
+            _hash = Arrays.hashCode(fringeId) * 31 + (passable ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals (Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key okey = (Key)other;
+            return _hash == okey._hash && passable == okey.passable &&
+                Arrays.equals(fringeId, okey.fringeId);
+        }
+
+        @Override
+        public int hashCode () {
+            return _hash;
+        }
+
+        protected int _hash;
+    }
+
+    /** Holds a cached tile (or the promise of one). Guarded by its own monitor. */
+    protected static class Slot
+    {
+        public final Key key;
+
+        /** The tile, while it is strongly retained. */
+        public FringeTile tile;
+
+        /** The tile, once it has been composed. */
+        public WeakReference<FringeTile> weak;
+
+        /** The estimated memory used by the tile. */
+        public long size;
+
+        /** The value of the cache clock when this tile was last requested. */
+        public volatile long lastUsed;
+
+        public Slot (Key key) {
+            this.key = key;
+        }
+    }
+
+    /** Holds a cached mask. */
+    protected static class MaskEntry
+    {
+        /** The mask image. */
+        public final BufferedImage image;
+
+        /** The estimated memory used by the mask. */
+        public final long size;
+
+        /** The value of the cache clock when this mask was last requested. */
+        public volatile long lastUsed;
+
+        public MaskEntry (BufferedImage image) {
+            this.image = image;
+            this.size = ImageUtil.getEstimatedMemoryUsage(image);
+        }
+    }
+
+    /** Our cached tiles. */
+    protected ConcurrentMap<Key, Slot> _slots = new ConcurrentHashMap<Key, Slot>();
+
+    /** Our cached masks, keyed on base tileset, fringe tileset and fringe index. */
+    protected ConcurrentMap<Long, MaskEntry> _masks = new ConcurrentHashMap<Long, MaskEntry>();
+
+    /** The number of bytes of tiles that we strongly retain before demoting them. */
+    protected volatile long _budget;
+
+    /** The estimated memory used by our strongly retained tiles and masks. */
+    protected AtomicLong _size = new AtomicLong();
+
+    /** Ticks once per request; used to find the least recently used tiles. */
+    protected AtomicLong _clock = new AtomicLong();
+
+    /** Set while a thread is trimming the cache. */
+    protected AtomicBoolean _trimming = new AtomicBoolean();
+
+    /** Statistics. */
+    protected AtomicInteger _hits = new AtomicInteger(), _revivals = new AtomicInteger(),
+        _composed = new AtomicInteger(), _demotions = new AtomicInteger(),
+        _maskEvictions = new AtomicInteger();
+
+    /** Orders slots from least to most recently used. */
+    protected static final Comparator<Slot> LEAST_RECENTLY_USED = new Comparator<Slot>() {
+        public int compare (Slot s1, Slot s2) {
+            return Long.compare(s1.lastUsed, s2.lastUsed);
+        }
+    };
+
+    /** Orders mask entries from least to most recently used. */
+    protected static final Comparator<Map.Entry<Long, MaskEntry>> LEAST_RECENTLY_USED_MASK =
+        new Comparator<Map.Entry<Long, MaskEntry>>() {
+        public int compare (Map.Entry<Long, MaskEntry> e1, Map.Entry<Long, MaskEntry> e2) {
+            return Long.compare(e1.getValue().lastUsed, e2.getValue().lastUsed);
+        }
+    };
+
+    /** When trimming, we demote tiles until we are within this percentage of our budget. */
+    protected static final int TRIM_PERCENT = 75;
+
+    /** Track fringe cache hits, misses and demotions across all caches. */
+    protected static final FrameMetrics.Counter CACHE_HITS =
+        FrameMetrics.counter("fringe.cache.hit");
+    protected static final FrameMetrics.Counter CACHE_MISSES =
+        FrameMetrics.counter("fringe.cache.miss");
+    protected static final FrameMetrics.Counter DEMOTIONS =
+        FrameMetrics.counter("fringe.cache.evict");
+}
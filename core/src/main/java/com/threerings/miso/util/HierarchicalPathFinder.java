@@ -0,0 +1,669 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.miso.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import java.awt.Point;
+
+import com.google.common.collect.Sets;
+
+import com.samskivert.util.HashIntMap;
+
+import com.threerings.media.util.AStarPathFinder;
+import com.threerings.media.util.AStarPathUtil.TraversalPred;
+import com.threerings.media.util.MathUtil;
+
+import static com.threerings.media.util.AStarPathUtil.ADJACENT_COST;
+import static com.threerings.media.util.AStarPathUtil.DIAGONAL_COST;
+
+/**
+ * Plans long paths through a scene made up of fixed size blocks (HPA* style). The tiles along the
+ * edge shared by each pair of adjacent blocks are grouped into runs that are open on both sides,
+ * each of which yields an entrance (a portal) on either side. Within a block, the cost of walking
+ * between each pair of its portals is precomputed. A path is then planned over this (much smaller)
+ * graph of portals and refined into a tile path by a regular A* search that is restricted to the
+ * corridor of blocks through which the abstract path passes.
+ *
+ * <p> Portal information is computed lazily, when a block is first needed for planning, and is
+ * cached until the {@link BlockSource} reports that the traversability of the block or one of
+ * its neighbors has changed. Blocks that are not resolved are treated as impassable, so a path
+ * that can only be found through unresolved territory must be found by other means.
+ *
+ * <p> Like the rest of the scene code, this class is not thread safe.
+ */
+public class HierarchicalPathFinder
+{
+    /**
+     * Provides the finder with information on the blocks of a scene.
+     */
+    public static interface BlockSource
+    {
+        /**
+         * Returns a stamp that changes whenever the traversability of any of the tiles in the
+         * specified block may have changed (including the block being replaced by another), or
+         * -1 if the block is not resolved.
+         */
+        public int getBlockVersion (int bx, int by);
+
+        /**
+         * Returns true if the specified tile is traversable, independent of any particular
+         * traverser. This will only be called for tiles in resolved blocks.
+         */
+        public boolean isPassable (int tx, int ty);
+    }
+
+    /**
+     * Creates a finder that plans over the blocks provided by the supplied source.
+     */
+    public HierarchicalPathFinder (BlockSource source, int blockWidth, int blockHeight)
+    {
+        this(source, blockWidth, blockHeight, new AStarPathFinder());
+    }
+
+    /**
+     * Creates a finder that plans over the blocks provided by the supplied source and refines
+     * its paths with the supplied finder.
+     */
+    public HierarchicalPathFinder (
+        BlockSource source, int blockWidth, int blockHeight, AStarPathFinder refiner)
+    {
+        _source = source;
+        _bwid = blockWidth;
+        _bhei = blockHeight;
+        _refiner = refiner;
+    }
+
+    /**
+     * Returns true if the specified tiles are far enough apart that a path between them is best
+     * planned hierarchically rather than with a single flat search.
+     */
+    public boolean isDistant (int ax, int ay, int bx, int by)
+    {
+        int dx = Math.abs(blockX(bx) - blockX(ax)), dy = Math.abs(blockY(by) - blockY(ay));
+        return Math.max(dx, dy) >= MIN_BLOCK_DISTANCE;
+    }
+
+    /**
+     * Computes a path from <code>(ax, ay)</code> to <code>(bx, by)</code>. The path is not bounded
+     * in length, but can only pass through resolved blocks.
+     *
+     * @param tpred the predicate consulted (along with the block information) when refining the
+     * path; this allows traverser specific restrictions to be honored.
+     * @param stats if non-null, will be filled in with the combined statistics of the planning
+     * and refinement searches.
+     *
+     * @return the list of points in the path, or null if no complete path could be found.
+     */
+    public List<Point> getPath (TraversalPred tpred, Object trav,
+                                int ax, int ay, int bx, int by, AStarPathFinder.Stats stats)
+    {
+        long start = System.nanoTime();
+        AStarPathFinder.Stats rstats = new AStarPathFinder.Stats();
+        Planner planner = new Planner(ax, ay, bx, by);
+        Set<Integer> corridor = planner.plan();
+
+        List<Point> path = null;
+        if (corridor != null) {
+            final Set<Integer> blocks = corridor;
+            final TraversalPred pred = tpred;
+            TraversalPred cpred = new TraversalPred() {
+                public boolean canTraverse (Object traverser, int x, int y) {
+                    return blocks.contains(blockKey(blockX(x), blockY(y))) &&
+                        pred.canTraverse(traverser, x, y);
+                }
+            };
+            int longest = 2 * blocks.size() * _bwid * _bhei;
+            path = _refiner.getPath(cpred, trav, longest, ax, ay, bx, by, false, rstats);
+        }
+
+        if (stats != null) {
+            stats.considered = planner.considered + rstats.considered;
+            stats.expanded = planner.expanded + rstats.expanded;
+            stats.reopened = rstats.reopened;
+            stats.maxOpen = Math.max(planner.maxOpen, rstats.maxOpen);
+            stats.complete = (path != null);
+            stats.nanos = System.nanoTime() - start;
+        }
+        return path;
+    }
+
+    /**
+     * Flushes any cached information for the specified block, which will be recomputed when next
+     * needed.
+     */
+    public void invalidate (int bx, int by)
+    {
+        _portals.remove(blockKey(bx, by));
+    }
+
+    /**
+     * Flushes all cached block information.
+     */
+    public void clear ()
+    {
+        _portals.clear();
+    }
+
+    /**
+     * Returns the number of blocks for which portal information is currently cached.
+     */
+    public int getCachedBlockCount ()
+    {
+        return _portals.size();
+    }
+
+    /**
+     * Returns the (up to date) portal information for the specified block, or null if the block
+     * is not resolved.
+     */
+    protected Portals getPortals (int bx, int by)
+    {
+        int key = blockKey(bx, by);
+        Portals portals = _portals.get(key);
+        if (portals != null && (portals.validated == _searches || portals.isValid())) {
+            portals.validated = _searches;
+            return portals;
+        }
+        portals = computePortals(bx, by);
+        if (portals == null) {
+            _portals.remove(key);
+        } else {
+            portals.validated = _searches;
+            _portals.put(key, portals);
+        }
+        return portals;
+    }
+
+    /**
+     * Computes the portals of the specified block and the costs of traveling between them.
+     */
+    protected Portals computePortals (int bx, int by)
+    {
+        int[] versions = new int[SIDE_DX.length + 1];
+        versions[0] = _source.getBlockVersion(bx, by);
+        if (versions[0] < 0) {
+            return null;
+        }
+        for (int ss = 0; ss < SIDE_DX.length; ss++) {
+            versions[ss+1] = _source.getBlockVersion(bx + SIDE_DX[ss], by + SIDE_DY[ss]);
+        }
+
+        Portals portals = new Portals(bx, by, _bwid, _bhei, versions);
+        for (int yy = 0; yy < _bhei; yy++) {
+            for (int xx = 0; xx < _bwid; xx++) {
+                portals.pass[yy*_bwid + xx] = _source.isPassable(portals.ox + xx, portals.oy + yy);
+            }
+        }
+
+        // find the runs along each side that are open on both sides of the block boundary
+        for (int ss = 0; ss < SIDE_DX.length; ss++) {
+            if (versions[ss+1] < 0) {
+                continue;
+            }
+            int length = (SIDE_DX[ss] == 0) ? _bwid : _bhei;
+            int runStart = -1;
+            for (int ii = 0; ii <= length; ii++) {
+                boolean open = (ii < length) && isOpen(portals, ss, ii);
+                if (open && runStart < 0) {
+                    runStart = ii;
+                } else if (!open && runStart >= 0) {
+                    // short runs get a portal in the middle, long runs one at each end
+                    int runEnd = ii - 1;
+                    if (runEnd - runStart + 1 >= LONG_RUN) {
+                        portals.add(sideLocal(ss, runStart), ss);
+                        portals.add(sideLocal(ss, runEnd), ss);
+                    } else {
+                        portals.add(sideLocal(ss, (runStart + runEnd) / 2), ss);
+                    }
+                    runStart = -1;
+                }
+            }
+        }
+
+        // compute the cost of traveling between each pair of portals within the block
+        int count = portals.count;
+        portals.cost = new int[count * count];
+        int[] dist = new int[_bwid * _bhei];
+        for (int ii = 0; ii < count; ii++) {
+            computeDistances(portals.pass, portals.local[ii], dist);
+            for (int jj = 0; jj < count; jj++) {
+                portals.cost[ii*count + jj] = dist[portals.local[jj]];
+            }
+        }
+        return portals;
+    }
+
+    /**
+     * Returns true if the <code>idx</code>th tile along the specified side of the block is
+     * passable as is its neighbor across the block boundary.
+     */
+    protected boolean isOpen (Portals portals, int side, int idx)
+    {
+        int local = sideLocal(side, idx);
+        if (!portals.pass[local]) {
+            return false;
+        }
+        int tx = portals.ox + local % _bwid, ty = portals.oy + local / _bwid;
+        return _source.isPassable(tx + SIDE_DX[side], ty + SIDE_DY[side]);
+    }
+
+    /**
+     * Returns the block-local index of the <code>idx</code>th tile along the specified side.
+     */
+    protected int sideLocal (int side, int idx)
+    {
+        switch (side) {
+        case NORTH: return idx;
+        case EAST: return idx*_bwid + _bwid - 1;
+        case SOUTH: return (_bhei - 1)*_bwid + idx;
+        default: return idx*_bwid;
+        }
+    }
+
+    /**
+     * Computes the cost of traveling from the specified block-local tile to every other tile in
+     * the block without leaving the block, using the same steps and costs as the tile searches.
+     * Unreachable tiles are assigned a cost of {@link Integer#MAX_VALUE}.
+     */
+    protected void computeDistances (boolean[] pass, int from, int[] dist)
+    {
+        Arrays.fill(dist, Integer.MAX_VALUE);
+        dist[from] = 0;
+        PriorityQueue<Long> queue = new PriorityQueue<Long>();
+        queue.add(pack(0, from));
+        while (!queue.isEmpty()) {
+            long entry = queue.poll();
+            int local = (int)entry, d = (int)(entry >>> 32);
+            if (d > dist[local]) {
+                continue;
+            }
+            int x = local % _bwid, y = local / _bwid;
+            for (int ii = 0; ii < STEP_DX.length; ii++) {
+                int sx = x + STEP_DX[ii], sy = y + STEP_DY[ii];
+                if (sx < 0 || sy < 0 || sx >= _bwid || sy >= _bhei || !pass[sy*_bwid + sx]) {
+                    continue;
+                }
+                // diagonal steps may not cut corners
+                if (ii >= 4 && !(pass[y*_bwid + sx] && pass[sy*_bwid + x])) {
+                    continue;
+                }
+                int nd = d + STEP_COST[ii], slocal = sy*_bwid + sx;
+                if (nd < dist[slocal]) {
+                    dist[slocal] = nd;
+                    queue.add(pack(nd, slocal));
+                }
+            }
+        }
+    }
+
+    protected final int blockX (int tx)
+    {
+        return MathUtil.floorDiv(tx, _bwid);
+    }
+
+    protected final int blockY (int ty)
+    {
+        return MathUtil.floorDiv(ty, _bhei);
+    }
+
+    protected static int blockKey (int bx, int by)
+    {
+        return (bx << 16) | (by & 0xFFFF);
+    }
+
+    protected static long pack (int cost, int value)
+    {
+        return ((long)cost << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    /** The estimated cost of an unobstructed path between two tiles. */
+    protected static int estimate (int ax, int ay, int bx, int by)
+    {
+        int dx = Math.abs(bx - ax), dy = Math.abs(by - ay);
+        return ADJACENT_COST * Math.max(dx, dy) +
+            (DIAGONAL_COST - ADJACENT_COST) * Math.min(dx, dy);
+    }
+
+    /** The portals of a single block. */
+    protected class Portals
+    {
+        /** The coordinates of the block and of its upper left tile. */
+        public final int bx, by, ox, oy;
+
+        /** The block-level passability of each of the block's tiles. */
+        public final boolean[] pass;
+
+        /** The number of portals. */
+        public int count;
+
+        /** The block-local tile index of each portal and a bitmask of the sides on which it
+         * opens into a neighboring block. */
+        public int[] local = new int[4], sides = new int[4];
+
+        /** The cost of traveling from each portal to each other portal (row major). */
+        public int[] cost;
+
+        /** Maps block-local tile indices to portal indices (or -1). */
+        public final int[] slot;
+
+        /** The versions of the block and its neighbors from which we were computed. */
+        public final int[] versions;
+
+        /** The search in which we were last validated. */
+        public int validated;
+
+        /** The search node of each of our portals, valid if {@link #nodeSearch} is current. */
+        public int[] nodes;
+        public int nodeSearch;
+
+        public Portals (int bx, int by, int width, int height, int[] versions) {
+            this.bx = bx;
+            this.by = by;
+            ox = bx * width;
+            oy = by * height;
+            this.versions = versions;
+            pass = new boolean[width * height];
+            slot = new int[width * height];
+            Arrays.fill(slot, -1);
+        }
+
+        public void add (int tile, int side) {
+            int idx = slot[tile];
+            if (idx < 0) {
+                if (count == local.length) {
+                    local = Arrays.copyOf(local, count * 2);
+                    sides = Arrays.copyOf(sides, count * 2);
+                }
+                idx = slot[tile] = count++;
+                local[idx] = tile;
+            }
+            sides[idx] |= (1 << side);
+        }
+
+        public boolean isValid () {
+            if (_source.getBlockVersion(bx, by) != versions[0]) {
+                return false;
+            }
+            for (int ss = 0; ss < SIDE_DX.length; ss++) {
+                if (_source.getBlockVersion(bx + SIDE_DX[ss], by + SIDE_DY[ss]) != versions[ss+1]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Performs the abstract search for a single path. */
+    protected class Planner
+    {
+        /** Search statistics. */
+        public int considered, expanded, maxOpen;
+
+        public Planner (int ax, int ay, int bx, int by) {
+            _ax = ax;
+            _ay = ay;
+            _bx = bx;
+            _by = by;
+        }
+
+        /**
+         * Plans a path over the portal graph, returning the keys of the blocks through which it
+         * passes, or null if no path could be found.
+         */
+        public Set<Integer> plan () {
+            _search = ++_searches;
+            Portals sportals = getPortals(blockX(_ax), blockY(_ay));
+            Portals gportals = getPortals(blockX(_bx), blockY(_by));
+            if (sportals == null || gportals == null) {
+                return null;
+            }
+            int glocal = (_by - gportals.oy)*_bwid + (_bx - gportals.ox);
+            if (!gportals.pass[glocal]) {
+                return null;
+            }
+
+            // compute the costs of getting from the start to the portals of its block and from
+            // the portals of the goal's block to the goal (the costs are symmetric)
+            int slocal = (_ay - sportals.oy)*_bwid + (_ax - sportals.ox);
+            int[] sdist = new int[_bwid * _bhei];
+            computeDistances(sportals.pass, slocal, sdist);
+            _gdist = new int[_bwid * _bhei];
+            computeDistances(gportals.pass, glocal, _gdist);
+            _gportals = gportals;
+
+            // the start and goal are not portals (though they may coincide with one)
+            int snode = create(null, -1, _ax, _ay), gnode = create(null, -1, _bx, _by);
+            _g[snode] = 0;
+            push(pack(estimate(_ax, _ay, _bx, _by), snode));
+            if (sportals == gportals) {
+                relax(snode, gnode, sdist[glocal]);
+            }
+            for (int ii = 0; ii < sportals.count; ii++) {
+                relax(snode, node(sportals, ii), sdist[sportals.local[ii]]);
+            }
+            _closed[snode] = true;
+
+            while (_heapSize > 0 && _count < MAX_NODES) {
+                int n = (int)pop();
+                if (_closed[n]) {
+                    continue;
+                }
+                _closed[n] = true;
+                if (n == gnode) {
+                    return getCorridor(gnode);
+                }
+                expanded++;
+                expand(n, gnode);
+            }
+            return null;
+        }
+
+        protected void expand (int n, int gnode) {
+            Portals portals = _np[n];
+            int idx = _ni[n];
+
+            // we can travel to the other portals in this block...
+            int count = portals.count;
+            for (int jj = 0; jj < count; jj++) {
+                if (jj != idx) {
+                    relax(n, node(portals, jj), portals.cost[idx*count + jj]);
+                }
+            }
+            // ...across to the neighboring blocks...
+            int local = portals.local[idx];
+            int x = _x[n], y = _y[n];
+            for (int ss = 0; ss < SIDE_DX.length; ss++) {
+                if ((portals.sides[idx] & (1 << ss)) == 0) {
+                    continue;
+                }
+                Portals nportals = getPortals(portals.bx + SIDE_DX[ss], portals.by + SIDE_DY[ss]);
+                int nx = x + SIDE_DX[ss], ny = y + SIDE_DY[ss];
+                int nidx = (nportals == null) ? -1 :
+                    nportals.slot[(ny - nportals.oy)*_bwid + (nx - nportals.ox)];
+                if (nidx >= 0) {
+                    relax(n, node(nportals, nidx), ADJACENT_COST);
+                }
+            }
+            // ...or to the goal, if it's in this block
+            if (portals == _gportals) {
+                relax(n, gnode, _gdist[local]);
+            }
+        }
+
+        protected void relax (int from, int to, int cost) {
+            if (cost == Integer.MAX_VALUE || _closed[to]) {
+                return;
+            }
+            int ng = _g[from] + cost;
+            if (ng >= _g[to]) {
+                return;
+            }
+            _g[to] = ng;
+            _parent[to] = from;
+            push(pack(ng + estimate(_x[to], _y[to], _bx, _by), to));
+            considered++;
+        }
+
+        /** Returns the keys of the blocks containing each node on the path to the goal. */
+        protected Set<Integer> getCorridor (int gnode) {
+            Set<Integer> corridor = Sets.newHashSet();
+            for (int n = gnode; n >= 0; n = _parent[n]) {
+                corridor.add(blockKey(blockX(_x[n]), blockY(_y[n])));
+            }
+            return corridor;
+        }
+
+        /** Returns the node for the specified portal, creating it if necessary. */
+        protected int node (Portals portals, int idx) {
+            if (portals.nodeSearch != _search) {
+                if (portals.nodes == null || portals.nodes.length < portals.count) {
+                    portals.nodes = new int[portals.count];
+                }
+                Arrays.fill(portals.nodes, -1);
+                portals.nodeSearch = _search;
+            }
+            int n = portals.nodes[idx];
+            if (n < 0) {
+                int local = portals.local[idx];
+                n = portals.nodes[idx] = create(
+                    portals, idx, portals.ox + local % _bwid, portals.oy + local / _bwid);
+            }
+            return n;
+        }
+
+        protected int create (Portals portals, int idx, int x, int y) {
+            if (_count == _x.length) {
+                int size = _count * 2;
+                _np = Arrays.copyOf(_np, size);
+                _ni = Arrays.copyOf(_ni, size);
+                _x = Arrays.copyOf(_x, size);
+                _y = Arrays.copyOf(_y, size);
+                _g = Arrays.copyOf(_g, size);
+                _parent = Arrays.copyOf(_parent, size);
+                _closed = Arrays.copyOf(_closed, size);
+            }
+            int n = _count++;
+            _np[n] = portals;
+            _ni[n] = idx;
+            _x[n] = x;
+            _y[n] = y;
+            _g[n] = Integer.MAX_VALUE;
+            _parent[n] = -1;
+            return n;
+        }
+
+        protected void push (long entry) {
+            if (_heapSize == _heap.length) {
+                _heap = Arrays.copyOf(_heap, _heapSize * 2);
+            }
+            int pos = _heapSize++;
+            while (pos > 0) {
+                int ppos = (pos - 1) >> 1;
+                if (_heap[ppos] <= entry) {
+                    break;
+                }
+                _heap[pos] = _heap[ppos];
+                pos = ppos;
+            }
+            _heap[pos] = entry;
+            maxOpen = Math.max(maxOpen, _heapSize);
+        }
+
+        protected long pop () {
+            long top = _heap[0], last = _heap[--_heapSize];
+            int pos = 0;
+            while (true) {
+                int child = 2*pos + 1;
+                if (child >= _heapSize) {
+                    break;
+                }
+                if (child + 1 < _heapSize && _heap[child + 1] < _heap[child]) {
+                    child++;
+                }
+                if (last <= _heap[child]) {
+                    break;
+                }
+                _heap[pos] = _heap[child];
+                pos = child;
+            }
+            _heap[pos] = last;
+            return top;
+        }
+
+        protected int _ax, _ay, _bx, _by;
+        protected int _search;
+        protected Portals _gportals;
+        protected int[] _gdist;
+
+        /** Our search nodes: their portals (if any), location, cost and parent. */
+        protected int _count;
+        protected Portals[] _np = new Portals[64];
+        protected int[] _ni = new int[64], _x = new int[64], _y = new int[64];
+        protected int[] _g = new int[64], _parent = new int[64];
+        protected boolean[] _closed = new boolean[64];
+
+        /** Our open list, a heap of (estimated cost, node) pairs with stale entries skipped. */
+        protected long[] _heap = new long[64];
+        protected int _heapSize;
+    }
+
+    /** Provides information on our blocks. */
+    protected BlockSource _source;
+
+    /** The dimensions of our blocks in tiles. */
+    protected int _bwid, _bhei;
+
+    /** Refines our abstract paths into tile paths. */
+    protected AStarPathFinder _refiner;
+
+    /** Cached portal information, keyed on block. */
+    protected HashIntMap<Portals> _portals = new HashIntMap<Portals>();
+
+    /** The number of searches we have performed; cached information is validated at most once
+     * per search. */
+    protected int _searches;
+
+    /** Paths between tiles at least this many blocks apart are planned hierarchically. */
+    protected static final int MIN_BLOCK_DISTANCE = 2;
+
+    /** Open runs at least this long along a block edge get a portal at each end. */
+    protected static final int LONG_RUN = 6;
+
+    /** The maximum number of nodes in an abstract search. */
+    protected static final int MAX_NODES = 1 << 16;
+
+    /** Indices of the block sides. */
+    protected static final int NORTH = 0, EAST = 1, SOUTH = 2, WEST = 3;
+
+    /** The offsets to the neighboring block (or tile) across each side. */
+    protected static final int[] SIDE_DX = { 0, 1, 0, -1 };
+    protected static final int[] SIDE_DY = { -1, 0, 1, 0 };
+
+    /** The steps considered within a block (orthogonal first) and their costs. */
+    protected static final int[] STEP_DX = { 0, 0, -1, 1, -1, 1, -1, 1 };
+    protected static final int[] STEP_DY = { -1, 1, 0, 0, -1, -1, 1, 1 };
+    protected static final int[] STEP_COST = {
+        ADJACENT_COST, ADJACENT_COST, ADJACENT_COST, ADJACENT_COST,
+        DIAGONAL_COST, DIAGONAL_COST, DIAGONAL_COST, DIAGONAL_COST };
+}
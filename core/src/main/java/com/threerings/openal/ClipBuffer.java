@@ -138,8 +138,12 @@ public class ClipBuffer
             _observers.add(observer);
         }
 
-        // if we're already loading, we can stop here
+        // if we're already loading, we can stop here (but if someone is now waiting to play us,
+        // make sure we're loaded ahead of any preloads)
         if (_state == LOADING) {
+            if (observer != null) {
+                _manager.prioritizeClipLoad(this);
+            }
             return;
         }
 
@@ -159,7 +163,7 @@ public class ClipBuffer
 
         } else {
             _state = LOADING;
-            _manager.queueClipLoad(this);
+            _manager.queueClipLoad(this, observer != null);
         }
     }
 
@@ -184,8 +188,10 @@ public class ClipBuffer
     }
 
     /**
-     * This method is called by the background sound loading thread and
-     * actually loads the sound data from wherever it cometh.
+     * This method is called by a background sound loading thread and
+     * actually loads the sound data from wherever it cometh. Clip
+     * providers must therefore be prepared to load multiple clips
+     * simultaneously.
      */
     protected Clip load ()
         throws IOException
@@ -0,0 +1,224 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.openal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.lwjgl.BufferUtils;
+
+import com.google.common.hash.Hashing;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static com.threerings.openal.Log.log;
+
+/**
+ * Caches decoded PCM clip data on disk so that subsequent runs can skip decoding (WAV parsing,
+ * Ogg decompression and the like) and simply read the raw samples back into memory.
+ *
+ * <p> Cache entries are keyed on the clip buffer key (see {@link ClipBuffer#makeKey}) and the
+ * clip's version. Providers that can detect changes to their source data should implement
+ * {@link Versioned}; clips from other providers are assumed to be immutable for the life of the
+ * cache directory, so such applications should use a cache directory specific to the version of
+ * their sound assets.
+ *
+ * <p> This class is safe to use from multiple loader threads simultaneously.
+ */
+public class ClipCache
+{
+    /**
+     * Implemented by {@link ClipProvider}s that can report a version (a modification time, a
+     * bundle version or some such) for their clips, so that stale cache entries are not used.
+     */
+    public static interface Versioned
+    {
+        /**
+         * Returns the version of the specified clip's source data, or -1 if the clip should not
+         * be cached.
+         */
+        public long getClipVersion (String path);
+    }
+
+    /**
+     * Creates a clip cache that stores its data in the specified directory (which will be
+     * created if it does not already exist).
+     */
+    public ClipCache (File cacheDir)
+    {
+        _cacheDir = cacheDir;
+        if (!_cacheDir.isDirectory() && !_cacheDir.mkdirs()) {
+            log.warning("Unable to create clip cache directory", "dir", _cacheDir);
+        }
+    }
+
+    /**
+     * Returns the directory in which this cache stores its data.
+     */
+    public File getDirectory ()
+    {
+        return _cacheDir;
+    }
+
+    /**
+     * Returns the version of the specified clip as reported by its provider, or -1 if the clip
+     * is not to be cached.
+     */
+    public long getVersion (ClipProvider provider, String path)
+    {
+        return (provider instanceof Versioned) ? ((Versioned)provider).getClipVersion(path) : 0L;
+    }
+
+    /**
+     * Loads the decoded clip data for the specified key, returning null if there is no valid
+     * cache entry.
+     */
+    public Clip read (String key, long version)
+    {
+        File file = getFile(key);
+        if (version < 0 || !file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel chan = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(chan, header);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getLong() != version) {
+                return null;
+            }
+            Clip clip = new Clip();
+            clip.format = header.getInt();
+            clip.frequency = header.getInt();
+            int length = header.getInt();
+            if (length < 0 || length != chan.size() - HEADER_SIZE) {
+                log.warning("Ignoring truncated cached clip", "key", key, "file", file);
+                return null;
+            }
+            clip.data = BufferUtils.createByteBuffer(length);
+            readFully(chan, clip.data);
+            clip.data.flip();
+            return clip;
+
+        } catch (IOException ioe) {
+            log.warning("Failed to read cached clip", "key", key, "file", file, ioe);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the decoded data for the supplied clip to the cache. The clip's data buffer is not
+     * modified. Failures are logged and otherwise ignored.
+     */
+    public void write (String key, long version, Clip clip)
+    {
+        if (version < 0 || clip.data == null) {
+            return;
+        }
+
+        // write to a temporary file and rename it into place so that a concurrent or subsequent
+        // reader never sees a partially written entry
+        File file = getFile(key), tmp = null;
+        ByteBuffer data = clip.data.duplicate();
+        data.rewind();
+        try {
+            tmp = File.createTempFile(file.getName(), TMP_SUFFIX, _cacheDir);
+            try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+                FileChannel chan = raf.getChannel();
+                chan.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putLong(version);
+                header.putInt(clip.format).putInt(clip.frequency).putInt(data.remaining());
+                header.flip();
+                while (header.hasRemaining()) {
+                    chan.write(header);
+                }
+                while (data.hasRemaining()) {
+                    chan.write(data);
+                }
+            }
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+                throw new IOException("Unable to rename " + tmp + " to " + file);
+            }
+
+        } catch (IOException ioe) {
+            log.warning("Failed to cache clip", "key", key, "file", file, ioe);
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries from the cache, along with any partially written entries.
+     */
+    public void clear ()
+    {
+        File[] files = _cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(SUFFIX) || (name.contains(SUFFIX) && name.endsWith(TMP_SUFFIX))) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the file in which the clip with the specified key is cached.
+     */
+    protected File getFile (String key)
+    {
+        return new File(_cacheDir, Hashing.sha256().hashString(key, UTF_8) + SUFFIX);
+    }
+
+    /**
+     * Reads from the channel until the buffer is full, throwing an exception if we reach the end
+     * of the file first.
+     */
+    protected static void readFully (FileChannel chan, ByteBuffer buf)
+        throws IOException
+    {
+        while (buf.hasRemaining()) {
+            if (chan.read(buf) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    /** The directory in which we store our cached clips. */
+    protected File _cacheDir;
+
+    /** Identifies (and versions) our cache file format. */
+    protected static final int MAGIC = 0x4E434C31; // NCL1
+
+    /** The size of our per-file header: magic, version, format, frequency and length. */
+    protected static final int HEADER_SIZE = 4 + 8 + 4 + 4 + 4;
+
+    /** The suffix applied to our cache files. */
+    protected static final String SUFFIX = ".pcm";
+
+    /** The suffix of the temporary files to which entries are written. */
+    protected static final String TMP_SUFFIX = ".tmp";
+}
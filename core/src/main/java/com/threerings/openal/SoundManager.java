@@ -22,6 +22,13 @@ package com.threerings.openal;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.io.File;
+import java.io.IOException;
 
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
@@ -38,7 +45,6 @@ import com.google.common.collect.Maps;
 
 import com.samskivert.util.IntListUtil;
 import com.samskivert.util.LRUHashMap;
-import com.samskivert.util.Queue;
 import com.samskivert.util.RunQueue;
 
 import com.threerings.openal.ClipBuffer.Observer;
@@ -51,12 +57,13 @@ import static com.threerings.openal.Log.log;
  * <ul>
  * <li> an object oriented interface to the OpenAL system
  * <li> a mechanism for loading a group of sounds and freeing their resources all at once
- * <li> a mechanism for loading sounds in a background thread and preloading sounds that are likely
- * to be needed soon
+ * <li> a mechanism for loading sounds in background threads and preloading sounds that are likely
+ * to be needed soon; clips that are waiting to be played are loaded ahead of preloads
+ * <li> an optional on-disk cache of decoded clip data (see {@link #setClipCache})
  * </ul>
  *
  * <p><em>Note:</em> the sound manager is not thread safe (other than during its interactions with
- * its internal background loading thread). It assumes that all sound loading and play requests
+ * its internal background loading threads). It assumes that all sound loading and play requests
  * will be made from a single thread.
  */
 public class SoundManager
@@ -70,6 +77,46 @@ public class SoundManager
      */
     public static record InitArgs (int frequency, int refresh, boolean sync) {}
 
+    /**
+     * A snapshot of the activity of our background clip loaders.
+     */
+    public static class LoaderStats
+    {
+        /** The number of clips currently waiting to be loaded. */
+        public int queueDepth;
+
+        /** The number of loader threads. */
+        public int loaders;
+
+        /** The number of clips successfully loaded. */
+        public long loaded;
+
+        /** The number of clips that failed to load. */
+        public long failed;
+
+        /** The number of clips whose decoded data was read from the clip cache. */
+        public long cacheHits;
+
+        /** The total time (in milliseconds) spent loading clips, summed across all loaders. */
+        public long loadMillis;
+
+        /**
+         * Returns the average number of clips loaded per second of loader time.
+         */
+        public float getThroughput ()
+        {
+            return (loadMillis == 0) ? 0f : (loaded + failed) * 1000f / loadMillis;
+        }
+
+        @Override
+        public String toString ()
+        {
+            return "[queued=" + queueDepth + ", loaders=" + loaders + ", loaded=" + loaded +
+                ", failed=" + failed + ", cacheHits=" + cacheHits + ", loadMillis=" + loadMillis +
+                "]";
+        }
+    }
+
     // Match the pre-LWJGL3 AL.create("", 44100, 15, false).
     public static InitArgs getLegacyInitArgs ()
     {
@@ -152,6 +199,61 @@ public class SoundManager
         _clips.setMaxSize(bytes);
     }
 
+    /**
+     * Configures the number of background threads used to load clips. Decoding is generally CPU
+     * bound, so there's little point in using more threads than there are processors.
+     */
+    public void setLoaderCount (int count)
+    {
+        _loaderCount = Math.max(1, count);
+        if (!_loaders.isEmpty()) {
+            startLoaders();
+        }
+    }
+
+    /**
+     * Configures a cache in which decoded clip data will be stored so that subsequent loads of
+     * the same clip (even in later sessions) need not decode the clip afresh. Pass null to
+     * disable the cache.
+     */
+    public void setClipCache (ClipCache cache)
+    {
+        _clipCache = cache;
+    }
+
+    /**
+     * Configures a cache in the specified directory in which decoded clip data will be stored.
+     *
+     * @see #setClipCache(ClipCache)
+     */
+    public void setClipCacheDirectory (File cacheDir)
+    {
+        setClipCache(new ClipCache(cacheDir));
+    }
+
+    /**
+     * Returns the number of clips currently waiting to be loaded.
+     */
+    public int getLoadQueueDepth ()
+    {
+        return (_toLoad == null) ? 0 : _toLoad.size();
+    }
+
+    /**
+     * Returns a snapshot of the activity of our background loaders.
+     */
+    public LoaderStats getLoaderStats ()
+    {
+        LoaderStats stats = new LoaderStats();
+        stats.queueDepth = getLoadQueueDepth();
+        stats.loaders = _loaders.size();
+        stats.loaded = _loadedCount.get();
+        stats.failed = _failedCount.get();
+        stats.cacheHits = _cacheHitCount.get();
+        stats.loadMillis = TimeUnit.NANOSECONDS.toMillis(_loadNanos.get());
+        return stats;
+    }
+
     /**
      * Returns a reference to the listener object.
      */
@@ -307,12 +409,28 @@ public class SoundManager
             }
         });
 
-        // create our loading queue
-        _toLoad = new Queue<ClipBuffer>();
+        // create our loading queue; our loader threads are started when the first clip is queued
+        _toLoad = new PriorityBlockingQueue<LoadRequest>();
+    }
 
-        // start up the background loader thread
-        _loader.setDaemon(true);
-        _loader.start();
+    /**
+     * Starts up as many loader threads as are needed to bring us up to our configured count.
+     * Excess loader threads notice that they are no longer needed and exit on their own.
+     */
+    protected void startLoaders ()
+    {
+        // clear out any loaders that have exited
+        for (int ii = _loaders.size() - 1; ii >= 0; ii--) {
+            if (!_loaders.get(ii).isAlive()) {
+                _loaders.remove(ii);
+            }
+        }
+        while (_loaders.size() < _loaderCount) {
+            Thread loader = new Loader(_loaders.size());
+            loader.setDaemon(true);
+            loader.start();
+            _loaders.add(loader);
+        }
     }
 
     /**
@@ -353,16 +471,80 @@ public class SoundManager
     }
 
     /**
-     * Queues the supplied clip buffer up for resolution. The {@link Clip} will be loaded into
-     * memory and then bound into OpenAL on the background thread.
+     * Queues the supplied clip buffer up for resolution as a preload. The {@link Clip} will be
+     * loaded into memory and then bound into OpenAL on the background thread.
      */
     protected void queueClipLoad (ClipBuffer buffer)
     {
-        if (_toLoad != null) {
-            _toLoad.append(buffer);
+        queueClipLoad(buffer, false);
+    }
+
+    /**
+     * Queues the supplied clip buffer up for resolution. The {@link Clip} will be loaded into
+     * memory on a background thread and then bound into OpenAL.
+     *
+     * @param immediate if true, the clip is waiting to be played and will be loaded ahead of any
+     * queued preloads.
+     */
+    protected void queueClipLoad (ClipBuffer buffer, boolean immediate)
+    {
+        if (_toLoad == null) {
+            return;
+        }
+        LoadRequest req = _queued.get(buffer.getKey());
+        if (req != null) {
+            // the clip is already queued up, just make sure it's queued with the right priority
+            if (immediate) {
+                prioritizeClipLoad(buffer);
+            }
+            return;
+        }
+        req = new LoadRequest(buffer, immediate ? PLAY_PRIORITY : PRELOAD_PRIORITY, _loadSeq++);
+        _queued.put(buffer.getKey(), req);
+        _toLoad.add(req);
+        if (_loaders.isEmpty()) {
+            startLoaders();
         }
     }
 
+    /**
+     * Moves the supplied (already queued) clip buffer ahead of any queued preloads. This is
+     * called when a clip that was queued for preloading is requested for immediate play.
+     */
+    protected void prioritizeClipLoad (ClipBuffer buffer)
+    {
+        LoadRequest req = _queued.get(buffer.getKey());
+        // if the request is no longer in the queue, a loader is already working on it
+        if (req != null && req.priority != PLAY_PRIORITY && _toLoad.remove(req)) {
+            LoadRequest nreq = new LoadRequest(buffer, PLAY_PRIORITY, req.seq);
+            _queued.put(buffer.getKey(), nreq);
+            _toLoad.add(nreq);
+        }
+    }
+
+    /**
+     * Loads the clip data for the supplied buffer, consulting and populating our clip cache if we
+     * have one. This is called on a loader thread.
+     */
+    protected Clip loadClipData (ClipBuffer buffer)
+        throws IOException
+    {
+        ClipCache cache = _clipCache;
+        if (cache == null) {
+            return buffer.load();
+        }
+        String ckey = buffer.getKey();
+        long version = cache.getVersion(buffer.getClipProvider(), buffer.getPath());
+        Clip clip = cache.read(ckey, version);
+        if (clip != null) {
+            _cacheHitCount.incrementAndGet();
+            return clip;
+        }
+        clip = buffer.load();
+        cache.write(ckey, version, clip);
+        return clip;
+    }
+
     /**
      * Queues the supplied clip buffer up using our {@link RunQueue} to notify its observers that
      * it failed to load.
@@ -456,38 +638,90 @@ public class SoundManager
         }
     }
 
-    /** The thread that loads up sound clips in the background. */
-    protected Thread _loader = new Thread("SoundManager.Loader") {
+    /** A request to load a clip, ordered by priority and then by the order of the request. */
+    protected static class LoadRequest
+        implements Comparable<LoadRequest>
+    {
+        public final ClipBuffer buffer;
+        public final int priority;
+        public final long seq;
+
+        public LoadRequest (ClipBuffer buffer, int priority, long seq)
+        {
+            this.buffer = buffer;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        // from interface Comparable<LoadRequest>
+        public int compareTo (LoadRequest other)
+        {
+            return (priority != other.priority) ? Integer.compare(other.priority, priority) :
+                Long.compare(seq, other.seq);
+        }
+    }
+
+    /** A thread that loads up sound clips in the background. */
+    protected class Loader extends Thread
+    {
+        public Loader (int index)
+        {
+            super("SoundManager.Loader-" + index);
+            _index = index;
+        }
+
         @Override
-        public void run () {
-            while (true) {
-                final ClipBuffer buffer = _toLoad.get();
+        public void run ()
+        {
+            while (_index < _loaderCount) {
+                LoadRequest req;
                 try {
-                    log.debug("Loading " + buffer.getKey() + ".");
-                    final Clip clip = buffer.load();
-                    _rqueue.postRunnable(new Runnable() {
-                        public void run () {
-                            String ckey = buffer.getKey();
-                            log.debug("Loaded " + ckey + ".");
-                            _loading.remove(ckey);
-                            if (buffer.bind(clip)) {
-                                _clips.put(ckey, buffer);
-                            } else {
-                                // TODO: shrink the cache size if the bind failed due to
-                                // OUT_OF_MEMORY
-                            }
+                    req = _toLoad.poll(LOADER_IDLE_CHECK, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ie) {
+                    continue;
+                }
+                if (req != null) {
+                    load(req.buffer);
+                }
+            }
+        }
+
+        protected void load (final ClipBuffer buffer)
+        {
+            final String ckey = buffer.getKey();
+            _queued.remove(ckey);
+            long start = System.nanoTime();
+            try {
+                log.debug("Loading " + ckey + ".");
+                final Clip clip = loadClipData(buffer);
+                _loadNanos.addAndGet(System.nanoTime() - start);
+                _loadedCount.incrementAndGet();
+                _rqueue.postRunnable(new Runnable() {
+                    public void run () {
+                        log.debug("Loaded " + ckey + ".");
+                        _loading.remove(ckey);
+                        if (buffer.bind(clip)) {
+                            _clips.put(ckey, buffer);
+                        } else {
+                            // TODO: shrink the cache size if the bind failed due to
+                            // OUT_OF_MEMORY
                         }
-                    });
+                    }
+                });
 
-                } catch (Throwable t) {
-                    log.warning("Failed to load clip [key=" + buffer.getKey() + "].", t);
+            } catch (Throwable t) {
+                _loadNanos.addAndGet(System.nanoTime() - start);
+                _failedCount.incrementAndGet();
+                log.warning("Failed to load clip [key=" + ckey + "].", t);
 
-                    // let the clip and its observers know that we are a miserable failure
-                    queueClipFailure(buffer);
-                }
+                // let the clip and its observers know that we are a miserable failure
+                queueClipFailure(buffer);
             }
         }
-    };
+
+        /** Our position in the list of loaders; loaders beyond the configured count exit. */
+        protected int _index;
+    }
 
     protected long _alcDevice;
     protected long _alcContext;
@@ -508,8 +742,29 @@ public class SoundManager
     protected LRUHashMap<String, ClipBuffer> _clips =
         new LRUHashMap<String, ClipBuffer>(DEFAULT_CACHE_SIZE, _sizer);
 
-    /** Contains a queue of clip buffers waiting to be loaded. */
-    protected Queue<ClipBuffer> _toLoad;
+    /** Contains a queue of clip buffers waiting to be loaded, highest priority first. */
+    protected PriorityBlockingQueue<LoadRequest> _toLoad;
+
+    /** Maps the keys of clips in {@link #_toLoad} to their requests, so that we never queue the
+     * same clip twice and can reprioritize queued clips. Loader threads remove from this map. */
+    protected ConcurrentHashMap<String, LoadRequest> _queued =
+        new ConcurrentHashMap<String, LoadRequest>();
+
+    /** Used to order load requests of the same priority. */
+    protected long _loadSeq;
+
+    /** The number of loader threads we should be running. */
+    protected volatile int _loaderCount = DEFAULT_LOADER_COUNT;
+
+    /** Our loader threads. */
+    protected List<Thread> _loaders = Lists.newArrayList();
+
+    /** The cache of decoded clip data, or null. */
+    protected volatile ClipCache _clipCache;
+
+    /** Loader statistics. */
+    protected AtomicLong _loadedCount = new AtomicLong(), _failedCount = new AtomicLong();
+    protected AtomicLong _cacheHitCount = new AtomicLong(), _loadNanos = new AtomicLong();
 
     /** The list of active streams. */
     protected ArrayList<Stream> _streams = Lists.newArrayList();
@@ -537,4 +792,17 @@ public class SoundManager
 
     /** Default to a cache size of one megabyte. */
     protected static final int DEFAULT_CACHE_SIZE = 8 * 1024 * 1024;
+
+    /** By default we leave a processor free for the main thread, but use at most four loaders. */
+    protected static final int DEFAULT_LOADER_COUNT =
+        Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    /** The priority of loads requested for clips that are waiting to be played. */
+    protected static final int PLAY_PRIORITY = 1;
+
+    /** The priority of loads requested for preloaded clips. */
+    protected static final int PRELOAD_PRIORITY = 0;
+
+    /** How often (in milliseconds) idle loaders check whether they should exit. */
+    protected static final long LOADER_IDLE_CHECK = 5000L;
 }
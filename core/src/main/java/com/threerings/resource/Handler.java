@@ -19,37 +19,17 @@
 
 package com.threerings.resource;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
 import java.security.Permission;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 
-import java.awt.Rectangle;
-import java.awt.image.BufferedImage;
-
-import javax.imageio.ImageIO;
-
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-
-import com.samskivert.io.ByteArrayOutInputStream;
 import com.samskivert.net.AttachableURLFactory;
 import com.samskivert.util.StringUtil;
 
-import com.threerings.media.image.ColorPository;
-import com.threerings.media.image.Colorization;
-import com.threerings.media.image.ImageUtil;
-
-import com.threerings.geom.GeomUtil;
-
 import static com.threerings.resource.Log.log;
 
 /**
@@ -73,6 +53,7 @@ public class Handler extends URLStreamHandler
             AttachableURLFactory.attachHandler("resource", Handler.class);
         }
         _rmgr = rmgr;
+        _tileService = new SubTileService(rmgr);
     }
 
     @Override
@@ -142,6 +123,16 @@ public class Handler extends URLStreamHandler
         };
     }
 
+    /**
+     * Returns the service that handles requests for sub-tiles of images, which may be configured
+     * with an image manager via which to share source images. Returns null if no resource manager
+     * has yet been registered.
+     */
+    public static SubTileService getSubTileService ()
+    {
+        return _tileService;
+    }
+
     /**
      * Does some magic to allow a subset of an image to be extracted, reencoded as a PNG and then
      * spat back out to the Java content handler system for inclusion in internal documentation.
@@ -149,85 +140,12 @@ public class Handler extends URLStreamHandler
     protected InputStream getStream (String bundle, String path, String query)
         throws IOException
     {
-        // we can only do this with PNGs
-        if (!path.endsWith(".png")) {
-            log.warning("Requested sub-tile of non-PNG resource",
-                "bundle", bundle, "path", path, "dims", query);
-            return _rmgr.getResource(bundle, path);
-        }
-
-        // parse the query string
-        String[] bits = StringUtil.split(query, "&");
-        int width = -1, height = -1, tidx = -1;
-        HashMap<String, String> zations = null;
-        try {
-            for (String bit : bits) {
-                if (bit.startsWith("width=")) {
-                    width = Integer.parseInt(bit.substring(6));
-                } else if (bit.startsWith("height=")) {
-                    height = Integer.parseInt(bit.substring(7));
-                } else if (bit.startsWith("tile=")) {
-                    tidx = Integer.parseInt(bit.substring(5));
-                } else if (bit.startsWith("zation=")) {
-                    String[] zation = bit.substring(7).split(":");
-                    if (zations == null) {
-                        zations = Maps.newHashMap();
-                    }
-
-                    zations.put(zation[0], zation[1]);
-                }
-            }
-        } catch (NumberFormatException nfe) {
-        }
-        if (width <= 0 || height <= 0 || tidx < 0) {
-            log.warning("Bogus sub-image dimensions",
-                "bundle", bundle, "path", path, "dims", query);
-            throw new FileNotFoundException(path);
-        }
-
-        // locate the tile image, then write that subimage back out in PNG format into memory and
-        // return an input stream for that
-        BufferedImage src = StringUtil.isBlank(bundle) ?
-            _rmgr.getImageResource(path) : _rmgr.getImageResource(bundle, path);
-        Rectangle trect = GeomUtil.getTile(src.getWidth(), src.getHeight(), width, height, tidx);
-        BufferedImage tile = src.getSubimage(trect.x, trect.y, trect.width, trect.height);
-        if (zations != null) {
-            ColorPository pository = ColorPository.loadColorPository(_rmgr);
-            ArrayList<Colorization> colorizations = Lists.newArrayList();
-            for (Map.Entry<String, String> entry : zations.entrySet()) {
-                String zClass = entry.getKey();
-                String zColor = entry.getValue();
-
-                Colorization zation = null;
-
-                // First try looking if we got a number
-                try {
-                    zation = pository.getColorization(zClass, Integer.parseInt(zColor));
-                } catch (NumberFormatException nfe) { }
-
-                // If that didn't work, try it as a zation name
-                if (zation == null) {
-                    zation = pository.getColorization(zClass, zColor);
-                }
-
-                if (zation == null) {
-                    log.warning("Couldn't figure out requested zation",
-                        "class", zClass, "color", zColor);
-                } else {
-                    colorizations.add(zation);
-                }
-
-            }
-
-            tile = ImageUtil.recolorImage(tile,
-                colorizations.toArray(new Colorization[colorizations.size()]));
-        }
-
-        ByteArrayOutInputStream data = new ByteArrayOutInputStream();
-        ImageIO.write(tile, "PNG", data);
-        return data.getInputStream();
+        return _tileService.getStream(bundle, path, query);
     }
 
     /** Our singleton resource manager. */
     protected static ResourceManager _rmgr;
+
+    /** Extracts and caches sub-tiles for our singleton resource manager. */
+    protected static SubTileService _tileService;
 }
@@ -0,0 +1,334 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.resource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.samskivert.util.LRUHashMap;
+import com.samskivert.util.StringUtil;
+
+import com.threerings.media.image.ColorPository;
+import com.threerings.media.image.Colorization;
+import com.threerings.media.image.ImageManager;
+import com.threerings.media.image.ImageUtil;
+import com.threerings.media.image.PNGEncoder;
+
+import com.threerings.geom.GeomUtil;
+
+import static com.threerings.resource.Log.log;
+
+/**
+ * Extracts (and optionally recolors) individual tiles from tileset images and encodes them as
+ * PNGs, for use by the <code>resource://</code> URL {@link Handler} when a URL carries a query of
+ * the form <code>?width=..&amp;height=..&amp;tile=..[&amp;zation=class:color]*</code>.
+ *
+ * <p> Encoded tiles are cached (up to a configurable number of bytes) on the full bundle, path and
+ * query, so repeatedly displayed tiles cost only a cache lookup. The color pository is loaded once
+ * and retained. Source tileset images are obtained from an {@link ImageManager} (if one has been
+ * provided) so that they are shared with the rest of the application; otherwise a handful of
+ * recently used sources are cached here. Tiles are encoded with the fast {@link PNGEncoder}.
+ *
+ * <p> This class is safe to use from multiple threads.
+ */
+public class SubTileService
+{
+    /**
+     * Creates a service that loads its data from the supplied resource manager.
+     */
+    public SubTileService (ResourceManager rmgr)
+    {
+        _rmgr = rmgr;
+        _tiles = createCache(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Configures an image manager via which source tileset images will be loaded (and cached).
+     */
+    public void setImageManager (ImageManager imgr)
+    {
+        _imgr = imgr;
+        synchronized (_sources) {
+            _sources.clear();
+        }
+    }
+
+    /**
+     * Configures the maximum number of bytes of encoded tile data that will be cached. Any
+     * currently cached data is flushed.
+     */
+    public void setCacheSize (int bytes)
+    {
+        _tiles = createCache(bytes);
+    }
+
+    /**
+     * Configures the deflate level with which tiles are encoded: 0 for no compression (the
+     * fastest, but the largest output) through 9. Defaults to {@link Deflater#BEST_SPEED}.
+     */
+    public void setCompressionLevel (int level)
+    {
+        _level = level;
+    }
+
+    /**
+     * Returns a stream from which the (PNG encoded) tile identified by the supplied bundle, path
+     * and query can be read.
+     */
+    public InputStream getStream (String bundle, String path, String query)
+        throws IOException
+    {
+        // we can only do this with PNGs
+        if (!path.endsWith(".png")) {
+            log.warning("Requested sub-tile of non-PNG resource",
+                "bundle", bundle, "path", path, "dims", query);
+            return _rmgr.getResource(bundle, path);
+        }
+        return new ByteArrayInputStream(getTileData(bundle, path, query));
+    }
+
+    /**
+     * Returns the PNG encoded data for the tile identified by the supplied bundle, path and query.
+     * The returned array is shared and must not be modified.
+     */
+    public byte[] getTileData (String bundle, String path, String query)
+        throws IOException
+    {
+        String key = bundle + "/" + path + "?" + query;
+        LRUHashMap<String, byte[]> tiles = _tiles;
+        synchronized (tiles) {
+            byte[] data = tiles.get(key);
+            if (data != null) {
+                return data;
+            }
+        }
+
+        byte[] data = PNGEncoder.encode(createTile(bundle, path, query), _level);
+        synchronized (tiles) {
+            tiles.put(key, data);
+        }
+        _encoded.incrementAndGet();
+        return data;
+    }
+
+    /**
+     * Flushes our cached tiles, sources and color pository.
+     */
+    public void clearCache ()
+    {
+        LRUHashMap<String, byte[]> tiles = _tiles;
+        synchronized (tiles) {
+            tiles.clear();
+        }
+        synchronized (_sources) {
+            _sources.clear();
+        }
+        _pository = null;
+    }
+
+    /**
+     * Returns a summary of our cache's effectiveness, suitable for logging.
+     */
+    public String getStats ()
+    {
+        LRUHashMap<String, byte[]> tiles = _tiles;
+        synchronized (tiles) {
+            int[] eff = tiles.getTrackedEffectiveness();
+            return "[tiles=" + tiles.size() + ", hits=" + eff[0] + ", misses=" + eff[1] +
+                ", encoded=" + _encoded.get() + "]";
+        }
+    }
+
+    /**
+     * Extracts and recolors the tile identified by the supplied bundle, path and query.
+     */
+    protected BufferedImage createTile (String bundle, String path, String query)
+        throws IOException
+    {
+        // parse the query string
+        String[] bits = StringUtil.split(query, "&");
+        int width = -1, height = -1, tidx = -1;
+        HashMap<String, String> zations = null;
+        try {
+            for (String bit : bits) {
+                if (bit.startsWith("width=")) {
+                    width = Integer.parseInt(bit.substring(6));
+                } else if (bit.startsWith("height=")) {
+                    height = Integer.parseInt(bit.substring(7));
+                } else if (bit.startsWith("tile=")) {
+                    tidx = Integer.parseInt(bit.substring(5));
+                } else if (bit.startsWith("zation=")) {
+                    String[] zation = bit.substring(7).split(":");
+                    if (zations == null) {
+                        zations = Maps.newHashMap();
+                    }
+
+                    zations.put(zation[0], zation[1]);
+                }
+            }
+        } catch (NumberFormatException nfe) {
+        }
+        if (width <= 0 || height <= 0 || tidx < 0) {
+            log.warning("Bogus sub-image dimensions",
+                "bundle", bundle, "path", path, "dims", query);
+            throw new FileNotFoundException(path);
+        }
+
+        // locate the tile within its source image
+        BufferedImage src = getSource(bundle, path);
+        Rectangle trect = GeomUtil.getTile(src.getWidth(), src.getHeight(), width, height, tidx);
+        BufferedImage tile = src.getSubimage(trect.x, trect.y, trect.width, trect.height);
+        if (zations != null) {
+            tile = ImageUtil.recolorImage(tile, getColorizations(zations));
+        }
+        return tile;
+    }
+
+    /**
+     * Resolves the requested colorizations (specified as a mapping from colorization class to
+     * colorization name or id).
+     */
+    protected Colorization[] getColorizations (Map<String, String> zations)
+    {
+        ColorPository pository = getColorPository();
+        ArrayList<Colorization> colorizations = Lists.newArrayList();
+        for (Map.Entry<String, String> entry : zations.entrySet()) {
+            String zClass = entry.getKey();
+            String zColor = entry.getValue();
+
+            Colorization zation = null;
+
+            // First try looking if we got a number
+            try {
+                zation = pository.getColorization(zClass, Integer.parseInt(zColor));
+            } catch (NumberFormatException nfe) { }
+
+            // If that didn't work, try it as a zation name
+            if (zation == null) {
+                zation = pository.getColorization(zClass, zColor);
+            }
+
+            if (zation == null) {
+                log.warning("Couldn't figure out requested zation",
+                    "class", zClass, "color", zColor);
+            } else {
+                colorizations.add(zation);
+            }
+        }
+        return colorizations.toArray(new Colorization[colorizations.size()]);
+    }
+
+    /**
+     * Returns the source image at the specified path in the specified bundle (or in the default
+     * resource sets if the bundle is blank).
+     */
+    protected BufferedImage getSource (String bundle, String path)
+        throws IOException
+    {
+        boolean defset = StringUtil.isBlank(bundle);
+        ImageManager imgr = _imgr;
+        if (imgr != null) {
+            return imgr.getImage(defset ? null : bundle, path);
+        }
+
+        String key = bundle + "/" + path;
+        synchronized (_sources) {
+            BufferedImage src = _sources.get(key);
+            if (src != null) {
+                return src;
+            }
+        }
+        BufferedImage src = defset ?
+            _rmgr.getImageResource(path) : _rmgr.getImageResource(bundle, path);
+        synchronized (_sources) {
+            _sources.put(key, src);
+        }
+        return src;
+    }
+
+    /**
+     * Returns our color pository, loading it if necessary.
+     */
+    protected ColorPository getColorPository ()
+    {
+        ColorPository pository = _pository;
+        if (pository == null) {
+            _pository = pository = ColorPository.loadColorPository(_rmgr);
+        }
+        return pository;
+    }
+
+    /**
+     * Creates a cache of encoded tile data that holds up to the specified number of bytes.
+     */
+    protected static LRUHashMap<String, byte[]> createCache (int bytes)
+    {
+        LRUHashMap<String, byte[]> tiles = new LRUHashMap<String, byte[]>(
+            bytes, new LRUHashMap.ItemSizer<byte[]>() {
+            public int computeSize (byte[] value) {
+                return value.length;
+            }
+        });
+        tiles.setTracking(true);
+        return tiles;
+    }
+
+    /** The resource manager from which we load our data. */
+    protected ResourceManager _rmgr;
+
+    /** The image manager via which we load source images, or null. */
+    protected volatile ImageManager _imgr;
+
+    /** Our cached color pository. */
+    protected volatile ColorPository _pository;
+
+    /** Encoded tile data, keyed on bundle, path and query. */
+    protected volatile LRUHashMap<String, byte[]> _tiles;
+
+    /** Recently used source images, when we have no image manager. */
+    protected LRUHashMap<String, BufferedImage> _sources =
+        new LRUHashMap<String, BufferedImage>(SOURCE_CACHE_SIZE);
+
+    /** The deflate level with which we encode tiles. */
+    protected volatile int _level = Deflater.BEST_SPEED;
+
+    /** The number of tiles we have encoded. */
+    protected AtomicInteger _encoded = new AtomicInteger();
+
+    /** The default number of bytes of encoded tile data to cache. */
+    protected static final int DEFAULT_CACHE_SIZE = 4 * 1024 * 1024;
+
+    /** The number of source images to cache when we have no image manager. */
+    protected static final int SOURCE_CACHE_SIZE = 8;
+}
@@ -0,0 +1,231 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.cast;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import java.awt.Color;
+import java.awt.Point;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import com.threerings.media.image.Colorization;
+
+/**
+ * Measures action frame lookups for a realistic population of avatars: a handful of component
+ * classes with sequentially numbered components, a few colorization classes and a skewed
+ * popularity so that many players wear the same outfit in different colors. Compares the old
+ * component id hash with the descriptor fingerprint, and with lookups on interned descriptors.
+ * Run with <code>java -cp ... com.threerings.cast.CharacterDescriptorBenchmark</code>, which
+ * also reports hash collisions and how often an interned descriptor is shared.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CharacterDescriptorBenchmark
+{
+    @Setup
+    public void setup ()
+    {
+        Random rand = new Random(1);
+        _requests = createRequests(rand, LOOKS, REQUESTS);
+
+        Interner<CharacterDescriptor> interner = Interners.newStrongInterner();
+        for (CharacterDescriptor desc : _requests) {
+            Object frames = new Object();
+            _legacy.put(new LegacyKey(desc), frames);
+            _fingerprinted.put(copy(desc), frames);
+            _interned.put(interner.intern(desc), frames);
+        }
+        _internedRequests = new CharacterDescriptor[_requests.length];
+        for (int ii = 0; ii < _requests.length; ii++) {
+            _internedRequests[ii] = interner.intern(_requests[ii]);
+        }
+    }
+
+    @Benchmark
+    public Object legacyLookup ()
+    {
+        // descriptors arrive fresh off the network, so neither hash is yet computed
+        return _legacy.get(new LegacyKey(copy(next())));
+    }
+
+    @Benchmark
+    public Object fingerprintLookup ()
+    {
+        return _fingerprinted.get(copy(next()));
+    }
+
+    @Benchmark
+    public Object internedLookup ()
+    {
+        return _interned.get(_internedRequests[_next++ % _internedRequests.length]);
+    }
+
+    public static void main (String[] args)
+        throws Exception
+    {
+        CharacterDescriptor[] requests = createRequests(new Random(1), LOOKS, REQUESTS);
+        Set<Integer> legacy = new HashSet<Integer>(), hashes = new HashSet<Integer>();
+        Set<Long> fingerprints = new HashSet<Long>();
+        Interner<CharacterDescriptor> interner = Interners.newStrongInterner();
+        int shared = 0;
+        for (CharacterDescriptor desc : requests) {
+            legacy.add(new LegacyKey(desc).hashCode());
+            hashes.add(desc.hashCode());
+            fingerprints.add(desc.getFingerprint());
+            if (interner.intern(desc) != desc) {
+                shared++;
+            }
+        }
+        System.out.println("Characters: " + requests.length + ", distinct looks: " +
+                           fingerprints.size() + ", legacy hash codes: " + legacy.size() +
+                           ", fingerprint hash codes: " + hashes.size() +
+                           ", sharing an interned descriptor: " +
+                           (shared * 100 / requests.length) + "%");
+
+        new Runner(new OptionsBuilder().include(
+            CharacterDescriptorBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    protected CharacterDescriptor next ()
+    {
+        return _requests[_next++ % _requests.length];
+    }
+
+    /**
+     * Creates the descriptors for a population of characters, the looks of which are drawn (with
+     * a skew toward the popular ones) from a smaller set of looks.
+     */
+    protected static CharacterDescriptor[] createRequests (Random rand, int looks, int count)
+    {
+        CharacterDescriptor[] pool = new CharacterDescriptor[looks];
+        for (int ii = 0; ii < looks; ii++) {
+            int[] cids = new int[COMPONENT_CLASSES];
+            Colorization[][] zations = new Colorization[COMPONENT_CLASSES][];
+            for (int cc = 0; cc < COMPONENT_CLASSES; cc++) {
+                // outfits are drawn from the few most popular components in each class
+                cids[cc] = 1 + cc * COMPONENTS_PER_CLASS + (int)Math.abs(rand.nextGaussian() * 3);
+                zations[cc] = new Colorization[COLOR_CLASSES];
+                for (int zz = 0; zz < COLOR_CLASSES; zz++) {
+                    zations[cc][zz] = COLORS[zz][rand.nextInt(COLORS_PER_CLASS)];
+                }
+            }
+            pool[ii] = new CharacterDescriptor(cids, zations);
+        }
+        CharacterDescriptor[] requests = new CharacterDescriptor[count];
+        for (int ii = 0; ii < count; ii++) {
+            // a zipf-like popularity: low numbered looks are much more common
+            int look = (int)(looks * Math.pow(rand.nextDouble(), 3));
+            requests[ii] = copy(pool[look]);
+        }
+        return requests;
+    }
+
+    /**
+     * Creates an equal but distinct copy of the supplied descriptor.
+     */
+    protected static CharacterDescriptor copy (CharacterDescriptor desc)
+    {
+        Colorization[][] zations = desc.getColorizations().clone();
+        for (int ii = 0; ii < zations.length; ii++) {
+            zations[ii] = zations[ii].clone();
+        }
+        CharacterDescriptor copy = new CharacterDescriptor(desc.getComponentIds().clone(), zations);
+        Point[] xlations = desc.getTranslations();
+        copy.setTranslations(xlations == null ? null : xlations.clone());
+        return copy;
+    }
+
+    /** Hashes and compares descriptors as {@link CharacterDescriptor} once did. */
+    protected static class LegacyKey
+    {
+        public LegacyKey (CharacterDescriptor desc) {
+            _desc = desc;
+        }
+
+        @Override public int hashCode () {
+            int code = 0;
+            for (int cid : _desc.getComponentIds()) {
+                code ^= cid;
+            }
+            return code;
+        }
+
+        @Override public boolean equals (Object other) {
+            CharacterDescriptor odesc = ((LegacyKey)other)._desc;
+            return Arrays.equals(_desc.getComponentIds(), odesc.getComponentIds()) &&
+                Arrays.deepEquals(_desc.getColorizations(), odesc.getColorizations()) &&
+                Arrays.equals(_desc.getTranslations(), odesc.getTranslations());
+        }
+
+        protected CharacterDescriptor _desc;
+    }
+
+    protected CharacterDescriptor[] _requests, _internedRequests;
+    protected Map<LegacyKey, Object> _legacy = new HashMap<LegacyKey, Object>();
+    protected Map<CharacterDescriptor, Object> _fingerprinted =
+        new HashMap<CharacterDescriptor, Object>();
+    protected Map<CharacterDescriptor, Object> _interned =
+        new HashMap<CharacterDescriptor, Object>();
+    protected int _next;
+
+    /** The shape of our avatar population. */
+    protected static final int COMPONENT_CLASSES = 8, COMPONENTS_PER_CLASS = 40;
+    protected static final int COLOR_CLASSES = 4, COLORS_PER_CLASS = 12;
+    protected static final int LOOKS = 5000, REQUESTS = 20000;
+
+    /** The colorizations available in each colorization class. */
+    protected static final Colorization[][] COLORS = new Colorization[COLOR_CLASSES][];
+    static {
+        float[] range = { 0.1f, 0.5f, 0.5f };
+        for (int zz = 0; zz < COLOR_CLASSES; zz++) {
+            COLORS[zz] = new Colorization[COLORS_PER_CLASS];
+            for (int ii = 0; ii < COLORS_PER_CLASS; ii++) {
+                float[] offsets = { ii / (float)COLORS_PER_CLASS, 0f, 0f };
+                COLORS[zz][ii] = new Colorization(
+                    (zz << 8) | ii, new Color(64 * zz, 128, 255 - 64 * zz), range, offsets);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.cast;
+
+import java.awt.Color;
+import java.awt.Point;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.threerings.media.image.Colorization;
+
+/**
+ * Tests the {@link CharacterDescriptor} fingerprint.
+ */
+public class CharacterDescriptorTest
+{
+    @Test
+    public void testFingerprint ()
+    {
+        CharacterDescriptor a = create(1, 2, 3), b = create(1, 2, 3);
+        assertEquals(a, b);
+        assertEquals(a.getFingerprint(), b.getFingerprint());
+        assertEquals(a.hashCode(), b.hashCode());
+
+        // reordered components collided under the old hash, but look different
+        CharacterDescriptor c = create(3, 2, 1);
+        assertFalse(a.equals(c));
+        assertFalse(a.getFingerprint() == c.getFingerprint());
+
+        // as do differing colorizations
+        CharacterDescriptor d = create(1, 2, 3);
+        d.getColorizations()[1][0] = zation(99);
+        d.setColorizations(d.getColorizations());
+        assertFalse(a.equals(d));
+        assertFalse(a.getFingerprint() == d.getFingerprint());
+
+        // and translations, even without colorizations
+        CharacterDescriptor e = new CharacterDescriptor(new int[] { 1, 2, 3 }, null);
+        CharacterDescriptor f = new CharacterDescriptor(new int[] { 1, 2, 3 }, null);
+        assertEquals(e, f);
+        f.setTranslations(new Point[] { null, new Point(1, 0), null });
+        assertFalse(e.equals(f));
+        assertFalse(e.getFingerprint() == f.getFingerprint());
+    }
+
+    protected static CharacterDescriptor create (int... cids)
+    {
+        Colorization[][] zations = new Colorization[cids.length][];
+        for (int ii = 0; ii < cids.length; ii++) {
+            zations[ii] = new Colorization[] { zation(ii), null };
+        }
+        return new CharacterDescriptor(cids, zations);
+    }
+
+    protected static Colorization zation (int id)
+    {
+        return new Colorization(id, Color.RED, new float[3], new float[3]);
+    }
+}
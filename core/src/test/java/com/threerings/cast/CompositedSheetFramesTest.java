@@ -0,0 +1,155 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.cast;
+
+import java.util.Map;
+import java.util.Set;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.threerings.util.DirectionCodes;
+
+import com.threerings.media.image.Colorization;
+import com.threerings.media.image.ImageManager;
+
+import com.threerings.cast.CompositedActionFrames.ComponentFrames;
+
+/**
+ * Tests that {@link CompositedSheetFrames} composites whole actions into a single cached sheet.
+ */
+public class CompositedSheetFramesTest
+{
+    @Test
+    public void testWholeAction ()
+    {
+        Map<CompositedActionFrames.CompositedFramesKey, CompositedMultiFrameImage> cache =
+            Maps.newHashMap();
+        ImageManager imgr = new ImageManager(null, new ImageManager.OptimalImageCreator() {
+            public BufferedImage createImage (int width, int height, int trans) {
+                return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            }
+        });
+        TestFrames frames = new TestFrames();
+        CharacterComponent ccomp = new CharacterComponent(1, "test", new ComponentClass(), null);
+        int[] orients = { DirectionCodes.SOUTH, DirectionCodes.WEST, DirectionCodes.NORTH };
+        CompositedSheetFrames sframes = new CompositedSheetFrames(
+            imgr, cache, "walking", new ComponentFrames[] { new ComponentFrames(ccomp, frames) },
+            orients);
+
+        // the first request composites every orientation of the action, as a single entry
+        TrimmedMultiFrameImage south = sframes.getFrames(DirectionCodes.SOUTH);
+        assertEquals(1, cache.size());
+        assertEquals(FRAMES, south.getFrameCount());
+        for (int orient : orients) {
+            assertTrue(frames.requested.contains(orient));
+        }
+
+        // and every frame of every orientation is rendered into its own region of the sheet
+        for (int orient : orients) {
+            CompositedMultiFrameImage oframes =
+                (CompositedMultiFrameImage)sframes.getFrames(orient);
+            for (int ff = 0; ff < FRAMES; ff++) {
+                assertEquals(SIZE, oframes.getWidth(ff));
+                BufferedImage snap = oframes._images[ff].getSnapshot();
+                assertEquals(getColor(orient, ff), snap.getRGB(SIZE / 2, SIZE / 2));
+            }
+        }
+
+        // further requests are satisfied from the cache
+        int requests = frames.requested.size();
+        assertSame(south, sframes.getFrames(DirectionCodes.SOUTH));
+        assertEquals(requests, frames.requested.size());
+        assertEquals(1, cache.size());
+
+        // an orientation outside of the action is composited on its own
+        assertEquals(FRAMES, sframes.getFrames(DirectionCodes.EAST).getFrameCount());
+        assertEquals(2, cache.size());
+    }
+
+    /** Returns the color with which the test frames paint the specified frame. */
+    protected static int getColor (int orient, int index)
+    {
+        return 0xFF000000 | (orient << 16) | (index << 8) | 0x7F;
+    }
+
+    /** Source frames that paint each frame in a distinct color and note the orientations for
+     * which their frames are requested. */
+    protected static class TestFrames
+        implements ActionFrames
+    {
+        public Set<Integer> requested = Sets.newConcurrentHashSet();
+
+        public int getOrientationCount () {
+            return DirectionCodes.DIRECTION_COUNT;
+        }
+
+        public TrimmedMultiFrameImage getFrames (final int orient) {
+            requested.add(orient);
+            return new TrimmedMultiFrameImage() {
+                public int getFrameCount () {
+                    return FRAMES;
+                }
+                public int getWidth (int index) {
+                    return SIZE;
+                }
+                public int getHeight (int index) {
+                    return SIZE;
+                }
+                public void paintFrame (Graphics2D g, int index, int x, int y) {
+                    g.setColor(new Color(getColor(orient, index), true));
+                    g.fillRect(x, y, SIZE, SIZE);
+                }
+                public boolean hitTest (int index, int x, int y) {
+                    return true;
+                }
+                public void getTrimmedBounds (int index, Rectangle bounds) {
+                    bounds.setBounds(0, 0, SIZE, SIZE);
+                }
+            };
+        }
+
+        public int getXOrigin (int orient, int frameIdx) {
+            return 0;
+        }
+
+        public int getYOrigin (int orient, int frameIdx) {
+            return 0;
+        }
+
+        public ActionFrames cloneColorized (Colorization[] zations) {
+            return this;
+        }
+
+        public ActionFrames cloneTranslated (int dx, int dy) {
+            return this;
+        }
+    }
+
+    protected static final int FRAMES = 3, SIZE = 4;
+}
@@ -0,0 +1,108 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.chat;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Shape;
+
+import com.google.common.collect.Lists;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link BubbleIndex} class.
+ */
+public class BubbleIndexTest
+{
+    @Test
+    public void testFreeSpot ()
+    {
+        BubbleIndex<String> index = new BubbleIndex<String>();
+        Rectangle r = new Rectangle(10, 10, 50, 20);
+        assertTrue(index.positionRect(r, VIEW, "bob", null));
+        assertEquals(new Rectangle(10, 10, 50, 20), r);
+
+        // a rectangle hanging off the edge is moved inside
+        r.setLocation(-20, 790);
+        assertTrue(index.positionRect(r, VIEW, "bob", null));
+        assertEquals(new Rectangle(0, 580, 50, 20), r);
+    }
+
+    @Test
+    public void testAvoidance ()
+    {
+        BubbleIndex<String> index = new BubbleIndex<String>();
+        Object bub = new Object();
+        index.update(bub, "alice", new Rectangle(100, 100, 100, 50));
+
+        // we avoid other speakers' bubbles, but not our own
+        Rectangle r = new Rectangle(120, 110, 40, 20);
+        assertTrue(index.positionRect(r, VIEW, "alice", null));
+        assertEquals(new Point(120, 110), r.getLocation());
+        assertTrue(index.positionRect(r, VIEW, "bob", null));
+        assertFalse(r.intersects(new Rectangle(100, 100, 100, 50)));
+
+        // moving and removing bubbles frees up their old territory
+        index.update(bub, "alice", new Rectangle(500, 100, 100, 50));
+        r.setLocation(120, 110);
+        assertTrue(index.positionRect(r, VIEW, "bob", null));
+        assertEquals(new Point(120, 110), r.getLocation());
+        index.remove(bub);
+        assertEquals(0, index.size());
+        r.setLocation(520, 110);
+        assertTrue(index.positionRect(r, VIEW, "bob", null));
+        assertEquals(new Point(520, 110), r.getLocation());
+
+        // additional shapes are avoided as well
+        List<Shape> avoid = Lists.<Shape>newArrayList(new Rectangle(500, 100, 100, 50));
+        assertTrue(index.positionRect(r, VIEW, "bob", avoid));
+        assertFalse(r.intersects(avoid.get(0).getBounds()));
+    }
+
+    @Test
+    public void testCrowded ()
+    {
+        BubbleIndex<String> index = new BubbleIndex<String>();
+        Random rand = new Random(42);
+        List<Rectangle> placed = Lists.newArrayList();
+        for (int ii = 0; ii < 150; ii++) {
+            Rectangle r = new Rectangle(rand.nextInt(VIEW.width), rand.nextInt(VIEW.height),
+                                        20 + rand.nextInt(40), 10 + rand.nextInt(20));
+            if (!index.positionRect(r, VIEW, "speaker" + ii, Collections.<Shape>emptyList())) {
+                continue;
+            }
+            assertTrue(VIEW.contains(r));
+            for (Rectangle other : placed) {
+                assertFalse(r + " overlaps " + other, r.intersects(other));
+            }
+            placed.add(r);
+            index.update(r, "speaker" + ii, r);
+        }
+        assertTrue(placed.size() > 100);
+    }
+
+    protected static final Rectangle VIEW = new Rectangle(0, 0, 800, 600);
+}
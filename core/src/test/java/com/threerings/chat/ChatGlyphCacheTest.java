@@ -0,0 +1,101 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.chat;
+
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Area;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.samskivert.swing.Label;
+
+/**
+ * Tests the {@link ChatGlyphCache}.
+ */
+public class ChatGlyphCacheTest
+{
+    @Test
+    public void testLabels ()
+    {
+        ChatGlyphCache cache = new ChatGlyphCache(10, 10);
+        CountingFactory factory = new CountingFactory();
+        Font font = new Font("Dialog", Font.PLAIN, 12);
+
+        Label label = cache.getLabel("bubble", "hello", font, 100, 0, factory);
+        assertSame(label, cache.getLabel("bubble", "hello", font, 100, 0, factory));
+        assertEquals(1, factory.created);
+
+        // any difference in the key requires a new label
+        assertNotSame(label, cache.getLabel("subtitle", "hello", font, 100, 0, factory));
+        assertNotSame(label, cache.getLabel("bubble", "hello!", font, 100, 0, factory));
+        assertNotSame(label, cache.getLabel("bubble", "hello", font.deriveFont(14f), 100, 0,
+                                            factory));
+        assertNotSame(label, cache.getLabel("bubble", "hello", font, 101, 0, factory));
+        assertNotSame(label, cache.getLabel("bubble", "hello", font, 100, 1, factory));
+        assertEquals(6, factory.created);
+
+        cache.clear();
+        assertNotSame(label, cache.getLabel("bubble", "hello", font, 100, 0, factory));
+        assertEquals(7, factory.created);
+    }
+
+    @Test
+    public void testShapes ()
+    {
+        ChatGlyphCache cache = new ChatGlyphCache(10, 10);
+        final int[] created = new int[1];
+        ChatGlyphCache.ShapeFactory factory = new ChatGlyphCache.ShapeFactory() {
+            public Shape createShape (int type, Rectangle r) {
+                created[0]++;
+                return r;
+            }
+        };
+
+        Area shape = cache.getShape(0, new Rectangle(0, 0, 20, 10), factory);
+        assertEquals(new Rectangle(0, 0, 20, 10), shape.getBounds());
+
+        // the same size elsewhere is translated from the cached shape
+        Area moved = cache.getShape(0, new Rectangle(5, 7, 20, 10), factory);
+        assertEquals(new Rectangle(5, 7, 20, 10), moved.getBounds());
+        assertEquals(1, created[0]);
+
+        // modifying a returned shape does not affect the cache
+        shape.reset();
+        assertEquals(new Rectangle(0, 0, 20, 10),
+                     cache.getShape(0, new Rectangle(0, 0, 20, 10), factory).getBounds());
+
+        cache.getShape(1, new Rectangle(0, 0, 20, 10), factory);
+        cache.getShape(0, new Rectangle(0, 0, 20, 11), factory);
+        assertEquals(3, created[0]);
+    }
+
+    protected static class CountingFactory implements ChatGlyphCache.LabelFactory
+    {
+        public int created;
+
+        public Label createLabel (String text, Font font, int width, int type) {
+            created++;
+            return new Label(text);
+        }
+    }
+}
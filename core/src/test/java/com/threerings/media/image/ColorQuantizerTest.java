@@ -0,0 +1,97 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.image;
+
+import java.util.Random;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ColorQuantizer}.
+ */
+public class ColorQuantizerTest
+{
+    @Test
+    public void testExact ()
+    {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        for (int yy = 0; yy < 16; yy++) {
+            for (int xx = 1; xx < 16; xx++) {
+                image.setRGB(xx, yy, 0xFF000000 | (xx * 16) << 16 | (yy * 16));
+            }
+        }
+        BufferedImage quantized = new ColorQuantizer(new Colorization[0]).quantize(image);
+        assertTrue(quantized.getColorModel() instanceof IndexColorModel);
+        for (int yy = 0; yy < 16; yy++) {
+            for (int xx = 0; xx < 16; xx++) {
+                assertEquals(image.getRGB(xx, yy), quantized.getRGB(xx, yy));
+            }
+        }
+    }
+
+    @Test
+    public void testPreservesClasses ()
+    {
+        // lots of colors, some of which are reds that match our colorization class
+        Colorization zation = new Colorization(
+            1, Color.red, new float[] { 0.05f, 0.5f, 0.5f }, new float[3]);
+        Random rand = new Random(0);
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        for (int yy = 0; yy < 64; yy++) {
+            for (int xx = 0; xx < 64; xx++) {
+                image.setRGB(xx, yy, (xx < 8) ? 0 : 0xFF000000 | rand.nextInt(0x1000000));
+            }
+        }
+        BufferedImage quantized = new ColorQuantizer(new Colorization[] { zation }).quantize(image);
+        assertTrue(((IndexColorModel)quantized.getColorModel()).getMapSize() <= 256);
+
+        float[] hsv = new float[3];
+        int[] fhsv = new int[3];
+        for (int yy = 0; yy < 64; yy++) {
+            for (int xx = 0; xx < 64; xx++) {
+                int orig = image.getRGB(xx, yy), quant = quantized.getRGB(xx, yy);
+                assertEquals(orig >>> 24, quant >>> 24);
+                if (orig >>> 24 != 0) {
+                    assertEquals(matches(zation, orig, hsv, fhsv),
+                                 matches(zation, quant, hsv, fhsv));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTranslucent ()
+    {
+        BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(1, 1, 0x80FF0000);
+        assertNull(new ColorQuantizer(new Colorization[0]).quantize(image));
+    }
+
+    protected static boolean matches (Colorization zation, int color, float[] hsv, int[] fhsv)
+    {
+        Color.RGBtoHSB((color >> 16) & 0xFF, (color >> 8) & 0xFF, color & 0xFF, hsv);
+        return zation.matches(hsv, Colorization.toFixedHSV(hsv, fhsv));
+    }
+}
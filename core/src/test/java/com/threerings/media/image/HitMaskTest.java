@@ -0,0 +1,77 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.image;
+
+import java.util.Random;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link HitMask} class.
+ */
+public class HitMaskTest
+{
+    @Test
+    public void testMatchesImage ()
+    {
+        Random rand = new Random(7);
+        BufferedImage image = new BufferedImage(150, 40, BufferedImage.TYPE_INT_ARGB);
+        for (int yy = 0; yy < image.getHeight(); yy++) {
+            for (int xx = 0; xx < image.getWidth(); xx++) {
+                image.setRGB(xx, yy, rand.nextBoolean() ? 0 : (rand.nextInt() | 0x01000000));
+            }
+        }
+        checkMask(image);
+
+        // a subimage exercises the raster offsets of the direct path
+        checkMask(image.getSubimage(13, 5, 70, 30));
+
+        // an indexed image goes through the generic path
+        BufferedImage indexed = new BufferedImage(
+            image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
+        indexed.createGraphics().drawImage(image, 0, 0, null);
+        checkMask(indexed);
+    }
+
+    @Test
+    public void testOpaque ()
+    {
+        HitMask mask = HitMask.create(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB));
+        assertTrue(mask.hitTest(0, 0));
+        assertTrue(mask.hitTest(9, 9));
+        assertFalse(mask.hitTest(10, 0));
+        assertFalse(mask.hitTest(0, -1));
+    }
+
+    protected static void checkMask (BufferedImage image)
+    {
+        HitMask mask = HitMask.create(image);
+        for (int yy = 0; yy < image.getHeight(); yy++) {
+            for (int xx = 0; xx < image.getWidth(); xx++) {
+                assertEquals((image.getRGB(xx, yy) >>> 24) != 0, mask.hitTest(xx, yy));
+            }
+        }
+        assertFalse(mask.hitTest(image.getWidth(), 0));
+        assertFalse(mask.hitTest(0, image.getHeight()));
+    }
+}
@@ -0,0 +1,142 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.image;
+
+import java.util.List;
+import java.util.Random;
+
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+import com.google.common.collect.Lists;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ImageAtlas} class.
+ */
+public class ImageAtlasTest
+{
+    @Test
+    public void testSkylinePacking ()
+    {
+        Random rand = new Random(42);
+        ImageAtlas.Skyline skyline = new ImageAtlas.Skyline(256, 256);
+        List<Rectangle> placed = Lists.newArrayList();
+        for (int ii = 0; ii < 1000; ii++) {
+            int width = 1 + rand.nextInt(40), height = 1 + rand.nextInt(40);
+            long pos = skyline.insert(width, height);
+            if (pos < 0) {
+                continue;
+            }
+            Rectangle rect = new Rectangle((int)(pos >>> 32), (int)pos, width, height);
+            assertTrue(new Rectangle(0, 0, 256, 256).contains(rect));
+            for (Rectangle other : placed) {
+                assertFalse(rect.intersects(other));
+            }
+            placed.add(rect);
+        }
+        // a decent packer should fill most of the area
+        assertTrue(skyline.getArea() > 256 * 256 * 3 / 4);
+    }
+
+    @Test
+    public void testEviction ()
+    {
+        // room for two pages of nine 16x16 images (17x17 with padding) each
+        ImageAtlas atlas = new ImageAtlas(CREATOR, 2 * 64 * 64 * 4, 64);
+        List<Object> owners = Lists.newArrayList();
+        List<ImageAtlas.Region> regions = Lists.newArrayList();
+        for (int ii = 0; ii < 27; ii++) {
+            Object owner = new Object();
+            owners.add(owner);
+            regions.add(atlas.allocate(owner, createTile(ii), Transparency.TRANSLUCENT));
+        }
+        assertEquals(2, atlas.getPageCount());
+
+        // the first page should have been evicted, the rest should retain their contents
+        for (int ii = 0; ii < 27; ii++) {
+            ImageAtlas.Placement p = regions.get(ii).getPlacement();
+            if (ii < 9) {
+                assertNull(p);
+            } else {
+                assertEquals(tileColor(ii), p.image.getRGB(p.x + 8, p.y + 8));
+            }
+        }
+    }
+
+    @Test
+    public void testCompaction ()
+    {
+        ImageAtlas atlas = new ImageAtlas(CREATOR, Long.MAX_VALUE, 64);
+        List<Object> owners = Lists.newArrayList();
+        List<ImageAtlas.Region> regions = Lists.newArrayList();
+        for (int ii = 0; ii < 10; ii++) {
+            Object owner = new Object();
+            owners.add(owner);
+            regions.add(atlas.allocate(owner, createTile(ii), Transparency.TRANSLUCENT));
+        }
+        assertEquals(2, atlas.getPageCount());
+
+        // release most of the first page and the whole of the second
+        for (int ii = 0; ii < 10; ii++) {
+            if (ii % 3 != 0) {
+                regions.get(ii).enqueue();
+            }
+        }
+        BufferedImage opage = regions.get(0).getPlacement().image;
+        atlas.allocate(new Object(), createTile(10), Transparency.TRANSLUCENT);
+
+        // the first page should have been repacked, the survivors retaining their contents
+        for (int ii = 0; ii < 10; ii += 3) {
+            ImageAtlas.Placement p = regions.get(ii).getPlacement();
+            assertNotNull(p);
+            assertEquals(tileColor(ii), p.image.getRGB(p.x + 8, p.y + 8));
+            if (ii < 9) {
+                assertNotSame(opage, p.image);
+            }
+        }
+    }
+
+    protected static BufferedImage createTile (int idx)
+    {
+        BufferedImage image = CREATOR.createImage(16, 16, Transparency.TRANSLUCENT);
+        for (int yy = 0; yy < 16; yy++) {
+            for (int xx = 0; xx < 16; xx++) {
+                image.setRGB(xx, yy, tileColor(idx));
+            }
+        }
+        return image;
+    }
+
+    protected static int tileColor (int idx)
+    {
+        return 0xFF000000 | (idx * 0x0F1F2F);
+    }
+
+    protected static final ImageUtil.ImageCreator CREATOR = new ImageUtil.ImageCreator() {
+        public BufferedImage createImage (int width, int height, int transparency) {
+            return new BufferedImage(width, height, (transparency == Transparency.OPAQUE) ?
+                BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        }
+    };
+}
@@ -0,0 +1,150 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.image;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the {@link ImageUtil} pixel kernels on sprite sized images in the formats that are
+ * read directly from their rasters and in one (premultiplied) that goes through the color model.
+ * Run with <code>java -cp ... com.threerings.media.image.ImageUtilBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageUtilBenchmark
+{
+    /** The format of the source images. */
+    @Param({ "INT_ARGB", "4BYTE_ABGR", "INT_ARGB_PRE" })
+    public String format;
+
+    @Setup
+    public void setup ()
+    {
+        int type = format.equals("4BYTE_ABGR") ? BufferedImage.TYPE_4BYTE_ABGR :
+            (format.equals("INT_ARGB_PRE") ? BufferedImage.TYPE_INT_ARGB_PRE :
+             BufferedImage.TYPE_INT_ARGB);
+        Random rand = new Random(1);
+        _image = createSprite(rand, type);
+        _mask = createSprite(rand, type);
+    }
+
+    @Benchmark
+    public BufferedImage trace ()
+    {
+        return ImageUtil.createTracedImage(CREATOR, _image, Color.YELLOW, 3, 1f, 0.5f);
+    }
+
+    @Benchmark
+    public Rectangle trim ()
+    {
+        Rectangle bounds = new Rectangle();
+        ImageUtil.computeTrimmedBounds(_image, bounds);
+        return bounds;
+    }
+
+    @Benchmark
+    public Rectangle trimPerPixel ()
+    {
+        // the per-pixel approach that trim replaced, for comparison
+        int minx = Integer.MAX_VALUE, miny = Integer.MAX_VALUE, maxx = -1, maxy = -1;
+        for (int yy = 0; yy < _image.getHeight(); yy++) {
+            for (int xx = 0; xx < _image.getWidth(); xx++) {
+                if ((_image.getRGB(xx, yy) >> 24) != 0) {
+                    minx = Math.min(minx, xx);
+                    miny = Math.min(miny, yy);
+                    maxx = Math.max(maxx, xx);
+                    maxy = Math.max(maxy, yy);
+                }
+            }
+        }
+        return new Rectangle(minx, miny, maxx - minx + 1, maxy - miny + 1);
+    }
+
+    @Benchmark
+    public BufferedImage compose ()
+    {
+        return ImageUtil.composeMaskedImage(CREATOR, _mask, _image);
+    }
+
+    @Benchmark
+    public HitMask hitMask ()
+    {
+        return HitMask.create(_image);
+    }
+
+    public static void main (String[] args)
+        throws Exception
+    {
+        new Runner(new OptionsBuilder().include(ImageUtilBenchmark.class.getSimpleName()).build())
+            .run();
+    }
+
+    protected static BufferedImage createSprite (Random rand, int type)
+    {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, type);
+        Graphics2D gfx = image.createGraphics();
+        try {
+            gfx.setComposite(AlphaComposite.Src);
+            for (int ii = 0; ii < 12; ii++) {
+                gfx.setColor(new Color(rand.nextInt() | 0xFF000000, true));
+                gfx.fillOval(16 + rand.nextInt(SIZE - 64), 16 + rand.nextInt(SIZE - 64),
+                             8 + rand.nextInt(40), 8 + rand.nextInt(40));
+            }
+        } finally {
+            gfx.dispose();
+        }
+        return image;
+    }
+
+    protected BufferedImage _image, _mask;
+
+    protected static final ImageUtil.ImageCreator CREATOR = new ImageUtil.ImageCreator() {
+        public BufferedImage createImage (int width, int height, int transparency) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+    };
+
+    protected static final int SIZE = 128;
+}
@@ -0,0 +1,143 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.image;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ImageUtil} pixel kernels.
+ */
+public class ImageUtilTest
+{
+    @Test
+    public void testTrace ()
+    {
+        for (int type : TYPES) {
+            BufferedImage image = new BufferedImage(9, 9, type);
+            image.setRGB(4, 4, 0xFF102030);
+            BufferedImage traced = ImageUtil.createTracedImage(
+                image, new BufferedImage(9, 9, BufferedImage.TYPE_INT_ARGB),
+                Color.RED, 2, 1f, 0.2f);
+
+            // the first pass traces a 3x3 ring around the pixel, the second a 5x5 ring
+            for (int yy = 0; yy < 9; yy++) {
+                for (int xx = 0; xx < 9; xx++) {
+                    int dist = Math.max(Math.abs(xx - 4), Math.abs(yy - 4));
+                    int expect = (dist == 0) ? 0xFF102030 : (dist == 1) ? 0xFFFF0000 :
+                        (dist == 2) ? 0x33FF0000 : 0;
+                    assertEquals(expect, traced.getRGB(xx, yy));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTrimmedBounds ()
+    {
+        for (int type : TYPES) {
+            BufferedImage image = new BufferedImage(20, 10, type);
+            Rectangle bounds = new Rectangle();
+            ImageUtil.computeTrimmedBounds(image, bounds);
+            assertEquals(new Rectangle(0, 0, 1, 1), bounds);
+
+            image.setRGB(3, 7, 0xFFFFFFFF);
+            image.setRGB(15, 2, 0xFF000000);
+            ImageUtil.computeTrimmedBounds(image, bounds);
+            assertEquals(new Rectangle(3, 2, 13, 6), bounds);
+
+            // subimages are read relative to their own origin
+            ImageUtil.computeTrimmedBounds(image.getSubimage(2, 1, 16, 8), bounds);
+            assertEquals(new Rectangle(1, 1, 13, 6), bounds);
+        }
+    }
+
+    @Test
+    public void testComposeMasked ()
+    {
+        BufferedImage mask = new BufferedImage(4, 1, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage base = new BufferedImage(4, 1, BufferedImage.TYPE_INT_ARGB);
+        for (int xx = 0; xx < 4; xx++) {
+            mask.setRGB(xx, 0, (xx * 0x55) << 24);
+            base.setRGB(xx, 0, 0xFF0000FF);
+        }
+        BufferedImage composed = ImageUtil.composeMaskedImage(null, mask, base);
+        for (int xx = 0; xx < 4; xx++) {
+            assertEquals(xx * 0x55, composed.getRGB(xx, 0) >>> 24);
+        }
+        assertEquals(0xFF0000FF, composed.getRGB(3, 0));
+    }
+
+    @Test
+    public void testComposeIndexed ()
+    {
+        // two 2x2 sources with distinct palettes, each with a transparent pixel
+        BufferedImage under = createIndexed(new int[] { 0, 0xFFFF0000, 0xFF00FF00 }, 1, 2, 0, 1);
+        BufferedImage over = createIndexed(new int[] { 0xFF0000FF, 0, 0xFFFF0000 }, 0, 1, 2, 0);
+        BufferedImage composed = ImageUtil.composeIndexedImage(
+            new BufferedImage[] { under, over }, new int[] { 0, 1 }, new int[] { 0, 1 }, 3, 3);
+        assertEquals(BufferedImage.TYPE_BYTE_INDEXED, composed.getType());
+        // red, shared by both sources, occupies a single palette entry
+        assertEquals(4, ((IndexColorModel)composed.getColorModel()).getMapSize());
+
+        int[][] expect = {
+            { 0xFFFF0000, 0xFF00FF00, 0 },
+            { 0, 0xFF0000FF, 0 },
+            { 0, 0xFFFF0000, 0xFF0000FF } };
+        for (int yy = 0; yy < 3; yy++) {
+            for (int xx = 0; xx < 3; xx++) {
+                assertEquals(expect[yy][xx], composed.getRGB(xx, yy));
+            }
+        }
+
+        // translucent colors need a real alpha channel
+        BufferedImage translucent = createIndexed(new int[] { 0x80FFFFFF, 0 }, 0, 1, 1, 0);
+        assertNull(ImageUtil.composeIndexedImage(
+            new BufferedImage[] { translucent }, new int[1], new int[1], 2, 2));
+
+        // as do more colors than fit in a palette
+        BufferedImage[] many = new BufferedImage[100];
+        for (int ii = 0; ii < many.length; ii++) {
+            many[ii] = createIndexed(new int[] {
+                0xFF000000 | ii, 0xFF010000 | ii, 0xFF020000 | ii }, 0, 1, 2, 0);
+        }
+        assertNull(ImageUtil.composeIndexedImage(many, new int[100], new int[100], 2, 2));
+    }
+
+    protected static BufferedImage createIndexed (int[] palette, int... pixels)
+    {
+        IndexColorModel icm = new IndexColorModel(
+            8, palette.length, palette, 0, true, -1, DataBuffer.TYPE_BYTE);
+        BufferedImage image = new BufferedImage(2, 2, BufferedImage.TYPE_BYTE_INDEXED, icm);
+        image.getRaster().setPixels(0, 0, 2, 2, pixels);
+        return image;
+    }
+
+    /** Image types read directly and through the color model. */
+    protected static final int[] TYPES = {
+        BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_4BYTE_ABGR,
+        BufferedImage.TYPE_INT_ARGB_PRE };
+}
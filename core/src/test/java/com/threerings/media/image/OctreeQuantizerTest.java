@@ -0,0 +1,142 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link OctreeQuantizer}.
+ */
+public class OctreeQuantizerTest
+{
+    @Test
+    public void testExact ()
+    {
+        BufferedImage image = createImage(16, 16, 0x10);
+        BufferedImage quantized = new OctreeQuantizer(256).quantize(image);
+        assertEquals(BufferedImage.TYPE_BYTE_INDEXED, quantized.getType());
+        for (int yy = 0; yy < 16; yy++) {
+            for (int xx = 0; xx < 16; xx++) {
+                int pixel = image.getRGB(xx, yy);
+                if ((pixel >>> 24) == 0xFF) {
+                    assertEquals(pixel, quantized.getRGB(xx, yy));
+                } else {
+                    assertEquals(0, quantized.getRGB(xx, yy) >>> 24);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallel ()
+    {
+        BufferedImage image = createImage(512, 256, 1);
+        BufferedImage serial = new OctreeQuantizer(256).quantize(image);
+        BufferedImage parallel = new OctreeQuantizer(256).setParallel(true).quantize(image);
+        assertArrayEquals(getIndices(serial), getIndices(parallel));
+        IndexColorModel scm = (IndexColorModel)serial.getColorModel();
+        IndexColorModel pcm = (IndexColorModel)parallel.getColorModel();
+        assertEquals(scm.getMapSize(), pcm.getMapSize());
+        for (int ii = 0; ii < scm.getMapSize(); ii++) {
+            assertEquals(scm.getRGB(ii), pcm.getRGB(ii));
+        }
+    }
+
+    @Test
+    public void testMatchesLegacy ()
+    {
+        int width = 128, height = 96;
+        BufferedImage image = createImage(width, height, 1);
+        BufferedImage quantized = new OctreeQuantizer(64).quantize(image);
+        assertTrue(((IndexColorModel)quantized.getColorModel()).getMapSize() <= 64);
+
+        int[][] pixels = new int[width][height];
+        for (int xx = 0; xx < width; xx++) {
+            for (int yy = 0; yy < height; yy++) {
+                pixels[xx][yy] = image.getRGB(xx, yy);
+            }
+        }
+        int[] cmap = Quantize.quantizeImage(pixels, 64);
+
+        long error = 0, lerror = 0;
+        for (int yy = 0; yy < height; yy++) {
+            for (int xx = 0; xx < width; xx++) {
+                int pixel = image.getRGB(xx, yy);
+                if ((pixel >>> 24) == 0xFF) {
+                    error += distance(pixel, quantized.getRGB(xx, yy));
+                    lerror += distance(pixel, cmap[pixels[xx][yy]]);
+                }
+            }
+        }
+        assertTrue(error + " vs. " + lerror, error <= lerror * 11 / 10);
+    }
+
+    @Test
+    public void testDither ()
+    {
+        BufferedImage image = createImage(64, 64, 1);
+        BufferedImage quantized = new OctreeQuantizer(16).setDither(true).quantize(image);
+        int size = ((IndexColorModel)quantized.getColorModel()).getMapSize();
+        assertTrue(size <= 16);
+        byte[] indices = getIndices(quantized);
+        for (int yy = 0; yy < 64; yy++) {
+            for (int xx = 0; xx < 64; xx++) {
+                int index = indices[yy * 64 + xx] & 0xFF;
+                assertTrue(index < size);
+                assertEquals((image.getRGB(xx, yy) >>> 24) == 0xFF, index != 0);
+            }
+        }
+    }
+
+    /**
+     * Creates a gradient image with a transparent border, stepping through the given number of
+     * values per color component per pixel.
+     */
+    protected static BufferedImage createImage (int width, int height, int step)
+    {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int yy = 1; yy < height - 1; yy++) {
+            for (int xx = 1; xx < width - 1; xx++) {
+                int red = (xx * step) & 0xFF, green = (yy * step) & 0xFF;
+                int blue = ((xx + yy) * step / 2) & 0xFF;
+                image.setRGB(xx, yy, 0xFF000000 | (red << 16) | (green << 8) | blue);
+            }
+        }
+        return image;
+    }
+
+    protected static byte[] getIndices (BufferedImage image)
+    {
+        return ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+    }
+
+    protected static int distance (int c1, int c2)
+    {
+        int dr = ((c1 >> 16) & 0xFF) - ((c2 >> 16) & 0xFF);
+        int dg = ((c1 >> 8) & 0xFF) - ((c2 >> 8) & 0xFF);
+        int db = (c1 & 0xFF) - (c2 & 0xFF);
+        return dr*dr + dg*dg + db*db;
+    }
+}
@@ -0,0 +1,79 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.image;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import java.awt.image.BufferedImage;
+
+import javax.imageio.ImageIO;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link PNGEncoder} by reading its output back with ImageIO.
+ */
+public class PNGEncoderTest
+{
+    @Test
+    public void testTranslucentRoundTrip ()
+        throws IOException
+    {
+        BufferedImage image = new BufferedImage(37, 19, BufferedImage.TYPE_INT_ARGB);
+        for (int yy = 0; yy < image.getHeight(); yy++) {
+            for (int xx = 0; xx < image.getWidth(); xx++) {
+                image.setRGB(xx, yy, ((xx * 7) << 24) | ((yy * 13) << 16) | (xx * yy) << 8 | xx);
+            }
+        }
+        for (int level = 0; level <= 9; level += 9) {
+            checkRoundTrip(image, PNGEncoder.encode(image, level), true);
+        }
+    }
+
+    @Test
+    public void testOpaqueRoundTrip ()
+        throws IOException
+    {
+        BufferedImage image = new BufferedImage(16, 33, BufferedImage.TYPE_3BYTE_BGR);
+        for (int yy = 0; yy < image.getHeight(); yy++) {
+            for (int xx = 0; xx < image.getWidth(); xx++) {
+                image.setRGB(xx, yy, (xx << 20) | (yy << 8) | (xx + yy));
+            }
+        }
+        checkRoundTrip(image, PNGEncoder.encode(image), false);
+    }
+
+    protected static void checkRoundTrip (BufferedImage image, byte[] data, boolean alpha)
+        throws IOException
+    {
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(data));
+        assertNotNull(read);
+        assertEquals(alpha, read.getColorModel().hasAlpha());
+        assertEquals(image.getWidth(), read.getWidth());
+        assertEquals(image.getHeight(), read.getHeight());
+        for (int yy = 0; yy < image.getHeight(); yy++) {
+            for (int xx = 0; xx < image.getWidth(); xx++) {
+                assertEquals(image.getRGB(xx, yy), read.getRGB(xx, yy));
+            }
+        }
+    }
+}
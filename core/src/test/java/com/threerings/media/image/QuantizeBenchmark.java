@@ -0,0 +1,135 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.image;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the legacy {@link Quantize} with the {@link OctreeQuantizer} on tileset sized images of
+ * shaded, partially transparent shapes. Run with <code>java -cp ...
+ * com.threerings.media.image.QuantizeBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuantizeBenchmark
+{
+    /** The width and height of the source image. */
+    @Param({ "256", "1024" })
+    public int size;
+
+    @Setup
+    public void setup ()
+    {
+        _image = createTileSet(new Random(1), size);
+    }
+
+    @Benchmark
+    public int[] legacy ()
+    {
+        int width = _image.getWidth(), height = _image.getHeight();
+        int[][] pixels = new int[width][height];
+        for (int xx = 0; xx < width; xx++) {
+            for (int yy = 0; yy < height; yy++) {
+                pixels[xx][yy] = _image.getRGB(xx, yy);
+            }
+        }
+        return Quantize.quantizeImage(pixels, 256);
+    }
+
+    @Benchmark
+    public BufferedImage octree ()
+    {
+        return new OctreeQuantizer(256).quantize(_image);
+    }
+
+    @Benchmark
+    public BufferedImage octreeParallel ()
+    {
+        return new OctreeQuantizer(256).setParallel(true).quantize(_image);
+    }
+
+    @Benchmark
+    public BufferedImage octreeDither ()
+    {
+        return new OctreeQuantizer(256).setDither(true).quantize(_image);
+    }
+
+    public static void main (String[] args)
+        throws Exception
+    {
+        new Runner(new OptionsBuilder().include(QuantizeBenchmark.class.getSimpleName()).build())
+            .run();
+    }
+
+    /**
+     * Creates an image resembling a tileset: a grid of gradient shaded shapes on a transparent
+     * background.
+     */
+    protected static BufferedImage createTileSet (Random rand, int size)
+    {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D gfx = image.createGraphics();
+        try {
+            gfx.setComposite(AlphaComposite.Src);
+            for (int yy = 0; yy < size; yy += TILE_SIZE) {
+                for (int xx = 0; xx < size; xx += TILE_SIZE) {
+                    Color c1 = new Color(rand.nextInt() | 0xFF000000, true);
+                    Color c2 = new Color(rand.nextInt() | 0xFF000000, true);
+                    gfx.setPaint(new GradientPaint(xx, yy, c1, xx + TILE_SIZE, yy + TILE_SIZE, c2));
+                    int extra = TILE_SIZE - 16;
+                    gfx.fillOval(xx + rand.nextInt(8), yy + rand.nextInt(8),
+                                 extra + rand.nextInt(8), extra + rand.nextInt(8));
+                }
+            }
+        } finally {
+            gfx.dispose();
+        }
+        return image;
+    }
+
+    protected BufferedImage _image;
+
+    protected static final int TILE_SIZE = 64;
+}
@@ -0,0 +1,80 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.perf;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link FrameMetrics} dispatch and the {@link LatencyHistogram} summaries.
+ */
+public class FrameMetricsTest
+{
+    @Test
+    public void testHistogram ()
+    {
+        LatencyHistogram histo = new LatencyHistogram();
+        for (int ii = 1; ii <= 10000; ii++) {
+            histo.record(ii * 1000L);
+        }
+        assertEquals(10000, histo.getCount());
+        assertEquals(10000000L, histo.getMax());
+        assertEquals(5000500L, histo.getMean(), 1d);
+        // bucketing keeps percentiles within a few percent of their true values
+        assertEquals(5000000L, histo.getPercentile(50), 5000000L / 16);
+        assertEquals(9900000L, histo.getPercentile(99), 9900000L / 16);
+        histo.reset();
+        assertEquals(0, histo.getCount());
+    }
+
+    @Test
+    public void testSnapshotSink ()
+    {
+        FrameMetrics.Span span = FrameMetrics.span("test.span");
+        FrameMetrics.Counter counter = FrameMetrics.counter("test.counter");
+        assertSame(span, FrameMetrics.span("test.span"));
+
+        // without a sink, spans are free and record nothing
+        assertFalse(FrameMetrics.isEnabled());
+        assertEquals(0L, span.start());
+
+        SnapshotSink sink = new SnapshotSink();
+        FrameMetrics.addSink(sink);
+        try {
+            for (int ii = 0; ii < 3; ii++) {
+                span.end(span.start());
+                counter.increment();
+                FrameMetrics.frameEnded();
+            }
+            counter.add(4);
+        } finally {
+            FrameMetrics.removeSink(sink);
+        }
+        counter.increment();
+
+        SnapshotSink.Snapshot snap = sink.snapshot();
+        assertEquals(3, snap.frames);
+        assertEquals(3, snap.spans.get("test.span").getCount());
+        assertEquals(7, snap.getCount("test.counter"));
+        assertEquals(0, snap.getCount("test.missing"));
+        sink.reset();
+        assertEquals(0, sink.snapshot().frames);
+    }
+}
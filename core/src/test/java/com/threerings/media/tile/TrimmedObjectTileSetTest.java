@@ -0,0 +1,100 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.tile;
+
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.threerings.media.tile.util.TileSetTrimmer;
+
+/**
+ * Tests the {@link TrimmedObjectTileSet}.
+ */
+public class TrimmedObjectTileSetTest
+{
+    @Test
+    public void testSetImageLocation ()
+        throws Exception
+    {
+        TrimmedObjectTileSet tset = TrimmedObjectTileSet.trimObjectTileSet(
+            createTileSet(), new TileSetTrimmer.StripPacker());
+        Rectangle obounds0 = tset.computeTileBounds(0, new Rectangle());
+        Rectangle obounds1 = tset.computeTileBounds(1, new Rectangle());
+        BufferedImage otile = tset.getRawTileImage(0);
+
+        // move the first tile's image data elsewhere in a new, larger image
+        final BufferedImage moved = new BufferedImage(64, 72, BufferedImage.TYPE_INT_ARGB);
+        moved.getRaster().setRect(50, 60, otile.getRaster());
+        tset.setImageProvider(new SimpleCachingImageProvider() {
+            @Override protected BufferedImage loadImage (String path) {
+                return moved;
+            }
+        });
+        tset.setImageLocation(0, 50, 60);
+
+        // only the location of the tile changes, and its image is found there
+        assertEquals(new Rectangle(50, 60, obounds0.width, obounds0.height),
+                     tset.computeTileBounds(0, new Rectangle()));
+        assertEquals(obounds1, tset.computeTileBounds(1, new Rectangle()));
+        assertEquals(2, tset.getBaseWidth(0));
+        assertEquals(1, tset.getBaseHeight(0));
+        BufferedImage tile = tset.getRawTileImage(0);
+        for (int yy = 0; yy < obounds0.height; yy++) {
+            for (int xx = 0; xx < obounds0.width; xx++) {
+                assertEquals(otile.getRGB(xx, yy), tile.getRGB(xx, yy));
+            }
+        }
+    }
+
+    /**
+     * Creates a two tile object tileset, each of whose tiles has an opaque square inset in it.
+     */
+    protected static ObjectTileSet createTileSet ()
+    {
+        final BufferedImage image = new BufferedImage(16, 8, BufferedImage.TYPE_INT_ARGB);
+        for (int yy = 2; yy < 6; yy++) {
+            for (int xx = 2; xx < 5; xx++) {
+                image.setRGB(xx, yy, 0xFFFF0000);
+                image.setRGB(8 + xx + 1, yy, 0xFF0000FF);
+            }
+        }
+        ObjectTileSet set = new ObjectTileSet();
+        set.setName("test");
+        set.setImagePath("test.png");
+        set.setTileCounts(new int[] { 2 });
+        set.setWidths(new int[] { 8 });
+        set.setHeights(new int[] { 8 });
+        set.setOffsetPos(new Point(0, 0));
+        set.setGapSize(new Dimension(0, 0));
+        set.setObjectWidths(new int[] { 2, 2 });
+        set.setObjectHeights(new int[] { 1, 1 });
+        set.setImageProvider(new SimpleCachingImageProvider() {
+            @Override protected BufferedImage loadImage (String path) {
+                return image;
+            }
+        });
+        return set;
+    }
+}
@@ -0,0 +1,123 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.util;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link AStarPathFinder} with {@link AStarPathUtil} on large random and maze-like
+ * grids. Run with <code>java -cp ... com.threerings.media.util.AStarBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AStarBenchmark
+{
+    /** The sort of grid on which to search. */
+    @Param({ "random", "maze" })
+    public String grid;
+
+    @Setup
+    public void setup ()
+    {
+        Random rand = new Random(1);
+        boolean[][] tiles = grid.equals("maze") ? AStarGrids.createMazeGrid(rand, 255, 255) :
+            AStarGrids.createRandomGrid(rand, 512, 512, 0.3f);
+        _tpred = AStarGrids.toPred(tiles);
+        _bitmap = new AStarPathFinder.TraversalBitmap(
+            new Rectangle(0, 0, tiles[0].length, tiles.length), _tpred, null);
+        for (int ii = 0; ii < _ends.length; ii++) {
+            _ends[ii] = AStarGrids.randomOpen(rand, tiles);
+        }
+    }
+
+    @Benchmark
+    public int aStarPathUtil ()
+    {
+        Point a = _ends[_next++ & MASK], b = _ends[_next & MASK];
+        return size(AStarPathUtil.getPath(_tpred, null, LONGEST, a.x, a.y, b.x, b.y, true));
+    }
+
+    @Benchmark
+    public int pathFinder ()
+    {
+        Point a = _ends[_next++ & MASK], b = _ends[_next & MASK];
+        return size(_finder.getPath(_tpred, null, LONGEST, a.x, a.y, b.x, b.y, true, _stats));
+    }
+
+    @Benchmark
+    public int pathFinderBitmap ()
+    {
+        Point a = _ends[_next++ & MASK], b = _ends[_next & MASK];
+        return size(_finder.getPath(_bitmap, null, LONGEST, a.x, a.y, b.x, b.y, true, _stats));
+    }
+
+    @Benchmark
+    public int pathFinderOctile ()
+    {
+        Point a = _ends[_next++ & MASK], b = _ends[_next & MASK];
+        return size(_octile.getPath(_bitmap, null, LONGEST, a.x, a.y, b.x, b.y, true, _stats));
+    }
+
+    public static void main (String[] args)
+        throws Exception
+    {
+        new Runner(new OptionsBuilder().include(AStarBenchmark.class.getSimpleName()).build())
+            .run();
+    }
+
+    protected static int size (List<Point> path)
+    {
+        return (path == null) ? 0 : path.size();
+    }
+
+    protected AStarPathUtil.TraversalPred _tpred;
+    protected AStarPathFinder.TraversalBitmap _bitmap;
+    protected AStarPathFinder _finder = new AStarPathFinder();
+    protected AStarPathFinder _octile = new AStarPathFinder(AStarPathFinder.OCTILE, true);
+    protected AStarPathFinder.Stats _stats = new AStarPathFinder.Stats();
+    protected Point[] _ends = new Point[MASK + 1];
+    protected int _next;
+
+    protected static final int MASK = 63;
+    protected static final int LONGEST = 2048;
+}
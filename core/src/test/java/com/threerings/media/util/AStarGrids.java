@@ -0,0 +1,108 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.util;
+
+import java.util.Random;
+
+import java.awt.Point;
+
+/**
+ * Generates grids on which to test and benchmark path finding.
+ */
+public class AStarGrids
+{
+    /**
+     * Creates a grid in which each tile is blocked with the specified probability.
+     */
+    public static boolean[][] createRandomGrid (Random rand, int width, int height, float blocked)
+    {
+        boolean[][] grid = new boolean[height][width];
+        for (int yy = 0; yy < height; yy++) {
+            for (int xx = 0; xx < width; xx++) {
+                grid[yy][xx] = rand.nextFloat() >= blocked;
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Creates a perfect maze of the specified number of cells (generated by a randomized depth
+     * first search). Cells are at odd coordinates in the resulting grid, which is
+     * <code>2 * cells + 1</code> tiles on a side.
+     */
+    public static boolean[][] createMazeGrid (Random rand, int wcells, int hcells)
+    {
+        int width = wcells * 2 + 1, height = hcells * 2 + 1;
+        boolean[][] grid = new boolean[height][width];
+        int[] stack = new int[wcells * hcells];
+        int top = 0;
+        stack[top++] = 0;
+        grid[1][1] = true;
+        int[] dirs = new int[4];
+        while (top > 0) {
+            int cell = stack[top - 1], cx = cell % wcells, cy = cell / wcells;
+            int count = 0;
+            for (int dd = 0; dd < 4; dd++) {
+                int nx = cx + DX[dd], ny = cy + DY[dd];
+                if (nx >= 0 && ny >= 0 && nx < wcells && ny < hcells &&
+                    !grid[ny * 2 + 1][nx * 2 + 1]) {
+                    dirs[count++] = dd;
+                }
+            }
+            if (count == 0) {
+                top--;
+                continue;
+            }
+            int dd = dirs[rand.nextInt(count)];
+            int nx = cx + DX[dd], ny = cy + DY[dd];
+            grid[cy * 2 + 1 + DY[dd]][cx * 2 + 1 + DX[dd]] = true;
+            grid[ny * 2 + 1][nx * 2 + 1] = true;
+            stack[top++] = ny * wcells + nx;
+        }
+        return grid;
+    }
+
+    /**
+     * Returns a random passable location in the supplied grid.
+     */
+    public static Point randomOpen (Random rand, boolean[][] grid)
+    {
+        while (true) {
+            int yy = rand.nextInt(grid.length), xx = rand.nextInt(grid[0].length);
+            if (grid[yy][xx]) {
+                return new Point(xx, yy);
+            }
+        }
+    }
+
+    /**
+     * Returns a traversal predicate that consults the supplied grid.
+     */
+    public static AStarPathUtil.TraversalPred toPred (final boolean[][] grid)
+    {
+        return new AStarPathUtil.TraversalPred() {
+            public boolean canTraverse (Object traverser, int x, int y) {
+                return y >= 0 && x >= 0 && y < grid.length && x < grid[y].length && grid[y][x];
+            }
+        };
+    }
+
+    protected static final int[] DX = { 0, 1, 0, -1 }, DY = { -1, 0, 1, 0 };
+}
@@ -0,0 +1,101 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.util;
+
+import java.util.List;
+import java.util.Random;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link AStarPathFinder} class against {@link AStarPathUtil}.
+ */
+public class AStarPathFinderTest
+{
+    @Test
+    public void testMatchesAStarPathUtil ()
+    {
+        AStarPathFinder finder = new AStarPathFinder();
+        AStarPathFinder.Stats stats = new AStarPathFinder.Stats();
+        for (int seed = 0; seed < 20; seed++) {
+            Random rand = new Random(seed);
+            final boolean[][] grid = AStarGrids.createRandomGrid(rand, 64, 64, 0.3f);
+            AStarPathUtil.TraversalPred tpred = AStarGrids.toPred(grid);
+            AStarPathFinder.TraversalBitmap bitmap = new AStarPathFinder.TraversalBitmap(
+                new Rectangle(0, 0, 64, 64), tpred, null);
+
+            for (int ii = 0; ii < 10; ii++) {
+                Point a = AStarGrids.randomOpen(rand, grid), b = AStarGrids.randomOpen(rand, grid);
+                boolean partial = rand.nextBoolean();
+                List<Point> expect = AStarPathUtil.getPath(
+                    tpred, null, 100, a.x, a.y, b.x, b.y, partial);
+                assertEquals(expect, finder.getPath(
+                                 tpred, null, 100, a.x, a.y, b.x, b.y, partial, stats));
+                assertEquals(AStarPathUtil.getConsidered(), stats.considered);
+                assertEquals(expect, finder.getPath(
+                                 bitmap, null, 100, a.x, a.y, b.x, b.y, partial, null));
+            }
+        }
+    }
+
+    @Test
+    public void testHeuristics ()
+    {
+        Random rand = new Random(7);
+        boolean[][] grid = AStarGrids.createMazeGrid(rand, 31, 31);
+        AStarPathUtil.TraversalPred tpred = AStarGrids.toPred(grid);
+        AStarPathFinder.Stats stats = new AStarPathFinder.Stats();
+
+        // every heuristic should find a complete path through a (perfect) maze from corner to
+        // corner, and as there is only one such path, they should all find the same one
+        List<Point> expect = new AStarPathFinder(AStarPathFinder.DIJKSTRA, false).getPath(
+            tpred, null, 10000, 1, 1, 61, 61, false, stats);
+        assertNotNull(expect);
+        assertTrue(stats.complete);
+        for (AStarPathFinder.Heuristic heuristic : new AStarPathFinder.Heuristic[] {
+                AStarPathFinder.EUCLIDEAN, AStarPathFinder.OCTILE, AStarPathFinder.MANHATTAN }) {
+            assertEquals(expect, new AStarPathFinder(heuristic, false).getPath(
+                             tpred, null, 10000, 1, 1, 61, 61, false, stats));
+        }
+    }
+
+    @Test
+    public void testNoPath ()
+    {
+        AStarPathFinder.TraversalBitmap bitmap = new AStarPathFinder.TraversalBitmap(0, 0, 10, 10);
+        for (int yy = 0; yy < 10; yy++) {
+            for (int xx = 0; xx < 10; xx++) {
+                bitmap.setPassable(xx, yy, xx != 5);
+            }
+        }
+        AStarPathFinder finder = new AStarPathFinder();
+        AStarPathFinder.Stats stats = new AStarPathFinder.Stats();
+        assertNull(finder.getPath(bitmap, null, 100, 0, 0, 9, 9, false, stats));
+        assertFalse(stats.complete);
+
+        List<Point> partial = finder.getPath(bitmap, null, 100, 0, 0, 9, 9, true, stats);
+        assertNotNull(partial);
+        assertEquals(new Point(4, 9), partial.get(partial.size() - 1));
+    }
+}
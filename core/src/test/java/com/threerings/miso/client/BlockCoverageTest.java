@@ -0,0 +1,154 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.miso.client;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import java.awt.Rectangle;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.threerings.miso.util.MisoSceneMetrics;
+
+/**
+ * Tests that {@link BlockCoverage} maintains the same coverage as would a full recomputation.
+ */
+public class BlockCoverageTest
+{
+    @Test
+    public void testRandomResolution ()
+    {
+        Random rand = new Random(13);
+
+        // choose the footprints of the objects in each block position: some in the block itself
+        // and some extending into its neighbors
+        Map<Integer, long[]> owns = Maps.newHashMap();
+        Map<Integer, Map<Integer, long[]>> footprints = Maps.newHashMap();
+        for (int by = 0; by < GRID; by++) {
+            for (int bx = 0; bx < GRID; bx++) {
+                int key = MisoScenePanel.compose(bx, by);
+                owns.put(key, new long[] { rand.nextLong() & rand.nextLong() });
+                Map<Integer, long[]> prints = Maps.newHashMap();
+                for (int ii = rand.nextInt(4); ii > 0; ii--) {
+                    int nx = bx + rand.nextInt(3) - 1, ny = by + rand.nextInt(3) - 1;
+                    if ((nx != bx || ny != by) && nx >= 0 && ny >= 0 && nx < GRID && ny < GRID) {
+                        prints.put(MisoScenePanel.compose(nx, ny),
+                                   new long[] { rand.nextLong() & rand.nextLong() });
+                    }
+                }
+                footprints.put(key, prints);
+            }
+        }
+
+        Map<Integer, SceneBlock> blocks = Maps.newHashMap();
+        BlockCoverage coverage = new BlockCoverage(blocks);
+        for (int ii = 0; ii < 2000; ii++) {
+            int bx = rand.nextInt(GRID), by = rand.nextInt(GRID);
+            int key = MisoScenePanel.compose(bx, by);
+            SceneBlock block = blocks.get(key);
+            if (block == null) {
+                // create a block that will be resolved later
+                blocks.put(key, new SceneBlock(null, METRICS, null, bx * SIZE, by * SIZE,
+                                               SIZE, SIZE));
+            } else if (!block.isResolved() && rand.nextBoolean()) {
+                resolve(block, owns.get(key), footprints.get(key));
+                coverage.link(block);
+            } else {
+                // flush the block, resolved or not
+                blocks.remove(key);
+                coverage.unlink(block);
+            }
+            check(blocks, coverage, owns, footprints);
+        }
+    }
+
+    /**
+     * Marks the supplied block as resolved with the supplied coverage, as would its resolution.
+     */
+    protected static void resolve (SceneBlock block, long[] own, Map<Integer, long[]> prints)
+    {
+        block._ownCoverage = own.clone();
+        block._covered = own.clone();
+        block._footprints = prints;
+        block._sbounds = new Rectangle();
+    }
+
+    /**
+     * Checks the coverage of all blocks against that recomputed from scratch.
+     */
+    protected static void check (
+        Map<Integer, SceneBlock> blocks, BlockCoverage coverage, Map<Integer, long[]> owns,
+        Map<Integer, Map<Integer, long[]>> prints)
+    {
+        // the registered coverers are exactly the resolved blocks whose footprints extend into
+        // each block
+        Map<Integer, Set<SceneBlock>> coverers = Maps.newHashMap();
+        for (SceneBlock block : blocks.values()) {
+            if (block.isResolved()) {
+                for (Integer key : block.getFootprints().keySet()) {
+                    Set<SceneBlock> set = coverers.get(key);
+                    if (set == null) {
+                        coverers.put(key, set = Sets.newHashSet());
+                    }
+                    set.add(block);
+                }
+            }
+        }
+        assertEquals(coverers.size(), coverage.size());
+        for (Map.Entry<Integer, Set<SceneBlock>> entry : coverers.entrySet()) {
+            assertEquals(entry.getValue(), coverage.getCoverers(entry.getKey()));
+        }
+
+        // each resolved block is covered by at least its own objects and those of its resolved
+        // neighbors, and at most by the objects of all of its neighbors (coverage merged from
+        // since flushed neighbors remains valid, as their objects have not gone anywhere)
+        for (Map.Entry<Integer, SceneBlock> entry : blocks.entrySet()) {
+            SceneBlock block = entry.getValue();
+            if (!block.isResolved()) {
+                continue;
+            }
+            long min = owns.get(entry.getKey())[0], max = min;
+            for (Map.Entry<Integer, Map<Integer, long[]>> pentry : prints.entrySet()) {
+                long[] print = pentry.getValue().get(entry.getKey());
+                if (print == null) {
+                    continue;
+                }
+                max |= print[0];
+                SceneBlock coverer = blocks.get(pentry.getKey());
+                if (coverer != null && coverer.isResolved()) {
+                    min |= print[0];
+                }
+            }
+            long covered = block._covered[0];
+            assertEquals(min, covered & min);
+            assertEquals(covered, covered & max);
+        }
+    }
+
+    protected static final int GRID = 5, SIZE = 8;
+
+    protected static final MisoSceneMetrics METRICS = new MisoSceneMetrics(64, 48, 4);
+}
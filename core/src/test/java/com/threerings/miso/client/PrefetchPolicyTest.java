@@ -0,0 +1,184 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.miso.client;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.threerings.media.sprite.Sprite;
+import com.threerings.media.util.LineSegmentPath;
+
+/**
+ * Tests the {@link PrefetchPolicy}.
+ */
+public class PrefetchPolicyTest
+{
+    @Test
+    public void testAtRest ()
+    {
+        // a view that has not moved gets the standard influential bounds
+        PrefetchPolicy policy = new PrefetchPolicy(BLOCK_WIDTH, BLOCK_HEIGHT);
+        Rectangle ibounds = new Rectangle(), vibounds = new Rectangle();
+        policy.computeInfluentialBounds(VIEW, 1000L, null, ibounds, vibounds);
+        assertEquals(getDefaultBounds(), ibounds);
+
+        // nor does one that stopped moving a while ago
+        policy.viewMoved(0, 0, 1000L);
+        policy.viewMoved(100, 0, 1100L);
+        policy.computeInfluentialBounds(VIEW, 5000L, null, ibounds, vibounds);
+        assertEquals(getDefaultBounds(), ibounds);
+    }
+
+    @Test
+    public void testViewMotion ()
+    {
+        PrefetchPolicy policy = new PrefetchPolicy(BLOCK_WIDTH, BLOCK_HEIGHT);
+        Rectangle ibounds = new Rectangle(), vibounds = new Rectangle();
+        moveRight(policy, 1000L);
+        policy.computeInfluentialBounds(VIEW, 1400L, null, ibounds, vibounds);
+
+        // we extend ahead of the view, trim behind it and leave the vertical margins alone
+        Rectangle def = getDefaultBounds();
+        assertTrue(ibounds.x + ibounds.width > def.x + def.width);
+        assertTrue(ibounds.x > def.x);
+        assertTrue(ibounds.x < VIEW.x);
+        assertEquals(def.y, ibounds.y);
+        assertEquals(def.height, ibounds.height);
+
+        // blocks ahead become visible sooner than those equally far behind
+        Rectangle ahead = new Rectangle(VIEW.x + VIEW.width + 200, VIEW.y, 64, 32);
+        Rectangle behind = new Rectangle(VIEW.x - 200 - 64, VIEW.y, 64, 32);
+        assertTrue(policy.getTimeToVisibility(VIEW, ahead) <
+                   policy.getTimeToVisibility(VIEW, behind));
+        assertEquals(0f, policy.getTimeToVisibility(VIEW, new Rectangle(10, 10, 5, 5)), 0f);
+    }
+
+    @Test
+    public void testLookahead ()
+    {
+        // a slow resolver, or one that is behind, makes us look further ahead
+        PrefetchPolicy fast = new PrefetchPolicy(BLOCK_WIDTH, BLOCK_HEIGHT);
+        PrefetchPolicy slow = new PrefetchPolicy(BLOCK_WIDTH, BLOCK_HEIGHT);
+        PrefetchPolicy behind = new PrefetchPolicy(BLOCK_WIDTH, BLOCK_HEIGHT);
+        fast.noteResolver(5f, 0);
+        slow.noteResolver(15f, 0);
+        behind.noteResolver(5f, 20);
+        int fastRight = getRight(fast), slowRight = getRight(slow);
+        assertTrue(slowRight > fastRight);
+        assertTrue(getRight(behind) > fastRight);
+
+        // but never more than a bounded distance
+        PrefetchPolicy glacial = new PrefetchPolicy(BLOCK_WIDTH, BLOCK_HEIGHT);
+        glacial.noteResolver(10000f, 1000);
+        Rectangle def = getDefaultBounds();
+        assertEquals(def.x + def.width + (int)(PrefetchPolicy.MAX_LEAD * VIEW.width),
+                     getRight(glacial));
+
+        // an unknown resolve time falls back to our default estimate
+        PrefetchPolicy unknown = new PrefetchPolicy(BLOCK_WIDTH, BLOCK_HEIGHT);
+        PrefetchPolicy fresh = new PrefetchPolicy(BLOCK_WIDTH, BLOCK_HEIGHT);
+        unknown.noteResolver(15f, 0);
+        unknown.noteResolver(-1f, 0);
+        assertEquals(getRight(fresh), getRight(unknown));
+    }
+
+    @Test
+    public void testFollowedPath ()
+    {
+        // the view is moving right, but the sprite it follows is about to head back left
+        TestSprite sprite = new TestSprite();
+        LineSegmentPath path = new LineSegmentPath();
+        path.addNode(500, 300, LineSegmentPath.EAST);
+        path.addNode(520, 300, LineSegmentPath.EAST);
+        path.addNode(-1000, 300, LineSegmentPath.WEST);
+        path.setVelocity(0.5f);
+        sprite.move(path);
+        path.init(sprite, 1000L);
+
+        PrefetchPolicy policy = new PrefetchPolicy(BLOCK_WIDTH, BLOCK_HEIGHT);
+        moveRight(policy, 1000L);
+        Rectangle ibounds = new Rectangle(), vibounds = new Rectangle();
+        policy.computeInfluentialBounds(VIEW, 1400L, sprite, ibounds, vibounds);
+        Rectangle def = getDefaultBounds();
+        assertTrue(ibounds.x < def.x);
+        assertTrue(ibounds.x + ibounds.width < def.x + def.width);
+
+        // without a path to project along, we rely on the view's motion
+        sprite.cancelMove();
+        policy.computeInfluentialBounds(VIEW, 1400L, sprite, ibounds, vibounds);
+        assertTrue(ibounds.x > def.x);
+    }
+
+    @Test
+    public void testMeanResolveTime ()
+    {
+        SceneBlockResolver resolver = new SceneBlockResolver();
+        assertEquals(-1f, resolver.getMeanResolveTime(), 0f);
+
+        resolver.noteResolveTime(4);
+        assertEquals(4f, resolver.getMeanResolveTime(), 0.001f);
+        // slow resolutions must count in full, however far they lie beyond the histogram
+        resolver.noteResolveTime(9996);
+        assertEquals(5000f, resolver.getMeanResolveTime(), 0.001f);
+    }
+
+    /**
+     * Notes a view moving steadily right at a pixel per millisecond until the specified time.
+     */
+    protected static void moveRight (PrefetchPolicy policy, long until)
+    {
+        for (long now = until - 500; now <= until; now += 20) {
+            policy.viewMoved((int)now, 0, now);
+        }
+    }
+
+    /**
+     * Returns the right edge of the influential bounds computed by the supplied policy for a
+     * view moving right.
+     */
+    protected static int getRight (PrefetchPolicy policy)
+    {
+        moveRight(policy, 1000L);
+        Rectangle ibounds = new Rectangle(), vibounds = new Rectangle();
+        policy.computeInfluentialBounds(VIEW, 1000L, null, ibounds, vibounds);
+        return ibounds.x + ibounds.width;
+    }
+
+    protected static Rectangle getDefaultBounds ()
+    {
+        Rectangle ibounds = new Rectangle(), vibounds = new Rectangle();
+        MisoScenePanel.computeInfluentialBounds(VIEW, ibounds, vibounds);
+        return ibounds;
+    }
+
+    protected static class TestSprite extends Sprite
+    {
+        @Override
+        public void paint (Graphics2D gfx) {
+        }
+    }
+
+    protected static final Rectangle VIEW = new Rectangle(0, 0, 800, 600);
+
+    protected static final int BLOCK_WIDTH = 256, BLOCK_HEIGHT = 128;
+}
@@ -0,0 +1,175 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.miso.data;
+
+import java.util.Random;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import java.awt.Rectangle;
+
+import com.google.common.base.Strings;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.threerings.miso.util.ObjectSet;
+
+/**
+ * Tests that {@link MappedMisoSceneModel} faithfully reproduces the scenes it was written from.
+ */
+public class MappedMisoSceneModelTest
+{
+    @Test
+    public void testRoundTrip ()
+        throws Exception
+    {
+        Random rand = new Random(7);
+        SparseMisoSceneModel model = createModel(rand);
+        // a tiny cache, so that sections are paged in and out as we go
+        MappedMisoSceneModel mapped = map(model, 2048);
+        assertEquals(model.defTileSet, mapped.getDefaultBaseTileSet());
+
+        for (int yy = -60; yy < 60; yy++) {
+            for (int xx = -60; xx < 60; xx++) {
+                assertEquals(model.getBaseTileId(xx, yy), mapped.getBaseTileId(xx, yy));
+            }
+        }
+        for (int ii = 0; ii < 100; ii++) {
+            Rectangle region = new Rectangle(rand.nextInt(120) - 60, rand.nextInt(120) - 60,
+                                             1 + rand.nextInt(30), 1 + rand.nextInt(30));
+            assertEquals(describe(model, region), describe(mapped, region));
+        }
+
+        // converting back must also reproduce the original
+        SparseMisoSceneModel copy = mapped.toSparseModel();
+        Rectangle all = new Rectangle(-60, -60, 120, 120);
+        assertEquals(describe(model, all), describe(copy, all));
+        assertEquals(model.getBaseTileId(-17, 23), copy.getBaseTileId(-17, 23));
+    }
+
+    @Test
+    public void testModifications ()
+        throws Exception
+    {
+        SparseMisoSceneModel model = createModel(new Random(11));
+        MappedMisoSceneModel mapped = map(model, 1024);
+
+        // removing from a section that does not exist must not create (and pin) one
+        assertFalse(mapped.removeObject(new ObjectInfo(99, 2000, 2000)));
+        assertTrue(mapped.getStats().contains("modified=0"));
+
+        // modifications must survive the paging out of everything else
+        ObjectInfo info = new ObjectInfo(99, 3, 4);
+        info.action = "wave";
+        assertTrue(mapped.addObject(info));
+        assertTrue(mapped.setBaseTile(77, 3, 4));
+        assertTrue(mapped.setBaseTile(78, 1000, 1000));
+        for (int yy = -60; yy < 60; yy++) {
+            for (int xx = -60; xx < 60; xx++) {
+                mapped.getBaseTileId(xx, yy);
+            }
+        }
+        assertEquals(77, mapped.getBaseTileId(3, 4));
+        assertEquals(78, mapped.getBaseTileId(1000, 1000));
+        ObjectSet set = new ObjectSet();
+        mapped.getObjects(new Rectangle(3, 4, 1, 1), set);
+        assertTrue(set.contains(info));
+
+        // and be carried over into a re-written scene
+        MappedMisoSceneModel remapped = map(mapped.toSparseModel(), 1024);
+        assertEquals(77, remapped.getBaseTileId(3, 4));
+        assertEquals(78, remapped.getBaseTileId(1000, 1000));
+        set = new ObjectSet();
+        remapped.getObjects(new Rectangle(3, 4, 1, 1), set);
+        assertTrue(set.contains(info));
+    }
+
+    @Test
+    public void testLongAction ()
+        throws Exception
+    {
+        SparseMisoSceneModel model = new SparseMisoSceneModel(10, 10);
+        ObjectInfo info = new ObjectInfo(1, 0, 0);
+        info.action = Strings.repeat("x", Short.MAX_VALUE);
+        model.addObject(info);
+        ObjectSet set = new ObjectSet();
+        map(model, 1024).getObjects(new Rectangle(0, 0, 1, 1), set);
+        assertEquals(info.action, set.get(0).action);
+
+        // actions whose length cannot be encoded are rejected rather than corrupting the scene
+        info.action += "x";
+        try {
+            map(model, 1024);
+            fail("Encoded an overlong action");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    protected static SparseMisoSceneModel createModel (Random rand)
+    {
+        SparseMisoSceneModel model = new SparseMisoSceneModel(10, 10);
+        model.defTileSet = 42;
+        for (int yy = -50; yy < 50; yy++) {
+            for (int xx = -50; xx < 50; xx++) {
+                if (rand.nextInt(3) != 0) {
+                    model.setBaseTile(rand.nextInt(1 << 20), xx, yy);
+                }
+            }
+        }
+        for (int ii = 0; ii < 1000; ii++) {
+            ObjectInfo info = new ObjectInfo(
+                1 + rand.nextInt(50), rand.nextInt(100) - 50, rand.nextInt(100) - 50);
+            if (rand.nextInt(5) == 0) {
+                info.action = "poke\u00e9" + ii;
+                info.priority = (byte)rand.nextInt(5);
+                info.sx = (byte)rand.nextInt(10);
+                info.sorient = (byte)rand.nextInt(8);
+                info.zations = rand.nextInt();
+            }
+            model.addObject(info);
+        }
+        return model;
+    }
+
+    protected static MappedMisoSceneModel map (SparseMisoSceneModel model, int cacheSize)
+        throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MappedMisoSceneModel.write(model, out);
+        return new MappedMisoSceneModel(ByteBuffer.wrap(out.toByteArray()), cacheSize);
+    }
+
+    protected static String describe (MisoSceneModel model, Rectangle region)
+    {
+        ObjectSet set = new ObjectSet();
+        model.getObjects(region, set);
+        StringBuilder buf = new StringBuilder();
+        for (int ii = 0; ii < set.size(); ii++) {
+            ObjectInfo info = set.get(ii);
+            buf.append(info.tileId).append("@").append(info.x).append(",").append(info.y);
+            buf.append(":").append(info.action).append(":").append(info.zations).append(" ");
+        }
+        return buf.toString();
+    }
+}
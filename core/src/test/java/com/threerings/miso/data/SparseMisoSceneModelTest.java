@@ -0,0 +1,134 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.miso.data;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import java.awt.Rectangle;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.threerings.miso.util.ObjectSet;
+
+/**
+ * Tests the section lookup and object queries of {@link SparseMisoSceneModel}.
+ */
+public class SparseMisoSceneModelTest
+{
+    @Test
+    public void testGetObjects ()
+    {
+        Random rand = new Random(3);
+        SparseMisoSceneModel model = new SparseMisoSceneModel(10, 10);
+        List<ObjectInfo> objects = Lists.newArrayList();
+        for (int ii = 0; ii < 2000; ii++) {
+            ObjectInfo info = new ObjectInfo(1 + rand.nextInt(50), rand.nextInt(200) - 100,
+                                             rand.nextInt(200) - 100);
+            if (rand.nextInt(10) == 0) {
+                info.action = "poke";
+            }
+            if (model.addObject(info)) {
+                objects.add(info);
+            }
+        }
+
+        for (int ii = 0; ii < 200; ii++) {
+            Rectangle region = new Rectangle(rand.nextInt(240) - 120, rand.nextInt(240) - 120,
+                                             1 + rand.nextInt(40), 1 + rand.nextInt(40));
+            ObjectSet set = new ObjectSet();
+            model.getObjects(region, set);
+            Set<String> expect = Sets.newHashSet(), actual = Sets.newHashSet();
+            for (ObjectInfo info : objects) {
+                if (region.contains(info.x, info.y)) {
+                    expect.add(describe(info.tileId, info.x, info.y));
+                }
+            }
+            for (int oo = 0; oo < set.size(); oo++) {
+                ObjectInfo info = set.get(oo);
+                actual.add(describe(info.tileId, info.x, info.y));
+            }
+            assertEquals(expect, actual);
+        }
+
+        // removing an object must be reflected in subsequent queries
+        ObjectInfo victim = objects.get(0);
+        assertTrue(model.removeObject(victim));
+        ObjectSet set = new ObjectSet();
+        model.getObjects(new Rectangle(victim.x, victim.y, 1, 1), set);
+        for (int oo = 0; oo < set.size(); oo++) {
+            assertFalse(set.get(oo).tileId == victim.tileId);
+        }
+    }
+
+    @Test
+    public void testVisitObjectTiles ()
+    {
+        SparseMisoSceneModel model = new SparseMisoSceneModel(8, 8);
+        for (int yy = -20; yy < 20; yy++) {
+            for (int xx = -20; xx < 20; xx++) {
+                model.addObject(new ObjectInfo(7, xx, yy));
+            }
+        }
+        final int[] count = new int[1];
+        SparseMisoSceneModel.ObjectTileVisitor counter =
+            new SparseMisoSceneModel.ObjectTileVisitor() {
+            public void visit (int tileId, int x, int y) {
+                count[0]++;
+            }
+        };
+        model.visitObjectTiles(counter);
+        assertEquals(1600, count[0]);
+        count[0] = 0;
+        model.visitObjectTiles(new Rectangle(-3, -5, 11, 13), counter);
+        assertEquals(11 * 13, count[0]);
+    }
+
+    @Test
+    public void testSections ()
+    {
+        SparseMisoSceneModel model = new SparseMisoSceneModel(4, 4);
+        for (int yy = -50; yy < 50; yy++) {
+            for (int xx = -50; xx < 50; xx++) {
+                model.setBaseTile((xx << 16) | (yy & 0xFFFF), xx, yy);
+            }
+        }
+        // a clone must look up its own sections
+        SparseMisoSceneModel clone = model.clone();
+        model.setBaseTile(0, 3, 3);
+        for (int yy = -50; yy < 50; yy++) {
+            for (int xx = -50; xx < 50; xx++) {
+                assertEquals((xx << 16) | (yy & 0xFFFF), clone.getBaseTileId(xx, yy));
+            }
+        }
+        assertEquals(0, model.getBaseTileId(3, 3));
+        assertEquals(-1, model.getBaseTileId(60, 60));
+    }
+
+    protected static String describe (int tileId, int x, int y)
+    {
+        return tileId + "@" + x + "," + y;
+    }
+}
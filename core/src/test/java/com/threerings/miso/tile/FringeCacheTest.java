@@ -0,0 +1,161 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.miso.tile;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.awt.image.BufferedImage;
+
+import com.google.common.collect.Lists;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.threerings.media.image.BufferedMirage;
+
+import com.threerings.miso.tile.AutoFringer.FringeTile;
+
+/**
+ * Tests the {@link FringeCache} class.
+ */
+public class FringeCacheTest
+{
+    @Test
+    public void testSingleFlight ()
+        throws Exception
+    {
+        final FringeCache cache = new FringeCache(Long.MAX_VALUE);
+        final CountingComposer composer = new CountingComposer(20);
+        final CountDownLatch start = new CountDownLatch(1);
+        final FringeTile[] results = new FringeTile[8];
+        List<Thread> threads = Lists.newArrayList();
+        for (int ii = 0; ii < results.length; ii++) {
+            final int idx = ii;
+            Thread thread = new Thread() {
+                @Override public void run () {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    // each thread has its own copy of the id
+                    results[idx] = cache.getTile(new long[] { 1L, 2L }, true, composer);
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, composer.count.get());
+        for (FringeTile tile : results) {
+            assertSame(results[0], tile);
+        }
+
+        // passability distinguishes otherwise identical tiles
+        assertNotSame(results[0], cache.getTile(new long[] { 1L, 2L }, false, composer));
+        assertEquals(2, composer.count.get());
+    }
+
+    @Test
+    public void testBudget ()
+    {
+        CountingComposer composer = new CountingComposer(0);
+        FringeTile probe = composer.compose(new long[] { 0L }, true);
+        composer.count.set(0);
+        FringeCache cache = new FringeCache(2 * probe.getEstimatedMemoryUsage());
+
+        // hang on to the tiles, as scene blocks would
+        List<FringeTile> tiles = Lists.newArrayList();
+        for (int ii = 0; ii < 4; ii++) {
+            tiles.add(cache.getTile(new long[] { ii }, true, composer));
+        }
+        assertEquals(4, composer.count.get());
+        assertTrue(cache.getEstimatedMemoryUsage() <= 2 * probe.getEstimatedMemoryUsage());
+
+        // demoted tiles that are still in use are shared rather than recomposed
+        for (int ii = 0; ii < 4; ii++) {
+            assertSame(tiles.get(ii), cache.getTile(new long[] { ii }, true, composer));
+        }
+        assertEquals(4, composer.count.get());
+    }
+
+    @Test
+    public void testMaskBudget ()
+    {
+        final AtomicInteger count = new AtomicInteger();
+        FringeCache.MaskComposer composer = new FringeCache.MaskComposer() {
+            public BufferedImage compose (long maskKey) {
+                count.incrementAndGet();
+                return new BufferedImage(64, 32, BufferedImage.TYPE_INT_ARGB);
+            }
+        };
+        long size = 64 * 32 * 4;
+        FringeCache cache = new FringeCache(2 * size);
+
+        // masks are shared while cached
+        BufferedImage mask = cache.getMask(0L, composer);
+        assertSame(mask, cache.getMask(0L, composer));
+        assertEquals(1, count.get());
+
+        // but the least recently used are dropped to stay within our budget
+        for (long ii = 1; ii < 10; ii++) {
+            cache.getMask(ii, composer);
+            assertTrue(cache.getEstimatedMemoryUsage() <= 2 * size);
+        }
+        assertEquals(10, count.get());
+        cache.getMask(9L, composer);
+        assertEquals(10, count.get());
+        assertNotSame(mask, cache.getMask(0L, composer));
+        assertEquals(11, count.get());
+
+        cache.clear();
+        assertEquals(0, cache.getEstimatedMemoryUsage());
+    }
+
+    protected static class CountingComposer implements FringeCache.TileComposer
+    {
+        public final AtomicInteger count = new AtomicInteger();
+
+        public CountingComposer (long delay) {
+            _delay = delay;
+        }
+
+        public FringeTile compose (long[] fringeId, boolean passable) {
+            count.incrementAndGet();
+            try {
+                Thread.sleep(_delay);
+            } catch (InterruptedException ie) {
+                // no problem
+            }
+            FringeTile tile = new FringeTile(fringeId, passable);
+            tile.setImage(new BufferedMirage(
+                new BufferedImage(64, 32, BufferedImage.TYPE_INT_ARGB)));
+            return tile;
+        }
+
+        protected long _delay;
+    }
+}
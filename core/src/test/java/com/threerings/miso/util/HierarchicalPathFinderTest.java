@@ -0,0 +1,162 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.miso.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import java.awt.Point;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.threerings.media.util.AStarGrids;
+import com.threerings.media.util.AStarPathFinder;
+import com.threerings.media.util.AStarPathUtil;
+
+/**
+ * Tests the {@link HierarchicalPathFinder} class against flat searches.
+ */
+public class HierarchicalPathFinderTest
+{
+    @Test
+    public void testMatchesFlatReachability ()
+    {
+        AStarPathFinder flat = new AStarPathFinder();
+        for (int seed = 0; seed < 10; seed++) {
+            Random rand = new Random(seed);
+            boolean[][] grid = (seed % 2 == 0) ?
+                AStarGrids.createRandomGrid(rand, 96, 96, 0.35f) :
+                AStarGrids.createMazeGrid(rand, 47, 47);
+            GridSource source = new GridSource(grid);
+            HierarchicalPathFinder finder = new HierarchicalPathFinder(source, 4, 4);
+            AStarPathUtil.TraversalPred tpred = AStarGrids.toPred(grid);
+
+            for (int ii = 0; ii < 20; ii++) {
+                Point a = AStarGrids.randomOpen(rand, grid), b = AStarGrids.randomOpen(rand, grid);
+                List<Point> expect = flat.getPath(
+                    tpred, null, 100000, a.x, a.y, b.x, b.y, false);
+                List<Point> path = finder.getPath(tpred, null, a.x, a.y, b.x, b.y, null);
+                assertEquals(expect != null, path != null);
+                if (path != null) {
+                    checkPath(grid, path, a, b);
+                    // refinement within the corridor may be a bit longer than the optimum
+                    assertTrue(cost(path) <= cost(expect) * 3 / 2);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidation ()
+    {
+        boolean[][] grid = new boolean[32][32];
+        for (boolean[] row : grid) {
+            Arrays.fill(row, true);
+        }
+        GridSource source = new GridSource(grid);
+        HierarchicalPathFinder finder = new HierarchicalPathFinder(source, 4, 4);
+        AStarPathUtil.TraversalPred tpred = AStarGrids.toPred(grid);
+        assertNotNull(finder.getPath(tpred, null, 1, 1, 30, 1, null));
+
+        // wall off the right half of the scene; the cached portals must not let us through
+        for (int yy = 0; yy < 32; yy++) {
+            grid[yy][16] = false;
+        }
+        source.version++;
+        assertNull(finder.getPath(tpred, null, 1, 1, 30, 1, null));
+
+        // open a door at the bottom, which we should then use
+        grid[30][16] = true;
+        source.version++;
+        List<Point> path = finder.getPath(tpred, null, 1, 1, 30, 1, null);
+        assertNotNull(path);
+        checkPath(grid, path, new Point(1, 1), new Point(30, 1));
+        assertTrue(path.contains(new Point(16, 30)));
+    }
+
+    @Test
+    public void testUnresolvedBlocks ()
+    {
+        boolean[][] grid = new boolean[8][32];
+        for (boolean[] row : grid) {
+            Arrays.fill(row, true);
+        }
+        GridSource source = new GridSource(grid);
+        HierarchicalPathFinder finder = new HierarchicalPathFinder(source, 4, 4);
+        AStarPathUtil.TraversalPred tpred = AStarGrids.toPred(grid);
+
+        // a column of unresolved blocks cuts the scene in two
+        source.unresolvedX = 4;
+        assertNull(finder.getPath(tpred, null, 1, 1, 30, 1, null));
+        source.unresolvedX = -1;
+        assertNotNull(finder.getPath(tpred, null, 1, 1, 30, 1, null));
+    }
+
+    protected static void checkPath (boolean[][] grid, List<Point> path, Point a, Point b)
+    {
+        assertEquals(a, path.get(0));
+        assertEquals(b, path.get(path.size()-1));
+        for (int ii = 1; ii < path.size(); ii++) {
+            Point p = path.get(ii-1), n = path.get(ii);
+            int dx = n.x - p.x, dy = n.y - p.y;
+            assertTrue(Math.abs(dx) <= 1 && Math.abs(dy) <= 1 && (dx != 0 || dy != 0));
+            assertTrue(grid[n.y][n.x]);
+            if (dx != 0 && dy != 0) {
+                assertTrue(grid[p.y][n.x] && grid[n.y][p.x]);
+            }
+        }
+    }
+
+    protected static int cost (List<Point> path)
+    {
+        int cost = 0;
+        for (int ii = 1; ii < path.size(); ii++) {
+            Point p = path.get(ii-1), n = path.get(ii);
+            cost += (p.x != n.x && p.y != n.y) ?
+                AStarPathUtil.DIAGONAL_COST : AStarPathUtil.ADJACENT_COST;
+        }
+        return cost;
+    }
+
+    /** Provides blocks over a boolean grid, indexed by y then x. */
+    protected static class GridSource implements HierarchicalPathFinder.BlockSource
+    {
+        public int version = 1, unresolvedX = -1;
+
+        public GridSource (boolean[][] grid) {
+            _grid = grid;
+        }
+
+        public int getBlockVersion (int bx, int by) {
+            boolean inside = bx >= 0 && by >= 0 &&
+                bx * 4 < _grid[0].length && by * 4 < _grid.length;
+            return (inside && bx != unresolvedX) ? version : -1;
+        }
+
+        public boolean isPassable (int tx, int ty) {
+            return tx >= 0 && ty >= 0 && ty < _grid.length && tx < _grid[0].length &&
+                _grid[ty][tx];
+        }
+
+        protected boolean[][] _grid;
+    }
+}
@@ -0,0 +1,117 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.openal;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ClipCache}.
+ */
+public class ClipCacheTest
+{
+    @Before
+    public void createCache ()
+        throws IOException
+    {
+        File dir = File.createTempFile("clipcache", "");
+        dir.delete();
+        _cache = new ClipCache(dir);
+    }
+
+    @After
+    public void deleteCache ()
+    {
+        _cache.clear();
+        _cache.getDirectory().delete();
+    }
+
+    @Test
+    public void testRoundTrip ()
+    {
+        Clip clip = new Clip();
+        clip.format = 0x1101;
+        clip.frequency = 22050;
+        clip.data = ByteBuffer.allocate(1000);
+        for (int ii = 0; ii < 1000; ii++) {
+            clip.data.put((byte)ii);
+        }
+        clip.data.flip();
+        _cache.write("sounds/test.ogg", 3L, clip);
+
+        // the clip's buffer is left as it was
+        assertEquals(0, clip.data.position());
+        assertEquals(1000, clip.data.limit());
+
+        Clip read = _cache.read("sounds/test.ogg", 3L);
+        assertNotNull(read);
+        assertEquals(clip.format, read.format);
+        assertEquals(clip.frequency, read.frequency);
+        assertEquals(clip.data, read.data);
+
+        // only the entry itself remains in the cache directory
+        assertEquals(1, _cache.getDirectory().list().length);
+    }
+
+    @Test
+    public void testMisses ()
+    {
+        Clip clip = new Clip();
+        clip.data = ByteBuffer.allocate(10);
+        _cache.write("a.wav", 1L, clip);
+
+        assertNull(_cache.read("b.wav", 1L));
+        assertNull(_cache.read("a.wav", 2L));
+        assertNull(_cache.read("a.wav", -1L));
+        assertNotNull(_cache.read("a.wav", 1L));
+
+        // uncacheable clips are not written
+        _cache.write("c.wav", -1L, clip);
+        assertEquals(1, _cache.getDirectory().list().length);
+
+        _cache.clear();
+        assertNull(_cache.read("a.wav", 1L));
+    }
+
+    @Test
+    public void testClear ()
+        throws IOException
+    {
+        Clip clip = new Clip();
+        clip.data = ByteBuffer.allocate(10);
+        _cache.write("a.wav", 1L, clip);
+
+        // clearing removes our entries and any left partially written, but nothing else
+        File dir = _cache.getDirectory();
+        File.createTempFile("abc.pcm", ".tmp", dir);
+        File other = new File(dir, "other.tmp");
+        assertTrue(other.createNewFile());
+        _cache.clear();
+        assertArrayEquals(new String[] { "other.tmp" }, dir.list());
+        other.delete();
+    }
+
+    protected ClipCache _cache;
+}
@@ -0,0 +1,135 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.resource;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.awt.image.BufferedImage;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.threerings.media.image.PNGEncoder;
+
+/**
+ * Measures the throughput of sub-tile requests: encoding a tile with ImageIO (as the resource
+ * handler used to) versus the {@link PNGEncoder}, and full {@link SubTileService} requests for
+ * tiles that have and have not been cached. Run with
+ * <code>java -cp ... com.threerings.resource.SubTileBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubTileBenchmark
+{
+    @Setup
+    public void setup ()
+    {
+        // a 512x512 tileset of noisy 64x64 tiles
+        Random rand = new Random(1);
+        _source = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+        for (int yy = 0; yy < 512; yy++) {
+            for (int xx = 0; xx < 512; xx++) {
+                int shade = ((xx / 64 + yy / 64) * 16 + rand.nextInt(32)) & 0xFF;
+                _source.setRGB(xx, yy, 0xFF000000 | (shade << 16) | (xx & 0xFF) << 8 | yy & 0xFF);
+            }
+        }
+        _tile = _source.getSubimage(64, 64, 64, 64);
+        _service = new SubTileService(null) {
+            @Override protected BufferedImage getSource (String bundle, String path) {
+                return _source;
+            }
+        };
+    }
+
+    @Benchmark
+    public int imageIOEncode ()
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(_tile, "PNG", out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int pngEncoderEncode ()
+    {
+        return PNGEncoder.encode(_tile).length;
+    }
+
+    @Benchmark
+    public int pngEncoderStore ()
+    {
+        return PNGEncoder.encode(_tile, 0).length;
+    }
+
+    @Benchmark
+    public int serviceCached ()
+        throws IOException
+    {
+        return _service.getTileData("bundle", "tiles.png", QUERIES[_next++ & 63]).length;
+    }
+
+    @Benchmark
+    public int serviceUncached ()
+        throws IOException
+    {
+        _service.clearCache();
+        return _service.getTileData("bundle", "tiles.png", QUERIES[_next++ & 63]).length;
+    }
+
+    public static void main (String[] args)
+        throws Exception
+    {
+        new Runner(new OptionsBuilder().include(SubTileBenchmark.class.getSimpleName()).build())
+            .run();
+    }
+
+    protected BufferedImage _source, _tile;
+    protected SubTileService _service;
+    protected int _next;
+
+    /** Requests for each of the tiles in our tileset. */
+    protected static final String[] QUERIES = new String[64];
+    static {
+        for (int ii = 0; ii < QUERIES.length; ii++) {
+            QUERIES[ii] = "width=64&height=64&tile=" + ii;
+        }
+    }
+}
@@ -97,6 +97,40 @@ public class ComponentBundlerMojo extends AbstractMojo
     @Parameter(defaultValue="false")
     private boolean keepRawPngs;
 
+    /**
+     * The number of threads on which to process component images. Defaults to one, as does the
+     * Ant task; zero uses the number of available processors.
+     */
+    @Parameter(defaultValue="1")
+    private int threads;
+
+    /**
+     * Whether to note the content hashes of the processed images and, when rebuilding a bundle,
+     * to reuse the entries for unchanged images from the previous bundle. Off by default, as in the
+     * Ant task.
+     */
+    @Parameter(defaultValue="false")
+    private boolean incremental;
+
+    /**
+     * The directory in which to store the image hash manifests used by incremental builds.
+     */
+    @Parameter(defaultValue="${project.build.directory}/cbundle-hashes")
+    private File manifestDir;
+
+    /**
+     * Whether to quantize true-color component images to 8-bit indexed images, which can be
+     * stored in our raw format.
+     */
+    @Parameter(defaultValue="false")
+    private boolean quantize;
+
+    /**
+     * The serialized color pository whose colorization classes are preserved when quantizing.
+     */
+    @Parameter
+    private File colorDefs;
+
     /**
      * File patterns to include during the component bundle processing.
      */
@@ -121,6 +155,15 @@ public class ComponentBundlerMojo extends AbstractMojo
         ComponentBundler bundler = new ComponentBundler(mapFile, actionDef) {
             @Override protected boolean keepRawPngs () { return keepRawPngs; }
             @Override protected boolean uncompressed () { return false; }
+            @Override protected int threads () { return threads; }
+            @Override protected boolean incremental () { return incremental; }
+            @Override protected boolean quantize () { return quantize; }
+            @Override protected File colorDefs () { return colorDefs; }
+            @Override protected File getManifestFile (File target) {
+                // keep our manifests out of the classes directory
+                String path = targetBase.toURI().relativize(target.toURI()).getPath();
+                return new File(manifestDir, path + ".hashes");
+            }
             @Override protected void logInfo (String message) { getLog().info(message); }
             @Override protected void logWarn (String message) { getLog().warn(message); }
         };
@@ -24,24 +24,40 @@ import javax.imageio.ImageIO;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.zip.Deflater;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
 
 import com.samskivert.io.PersistenceException;
 import com.samskivert.util.ComparableArrayList;
@@ -52,10 +68,12 @@ import com.samskivert.util.Tuple;
 import com.threerings.cast.ComponentIDBroker;
 import com.threerings.cast.StandardActions;
 import com.threerings.cast.bundle.BundleUtil;
+import com.threerings.media.image.tools.QuantizingLoader;
 import com.threerings.media.tile.ImageProvider;
 import com.threerings.media.tile.SimpleCachingImageProvider;
 import com.threerings.media.tile.TileSet;
 import com.threerings.media.tile.TrimmedTileSet;
+import com.threerings.tools.IDLogFile;
 
 /**
  * Handles the logic of generating component bundles. Used by the Ant task and Maven plugin.
@@ -70,6 +88,31 @@ public abstract class ComponentBundler {
     protected boolean keepRawPngs () { return false; }
     protected boolean uncompressed () { return false; }
 
+    /**
+     * Returns the number of threads on which to process component images, or zero to use one per
+     * available processor. Entries are always written to the bundle in the same order, regardless.
+     */
+    protected int threads () { return 1; }
+
+    /**
+     * Returns whether to note the content hashes of our component images in a manifest and, when
+     * rebuilding, to copy the entries for unchanged images from the previous bundle rather than
+     * trimming them anew.
+     */
+    protected boolean incremental () { return false; }
+
+    /**
+     * Returns whether to quantize true-color component images to 8-bit indexed images, which can
+     * be stored in our raw format, preserving the colorization classes in {@link #colorDefs}.
+     */
+    protected boolean quantize () { return false; }
+
+    /**
+     * Returns the serialized color pository whose colorization classes are preserved when
+     * quantizing images, or null to preserve none.
+     */
+    protected File colorDefs () { return null; }
+
     protected void logInfo (String message) {
         System.out.println(message);
     }
@@ -79,18 +122,51 @@ public abstract class ComponentBundler {
 
     public void execute (String root, File target, List<Tuple<File,List<String>>> sourceDirs) {
         // load the id broker
-        HashMapIDBroker broker = new HashMapIDBroker();
+        ComponentIDBroker broker;
+        if (IDLogFile.isLogFile(_mapfile)) {
+            try {
+                broker = new LogIDBroker(_mapfile);
+            } catch (IOException ioe) {
+                throw new RuntimeException(
+                    "Error opening component ID log [mapfile=" + _mapfile + "]", ioe);
+            }
+        } else {
+            HashMapIDBroker hbroker = new HashMapIDBroker();
+            try {
+                BufferedReader bin = new BufferedReader(new FileReader(_mapfile));
+                hbroker.readFrom(bin);
+                bin.close();
+            } catch (FileNotFoundException fnfe) {
+                // if the file doesn't yet exist, start with a blank broker
+            } catch (Exception e) {
+                throw new RuntimeException(
+                    "Error loading component ID map [mapfile=" + _mapfile + "]", e);
+            }
+            broker = hbroker;
+        }
+
         try {
-            BufferedReader bin = new BufferedReader(new FileReader(_mapfile));
-            broker.readFrom(bin);
-            bin.close();
-        } catch (FileNotFoundException fnfe) {
-            // if the file doesn't yet exist, start with a blank broker
-        } catch (Exception e) {
-            throw new RuntimeException(
-                "Error loading component ID map [mapfile=" + _mapfile + "]", e);
+            bundle(root, target, sourceDirs, broker);
+        } finally {
+            // make sure a log broker releases its log, even if we failed
+            if (broker instanceof LogIDBroker) {
+                try {
+                    ((LogIDBroker)broker).close();
+                } catch (IOException ioe) {
+                    // if we succeeded, saveBroker will have reported this
+                }
+            }
         }
+    }
 
+    /**
+     * Creates the bundle using the supplied component ID broker, which is saved once the bundle
+     * has been created.
+     */
+    protected void bundle (
+        String root, File target, List<Tuple<File,List<String>>> sourceDirs,
+        ComponentIDBroker broker)
+    {
         // load the action tilesets
         Map<String, TileSet> actsets;
         try {
@@ -110,7 +186,11 @@ public abstract class ComponentBundler {
                 sources.add(new File(fromDir, srcFile));
             }
         }
-        sources.add(_mapfile);
+        // a log map file is appended to whenever any bundle is assigned ids, so its date has no
+        // bearing on whether this bundle is up to date
+        if (!(broker instanceof LogIDBroker)) {
+            sources.add(_mapfile);
+        }
         sources.add(_actionDef);
 
         long newest = getNewestDate(sources);
@@ -121,15 +201,23 @@ public abstract class ComponentBundler {
 
         logInfo("Generating " + target + "...");
 
+        // create our quantizer, if we're quantizing
         try {
-            // make sure we can create our bundle file
-            OutputStream fout = createOutputStream(target);
+            _quantizer = quantize() ?
+                new QuantizingLoader(QuantizingLoader.createQuantizer(colorDefs())) : null;
+        } catch (IOException ioe) {
+            throw new RuntimeException(
+                "Unable to load color definitions [path=" + colorDefs() + "].", ioe);
+        }
 
-            // we'll fill this with component id to tuple mappings
-            HashIntMap<Tuple<String, String>> mapping = new HashIntMap<Tuple<String, String>>();
+        // we'll fill this with component id to tuple mappings
+        HashIntMap<Tuple<String, String>> mapping = new HashIntMap<Tuple<String, String>>();
 
-            // process our files; control is inverted here so that the Ant task can enumerate using
-            // its internal data structures and the Maven plugin can use its
+        // determine the images to be processed (in a deterministic order); control is inverted
+        // here so that the Ant task can enumerate using its internal data structures and the Maven
+        // plugin can use its
+        List<ComponentJob> jobs = Lists.newArrayList();
+        try {
             for (Tuple<File,List<String>> source : sourceDirs) {
                 File fromDir = source.left;
                 for (String srcFile : source.right) {
@@ -144,7 +232,6 @@ public abstract class ComponentBundler {
                                 "' [class=" + info[0] + ", name=" + info[1] + "].");
                         continue;
                     }
-                    aset.setImageProvider(_improv);
 
                     // obtain the component id from our id broker
                     int cid = broker.getComponentID(info[0], info[1]);
@@ -152,7 +239,7 @@ public abstract class ComponentBundler {
                     mapping.put(cid, new Tuple<String, String>(info[0], info[1]));
 
                     // process and store the main component image
-                    processComponent(info, aset, cfile, fout, newest);
+                    jobs.add(new ComponentJob(info.clone(), aset, cfile));
 
                     // pick up any auxiliary images as well like the shadow or
                     // crop files
@@ -162,11 +249,73 @@ public abstract class ComponentBundler {
                         File afile = new File(FileUtil.resuffix(cfile, ext, element + ext));
                         if (afile.exists()) {
                             info[2] = action + element;
-                            processComponent(info, aset, afile, fout, newest);
+                            jobs.add(new ComponentJob(info.clone(), aset, afile));
                         }
                     }
+                    info[2] = action;
+                }
+            }
+
+        } catch (PersistenceException pe) {
+            String errmsg = "Unable to obtain component ID mapping.";
+            throw new RuntimeException(errmsg, pe);
+        }
+
+        // if we're building incrementally, load the hashes of the images in the existing bundle
+        // and move it aside so that we can copy unchanged entries from it
+        File manifest = getManifestFile(target);
+        String key = incremental() ? computeManifestKey() : null;
+        Map<String, String> ohashes = Maps.newHashMap(), hashes = Maps.newTreeMap();
+        File prevfile = new File(target.getPath() + ".prev");
+        JarFile prev = null;
+        if (key != null && target.isFile()) {
+            ohashes = readManifest(manifest, key);
+            if (!ohashes.isEmpty()) {
+                try {
+                    if (!target.renameTo(prevfile)) {
+                        throw new IOException("Unable to rename " + target);
+                    }
+                    prev = new JarFile(prevfile);
+                } catch (IOException ioe) {
+                    logWarn("Unable to reuse previous bundle; rebuilding in full [target=" +
+                            target + ", error=" + ioe + "].");
+                    ohashes.clear();
+                }
+            }
+        }
+
+        int nthreads = (threads() > 0) ? threads() : Runtime.getRuntime().availableProcessors();
+        ExecutorService exec = (nthreads > 1) ? Executors.newFixedThreadPool(nthreads) : null;
+        boolean success = false;
+        try {
+            // make sure we can create our bundle file
+            OutputStream fout = createOutputStream(target);
+
+            // process our images (on our worker pool, if we have one), but write their entries in
+            // order, keeping only a bounded number of processed images in memory
+            Deque<Future<ComponentResult>> pending = new ArrayDeque<Future<ComponentResult>>();
+            int window = (exec == null) ? 0 : nthreads * 4, reused = 0;
+            Iterator<ComponentJob> iter = jobs.iterator();
+            while (iter.hasNext() || !pending.isEmpty()) {
+                if (iter.hasNext() && pending.size() <= window) {
+                    Callable<ComponentResult> task =
+                        createTask(iter.next(), newest, key != null, ohashes, prev);
+                    pending.add((exec == null) ?
+                                Futures.immediateFuture(task.call()) : exec.submit(task));
+                    continue;
+                }
+                ComponentResult result = pending.poll().get();
+                fout = writeResult(fout, result, hashes);
+                if (result.reused) {
+                    reused++;
                 }
             }
+            if (prev != null) {
+                logInfo("Reused " + reused + " of " + jobs.size() + " unchanged images.");
+            }
+            if (_quantizer != null) {
+                logInfo("Quantized images " + _quantizer.getSummary() + ".");
+            }
 
             // write our mapping table to the jar file as well
             if (!skipEntry(BundleUtil.COMPONENTS_PATH, newest)) {
@@ -180,22 +329,124 @@ public abstract class ComponentBundler {
                 // seal up our jar file if we created one
                 fout.close();
             }
+            success = true;
 
         } catch (IOException ioe) {
             String errmsg = "Unable to create component bundle.";
             throw new RuntimeException(errmsg, ioe);
 
-        } catch (PersistenceException pe) {
-            String errmsg = "Unable to obtain component ID mapping.";
-            throw new RuntimeException(errmsg, pe);
+        } catch (ExecutionException ee) {
+            Throwables.throwIfUnchecked(ee.getCause());
+            throw new RuntimeException("Unable to create component bundle.", ee.getCause());
+
+        } catch (Exception e) {
+            Throwables.throwIfUnchecked(e);
+            throw new RuntimeException("Unable to create component bundle.", e);
+
+        } finally {
+            if (exec != null) {
+                exec.shutdownNow();
+            }
+            if (prev != null) {
+                try {
+                    prev.close();
+                } catch (IOException ioe) {
+                    // no harm done
+                }
+                // if we failed, put the previous bundle back the way we found it
+                if (success) {
+                    prevfile.delete();
+                } else {
+                    target.delete();
+                    prevfile.renameTo(target);
+                }
+            }
+        }
+
+        // note the hashes of the images in our new bundle
+        if (key != null) {
+            writeManifest(manifest, key, hashes);
         }
 
         // save our updated component ID broker
         saveBroker(_mapfile, broker);
     }
 
+    /**
+     * Creates the task that processes the supplied image, or copies its entries from the previous
+     * bundle if it is unchanged.
+     */
+    protected Callable<ComponentResult> createTask (
+        final ComponentJob job, final long newest, final boolean hash,
+        final Map<String, String> ohashes, final JarFile prev)
+    {
+        return new Callable<ComponentResult>() {
+            public ComponentResult call () throws Exception {
+                ComponentResult result = new ComponentResult();
+                if (hash) {
+                    result.ipath = composePath(job.info, BundleUtil.IMAGE_EXTENSION);
+                    result.hash = Files.asByteSource(job.file).hash(Hashing.sha256()).toString();
+                    result.reused = (prev != null) &&
+                        result.hash.equals(ohashes.get(result.ipath)) &&
+                        copyEntries(job, prev, result);
+                    if (result.reused) {
+                        return result;
+                    }
+                }
+                processComponent(job.info, job.aset, job.file, result, newest);
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Copies the entries for an unchanged image from the previous bundle into the supplied result.
+     *
+     * @return false if the previous bundle lacks any of the entries.
+     */
+    protected boolean copyEntries (ComponentJob job, JarFile prev, ComponentResult result)
+        throws IOException
+    {
+        List<String> paths = Lists.newArrayList(composePath(job.info, BundleUtil.IMAGE_EXTENSION));
+        if (!keepRawPngs()) {
+            paths.add(composePath(job.info, BundleUtil.TILESET_EXTENSION));
+        }
+        for (String path : paths) {
+            JarEntry entry = prev.getJarEntry(path);
+            if (entry == null) {
+                result.entries.clear();
+                return false;
+            }
+            InputStream in = prev.getInputStream(entry);
+            try {
+                result.entries.add(Tuple.newTuple(path, ByteStreams.toByteArray(in)));
+            } finally {
+                in.close();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the entries of a processed image to the bundle and notes its hash.
+     */
+    protected OutputStream writeResult (
+        OutputStream fout, ComponentResult result, Map<String, String> hashes)
+        throws IOException
+    {
+        for (Tuple<String, byte[]> entry : result.entries) {
+            fout = nextEntry(fout, entry.left);
+            fout.write(entry.right);
+        }
+        if (result.hash != null) {
+            hashes.put(result.ipath, result.hash);
+        }
+        return fout;
+    }
+
     protected void processComponent (
-        String[] info, TileSet aset, File cfile, OutputStream fout, long newest) throws IOException
+        String[] info, TileSet aset, File cfile, ComponentResult result, long newest)
+        throws IOException
     {
         // construct the path that'll go in the jar file
         String ipath = composePath(
@@ -206,9 +457,15 @@ public abstract class ComponentBundler {
             return;
         }
 
-        fout = nextEntry(fout, ipath);
-
-        aset.setImagePath(cfile.getPath());
+        // we may be running in parallel with other images of the same action, so we need our own
+        // copy of the action tileset and our own image provider
+        try {
+            aset = aset.clone(cfile.getPath());
+        } catch (CloneNotSupportedException cnse) {
+            throw new RuntimeException(cnse);
+        }
+        aset.setImageProvider(createImageProvider());
+        ByteArrayOutputStream fout = new ByteArrayOutputStream();
 
         TileSet tset;
         if (keepRawPngs()) {
@@ -237,15 +494,19 @@ public abstract class ComponentBundler {
                 throw new RuntimeException(errmsg, t);
             }
         }
+        if (_quantizer != null) {
+            _quantizer.noteEncoded(fout.toByteArray(), !keepRawPngs());
+        }
+        result.entries.add(Tuple.newTuple(ipath, fout.toByteArray()));
 
         // then write our trimmed tileset bundle data
         String tpath = composePath(info, BundleUtil.TILESET_EXTENSION);
         if (!skipEntry(tpath, newest) && !keepRawPngs()) {
-            fout = nextEntry(fout, tpath);
-
+            fout = new ByteArrayOutputStream();
             ObjectOutputStream oout = new ObjectOutputStream(fout);
             oout.writeObject(tset);
             oout.flush();
+            result.entries.add(Tuple.newTuple(tpath, fout.toByteArray()));
         }
     }
 
@@ -366,20 +627,32 @@ public abstract class ComponentBundler {
     }
 
     /**
-     * Stores a persistent representation of the supplied hashmap ID
-     * broker in the specified file.
+     * Stores a persistent representation of the supplied ID broker in the
+     * specified file.
      */
-    protected void saveBroker (File mapfile, HashMapIDBroker broker)
+    protected void saveBroker (File mapfile, ComponentIDBroker broker)
         throws RuntimeException
     {
+        // log brokers write their mappings as they go, so need only be closed
+        if (broker instanceof LogIDBroker) {
+            try {
+                ((LogIDBroker)broker).close();
+            } catch (IOException ioe) {
+                throw new RuntimeException(
+                    "Unable to store component ID log [mapfile=" + mapfile + "]", ioe);
+            }
+            return;
+        }
+
         // bail if the broker wasn't modified
-        if (!broker.isModified()) {
+        HashMapIDBroker hbroker = (HashMapIDBroker)broker;
+        if (!hbroker.isModified()) {
             return;
         }
 
         try {
             BufferedWriter bout = new BufferedWriter(new FileWriter(mapfile));
-            broker.writeTo(bout);
+            hbroker.writeTo(bout);
             bout.close();
         } catch (IOException ioe) {
             throw new RuntimeException(
@@ -387,6 +660,141 @@ public abstract class ComponentBundler {
         }
     }
 
+    /**
+     * Returns the file in which to store the content hashes of the images in the specified
+     * bundle, when building incrementally.
+     */
+    protected File getManifestFile (File target)
+    {
+        return new File(target.getPath() + ".hashes");
+    }
+
+    /**
+     * Computes a key that identifies everything other than the images themselves that affects
+     * the entries in our bundle; if it changes, no entries are reused.
+     */
+    protected String computeManifestKey ()
+    {
+        try {
+            String key = MANIFEST_VERSION + ":" + keepRawPngs() + ":" + uncompressed() + ":" +
+                Files.asByteSource(_actionDef).hash(Hashing.sha256());
+            if (quantize()) {
+                key += ":" + ((colorDefs() == null) ? "quantize" :
+                              Files.asByteSource(colorDefs()).hash(Hashing.sha256()));
+            }
+            return key;
+        } catch (IOException ioe) {
+            throw new RuntimeException(
+                "Unable to read action definition file [path=" + _actionDef + "].", ioe);
+        }
+    }
+
+    /**
+     * Reads the image hashes from the supplied manifest, returning an empty map if there is no
+     * manifest or it was created with a different key.
+     */
+    protected Map<String, String> readManifest (File manifest, String key)
+    {
+        Map<String, String> hashes = Maps.newHashMap();
+        if (!manifest.exists()) {
+            return hashes;
+        }
+        try {
+            BufferedReader bin = new BufferedReader(new FileReader(manifest));
+            try {
+                if (!key.equals(bin.readLine())) {
+                    return hashes;
+                }
+                String line;
+                while ((line = bin.readLine()) != null) {
+                    int sidx = line.indexOf(SEP_STR);
+                    if (sidx != -1) {
+                        String path = line.substring(sidx + SEP_STR.length());
+                        hashes.put(path, line.substring(0, sidx));
+                    }
+                }
+            } finally {
+                bin.close();
+            }
+        } catch (IOException ioe) {
+            logWarn("Unable to read bundle manifest [file=" + manifest + ", error=" + ioe + "].");
+            hashes.clear();
+        }
+        return hashes;
+    }
+
+    /**
+     * Writes the supplied image hashes (sorted by path) to the specified manifest.
+     */
+    protected void writeManifest (File manifest, String key, Map<String, String> hashes)
+    {
+        try {
+            manifest.getParentFile().mkdirs();
+            BufferedWriter bout = new BufferedWriter(new FileWriter(manifest));
+            try {
+                bout.write(key);
+                bout.newLine();
+                for (Map.Entry<String, String> entry : hashes.entrySet()) {
+                    bout.write(entry.getValue() + SEP_STR + entry.getKey());
+                    bout.newLine();
+                }
+            } finally {
+                bout.close();
+            }
+        } catch (IOException ioe) {
+            logWarn("Unable to write bundle manifest [file=" + manifest + ", error=" + ioe + "].");
+        }
+    }
+
+    /**
+     * Creates an image provider for loading component images. Each image is processed with its
+     * own provider, as images may be processed in parallel.
+     */
+    protected ImageProvider createImageProvider ()
+    {
+        return new SimpleCachingImageProvider() {
+            @Override
+            protected BufferedImage loadImage (String path)
+                throws IOException {
+                return (_quantizer == null) ?
+                    ImageIO.read(new File(path)) : _quantizer.load(new File(path));
+            }
+        };
+    }
+
+    /** A component image to be bundled. */
+    protected static class ComponentJob
+    {
+        /** The [class, name, action] triplet for the image. */
+        public final String[] info;
+
+        /** The action tileset that describes the image. */
+        public final TileSet aset;
+
+        /** The image file. */
+        public final File file;
+
+        public ComponentJob (String[] info, TileSet aset, File file)
+        {
+            this.info = info;
+            this.aset = aset;
+            this.file = file;
+        }
+    }
+
+    /** The bundle entries generated for a component image. */
+    protected static class ComponentResult
+    {
+        /** The paths and contents of the entries, in the order they are to be written. */
+        public List<Tuple<String, byte[]>> entries = Lists.newArrayList();
+
+        /** The image's path in the bundle and content hash, if we're building incrementally. */
+        public String ipath, hash;
+
+        /** Whether the entries were copied from the previous bundle. */
+        public boolean reused;
+    }
+
     protected static class HashMapIDBroker
         extends HashMap<Tuple<String, String>, Integer> implements ComponentIDBroker
     {
@@ -491,14 +899,47 @@ public abstract class ComponentBundler {
         protected int _startCID = 0;
     }
 
-    // an image provider for loading our component images
-    protected final ImageProvider _improv = new SimpleCachingImageProvider() {
-        @Override
-        protected BufferedImage loadImage (String path)
-            throws IOException {
-            return ImageIO.read(new File(path));
+    /**
+     * Stores component ids in an {@link IDLogFile} which, unlike a map file, may be shared by
+     * concurrent builds. Components are keyed by class and name as in the map file, so that the
+     * log can be imported from and exported to that format.
+     */
+    protected static class LogIDBroker implements ComponentIDBroker
+    {
+        public LogIDBroker (File logfile)
+            throws IOException
+        {
+            _log = new IDLogFile(logfile);
+        }
+
+        public int getComponentID (String cclass, String cname)
+            throws PersistenceException
+        {
+            try {
+                return _log.getOrAssign(cclass + SEP_STR + cname);
+            } catch (IOException ioe) {
+                throw new PersistenceException("Failure assigning component id.", ioe);
+            }
+        }
+
+        public void commit ()
+            throws PersistenceException
+        {
+            try {
+                _log.sync();
+            } catch (IOException ioe) {
+                throw new PersistenceException("Failure syncing component id log.", ioe);
+            }
+        }
+
+        public void close ()
+            throws IOException
+        {
+            _log.close();
         }
-    };
+
+        protected IDLogFile _log;
+    }
 
     /** The path to our component map file. */
     protected final File _mapfile;
@@ -506,6 +947,12 @@ public abstract class ComponentBundler {
     /** The path to our action tilesets definition file. */
     protected final File _actionDef;
 
+    /** The loader via which we quantize images, if we are doing so. */
+    protected QuantizingLoader _quantizer;
+
+    /** Identifies the format of our manifest and of the entries it describes. */
+    protected static final int MANIFEST_VERSION = 1;
+
     /** Used to separate keys and values in the map file. */
     protected static final String SEP_STR = " := ";
 
@@ -111,6 +111,42 @@ public class ComponentBundlerTask extends Task
         _uncompressed = uncompressed;
     }
 
+    /**
+     * Sets the number of threads on which to process component images (one by default). Zero uses
+     * the number of available processors.
+     */
+    public void setThreads (int threads)
+    {
+        _threads = threads;
+    }
+
+    /**
+     * Note whether we are to reuse the entries for unchanged images from the previous bundle,
+     * tracking image content hashes in a manifest alongside the bundle.
+     */
+    public void setIncremental (boolean incremental)
+    {
+        _incremental = incremental;
+    }
+
+    /**
+     * Note whether true-color component images should be quantized to 8-bit indexed images,
+     *  which can be stored in our raw format.
+     */
+    public void setQuantize (boolean quantize)
+    {
+        _quantize = quantize;
+    }
+
+    /**
+     * Sets the path to the serialized color pository whose colorization classes are to be
+     * preserved when quantizing images.
+     */
+    public void setColordefs (File colordefs)
+    {
+        _colordefs = colordefs;
+    }
+
     /**
      * Performs the actual work of the task.
      */
@@ -142,6 +178,10 @@ public class ComponentBundlerTask extends Task
         return new ComponentBundler(_mapfile, _actionDef) {
             @Override protected boolean keepRawPngs () { return _keepRawPngs; }
             @Override protected boolean uncompressed () { return _uncompressed; }
+            @Override protected int threads () { return _threads; }
+            @Override protected boolean incremental () { return _incremental; }
+            @Override protected boolean quantize () { return _quantize; }
+            @Override protected File colorDefs () { return _colordefs; }
         };
     }
 
@@ -170,4 +210,16 @@ public class ComponentBundlerTask extends Task
 
     /** Whether we should keep the bundle jars uncompressed rather than zipped. */
     protected boolean _uncompressed;
+
+    /** The number of threads on which to process images. */
+    protected int _threads = 1;
+
+    /** Whether we should reuse the entries for unchanged images from the previous bundle. */
+    protected boolean _incremental;
+
+    /** Whether we should quantize true-color images. */
+    protected boolean _quantize;
+
+    /** The color pository whose classes we preserve when quantizing, or null. */
+    protected File _colordefs;
 }
@@ -37,6 +37,9 @@ public class DirectoryComponentBundlerTask extends ComponentBundlerTask
         return new ComponentBundler(_mapfile, _actionDef) {
             @Override protected boolean keepRawPngs () { return _keepRawPngs; }
             @Override protected boolean uncompressed () { return _uncompressed; }
+            @Override protected int threads () { return _threads; }
+            @Override protected boolean quantize () { return _quantize; }
+            @Override protected File colorDefs () { return _colordefs; }
 
             @Override protected OutputStream createOutputStream (File target) throws IOException {
                 // we recreate our output stream on every entry; we don't need one to start with
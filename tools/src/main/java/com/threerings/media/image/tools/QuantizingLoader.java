@@ -0,0 +1,163 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.image.tools;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
+
+import com.threerings.resource.FastImageIO;
+
+import com.threerings.media.image.ColorPository;
+import com.threerings.media.image.ColorQuantizer;
+import com.threerings.media.image.Colorization;
+
+/**
+ * Loads source images for bundling, converting them to 8-bit indexed images via a {@link
+ * ColorQuantizer} so that they may be stored in our fast raw format, and keeps track of how much
+ * space and decoding time that saves. Images that cannot be quantized (because they contain
+ * translucent pixels) are loaded as is.
+ *
+ * <p> The savings compare every distinct source image loaded (quantized or not) with every image
+ * encoded from them, so all of the images stored in a bundle that derive from loaded images must
+ * be noted via {@link #noteEncoded}.
+ *
+ * <p> This class is safe to use from multiple threads.
+ */
+public class QuantizingLoader
+{
+    /**
+     * Creates a quantizer that preserves the colorization classes in the supplied serialized
+     * color pository, or no classes if the file is null.
+     */
+    public static ColorQuantizer createQuantizer (File colordefs)
+        throws IOException
+    {
+        if (colordefs == null) {
+            return new ColorQuantizer(new Colorization[0]);
+        }
+        InputStream in = new FileInputStream(colordefs);
+        try {
+            return new ColorQuantizer(ColorPository.loadColorPository(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Creates a loader that uses the supplied quantizer.
+     */
+    public QuantizingLoader (ColorQuantizer quantizer)
+    {
+        _quantizer = quantizer;
+    }
+
+    /**
+     * Loads and quantizes the specified image.
+     */
+    public BufferedImage load (File file)
+        throws IOException
+    {
+        long start = System.nanoTime();
+        BufferedImage image = ImageIO.read(file);
+        long elapsed = System.nanoTime() - start;
+        if (image == null) {
+            throw new IOException("Unable to read image " + file);
+        }
+
+        // only count each source image once, however many times it is loaded
+        boolean first = _loaded.add(file.getAbsoluteFile());
+        if (first) {
+            _sourceBytes.addAndGet(file.length());
+            _sourceNanos.addAndGet(elapsed);
+        }
+
+        BufferedImage quantized = _quantizer.quantize(image);
+        if (quantized == null) {
+            if (first) {
+                _skipped.incrementAndGet();
+            }
+            return image;
+        }
+        if (first) {
+            _quantized.incrementAndGet();
+        }
+        return quantized;
+    }
+
+    /**
+     * Notes the encoded data of an image generated from (one or more) images loaded via {@link
+     * #load}, whether or not they were quantized, so that its size and decoding time may be
+     * compared to those of the source images.
+     *
+     * @param raw true if the data are in our raw format, false if in a format read by ImageIO.
+     */
+    public void noteEncoded (byte[] data, boolean raw)
+    {
+        long start = System.nanoTime();
+        try {
+            if (raw) {
+                FastImageIO.read(ByteBuffer.wrap(data));
+            } else {
+                ImageIO.read(new ByteArrayInputStream(data));
+            }
+        } catch (IOException ioe) {
+            return; // not our problem, it'll surface when the bundle is used
+        }
+        _encodedNanos.addAndGet(System.nanoTime() - start);
+        _encodedBytes.addAndGet(data.length);
+    }
+
+    /**
+     * Returns a summary of the images we have loaded and the savings, suitable for logging.
+     */
+    public String getSummary ()
+    {
+        return "[quantized=" + _quantized + ", skipped=" + _skipped +
+            ", bytes=" + _sourceBytes + "->" + _encodedBytes +
+            ", decodeMillis=" + _sourceNanos.get() / 1000000L + "->" +
+            _encodedNanos.get() / 1000000L + "]";
+    }
+
+    /** The quantizer we use to convert images. */
+    protected ColorQuantizer _quantizer;
+
+    /** The number of images quantized and those that could not be. */
+    protected AtomicLong _quantized = new AtomicLong(), _skipped = new AtomicLong();
+
+    /** The distinct source images that we have loaded. */
+    protected Set<File> _loaded = ConcurrentHashMap.newKeySet();
+
+    /** The size of our source images and the time taken to decode them. */
+    protected AtomicLong _sourceBytes = new AtomicLong(), _sourceNanos = new AtomicLong();
+
+    /** The size of the images generated from them and the time taken to decode those. */
+    protected AtomicLong _encodedBytes = new AtomicLong(), _encodedNanos = new AtomicLong();
+}
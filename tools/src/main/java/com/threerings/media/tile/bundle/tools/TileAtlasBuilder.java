@@ -0,0 +1,337 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.tile.bundle.tools;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.awt.AlphaComposite;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+import javax.imageio.ImageIO;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+
+import com.threerings.resource.FastImageIO;
+
+import com.threerings.media.image.ImageUtil;
+import com.threerings.media.tile.TrimmedObjectTileSet;
+import com.threerings.media.tile.util.TileSetTrimmer;
+
+/**
+ * Eliminates duplicate tiles across the trimmed object tilesets in a bundle. The trimmed pixels of
+ * every tile are hashed and each distinct tile is stored once in one of a set of shared atlas
+ * images, which the tilesets are then rewritten to reference.
+ *
+ * <p> A tileset references a single image, so all of a tileset's tiles are placed in the same
+ * atlas; a tile shared by tilesets that end up in different atlases is stored once in each.
+ * Tilesets are only combined if their images have the same color model (and thus, for indexed
+ * images, the same palette) and they have the same colorization classes. Colorizing a tileset
+ * colorizes its whole image, so an atlas shared by differently colorized tilesets would be
+ * recolored (and cached) in its entirety for each of their colorizations.
+ */
+public class TileAtlasBuilder
+{
+    /**
+     * Creates a builder whose atlases will be named with the supplied prefix and will be at most
+     * (roughly) <code>size</code> pixels square. A single tileset larger than that is given an
+     * atlas of its own.
+     */
+    public TileAtlasBuilder (String prefix, int size)
+    {
+        _prefix = prefix;
+        _size = size;
+    }
+
+    /**
+     * Adds a trimmed tileset to be stored in a shared atlas. The tileset's image provider must
+     * supply its trimmed image. Tilesets should be added in a consistent order so that the
+     * resulting atlases are the same from build to build.
+     */
+    public void addTileSet (TrimmedObjectTileSet tset)
+    {
+        BufferedImage image = tset.getRawTileSetImage();
+        int tcount = tset.getTileCount();
+        HashCode[] keys = new HashCode[tcount];
+        Rectangle[] bounds = new Rectangle[tcount];
+        for (int ii = 0; ii < tcount; ii++) {
+            bounds[ii] = tset.computeTileBounds(ii, new Rectangle());
+            keys[ii] = hashTile(image, bounds[ii]);
+        }
+        _tiles += tcount;
+
+        // add to the most recent atlas with our color model and colorizations, unless it would
+        // grow too large
+        ColorModel cmodel = image.getColorModel();
+        String[] zations = tset.getColorizations();
+        Atlas atlas = null;
+        for (int ii = _atlases.size() - 1; ii >= 0; ii--) {
+            Atlas candidate = _atlases.get(ii);
+            if (candidate.sample.getColorModel().equals(cmodel) &&
+                Arrays.equals(candidate.zations, zations)) {
+                atlas = candidate;
+                break;
+            }
+        }
+        long limit = (long)_size * _size;
+        if (atlas == null ||
+            (atlas.area > 0 && atlas.area + atlas.computeAddedArea(keys, bounds) > limit)) {
+            atlas = new Atlas(_prefix + _atlases.size(), image, zations);
+            _atlases.add(atlas);
+        }
+
+        Slot[] slots = new Slot[tcount];
+        for (int ii = 0; ii < tcount; ii++) {
+            slots[ii] = atlas.slots.get(keys[ii]);
+            if (slots[ii] == null) {
+                atlas.slots.put(keys[ii], slots[ii] = new Slot(image, bounds[ii]));
+                atlas.area += bounds[ii].width * bounds[ii].height;
+            }
+        }
+        atlas.tsets.add(tset);
+        atlas.tslots.add(slots);
+    }
+
+    /**
+     * Packs our atlases, rewrites our tilesets to reference them and writes them to the supplied
+     * bundle. Images are encoded on the supplied executor, if one is provided.
+     *
+     * @param raw whether to write atlases in our fast raw format (where possible) or as PNGs.
+     *
+     * @return the paths and encoded data of the atlases, in the order in which they were written.
+     */
+    public Map<String, byte[]> write (BundleWriter bwriter, final boolean raw, ExecutorService exec)
+        throws IOException
+    {
+        List<Future<byte[]>> encoded = Lists.newArrayList();
+        for (Atlas atlas : _atlases) {
+            final BufferedImage image = atlas.pack(raw);
+            Callable<byte[]> task = new Callable<byte[]>() {
+                public byte[] call () throws IOException {
+                    return encode(image, raw);
+                }
+            };
+            try {
+                encoded.add((exec == null) ? Futures.immediateFuture(task.call()) :
+                            exec.submit(task));
+            } catch (Exception e) {
+                throw (IOException) new IOException("Failed to encode atlas").initCause(e);
+            }
+        }
+
+        Map<String, byte[]> written = Maps.newLinkedHashMap();
+        for (int ii = 0; ii < _atlases.size(); ii++) {
+            try {
+                byte[] data = encoded.get(ii).get();
+                bwriter.startNewFile(_atlases.get(ii).path).write(data);
+                written.put(_atlases.get(ii).path, data);
+            } catch (InterruptedException ie) {
+                throw (IOException) new IOException("Interrupted").initCause(ie);
+            } catch (ExecutionException ee) {
+                String errmsg = "Failed to encode atlas " + _atlases.get(ii).path;
+                throw (IOException) new IOException(errmsg).initCause(ee.getCause());
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Returns a summary of the duplicate elimination we performed, suitable for logging.
+     */
+    public String getStats ()
+    {
+        int unique = 0;
+        for (Atlas atlas : _atlases) {
+            unique += atlas.slots.size();
+        }
+        return "[tiles=" + _tiles + ", stored=" + unique + ", atlases=" + _atlases.size() + "]";
+    }
+
+    /**
+     * Computes a hash of the dimensions and pixel data of the specified region of an image.
+     */
+    protected static HashCode hashTile (BufferedImage image, Rectangle bounds)
+    {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putInt(bounds.width).putInt(bounds.height);
+        if (bounds.width > 0 && bounds.height > 0) {
+            int[] samples = image.getRaster().getPixels(
+                bounds.x, bounds.y, bounds.width, bounds.height, (int[])null);
+            for (int sample : samples) {
+                hasher.putInt(sample);
+            }
+        }
+        return hasher.hash();
+    }
+
+    /**
+     * Encodes the supplied image in the requested format.
+     */
+    protected static byte[] encode (BufferedImage image, boolean raw)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (raw && FastImageIO.canWrite(image)) {
+            FastImageIO.write(image, out);
+        } else {
+            ImageIO.write(image, "png", out);
+        }
+        return out.toByteArray();
+    }
+
+    /** A distinct tile within an atlas. */
+    protected static class Slot
+    {
+        /** The image containing the tile's data and the tile's bounds therein. */
+        public BufferedImage source;
+        public Rectangle bounds;
+
+        /** The tile's location in the atlas, once packed. */
+        public Rectangle position;
+
+        public Slot (BufferedImage source, Rectangle bounds) {
+            this.source = source;
+            this.bounds = bounds;
+        }
+    }
+
+    /** A shared image and the tilesets that reference it. */
+    protected class Atlas
+    {
+        /** The path to the atlas image in the bundle. */
+        public String path;
+
+        /** An image from which the atlas image's format is derived. */
+        public BufferedImage sample;
+
+        /** The colorization classes of the tilesets that reference this atlas. */
+        public String[] zations;
+
+        /** The distinct tiles in this atlas, in the order they were added. */
+        public Map<HashCode, Slot> slots = Maps.newLinkedHashMap();
+
+        /** The total area of our distinct tiles. */
+        public long area;
+
+        /** The tilesets that reference this atlas, and the slots of their tiles. */
+        public List<TrimmedObjectTileSet> tsets = Lists.newArrayList();
+        public List<Slot[]> tslots = Lists.newArrayList();
+
+        public Atlas (String path, BufferedImage sample, String[] zations) {
+            this.path = path;
+            this.sample = sample;
+            this.zations = zations;
+        }
+
+        /**
+         * Returns the area that adding the supplied tiles would add to this atlas.
+         */
+        public long computeAddedArea (HashCode[] keys, Rectangle[] bounds) {
+            long area = 0;
+            Map<HashCode, Boolean> seen = Maps.newHashMap();
+            for (int ii = 0; ii < keys.length; ii++) {
+                if (!slots.containsKey(keys[ii]) && seen.put(keys[ii], true) == null) {
+                    area += bounds[ii].width * bounds[ii].height;
+                }
+            }
+            return area;
+        }
+
+        /**
+         * Packs our tiles, creates our image and updates our tilesets to reference it.
+         */
+        public BufferedImage pack (boolean raw) {
+            TileSetTrimmer.Packer packer = new TileSetTrimmer.RowPacker(_size, true);
+            List<Slot> packed = Lists.newArrayList();
+            for (Slot slot : slots.values()) {
+                if (slot.bounds.width > 0 && slot.bounds.height > 0) {
+                    packer.addTile(packed.size(), slot.bounds.width, slot.bounds.height);
+                    packed.add(slot);
+                } else {
+                    slot.position = new Rectangle();
+                }
+            }
+            Dimension dims = packed.isEmpty() ? new Dimension(1, 1) : packer.pack();
+
+            // create the atlas image, clear it and copy in our tiles
+            BufferedImage image = ImageUtil.createCompatibleImage(sample, dims.width, dims.height);
+            Graphics2D gfx = image.createGraphics();
+            gfx.setComposite(AlphaComposite.Clear);
+            gfx.fillRect(0, 0, dims.width, dims.height);
+            gfx.dispose();
+            WritableRaster drast = image.getRaster();
+            for (int ii = 0; ii < packed.size(); ii++) {
+                Slot slot = packed.get(ii);
+                slot.position = packer.getPosition(ii);
+                drast.setRect(slot.position.x, slot.position.y, slot.source.getRaster().createChild(
+                    slot.bounds.x, slot.bounds.y, slot.bounds.width, slot.bounds.height,
+                    0, 0, null));
+            }
+
+            // point our tilesets at their tiles in the atlas
+            path += (raw && FastImageIO.canWrite(image)) ? FastImageIO.FILE_SUFFIX : ".png";
+            for (int ii = 0; ii < tsets.size(); ii++) {
+                TrimmedObjectTileSet tset = tsets.get(ii);
+                Slot[] tslots = this.tslots.get(ii);
+                for (int tt = 0; tt < tslots.length; tt++) {
+                    tset.setImageLocation(tt, tslots[tt].position.x, tslots[tt].position.y);
+                }
+                tset.setImagePath(path);
+                tset.setImageProvider(null);
+            }
+
+            // we no longer need our source images
+            sample = null;
+            for (Slot slot : slots.values()) {
+                slot.source = null;
+            }
+            return image;
+        }
+    }
+
+    /** The prefix for our atlas image paths. */
+    protected String _prefix;
+
+    /** The (approximate) maximum width and height of our atlases. */
+    protected int _size;
+
+    /** Our atlases, in the order they were created. */
+    protected List<Atlas> _atlases = Lists.newArrayList();
+
+    /** The total number of tiles in the tilesets added to us. */
+    protected int _tiles;
+}
@@ -19,9 +19,19 @@
 
 package com.threerings.media.tile.bundle.tools;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
-
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -29,26 +39,26 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
 import javax.imageio.ImageIO;
+import javax.xml.stream.XMLStreamException;
 
 import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
-
-import net.sf.json.JSONArray;
-import net.sf.json.JSONObject;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
 
 import org.apache.commons.digester.Digester;
 import org.xml.sax.SAXException;
 
 import com.samskivert.io.PersistenceException;
-import com.samskivert.io.StreamUtil;
 import com.samskivert.util.HashIntMap;
-import com.samskivert.util.IntMap;
 
 import com.threerings.resource.FastImageIO;
 
 import com.threerings.tools.JSONConversion;
 
+import com.threerings.media.image.tools.QuantizingLoader;
 import com.threerings.media.tile.ImageProvider;
 import com.threerings.media.tile.ObjectTileSet;
 import com.threerings.media.tile.SimpleCachingImageProvider;
@@ -57,6 +67,7 @@ import com.threerings.media.tile.TileSetIDBroker;
 import com.threerings.media.tile.TrimmedObjectTileSet;
 import com.threerings.media.tile.bundle.BundleUtil;
 import com.threerings.media.tile.bundle.TileSetBundle;
+import com.threerings.media.tile.tools.xml.StaxTileSetParser;
 import com.threerings.media.tile.tools.xml.TileSetRuleSet;
 import com.threerings.media.tile.util.TileSetTrimmer;
 
@@ -200,6 +211,40 @@ public class TileSetBundler
             return this;
         }
 
+        /**
+         * Sets the number of threads with which tileset images are trimmed and encoded. The
+         * bundle's contents do not depend on the number of threads.
+         */
+        public Writer threads (int threads)
+        {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Sets whether identical tiles in the bundle's trimmed object tilesets are stored only
+         * once, in images shared by those tilesets (see {@link TileAtlasBuilder}). This only
+         * applies if we are trimming images, and the configured packer is not used for such
+         * tilesets.
+         */
+        public Writer shareTiles (boolean share)
+        {
+            this.share = share;
+            return this;
+        }
+
+        /**
+         * Configures a loader via which tileset images are loaded and converted to 8-bit indexed
+         * images, so that they may be stored in our raw format. Images are loaded from files
+         * relative to the image base, rather than via the image provider. The loader's summary
+         * is logged once the bundle is created, so a loader should be used for one bundle.
+         */
+        public Writer quantize (QuantizingLoader quantizer)
+        {
+            this.quantizer = quantizer;
+            return this;
+        }
+
         /**
          * Using the configured options, creates the new target bundle.
          */
@@ -218,6 +263,10 @@ public class TileSetBundler
         };
         String imageBase;
         JSONConversion.Config json;
+        int threads = 1;
+        boolean share;
+        QuantizingLoader quantizer;
+        ImageProvider qimprov;
     }
 
     /**
@@ -283,6 +332,9 @@ public class TileSetBundler
                 // and add a rule to stick the parsed tilesets onto the
                 // end of an array list that we'll put on the stack
                 _digester.addSetNext(ruleset.getPath(), "add", "java.lang.Object");
+                // the streaming parser shares the ruleset, but like the digester does not
+                // validate the tilesets it parses
+                _stax.addRuleSet(map.path, ruleset, false);
 
             } catch (Exception e) {
                 String errmsg = "Unable to create tileset rule set " +
@@ -293,26 +345,33 @@ public class TileSetBundler
     }
 
     /**
-     * Prepares to create a tileset bundle at the location specified by the
-     * <code>target</code> parameter, based on the description
-     * provided via the <code>bundleDesc</code> parameter.
-     *
-     * @param idBroker the tileset id broker that will be used to map
-     * tileset names to tileset ids.
-     * @param bundleDesc a file object pointing to the bundle description
-     * file.
-     * @param target the tileset bundle file or directory that will be created.
-     *
-     * @return a writer object that can be used to configure and create the target
-     * bundle, or null if the target is up to date with respect to all source files
+     * Configures whether bundle descriptions are parsed with a streaming (StAX) parser rather
+     * than the digester. The streaming parser produces the same tilesets, but can be used from
+     * multiple threads (see {@link #parseBundleDescriptions}).
+     */
+    public void setStreaming (boolean streaming)
+    {
+        _streaming = streaming;
+    }
+
+    /**
+     * Parses the tilesets described in the supplied bundle description file.
      *
-     * @exception IOException thrown if an error occurs reading, writing
-     * or processing anything.
+     * @exception IOException thrown if the file cannot be read or parsed.
      */
-    public Writer process (
-        TileSetIDBroker idBroker, final File bundleDesc, BundleWriter target)
+    public List<TileSet> parseBundleDescription (File bundleDesc)
         throws IOException
     {
+        if (_streaming) {
+            try {
+                return _stax.parse(bundleDesc);
+            } catch (XMLStreamException xse) {
+                String errmsg = "Failure parsing bundle description file " +
+                    "[path=" + bundleDesc.getPath() + "]";
+                throw (IOException) new IOException(errmsg).initCause(xse);
+            }
+        }
+
         // stick an array list on the top of the stack into which we will
         // collect parsed tilesets
         ArrayList<TileSet> sets = Lists.newArrayList();
@@ -329,7 +388,65 @@ public class TileSetBundler
         } finally {
             fin.close();
         }
+        return sets;
+    }
 
+    /**
+     * Parses the tilesets described in each of the supplied bundle description files, returning
+     * them in the same order as the files. If we are {@link #setStreaming streaming}, the files
+     * are parsed on the specified number of threads, otherwise they are parsed one at a time.
+     *
+     * @exception IOException thrown if any of the files cannot be read or parsed.
+     */
+    public List<List<TileSet>> parseBundleDescriptions (List<File> bundleDescs, int threads)
+        throws IOException
+    {
+        if (_streaming) {
+            return _stax.parseAll(bundleDescs, threads);
+        }
+        List<List<TileSet>> results = Lists.newArrayListWithCapacity(bundleDescs.size());
+        for (File bundleDesc : bundleDescs) {
+            results.add(parseBundleDescription(bundleDesc));
+        }
+        return results;
+    }
+
+    /**
+     * Prepares to create a tileset bundle at the location specified by the
+     * <code>target</code> parameter, based on the description
+     * provided via the <code>bundleDesc</code> parameter.
+     *
+     * @param idBroker the tileset id broker that will be used to map
+     * tileset names to tileset ids.
+     * @param bundleDesc a file object pointing to the bundle description
+     * file.
+     * @param target the tileset bundle file or directory that will be created.
+     *
+     * @return a writer object that can be used to configure and create the target
+     * bundle, or null if the target is up to date with respect to all source files
+     *
+     * @exception IOException thrown if an error occurs reading, writing
+     * or processing anything.
+     */
+    public Writer process (
+        TileSetIDBroker idBroker, File bundleDesc, BundleWriter target)
+        throws IOException
+    {
+        return process(idBroker, bundleDesc, parseBundleDescription(bundleDesc), target);
+    }
+
+    /**
+     * Prepares to create a tileset bundle from tilesets that have already been parsed from the
+     * supplied bundle description (via {@link #parseBundleDescriptions}, for example).
+     *
+     * @param sets the tilesets parsed from the bundle description; this list will be cleared.
+     *
+     * @see #process(TileSetIDBroker, File, BundleWriter)
+     */
+    public Writer process (
+        TileSetIDBroker idBroker, final File bundleDesc, List<TileSet> sets, BundleWriter target)
+        throws IOException
+    {
         // we want to make sure that at least one of the tileset image
         // files or the bundle definition file is newer than the bundle
         // file, otherwise consider the bundle up to date
@@ -411,21 +528,69 @@ public class TileSetBundler
     /**
      * Create the tileset bundle on disk using previously configured options.
      */
-    protected static void createBundle (Writer target)
+    protected static void createBundle (final Writer target)
         throws IOException
     {
+        ExecutorService exec = (target.threads > 1) ?
+            Executors.newFixedThreadPool(target.threads) : null;
+        // share one quantizing image provider among all of our tilesets, so that an image used by
+        // several of them is (usually) loaded only once
+        if (target.quantizer != null) {
+            target.qimprov = createQuantizingProvider(target);
+        }
         try {
-            // write all of the image files to the bundle, converting the
-            // tilesets to trimmed tilesets in the process
+            // write all of the image files to the bundle, converting the tilesets to trimmed
+            // tilesets in the process; images are processed on our worker pool (if we have one),
+            // but are written in tileset order, keeping a bounded number of images in memory
             Iterator<Integer> iditer = target.bundle.enumerateTileSetIds();
+            TileAtlasBuilder atlases = (target.trim && target.share) ?
+                new TileAtlasBuilder(ATLAS_PREFIX, ATLAS_SIZE) : null;
 
             // Store off the updated TileSets in a separate Map so we can wait to change the
             // bundle till we're done iterating.
             HashIntMap<TileSet> toUpdate = new HashIntMap<TileSet>();
-            while (iditer.hasNext()) {
-                processBundleImage(iditer.next().intValue(), target, toUpdate);
+            Deque<Future<BundledImage>> pending = new ArrayDeque<Future<BundledImage>>();
+            int window = (exec == null) ? 0 : target.threads * 4;
+            while (iditer.hasNext() || !pending.isEmpty()) {
+                if (iditer.hasNext() && pending.size() <= window) {
+                    final int tileSetId = iditer.next();
+                    Callable<BundledImage> task = new Callable<BundledImage>() {
+                        public BundledImage call () throws IOException {
+                            return processBundleImage(tileSetId, target);
+                        }
+                    };
+                    pending.add((exec == null) ?
+                                Futures.immediateFuture(task.call()) : exec.submit(task));
+                    continue;
+                }
+                BundledImage image = pending.poll().get();
+                if (image == null) {
+                    continue;
+                }
+                if (image.tset != null) {
+                    toUpdate.put(image.tileSetId, image.tset);
+                }
+                if (atlases != null && image.data == null) {
+                    atlases.addTileSet(image.tset);
+                } else {
+                    target.bwriter.startNewFile(image.path).write(image.data);
+                }
+            }
+            if (atlases != null) {
+                Map<String, byte[]> written = atlases.write(target.bwriter, target.raw, exec);
+                if (target.quantizer != null) {
+                    for (Map.Entry<String, byte[]> entry : written.entrySet()) {
+                        target.quantizer.noteEncoded(entry.getValue(),
+                            entry.getKey().endsWith(FastImageIO.FILE_SUFFIX));
+                    }
+                }
+                log.info("Stored shared tiles in " + target.bwriter, "stats", atlases.getStats());
             }
             target.bundle.putAll(toUpdate);
+            if (target.quantizer != null) {
+                log.info("Quantized images in " + target.bwriter,
+                    "stats", target.quantizer.getSummary());
+            }
 
             writeUpdatedBundle(target);
 
@@ -433,6 +598,9 @@ public class TileSetBundler
             target.bwriter.close();
 
         } catch (Exception e) {
+            if (e instanceof ExecutionException) {
+                e = (e.getCause() instanceof Exception) ? (Exception)e.getCause() : e;
+            }
             // remove the incomplete jar file and rethrow the exception
             target.bwriter.close();
             if (!target.bwriter.delete()) {
@@ -440,11 +608,22 @@ public class TileSetBundler
             }
             String errmsg = "Failed to create bundle " + target + ": " + e;
             throw (IOException) new IOException(errmsg).initCause(e);
+
+        } finally {
+            if (exec != null) {
+                exec.shutdownNow();
+            }
         }
     }
 
-    protected static void processBundleImage (
-        int tileSetId, Writer target, IntMap<TileSet> toUpdate) throws IOException
+    /**
+     * Reads, trims (if appropriate) and encodes the image for the specified tileset. This may be
+     * called on any thread; the tileset is updated, but the bundle is not written.
+     *
+     * @return the image to be written to the bundle, or null if there is nothing to write.
+     */
+    protected static BundledImage processBundleImage (int tileSetId, Writer target)
+        throws IOException
     {
         TileSet set = target.bundle.getTileSet(tileSetId);
         String imagePath = set.getImagePath();
@@ -453,7 +632,7 @@ public class TileSetBundler
         if (imagePath == null) {
             log.warning("Tileset contains no image path " +
                         "[set=" + set + "]. It ain't gonna work.");
-            return;
+            return null;
         }
 
         File ifile = new File(target.imageBase, imagePath);
@@ -461,21 +640,33 @@ public class TileSetBundler
 
         // if this is an object tileset, trim it
         if (target.trim && (set instanceof ObjectTileSet)) {
+            // set the tileset up with an image provider; we
+            // need to do this so that we can trim it!
+            set.setImageProvider((target.quantizer == null) ? target.improv : target.qimprov);
+
+            // if we're sharing tiles, trim it in memory for later storage in an atlas
+            if (target.share) {
+                try {
+                    return new BundledImage(tileSetId, null, null,
+                        TrimmedObjectTileSet.trimObjectTileSet((ObjectTileSet)set,
+                            new TileSetTrimmer.StripPacker()));
+                } catch (Exception e) {
+                    String msg = "Error trimming tileset " + imagePath +
+                                 ", " + set.getName() + ": " + e;
+                    throw (IOException) new IOException(msg).initCause(e);
+                }
+            }
+
             // add .raw if requested
             if (target.raw) {
                 imagePath = adjustImagePath(imagePath);
             }
 
             if (target.bwriter.isPathNewerThan(imagePath, sourceTime)) {
-                return;
+                return null;
             }
 
-            OutputStream dest = target.bwriter.startNewFile(imagePath);
-
-            // set the tileset up with an image provider; we
-            // need to do this so that we can trim it!
-            set.setImageProvider(target.improv);
-
+            ByteArrayOutputStream dest = new ByteArrayOutputStream();
             try {
                 // create a trimmed object tileset, which will
                 // write the trimmed tileset image to the target file
@@ -483,9 +674,12 @@ public class TileSetBundler
                     TrimmedObjectTileSet.trimObjectTileSet((ObjectTileSet)set, dest,
                         target.raw ? FastImageIO.FILE_SUFFIX : "png", target.packer.get());
                 tset.setImagePath(imagePath);
+                if (target.quantizer != null) {
+                    target.quantizer.noteEncoded(dest.toByteArray(), target.raw);
+                }
                 // replace the original set with the trimmed
                 // tileset in the tileset bundle
-                toUpdate.put(tileSetId, tset);
+                return new BundledImage(tileSetId, imagePath, dest.toByteArray(), tset);
 
             } catch (Exception e) {
                 e.printStackTrace(System.err);
@@ -499,21 +693,39 @@ public class TileSetBundler
             // read the image file and convert it to our custom
             // format in the bundle
             try {
-                BufferedImage image = ImageIO.read(ifile);
+                BufferedImage image = (target.quantizer == null) ?
+                    ImageIO.read(ifile) : target.quantizer.load(ifile);
                 if (target.raw && FastImageIO.canWrite(image)) {
                     imagePath = adjustImagePath(imagePath);
                     if (!target.bwriter.isPathNewerThan(imagePath, sourceTime)) {
-                        OutputStream dest = target.bwriter.startNewFile(imagePath);
+                        ByteArrayOutputStream dest = new ByteArrayOutputStream();
                         set.setImagePath(imagePath);
                         FastImageIO.write(image, dest);
+                        if (target.quantizer != null) {
+                            target.quantizer.noteEncoded(dest.toByteArray(), true);
+                        }
+                        return new BundledImage(tileSetId, imagePath, dest.toByteArray(), null);
+                    }
+                } else if (target.quantizer != null && image != null &&
+                           image.getColorModel() instanceof IndexColorModel) {
+                    // store the quantized image rather than the source
+                    if (!target.bwriter.isPathNewerThan(imagePath, sourceTime)) {
+                        ByteArrayOutputStream dest = new ByteArrayOutputStream();
+                        ImageIO.write(image, "png", dest);
+                        target.quantizer.noteEncoded(dest.toByteArray(), false);
+                        return new BundledImage(tileSetId, imagePath, dest.toByteArray(), null);
                     }
                 } else {
                     if (!target.bwriter.isPathNewerThan(imagePath, sourceTime)) {
-                        OutputStream dest = target.bwriter.startNewFile(imagePath);
-                        FileInputStream imgin = new FileInputStream(ifile);
-                        StreamUtil.copy(imgin, dest);
+                        byte[] data = Files.toByteArray(ifile);
+                        if (target.quantizer != null) {
+                            target.quantizer.noteEncoded(data, false);
+                        }
+                        return new BundledImage(tileSetId, imagePath, data, null);
                     }
                 }
+                return null;
+
             } catch (Exception e) {
                 String msg = "Failure bundling image " + ifile +
                     ": " + e;
@@ -522,6 +734,21 @@ public class TileSetBundler
         }
     }
 
+    /**
+     * Creates an image provider that loads (and quantizes) tileset images via the supplied
+     * writer's quantizing loader.
+     */
+    protected static ImageProvider createQuantizingProvider (final Writer target)
+    {
+        return new SimpleCachingImageProvider() {
+            @Override
+            protected BufferedImage loadImage (String path)
+                throws IOException {
+                return target.quantizer.load(new File(target.imageBase, path));
+            }
+        };
+    }
+
     protected static void writeUpdatedBundle (Writer target)
         throws IOException
     {
@@ -534,18 +761,25 @@ public class TileSetBundler
 
         // now write a serialized representation of the tileset bundle
         if (target.json != null) {
-            JSONArray array = new JSONArray();
+            // stream out the json a tileset at a time rather than building it all up in memory
+            OutputStream fout = target.bwriter.startNewFile(meta);
+            StringBuilder buf = new StringBuilder();
+            buf.append('[');
+            boolean first = true;
             for (Iterator<Integer> tileSetId = target.bundle.enumerateTileSetIds();
-                    tileSetId.hasNext(); ) {
-                JSONObject tset = new JSONObject();
+                    tileSetId.hasNext(); first = false) {
                 int id = tileSetId.next();
-                tset.put("id", id);
-                tset.put("set", target.json.convert(target.bundle.get(id)));
-                array.add(tset);
+                if (!first) {
+                    buf.append(',');
+                }
+                buf.append("{\"id\":").append(id);
+                target.json.writeMember("set", target.bundle.get(id), false, buf);
+                buf.append('}');
+                fout.write(buf.toString().getBytes());
+                buf.setLength(0);
             }
-
-            OutputStream fout = target.bwriter.startNewFile(meta);
-            fout.write(array.toString().getBytes());
+            buf.append(']');
+            fout.write(buf.toString().getBytes());
             fout.close();
 
         } else {
@@ -566,6 +800,29 @@ public class TileSetBundler
 
     }
 
+    /** The result of processing a tileset's image. */
+    protected static class BundledImage
+    {
+        /** The id of the tileset. */
+        public final int tileSetId;
+
+        /** The path to the image in the bundle and its encoded data, or null if the image is to
+         * be stored in a shared atlas. */
+        public final String path;
+        public final byte[] data;
+
+        /** The tileset with which to replace the original in the bundle, or null. */
+        public final TrimmedObjectTileSet tset;
+
+        public BundledImage (int tileSetId, String path, byte[] data, TrimmedObjectTileSet tset)
+        {
+            this.tileSetId = tileSetId;
+            this.path = path;
+            this.data = data;
+            this.tset = tset;
+        }
+    }
+
     /** Used to parse our configuration. */
     public static class Mapping
     {
@@ -587,4 +844,16 @@ public class TileSetBundler
 
     /** The digester we use to parse bundle descriptions. */
     protected Digester _digester;
+
+    /** The streaming parser we use to parse bundle descriptions, if so configured. */
+    protected StaxTileSetParser _stax = new StaxTileSetParser();
+
+    /** Whether we parse bundle descriptions with our streaming parser. */
+    protected boolean _streaming;
+
+    /** The prefix of the paths of the shared images created when sharing tiles. */
+    protected static final String ATLAS_PREFIX = "shared_tiles_";
+
+    /** The (approximate) maximum width and height of our shared tile images. */
+    protected static final int ATLAS_SIZE = 2048;
 }
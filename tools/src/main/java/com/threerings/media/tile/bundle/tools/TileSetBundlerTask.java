@@ -20,6 +20,7 @@
 package com.threerings.media.tile.bundle.tools;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import java.io.File;
 import java.io.IOException;
@@ -31,7 +32,13 @@ import org.apache.tools.ant.types.FileSet;
 
 import com.google.common.collect.Lists;
 
-import com.threerings.media.tile.tools.MapFileTileSetIDBroker;
+import com.samskivert.io.PersistenceException;
+
+import com.threerings.media.image.ColorQuantizer;
+import com.threerings.media.image.tools.QuantizingLoader;
+import com.threerings.media.tile.TileSet;
+import com.threerings.media.tile.TileSetIDBroker;
+import com.threerings.media.tile.tools.LogTileSetIDBroker;
 
 /**
  * Ant task for creating tilset bundles.
@@ -49,7 +56,9 @@ public class TileSetBundlerTask extends Task
 
     /**
      * Sets the path to the tileset id mapping file we'll use when
-     * creating the bundle.
+     * creating the bundle. This may be a text map file or an id log (see
+     * {@link LogTileSetIDBroker}), the latter of which may be shared by
+     * concurrent builds.
      */
     public void setMapfile (File mapfile)
     {
@@ -82,6 +91,50 @@ public class TileSetBundlerTask extends Task
         _uncompressed = uncompressed;
     }
 
+    /**
+     * Sets the number of threads with which to trim and encode tileset images.
+     */
+    public void setThreads (int threads)
+    {
+        _threads = threads;
+    }
+
+    /**
+     * Note whether identical tiles in a bundle's object tilesets should be stored only once, in
+     *  images shared by those tilesets.
+     */
+    public void setShareTiles (boolean share)
+    {
+        _shareTiles = share;
+    }
+
+    /**
+     * Note whether true-color tileset images should be quantized to 8-bit indexed images, which
+     *  can be stored in our raw format.
+     */
+    public void setQuantize (boolean quantize)
+    {
+        _quantize = quantize;
+    }
+
+    /**
+     * Sets the path to the serialized color pository whose colorization classes are to be
+     * preserved when quantizing images.
+     */
+    public void setColordefs (File colordefs)
+    {
+        _colordefs = colordefs;
+    }
+
+    /**
+     * Note whether bundle descriptions should be parsed with a streaming parser, which allows the
+     *  descriptions in each fileset to be parsed in parallel (on the configured threads).
+     */
+    public void setStreaming (boolean streaming)
+    {
+        _streaming = streaming;
+    }
+
     /**
      * Performs the actual work of the task.
      */
@@ -95,13 +148,18 @@ public class TileSetBundlerTask extends Task
                   "file via the 'mapfile' attribute.");
 
         File cfile = null;
+        TileSetIDBroker broker = null;
         try {
             // create a tileset bundler
             TileSetBundler bundler = new TileSetBundler(_config);
+            bundler.setStreaming(_streaming);
 
             // create our tileset id broker
-            MapFileTileSetIDBroker broker =
-                new MapFileTileSetIDBroker(_mapfile);
+            broker = LogTileSetIDBroker.createBroker(_mapfile);
+
+            // create our quantizer if we need one
+            ColorQuantizer quantizer = _quantize ?
+                QuantizingLoader.createQuantizer(_colordefs) : null;
 
             // deal with the filesets
             for (int ii = 0; ii < _filesets.size(); ii++) {
@@ -110,11 +168,12 @@ public class TileSetBundlerTask extends Task
                 File fromDir = fs.getDir(getProject());
                 String[] srcFiles = ds.getIncludedFiles();
 
+                // figure out which of the files are bundle definitions
+                List<File> cfiles = Lists.newArrayList();
                 for (String srcFile : srcFiles) {
                     cfile = new File(fromDir, srcFile);
 
-                    // figure out the bundle file based on the definition
-                    // file
+                    // we infer the bundle file from the definition file
                     String cpath = cfile.getPath();
                     if (!cpath.endsWith(".xml")) {
                         System.err.println("Can't infer bundle name from " +
@@ -123,12 +182,29 @@ public class TileSetBundlerTask extends Task
                                            "Config file should end with .xml.");
                         continue;
                     }
+                    cfiles.add(cfile);
+                }
+
+                // if we're streaming, parse the definitions in parallel up front
+                cfile = null;
+                List<List<TileSet>> parsed = _streaming ?
+                    bundler.parseBundleDescriptions(cfiles, _threads) : null;
+
+                for (int jj = 0; jj < cfiles.size(); jj++) {
+                    cfile = cfiles.get(jj);
+                    String cpath = cfile.getPath();
                     BundleWriter bwriter = createWriter(fromDir, cpath);
 
                     // create the bundle
-                    TileSetBundler.Writer writer = bundler.process(broker, cfile, bwriter);
+                    TileSetBundler.Writer writer = (parsed == null) ?
+                        bundler.process(broker, cfile, bwriter) :
+                        bundler.process(broker, cfile, parsed.get(jj), bwriter);
                     if (writer != null) {
                         writer.useRawImages(!_keepRawPngs); // something is lost in translation here
+                        writer.threads(_threads).shareTiles(_shareTiles);
+                        if (quantizer != null) {
+                            writer.quantize(new QuantizingLoader(quantizer));
+                        }
                         writer.create();
                         System.out.println(
                             "Created bundle from '" + cpath + "'...");
@@ -146,6 +222,23 @@ public class TileSetBundlerTask extends Task
             String errmsg = "Failure creating tileset bundle [source=" + cfile +
                 "]: " + e.getMessage();
             throw new BuildException(errmsg, e);
+
+        } finally {
+            closeBroker(broker);
+        }
+    }
+
+    /**
+     * Closes our tileset id broker (if it needs closing), noting any failure to do so rather than
+     * masking the outcome of the build.
+     */
+    protected void closeBroker (TileSetIDBroker broker)
+    {
+        try {
+            LogTileSetIDBroker.closeBroker(broker);
+        } catch (PersistenceException pe) {
+            System.err.println("Failure closing tileset id map [path=" + _mapfile +
+                               ", error=" + pe.getCause() + "].");
         }
     }
 
@@ -178,4 +271,19 @@ public class TileSetBundlerTask extends Task
 
     /** Whether we should keep the bundle jars uncompressed rather than zipped. */
     protected boolean _uncompressed;
+
+    /** The number of threads with which to process tileset images. */
+    protected int _threads = 1;
+
+    /** Whether we should store identical object tiles only once per bundle. */
+    protected boolean _shareTiles;
+
+    /** Whether we should quantize true-color images. */
+    protected boolean _quantize;
+
+    /** The color pository whose classes we preserve when quantizing, or null. */
+    protected File _colordefs;
+
+    /** Whether we should parse bundle descriptions with a streaming parser. */
+    protected boolean _streaming;
 }
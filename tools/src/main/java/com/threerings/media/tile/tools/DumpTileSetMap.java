@@ -25,8 +25,11 @@ import java.io.File;
 
 import com.samskivert.io.PersistenceException;
 
+import com.threerings.tools.IDLogFile;
+
 /**
- * Prints out the tileset mappings in a {@link MapFileTileSetIDBroker}.
+ * Prints out the tileset mappings in a {@link MapFileTileSetIDBroker} or {@link
+ * LogTileSetIDBroker}.
  */
 public class DumpTileSetMap
 {
@@ -38,11 +41,23 @@ public class DumpTileSetMap
         }
 
         try {
-            MapFileTileSetIDBroker broker = new MapFileTileSetIDBroker(new File(args[0]));
-            Iterator<String> iter = broker.enumerateMappings();
-            while (iter.hasNext()) {
-                String tsname = iter.next().toString();
-                System.out.println(tsname + " => " + broker.getTileSetID(tsname));
+            File mapfile = new File(args[0]);
+            if (IDLogFile.isLogFile(mapfile)) {
+                LogTileSetIDBroker broker = new LogTileSetIDBroker(mapfile);
+                Iterator<String> iter = broker.enumerateMappings();
+                while (iter.hasNext()) {
+                    String tsname = iter.next();
+                    System.out.println(tsname + " => " + broker.getTileSetID(tsname));
+                }
+                broker.close();
+
+            } else {
+                MapFileTileSetIDBroker broker = new MapFileTileSetIDBroker(mapfile);
+                Iterator<String> iter = broker.enumerateMappings();
+                while (iter.hasNext()) {
+                    String tsname = iter.next().toString();
+                    System.out.println(tsname + " => " + broker.getTileSetID(tsname));
+                }
             }
 
         } catch (PersistenceException pe) {
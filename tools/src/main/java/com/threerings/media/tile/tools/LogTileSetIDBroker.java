@@ -0,0 +1,213 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.tile.tools;
+
+import java.util.Iterator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import com.samskivert.io.PersistenceException;
+
+import com.threerings.tools.IDLogFile;
+
+import com.threerings.media.tile.TileSetIDBroker;
+
+/**
+ * Stores a set of tileset name to id mappings in an {@link IDLogFile}. Unlike {@link
+ * MapFileTileSetIDBroker}, assigning new ids only appends to the file (rather than rewriting it
+ * in its entirety on commit), and the file may be shared by any number of concurrent builds.
+ */
+public class LogTileSetIDBroker
+    implements TileSetIDBroker
+{
+    /**
+     * Returns a broker for the specified map file: a log broker if the file is an id log, a
+     * {@link MapFileTileSetIDBroker} otherwise.
+     */
+    public static TileSetIDBroker createBroker (File mapfile)
+        throws PersistenceException
+    {
+        return IDLogFile.isLogFile(mapfile) ?
+            new LogTileSetIDBroker(mapfile) : new MapFileTileSetIDBroker(mapfile);
+    }
+
+    /**
+     * Closes the supplied broker if it is a log broker, which holds its log open until closed.
+     * Other brokers need not be closed.
+     */
+    public static void closeBroker (TileSetIDBroker broker)
+        throws PersistenceException
+    {
+        if (broker instanceof LogTileSetIDBroker) {
+            ((LogTileSetIDBroker)broker).close();
+        }
+    }
+
+    /**
+     * Creates a broker that will use the specified file as its persistent store. The persistent
+     * store will be created if it does not yet exist.
+     */
+    public LogTileSetIDBroker (File logfile)
+        throws PersistenceException
+    {
+        try {
+            _log = new IDLogFile(logfile);
+        } catch (IOException ioe) {
+            throw new PersistenceException("Failure opening id log.", ioe);
+        }
+    }
+
+    // documentation inherited from interface
+    public int getTileSetID (String tileSetName)
+        throws PersistenceException
+    {
+        try {
+            return _log.getOrAssign(tileSetName);
+        } catch (IOException ioe) {
+            throw new PersistenceException("Failure assigning tileset id.", ioe);
+        }
+    }
+
+    // documentation inherited from interface
+    public boolean tileSetMapped (String tileSetName)
+        throws PersistenceException
+    {
+        try {
+            return _log.get(tileSetName) != null;
+        } catch (IOException ioe) {
+            throw new PersistenceException("Failure reading id log.", ioe);
+        }
+    }
+
+    // documentation inherited from interface
+    public void commit ()
+        throws PersistenceException
+    {
+        try {
+            _log.sync();
+        } catch (IOException ioe) {
+            throw new PersistenceException("Failure syncing id log.", ioe);
+        }
+    }
+
+    /**
+     * Copies the ID from the old tileset to the new tileset, as with {@link
+     * MapFileTileSetIDBroker#renameTileSet}.
+     */
+    public boolean renameTileSet (String oldName, String newName)
+        throws PersistenceException
+    {
+        try {
+            Integer tsid = _log.get(oldName);
+            if (tsid == null) {
+                return false;
+            }
+            _log.put(newName, tsid);
+            return true;
+        } catch (IOException ioe) {
+            throw new PersistenceException("Failure updating id log.", ioe);
+        }
+    }
+
+    /**
+     * Enumerates the names of our mapped tilesets.
+     */
+    public Iterator<String> enumerateMappings ()
+        throws PersistenceException
+    {
+        try {
+            return _log.getMappings().keySet().iterator();
+        } catch (IOException ioe) {
+            throw new PersistenceException("Failure reading id log.", ioe);
+        }
+    }
+
+    /**
+     * Adds the mappings in the specified text map file (as written by {@link
+     * MapFileTileSetIDBroker}) to our log.
+     */
+    public void importMapFile (File mapfile)
+        throws PersistenceException
+    {
+        try {
+            BufferedReader bin = new BufferedReader(new FileReader(mapfile));
+            try {
+                _log.importText(bin);
+            } finally {
+                bin.close();
+            }
+        } catch (IOException ioe) {
+            throw new PersistenceException("Failure importing map file.", ioe);
+        }
+    }
+
+    /**
+     * Writes our mappings to the specified file in the text map file format read by {@link
+     * MapFileTileSetIDBroker}.
+     */
+    public void exportMapFile (File mapfile)
+        throws PersistenceException
+    {
+        try {
+            BufferedWriter bout = new BufferedWriter(new FileWriter(mapfile));
+            try {
+                _log.exportText(bout);
+            } finally {
+                bout.close();
+            }
+        } catch (IOException ioe) {
+            throw new PersistenceException("Failure exporting map file.", ioe);
+        }
+    }
+
+    /**
+     * Rewrites our log so that it contains only the current mappings.
+     */
+    public void compact ()
+        throws PersistenceException
+    {
+        try {
+            _log.compact();
+        } catch (IOException ioe) {
+            throw new PersistenceException("Failure compacting id log.", ioe);
+        }
+    }
+
+    /**
+     * Commits and closes our log.
+     */
+    public void close ()
+        throws PersistenceException
+    {
+        try {
+            _log.close();
+        } catch (IOException ioe) {
+            throw new PersistenceException("Failure closing id log.", ioe);
+        }
+    }
+
+    /** Our persistent mappings. */
+    protected IDLogFile _log;
+}
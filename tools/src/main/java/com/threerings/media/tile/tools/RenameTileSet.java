@@ -23,13 +23,15 @@ import java.io.File;
 
 import com.samskivert.io.PersistenceException;
 
+import com.threerings.tools.IDLogFile;
+
 /**
  * Used to map a tileset name to the same ID as a pre-existing tileset.
  * This only works for tileset mappings stored using a {@link
- * MapFileTileSetIDBroker}. If a tileset is renamed, this utility must be
- * used to map the new name to the old ID, otherwise scenes created with
- * the renamed tileset will cease to work as the tileset will live under a
- * new ID.
+ * MapFileTileSetIDBroker} or {@link LogTileSetIDBroker}. If a tileset is
+ * renamed, this utility must be used to map the new name to the old ID,
+ * otherwise scenes created with the renamed tileset will cease to work as
+ * the tileset will live under a new ID.
  */
 public class RenameTileSet
 {
@@ -45,8 +47,22 @@ public class RenameTileSet
         String mapPath, String oldName, String newName)
         throws PersistenceException
     {
+        File mapfile = new File(mapPath);
+        if (IDLogFile.isLogFile(mapfile)) {
+            LogTileSetIDBroker broker = new LogTileSetIDBroker(mapfile);
+            try {
+                if (!broker.renameTileSet(oldName, newName)) {
+                    throw new PersistenceException(
+                        "No such old tileset '" + oldName + "'.");
+                }
+            } finally {
+                broker.close();
+            }
+            return;
+        }
+
         MapFileTileSetIDBroker broker =
-            new MapFileTileSetIDBroker(new File(mapPath));
+            new MapFileTileSetIDBroker(mapfile);
         if (!broker.renameTileSet(oldName, newName)) {
             throw new PersistenceException(
                 "No such old tileset '" + oldName + "'.");
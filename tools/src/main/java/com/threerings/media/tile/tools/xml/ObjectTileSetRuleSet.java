@@ -22,7 +22,6 @@ package com.threerings.media.tile.tools.xml;
 import org.apache.commons.digester.Digester;
 
 import com.samskivert.util.StringUtil;
-import com.samskivert.xml.CallMethodSpecialRule;
 
 import com.threerings.util.DirectionUtil;
 
@@ -64,129 +63,67 @@ public class ObjectTileSetRuleSet extends SwissArmyTileSetRuleSet
     {
         super.addRuleInstances(digester);
 
-        digester.addRule(
-            _path + "/objectWidths",
-            new CallMethodSpecialRule() {
-                @Override
-                public void parseAndSet (String bodyText, Object target)
-                {
-                    int[] widths = StringUtil.parseIntArray(bodyText);
-                    ((ObjectTileSet)target).setObjectWidths(widths);
-                }
-            });
-
-        digester.addRule(
-            _path + "/objectHeights",
-            new CallMethodSpecialRule() {
-                @Override
-                public void parseAndSet (String bodyText, Object target)
-                {
-                    int[] heights = StringUtil.parseIntArray(bodyText);
-                    ((ObjectTileSet)target).setObjectHeights(heights);
-                }
-            });
-
-        digester.addRule(
-            _path + "/xOrigins", new CallMethodSpecialRule() {
-                @Override
-                public void parseAndSet (String bodyText, Object target)
-                {
-                    int[] xorigins = StringUtil.parseIntArray(bodyText);
-                    ((ObjectTileSet)target).setXOrigins(xorigins);
-                }
-            });
-
-        digester.addRule(
-            _path + "/yOrigins", new CallMethodSpecialRule() {
-                @Override
-                public void parseAndSet (String bodyText, Object target)
-                {
-                    int[] yorigins = StringUtil.parseIntArray(bodyText);
-                    ((ObjectTileSet)target).setYOrigins(yorigins);
-                }
-            });
-
-        digester.addRule(
-            _path + "/priorities",
-            new CallMethodSpecialRule() {
-                @Override
-                public void parseAndSet (String bodyText, Object target)
-                {
-                    byte[] prios = StringUtil.parseByteArray(bodyText);
-                    ((ObjectTileSet)target).setPriorities(prios);
-                }
-            });
-
-        digester.addRule(
-            _path + "/zations", new CallMethodSpecialRule() {
-                @Override
-                public void parseAndSet (String bodyText, Object target)
-                {
-                    String[] zations = StringUtil.parseStringArray(bodyText);
-                    ((ObjectTileSet)target).setColorizations(zations);
-                }
-            });
-
-        digester.addRule(
-            _path + "/xspots", new CallMethodSpecialRule() {
-                @Override
-                public void parseAndSet (String bodyText, Object target)
-                {
-                    short[] xspots = StringUtil.parseShortArray(bodyText);
-                    ((ObjectTileSet)target).setXSpots(xspots);
-                }
-            });
-
-        digester.addRule(
-            _path + "/yspots", new CallMethodSpecialRule() {
-                @Override
-                public void parseAndSet (String bodyText, Object target)
-                {
-                    short[] yspots = StringUtil.parseShortArray(bodyText);
-                    ((ObjectTileSet)target).setYSpots(yspots);
-                }
-            });
-
-        digester.addRule(
-            _path + "/sorients", new CallMethodSpecialRule() {
-                @Override
-                public void parseAndSet (String bodyText, Object target)
-                {
-                    ObjectTileSet set = (ObjectTileSet)target;
-                    String[] ostrs = StringUtil.parseStringArray(bodyText);
-                    byte[] sorients = new byte[ostrs.length];
-                    for (int ii = 0; ii < sorients.length; ii++) {
-                        sorients[ii] = (byte)
-                            DirectionUtil.fromShortString(ostrs[ii]);
-                        if ((sorients[ii] == DirectionUtil.NONE) &&
-                            // don't complain if they didn't even try to
-                            // specify a valid direction
-                            (! ostrs[ii].equals("-1"))) {
-                            System.err.println("Invalid spot orientation " +
-                                               "[set=" + set.getName() +
-                                               ", idx=" + ii +
-                                               ", orient=" + ostrs[ii] + "].");
-                        }
-                    }
-                    set.setSpotOrients(sorients);
-                }
-            });
-
-        digester.addRule(
-            _path + "/constraints",
-                new CallMethodSpecialRule() {
-                @Override
-                public void parseAndSet (String bodyText, Object target)
-                {
-                    String[] constrs = StringUtil.parseStringArray(
-                        bodyText);
-                    String[][] constraints = new String[constrs.length][];
-                    for (int ii = 0; ii < constrs.length; ii++) {
-                        constraints[ii] = constrs[ii].split("\\s*\\|\\s*");
-                    }
-                    ((ObjectTileSet)target).setConstraints(constraints);
+        addElementRules(digester, "objectWidths", "objectHeights", "xOrigins", "yOrigins",
+                        "priorities", "zations", "xspots", "yspots", "sorients", "constraints");
+    }
+
+    @Override
+    public boolean setElement (TileSet set, String element, String body)
+    {
+        ObjectTileSet oset = (ObjectTileSet)set;
+        if (element.equals("objectWidths")) {
+            oset.setObjectWidths(StringUtil.parseIntArray(body));
+
+        } else if (element.equals("objectHeights")) {
+            oset.setObjectHeights(StringUtil.parseIntArray(body));
+
+        } else if (element.equals("xOrigins")) {
+            oset.setXOrigins(StringUtil.parseIntArray(body));
+
+        } else if (element.equals("yOrigins")) {
+            oset.setYOrigins(StringUtil.parseIntArray(body));
+
+        } else if (element.equals("priorities")) {
+            oset.setPriorities(StringUtil.parseByteArray(body));
+
+        } else if (element.equals("zations")) {
+            oset.setColorizations(StringUtil.parseStringArray(body));
+
+        } else if (element.equals("xspots")) {
+            oset.setXSpots(StringUtil.parseShortArray(body));
+
+        } else if (element.equals("yspots")) {
+            oset.setYSpots(StringUtil.parseShortArray(body));
+
+        } else if (element.equals("sorients")) {
+            String[] ostrs = StringUtil.parseStringArray(body);
+            byte[] sorients = new byte[ostrs.length];
+            for (int ii = 0; ii < sorients.length; ii++) {
+                sorients[ii] = (byte)DirectionUtil.fromShortString(ostrs[ii]);
+                if ((sorients[ii] == DirectionUtil.NONE) &&
+                    // don't complain if they didn't even try to
+                    // specify a valid direction
+                    (! ostrs[ii].equals("-1"))) {
+                    System.err.println("Invalid spot orientation " +
+                                       "[set=" + oset.getName() +
+                                       ", idx=" + ii +
+                                       ", orient=" + ostrs[ii] + "].");
                 }
-            });
+            }
+            oset.setSpotOrients(sorients);
+
+        } else if (element.equals("constraints")) {
+            String[] constrs = StringUtil.parseStringArray(body);
+            String[][] constraints = new String[constrs.length][];
+            for (int ii = 0; ii < constrs.length; ii++) {
+                constraints[ii] = constrs[ii].split("\\s*\\|\\s*");
+            }
+            oset.setConstraints(constraints);
+
+        } else {
+            return super.setElement(set, element, body);
+        }
+        return true;
     }
 
     @Override
@@ -0,0 +1,219 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.tile.tools.xml;
+
+import java.util.List;
+import java.util.Map;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.samskivert.util.ConfigUtil;
+
+import com.threerings.media.tile.TileSet;
+import com.threerings.tools.xml.StaxParser;
+
+import static com.threerings.media.Log.log;
+
+/**
+ * Parses XML tileset descriptions into the same tilesets as {@link XMLTileSetParser}, configured
+ * with the same {@link TileSetRuleSet}s, but by streaming through the XML rather than by way of
+ * the Digester. Rule sets configure their tilesets via {@link TileSetRuleSet#setAttribute} and
+ * {@link TileSetRuleSet#setElement}, so a rule set that adds digester rules of its own must also
+ * handle those elements there to be used with this parser.
+ *
+ * <p> Unlike the {@link XMLTileSetParser}, this parser may be used from multiple threads once its
+ * rule sets have been added.
+ */
+public class StaxTileSetParser extends StaxParser<List<TileSet>>
+{
+    /**
+     * Adds a ruleset to be used when parsing tilesets, as with {@link
+     * XMLTileSetParser#addRuleSet}. Parsed tilesets will be validated by the ruleset.
+     */
+    public void addRuleSet (String prefix, TileSetRuleSet ruleset)
+    {
+        addRuleSet(prefix, ruleset, true);
+    }
+
+    /**
+     * Adds a ruleset to be used when parsing tilesets.
+     *
+     * @param validate if true, tilesets that the ruleset does not consider valid will be
+     * omitted from the results.
+     */
+    public void addRuleSet (String prefix, TileSetRuleSet ruleset, boolean validate)
+    {
+        ruleset.setPrefix(prefix);
+        _rulesets.put(ruleset.getPath(), new Mapping(ruleset, validate));
+    }
+
+    /**
+     * Loads all of the tilesets specified in the supplied XML tileset description file (located
+     * relative to the classpath) and places them into the supplied map indexed by tileset name.
+     */
+    public void loadTileSets (String path, Map<String, TileSet> tilesets)
+        throws IOException
+    {
+        InputStream is = ConfigUtil.getStream(path);
+        if (is == null) {
+            String errmsg = "Can't load tileset description file from " +
+                "classpath [path=" + path + "].";
+            throw new FileNotFoundException(errmsg);
+        }
+        try {
+            loadTileSets(is, tilesets);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Loads all of the tilesets specified in the supplied XML tileset description file and places
+     * them into the supplied map indexed by tileset name.
+     */
+    public void loadTileSets (File file, Map<String, TileSet> tilesets)
+        throws IOException
+    {
+        InputStream is = new BufferedInputStream(new FileInputStream(file));
+        try {
+            loadTileSets(is, tilesets);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Loads all of the tilesets specified in the XML tileset description on the supplied stream
+     * and places them into the supplied map indexed by tileset name. As with {@link
+     * XMLTileSetParser}, a malformed description is logged and any tilesets parsed before the
+     * problem are retained.
+     */
+    public void loadTileSets (InputStream source, Map<String, TileSet> tilesets)
+        throws IOException
+    {
+        TileSetHandler handler = new TileSetHandler();
+        try {
+            parse(source, handler);
+        } catch (XMLStreamException xse) {
+            log.warning("Exception parsing tile set descriptions.", xse);
+        }
+
+        for (TileSet set : handler.getResult()) {
+            if (set.getName() == null) {
+                log.warning("Tileset did not receive name during " +
+                            "parsing process [set=" + set + "].");
+            } else {
+                tilesets.put(set.getName(), set);
+            }
+        }
+    }
+
+    @Override
+    protected Handler<List<TileSet>> createHandler ()
+    {
+        return new TileSetHandler();
+    }
+
+    /** Collects the tilesets in a single document. */
+    protected class TileSetHandler extends Handler<List<TileSet>>
+    {
+        @Override
+        public void start (String path, XMLStreamReader reader)
+            throws XMLStreamException
+        {
+            if (_set != null) {
+                return;
+            }
+            Mapping mapping = _rulesets.get(path);
+            if (mapping == null) {
+                return;
+            }
+
+            try {
+                _set = mapping.ruleset.getTileSetClass().getDeclaredConstructor().newInstance();
+                for (int ii = 0, nn = reader.getAttributeCount(); ii < nn; ii++) {
+                    mapping.ruleset.setAttribute(
+                        _set, reader.getAttributeLocalName(ii), reader.getAttributeValue(ii));
+                }
+            } catch (Exception e) {
+                throw failure(reader, path, e);
+            }
+            _mapping = mapping;
+            _path = path;
+        }
+
+        @Override
+        public void end (String path, String text)
+        {
+            if (_set == null) {
+                return;
+            }
+            if (path.equals(_path)) {
+                if (!_mapping.validate || _mapping.ruleset.isValid(_set)) {
+                    _sets.add(_set);
+                }
+                _set = null;
+
+            } else if (path.startsWith(_path) && path.charAt(_path.length()) == '/' &&
+                       path.indexOf('/', _path.length() + 1) == -1) {
+                // this is a direct child of our tileset element
+                _mapping.ruleset.setElement(_set, path.substring(_path.length() + 1), text);
+            }
+        }
+
+        @Override
+        public List<TileSet> getResult ()
+        {
+            return _sets;
+        }
+
+        protected List<TileSet> _sets = Lists.newArrayList();
+        protected TileSet _set;
+        protected Mapping _mapping;
+        protected String _path;
+    }
+
+    /** A rule set and whether to validate its tilesets. */
+    protected static class Mapping
+    {
+        public final TileSetRuleSet ruleset;
+        public final boolean validate;
+
+        public Mapping (TileSetRuleSet ruleset, boolean validate)
+        {
+            this.ruleset = ruleset;
+            this.validate = validate;
+        }
+    }
+
+    /** Our rule sets, keyed on the path of the tileset elements they parse. */
+    protected Map<String, Mapping> _rulesets = Maps.newHashMap();
+}
@@ -25,7 +25,6 @@ import java.awt.Point;
 import org.apache.commons.digester.Digester;
 
 import com.samskivert.util.StringUtil;
-import com.samskivert.xml.CallMethodSpecialRule;
 
 import com.threerings.media.tile.SwissArmyTileSet;
 import com.threerings.media.tile.TileSet;
@@ -59,68 +58,42 @@ public class SwissArmyTileSetRuleSet extends TileSetRuleSet
     {
         super.addRuleInstances(digester);
 
-        digester.addRule(
-            _path + "/widths", new CallMethodSpecialRule() {
-                @Override
-                public void parseAndSet (String bodyText, Object target)
-                {
-                    int[] widths = StringUtil.parseIntArray(bodyText);
-                    ((SwissArmyTileSet)target).setWidths(widths);
-                }
-            });
-
-        digester.addRule(
-            _path + "/heights", new CallMethodSpecialRule() {
-                @Override
-                public void parseAndSet (String bodyText, Object target)
-                {
-                    int[] heights = StringUtil.parseIntArray(bodyText);
-                    ((SwissArmyTileSet)target).setHeights(heights);
-                }
-            });
-
-        digester.addRule(
-            _path + "/tileCounts",
-            new CallMethodSpecialRule() {
-                @Override
-                public void parseAndSet (String bodyText, Object target)
-                {
-                    int[] tileCounts = StringUtil.parseIntArray(bodyText);
-                    ((SwissArmyTileSet)target).setTileCounts(tileCounts);
-                }
-            });
-
-        digester.addRule(
-            _path + "/offsetPos", new CallMethodSpecialRule() {
-                @Override
-                public void parseAndSet (String bodyText, Object target)
-                {
-                    int[] values = StringUtil.parseIntArray(bodyText);
-                    SwissArmyTileSet starget = (SwissArmyTileSet)target;
-                    if (values.length == 2) {
-                        starget.setOffsetPos(new Point(values[0], values[1]));
-                    } else {
-                        log.warning("Invalid 'offsetPos' definition '" +
-                                    bodyText + "'.");
-                    }
-                }
-            });
-
-        digester.addRule(
-            _path + "/gapSize", new CallMethodSpecialRule() {
-                @Override
-                public void parseAndSet (String bodyText, Object target)
-                {
-                    int[] values = StringUtil.parseIntArray(bodyText);
-                    SwissArmyTileSet starget = (SwissArmyTileSet)target;
-                    if (values.length == 2) {
-                        starget.setGapSize(new Dimension(values[0], values[1]));
-                    } else {
-                        log.warning("Invalid 'gapSize' definition '" +
-                                    bodyText + "'.");
-                    }
-                }
-            });
+        addElementRules(digester, "widths", "heights", "tileCounts", "offsetPos", "gapSize");
+    }
+
+    @Override
+    public boolean setElement (TileSet set, String element, String body)
+    {
+        SwissArmyTileSet starget = (SwissArmyTileSet)set;
+        if (element.equals("widths")) {
+            starget.setWidths(StringUtil.parseIntArray(body));
+
+        } else if (element.equals("heights")) {
+            starget.setHeights(StringUtil.parseIntArray(body));
+
+        } else if (element.equals("tileCounts")) {
+            starget.setTileCounts(StringUtil.parseIntArray(body));
+
+        } else if (element.equals("offsetPos")) {
+            int[] values = StringUtil.parseIntArray(body);
+            if (values.length == 2) {
+                starget.setOffsetPos(new Point(values[0], values[1]));
+            } else {
+                log.warning("Invalid 'offsetPos' definition '" + body + "'.");
+            }
+
+        } else if (element.equals("gapSize")) {
+            int[] values = StringUtil.parseIntArray(body);
+            if (values.length == 2) {
+                starget.setGapSize(new Dimension(values[0], values[1]));
+            } else {
+                log.warning("Invalid 'gapSize' definition '" + body + "'.");
+            }
+
+        } else {
+            return super.setElement(set, element, body);
+        }
+        return true;
     }
 
     @Override
@@ -19,10 +19,12 @@
 
 package com.threerings.media.tile.tools.xml;
 
+import org.apache.commons.beanutils.BeanUtils;
 import org.apache.commons.digester.Digester;
 import org.apache.commons.digester.RuleSetBase;
 
 import com.samskivert.util.StringUtil;
+import com.samskivert.xml.CallMethodSpecialRule;
 import com.samskivert.xml.ValidatedSetNextRule;
 import com.samskivert.xml.ValidatedSetNextRule.Validator;
 
@@ -95,6 +97,36 @@ public abstract class TileSetRuleSet
         digester.addCallMethod(_path + "/imagePath", "setImagePath", 0);
     }
 
+    /**
+     * Configures the supplied tileset from an attribute of its <code>&lt;tileset&gt;</code>
+     * element by setting the bean property of the same name, converting the value as needed,
+     * exactly as the digester's set properties rule does (attributes that match no property are
+     * likewise ignored). Used by the {@link StaxTileSetParser}.
+     */
+    public void setAttribute (TileSet set, String name, String value)
+        throws Exception
+    {
+        BeanUtils.setProperty(set, name, value);
+    }
+
+    /**
+     * Configures the supplied tileset from the (trimmed) body of one of the child elements of its
+     * <code>&lt;tileset&gt;</code> element. Derived classes should handle their own elements and
+     * pass any others up to their parent. This is used by the rules registered via {@link
+     * #addElementRules} and by the {@link StaxTileSetParser}, so that both parse tilesets
+     * identically.
+     *
+     * @return true if the element was recognized, false if it was ignored.
+     */
+    public boolean setElement (TileSet set, String element, String body)
+    {
+        if (element.equals("imagePath")) {
+            set.setImagePath(body);
+            return true;
+        }
+        return false;
+    }
+
     /**
      * The ruleset can be provided to a {@link ValidatedSetNextRule} to ensure that the tileset
      * was fully parsed before doing something with it.
@@ -121,6 +153,23 @@ public abstract class TileSetRuleSet
         return valid;
     }
 
+    /**
+     * Adds rules that configure our tilesets from the specified child elements of the
+     * <code>&lt;tileset&gt;</code> element via {@link #setElement}.
+     */
+    protected void addElementRules (Digester digester, String... elements)
+    {
+        for (final String element : elements) {
+            digester.addRule(_path + "/" + element, new CallMethodSpecialRule() {
+                @Override
+                public void parseAndSet (String bodyText, Object target)
+                {
+                    setElement((TileSet)target, element, bodyText);
+                }
+            });
+        }
+    }
+
     /**
      * A tileset rule set will create tilesets of a particular class,
      * which must be provided by the derived class via this method.
@@ -61,6 +61,20 @@ public class UniformTileSetRuleSet extends TileSetRuleSet
             new Class<?>[] { java.lang.Integer.TYPE });
     }
 
+    @Override
+    public boolean setElement (TileSet set, String element, String body)
+    {
+        UniformTileSet uset = (UniformTileSet)set;
+        if (element.equals("width")) {
+            uset.setWidth(parseInt(body));
+        } else if (element.equals("height")) {
+            uset.setHeight(parseInt(body));
+        } else {
+            return super.setElement(set, element, body);
+        }
+        return true;
+    }
+
     @Override
     public boolean isValid (Object target)
     {
@@ -84,6 +98,19 @@ public class UniformTileSetRuleSet extends TileSetRuleSet
         return valid;
     }
 
+    /**
+     * Parses an integer as the digester's call method rule does, yielding zero (which will fail
+     * validation) if the value is malformed.
+     */
+    protected static int parseInt (String value)
+    {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException nfe) {
+            return 0;
+        }
+    }
+
     @Override
     protected Class<? extends TileSet> getTileSetClass ()
     {
@@ -29,7 +29,8 @@ import com.samskivert.io.PersistenceException;
 
 import com.threerings.util.CompiledConfig;
 
-import com.threerings.media.tile.tools.MapFileTileSetIDBroker;
+import com.threerings.media.tile.TileSetIDBroker;
+import com.threerings.media.tile.tools.LogTileSetIDBroker;
 
 import com.threerings.miso.tile.tools.xml.FringeConfigurationParser;
 
@@ -63,9 +64,9 @@ public class CompileFringeConfigurationTask extends Task
         }
 
         // set up the tileid broker
-        MapFileTileSetIDBroker broker;
+        TileSetIDBroker broker;
         try {
-            broker = new MapFileTileSetIDBroker(_tsetmap);
+            broker = LogTileSetIDBroker.createBroker(_tsetmap);
         } catch (PersistenceException pe) {
             throw new BuildException("Couldn't set up tileset mapping " +
                 "[path=" + _tsetmap.getPath() +
@@ -79,6 +80,13 @@ public class CompileFringeConfigurationTask extends Task
             config = parser.parseConfig(_fringedef);
         } catch (Exception e) {
             throw new BuildException("Failure parsing config definition", e);
+        } finally {
+            try {
+                LogTileSetIDBroker.closeBroker(broker);
+            } catch (PersistenceException pe) {
+                System.err.println("Failure closing tileset mapping " +
+                    "[path=" + _tsetmap.getPath() + ", error=" + pe.getCause() + "].");
+            }
         }
 
         try {
@@ -22,7 +22,6 @@ package com.threerings.miso.tile.tools.xml;
 import org.apache.commons.digester.Digester;
 
 import com.samskivert.util.StringUtil;
-import com.samskivert.xml.CallMethodSpecialRule;
 
 import com.threerings.media.tile.TileSet;
 import com.threerings.media.tile.tools.xml.SwissArmyTileSetRuleSet;
@@ -45,18 +44,22 @@ public class BaseTileSetRuleSet extends SwissArmyTileSetRuleSet
     {
         super.addRuleInstances(digester);
 
-        digester.addRule(_path + "/passable", new CallMethodSpecialRule() {
-                @Override
-                public void parseAndSet (String bodyText, Object target) {
-                    int[] values = StringUtil.parseIntArray(bodyText);
-                    boolean[] passable = new boolean[values.length];
-                    for (int ii = 0; ii < values.length; ii++) {
-                        passable[ii] = (values[ii] != 0);
-                    }
-                    BaseTileSet starget = (BaseTileSet)target;
-                    starget.setPassability(passable);
-                }
-            });
+        addElementRules(digester, "passable");
+    }
+
+    @Override
+    public boolean setElement (TileSet set, String element, String body)
+    {
+        if (!element.equals("passable")) {
+            return super.setElement(set, element, body);
+        }
+        int[] values = StringUtil.parseIntArray(body);
+        boolean[] passable = new boolean[values.length];
+        for (int ii = 0; ii < values.length; ii++) {
+            passable[ii] = (values[ii] != 0);
+        }
+        ((BaseTileSet)set).setPassability(passable);
+        return true;
     }
 
     @Override
@@ -25,6 +25,7 @@ import org.xml.sax.Attributes;
 
 import org.apache.commons.digester.Digester;
 
+import com.samskivert.io.PersistenceException;
 import com.samskivert.util.StringUtil;
 import com.samskivert.xml.SetPropertyFieldsRule;
 import com.samskivert.xml.ValidatedSetNextRule;
@@ -94,22 +95,8 @@ public class FringeConfigurationParser extends CompiledConfigParser
                     if (StringUtil.isBlank(name)) {
                         name = attrs.getQName(ii);
                     }
-                    String value = attrs.getValue(ii);
-
-                    if ("name".equals(name)) {
-                        if (_idBroker.tileSetMapped(value)) {
-                            frec.base_tsid = _idBroker.getTileSetID(value);
-                        } else {
-                            log.warning("Skipping unknown base " +
-                                "tileset [name=" + value + "].");
-                        }
-
-                    } else if ("priority".equals(name)) {
-                        frec.priority = Integer.parseInt(value);
-                    } else {
-                        log.warning("Skipping unknown attribute " +
-                                    "[name=" + name + "].");
-                    }
+                    FringeConfigurationParser.setAttribute(
+                        _idBroker, frec, name, attrs.getValue(ii));
                 }
             }
         };
@@ -144,27 +131,60 @@ public class FringeConfigurationParser extends CompiledConfigParser
                     if (StringUtil.isBlank(name)) {
                         name = attrs.getQName(ii);
                     }
-                    String value = attrs.getValue(ii);
-
-                    if ("name".equals(name)) {
-                        if (_idBroker.tileSetMapped(value)) {
-                            f.fringe_tsid = _idBroker.getTileSetID(value);
-                        } else {
-                            log.warning("Skipping unknown fringe " +
-                                "tileset [name=" + value + "].");
-                        }
-
-                    } else if ("mask".equals(name)) {
-                        f.mask = Boolean.valueOf(value).booleanValue();
-                    } else {
-                        log.warning("Skipping unknown attribute " +
-                                    "[name=" + name + "].");
-                    }
+                    FringeConfigurationParser.setAttribute(_idBroker, f, name, attrs.getValue(ii));
                 }
             }
         };
         digest.addRule(prefix, vrule);
     }
 
+    /**
+     * Configures a fringe record from an attribute of its <code>&lt;base&gt;</code> element,
+     * converting tileset names to tileset ids.
+     */
+    protected static void setAttribute (
+        TileSetIDBroker broker, FringeRecord frec, String name, String value)
+        throws PersistenceException
+    {
+        if ("name".equals(name)) {
+            if (broker.tileSetMapped(value)) {
+                frec.base_tsid = broker.getTileSetID(value);
+            } else {
+                log.warning("Skipping unknown base " +
+                    "tileset [name=" + value + "].");
+            }
+
+        } else if ("priority".equals(name)) {
+            frec.priority = Integer.parseInt(value);
+        } else {
+            log.warning("Skipping unknown attribute " +
+                        "[name=" + name + "].");
+        }
+    }
+
+    /**
+     * Configures a fringe tileset record from an attribute of its <code>&lt;tileset&gt;</code>
+     * element, converting tileset names to tileset ids.
+     */
+    protected static void setAttribute (
+        TileSetIDBroker broker, FringeTileSetRecord f, String name, String value)
+        throws PersistenceException
+    {
+        if ("name".equals(name)) {
+            if (broker.tileSetMapped(value)) {
+                f.fringe_tsid = broker.getTileSetID(value);
+            } else {
+                log.warning("Skipping unknown fringe " +
+                    "tileset [name=" + value + "].");
+            }
+
+        } else if ("mask".equals(name)) {
+            f.mask = Boolean.valueOf(value).booleanValue();
+        } else {
+            log.warning("Skipping unknown attribute " +
+                        "[name=" + name + "].");
+        }
+    }
+
     protected TileSetIDBroker _idBroker;
 }
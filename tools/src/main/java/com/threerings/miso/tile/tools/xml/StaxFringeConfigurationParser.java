@@ -0,0 +1,114 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.miso.tile.tools.xml;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.samskivert.io.PersistenceException;
+
+import com.threerings.media.tile.TileSetIDBroker;
+
+import com.threerings.miso.tile.FringeConfiguration;
+import com.threerings.miso.tile.FringeConfiguration.FringeRecord;
+import com.threerings.miso.tile.FringeConfiguration.FringeTileSetRecord;
+
+import com.threerings.tools.xml.StaxParser;
+
+import static com.threerings.miso.Log.log;
+
+/**
+ * Parses fringe config definitions into the same configuration as {@link
+ * FringeConfigurationParser}, but by streaming through the XML rather than by way of the
+ * Digester. A parser may be used from multiple threads if its tileset id broker may be.
+ */
+public class StaxFringeConfigurationParser extends StaxParser<FringeConfiguration>
+{
+    public StaxFringeConfigurationParser (TileSetIDBroker broker)
+    {
+        _idBroker = broker;
+    }
+
+    @Override
+    protected Handler<FringeConfiguration> createHandler ()
+    {
+        return new Handler<FringeConfiguration>() {
+            @Override public void start (String path, XMLStreamReader reader)
+                throws XMLStreamException {
+                try {
+                    if (path.equals(BASE_PATH)) {
+                        _frec = new FringeRecord();
+                        for (int ii = 0, nn = reader.getAttributeCount(); ii < nn; ii++) {
+                            FringeConfigurationParser.setAttribute(
+                                _idBroker, _frec, reader.getAttributeLocalName(ii),
+                                reader.getAttributeValue(ii));
+                        }
+
+                    } else if (_frec != null && path.equals(TILESET_PATH)) {
+                        _trec = new FringeTileSetRecord();
+                        for (int ii = 0, nn = reader.getAttributeCount(); ii < nn; ii++) {
+                            FringeConfigurationParser.setAttribute(
+                                _idBroker, _trec, reader.getAttributeLocalName(ii),
+                                reader.getAttributeValue(ii));
+                        }
+                    }
+                } catch (PersistenceException pe) {
+                    throw failure(reader, path, pe);
+                }
+            }
+
+            @Override public void end (String path, String text) {
+                if (_trec != null && path.equals(TILESET_PATH)) {
+                    if (_trec.isValid()) {
+                        _frec.addTileset(_trec);
+                    } else {
+                        log.warning("A FringeTileSetRecord was not added because " +
+                                    "it was improperly specified " +
+                                    "[rec=" + _trec + "].");
+                    }
+                    _trec = null;
+
+                } else if (_frec != null && path.equals(BASE_PATH)) {
+                    if (_frec.isValid()) {
+                        _config.addFringeRecord(_frec);
+                    } else {
+                        log.warning("A FringeRecord was not added because it was " +
+                                    "improperly specified [rec=" + _frec + "].");
+                    }
+                    _frec = null;
+                }
+            }
+
+            @Override public FringeConfiguration getResult () {
+                return _config;
+            }
+
+            protected FringeConfiguration _config = new FringeConfiguration();
+            protected FringeRecord _frec;
+            protected FringeTileSetRecord _trec;
+        };
+    }
+
+    protected TileSetIDBroker _idBroker;
+
+    /** The paths of the elements that we parse. */
+    protected static final String BASE_PATH = "fringe/base";
+    protected static final String TILESET_PATH = BASE_PATH + "/tileset";
+}
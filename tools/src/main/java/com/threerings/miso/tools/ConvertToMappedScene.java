@@ -0,0 +1,72 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.miso.tools;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.xml.sax.SAXException;
+
+import com.threerings.miso.data.SparseMisoSceneModel;
+import com.threerings.miso.tools.xml.SparseMisoSceneParser;
+import com.threerings.miso.tools.xml.SparseMisoSceneWriter;
+
+/**
+ * Converts sparse scene models stored as XML into the memory-mappable format read by {@link
+ * com.threerings.miso.data.MappedMisoSceneModel}.
+ */
+public class ConvertToMappedScene
+{
+    /**
+     * Parses the XML scene at the specified path (whose outer element is nested in the specified
+     * element path prefix, if any) and writes it in mapped form to the specified file.
+     */
+    public static void convert (String prefix, String source, File target)
+        throws IOException, SAXException
+    {
+        SparseMisoSceneModel model = new SparseMisoSceneParser(prefix).parseScene(source);
+        if (model == null) {
+            throw new IOException("No scene found in '" + source + "'.");
+        }
+        new SparseMisoSceneWriter().writeMapped(model, target);
+    }
+
+    public static void main (String[] args)
+    {
+        if (args.length < 2) {
+            System.err.println("Usage: ConvertToMappedScene [-prefix path] scene.xml scene.dat");
+            System.exit(-1);
+        }
+
+        String prefix = null;
+        int idx = 0;
+        if (args[0].equals("-prefix") && args.length >= 4) {
+            prefix = args[1];
+            idx = 2;
+        }
+
+        try {
+            convert(prefix, args[idx], new File(args[idx+1]));
+        } catch (Exception e) {
+            System.err.println("Unable to convert scene: " + e);
+            System.exit(-1);
+        }
+    }
+}
@@ -21,6 +21,9 @@ package com.threerings.miso.tools.xml;
 
 import java.util.Iterator;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
 
@@ -28,6 +31,7 @@ import com.megginson.sax.DataWriter;
 
 import com.samskivert.util.StringUtil;
 
+import com.threerings.miso.data.MappedMisoSceneModel;
 import com.threerings.miso.data.ObjectInfo;
 import com.threerings.miso.data.SparseMisoSceneModel;
 import com.threerings.miso.data.SparseMisoSceneModel.Section;
@@ -103,6 +107,16 @@ public class SparseMisoSceneWriter implements NestableWriter
         writer.endElement("sections");
     }
 
+    /**
+     * Writes the supplied scene to the specified file in the memory-mappable format read by {@link
+     * MappedMisoSceneModel}, rather than as XML.
+     */
+    public void writeMapped (SparseMisoSceneModel model, File file)
+        throws IOException
+    {
+        MappedMisoSceneModel.write(model, file);
+    }
+
     /**
      * Writes <code>info</code> out to <code>writer</code>.
      */
@@ -0,0 +1,123 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.miso.tools.xml;
+
+import java.util.List;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.google.common.collect.Lists;
+
+import com.samskivert.util.StringUtil;
+
+import com.threerings.miso.data.ObjectInfo;
+import com.threerings.miso.data.SimpleMisoSceneModel;
+
+import com.threerings.tools.xml.StaxParser;
+
+/**
+ * Parses simple miso scene models into the same models as {@link SimpleMisoSceneParser}, but by
+ * streaming through the XML rather than by way of the Digester. A parser may be used from
+ * multiple threads.
+ */
+public class StaxSimpleMisoSceneParser extends StaxParser<SimpleMisoSceneModel>
+{
+    /**
+     * Constructs a scene parser that parses scenes with the specified XML path prefix.
+     */
+    public StaxSimpleMisoSceneParser (String prefix)
+    {
+        String outer = SimpleMisoSceneWriter.OUTER_ELEMENT;
+        _prefix = StringUtil.isBlank(prefix) ? outer : (prefix + "/" + outer);
+    }
+
+    /**
+     * Parses the XML file at the specified path into a scene model instance.
+     */
+    public SimpleMisoSceneModel parseScene (String path)
+        throws IOException, XMLStreamException
+    {
+        return parse(new File(path));
+    }
+
+    @Override
+    protected Handler<SimpleMisoSceneModel> createHandler ()
+    {
+        return new Handler<SimpleMisoSceneModel>() {
+            @Override public void start (String path, XMLStreamReader reader) {
+                if (path.equals(_prefix)) {
+                    _model = createMisoSceneModel();
+                } else if (_model == null) {
+                    return;
+                } else if (path.equals(_prefix + "/objects")) {
+                    _objects = Lists.newArrayList();
+                } else if (_objects != null && path.equals(_prefix + "/objects/object")) {
+                    _objects.add(StaxSparseMisoSceneParser.readObjectInfo(reader));
+                }
+            }
+
+            @Override public void end (String path, String text) {
+                if (_model == null) {
+                    return;
+                } else if (path.equals(_prefix)) {
+                    _result = _model;
+                    _model = null;
+                } else if (path.equals(_prefix + "/width")) {
+                    _model.width = Short.parseShort(text);
+                } else if (path.equals(_prefix + "/height")) {
+                    _model.height = Short.parseShort(text);
+                } else if (path.equals(_prefix + "/viewwidth")) {
+                    _model.vwidth = Integer.parseInt(text);
+                } else if (path.equals(_prefix + "/viewheight")) {
+                    _model.vheight = Integer.parseInt(text);
+                } else if (path.equals(_prefix + "/base")) {
+                    _model.baseTileIds = StringUtil.parseIntArray(text);
+                } else if (_objects != null && path.equals(_prefix + "/objects")) {
+                    // split the objects into interesting and uninteresting
+                    List<ObjectInfo> ilist = Lists.newArrayList(), ulist = Lists.newArrayList();
+                    for (ObjectInfo info : _objects) {
+                        (info.isInteresting() ? ilist : ulist).add(info);
+                    }
+                    SimpleMisoSceneModel.populateObjects(_model, ilist, ulist);
+                    _objects = null;
+                }
+            }
+
+            @Override public SimpleMisoSceneModel getResult () {
+                return _result;
+            }
+
+            protected SimpleMisoSceneModel _model, _result;
+            protected List<ObjectInfo> _objects;
+        };
+    }
+
+    protected SimpleMisoSceneModel createMisoSceneModel ()
+    {
+        return new SimpleMisoSceneModel(0, 0, 0, 0);
+    }
+
+    /** The path of our scene element. */
+    protected String _prefix;
+}
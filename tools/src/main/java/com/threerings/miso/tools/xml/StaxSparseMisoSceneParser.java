@@ -0,0 +1,177 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.miso.tools.xml;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.samskivert.util.StringUtil;
+
+import com.threerings.miso.data.ObjectInfo;
+import com.threerings.miso.data.SparseMisoSceneModel;
+import com.threerings.miso.data.SparseMisoSceneModel.Section;
+
+import com.threerings.tools.xml.StaxParser;
+
+import static com.threerings.miso.Log.log;
+
+/**
+ * Parses sparse miso scene models into the same models as {@link SparseMisoSceneParser}, but by
+ * streaming through the XML rather than by way of the Digester. A parser may be used from
+ * multiple threads.
+ */
+public class StaxSparseMisoSceneParser extends StaxParser<SparseMisoSceneModel>
+{
+    /**
+     * Constructs a scene parser that parses scenes with the specified XML path prefix.
+     */
+    public StaxSparseMisoSceneParser (String prefix)
+    {
+        String outer = SparseMisoSceneWriter.OUTER_ELEMENT;
+        _prefix = StringUtil.isBlank(prefix) ? outer : (prefix + "/" + outer);
+        _sprefix = _prefix + "/sections/section";
+    }
+
+    /**
+     * Parses the XML file at the specified path into a scene model instance.
+     */
+    public SparseMisoSceneModel parseScene (String path)
+        throws IOException, XMLStreamException
+    {
+        return parse(new File(path));
+    }
+
+    /**
+     * Creates an object info record from the attributes of the supplied
+     * <code>&lt;object&gt;</code> element, as the digester's set property fields rule does.
+     */
+    public static ObjectInfo readObjectInfo (XMLStreamReader reader)
+    {
+        ObjectInfo info = new ObjectInfo();
+        for (int ii = 0, nn = reader.getAttributeCount(); ii < nn; ii++) {
+            String name = reader.getAttributeLocalName(ii), value = reader.getAttributeValue(ii);
+            if (name.equals("tileId")) {
+                info.tileId = Integer.parseInt(value);
+            } else if (name.equals("x")) {
+                info.x = Integer.parseInt(value);
+            } else if (name.equals("y")) {
+                info.y = Integer.parseInt(value);
+            } else if (name.equals("action")) {
+                info.action = value;
+            } else if (name.equals("priority")) {
+                info.priority = Byte.parseByte(value);
+            } else if (name.equals("sx")) {
+                info.sx = Byte.parseByte(value);
+            } else if (name.equals("sy")) {
+                info.sy = Byte.parseByte(value);
+            } else if (name.equals("sorient")) {
+                info.sorient = Byte.parseByte(value);
+            } else if (name.equals("zations")) {
+                info.zations = Integer.parseInt(value);
+            } else {
+                log.warning("Skipping unknown object attribute", "name", name, "value", value);
+            }
+        }
+        return info;
+    }
+
+    @Override
+    protected Handler<SparseMisoSceneModel> createHandler ()
+    {
+        return new Handler<SparseMisoSceneModel>() {
+            @Override public void start (String path, XMLStreamReader reader) {
+                if (path.equals(_prefix)) {
+                    _model = createMisoSceneModel();
+                } else if (_model == null) {
+                    return;
+                } else if (path.equals(_sprefix)) {
+                    _section = readSection(reader);
+                } else if (_section != null && path.equals(_sprefix + "/objects/object")) {
+                    _info = readObjectInfo(reader);
+                }
+            }
+
+            @Override public void end (String path, String text) {
+                if (_model == null) {
+                    return;
+                } else if (path.equals(_prefix)) {
+                    _result = _model;
+                    _model = null;
+                } else if (path.equals(_prefix + "/swidth")) {
+                    _model.swidth = Short.parseShort(text);
+                } else if (path.equals(_prefix + "/sheight")) {
+                    _model.sheight = Short.parseShort(text);
+                } else if (path.equals(_prefix + "/defTileSet")) {
+                    _model.defTileSet = Integer.parseInt(text);
+                } else if (_section == null) {
+                    return;
+                } else if (path.equals(_sprefix)) {
+                    _model.setSection(_section);
+                    _section = null;
+                } else if (path.equals(_sprefix + "/base")) {
+                    _section.baseTileIds = StringUtil.parseIntArray(text);
+                } else if (_info != null && path.equals(_sprefix + "/objects/object")) {
+                    _section.addObject(_info);
+                    _info = null;
+                }
+            }
+
+            @Override public SparseMisoSceneModel getResult () {
+                return _result;
+            }
+
+            protected SparseMisoSceneModel _model, _result;
+            protected Section _section;
+            protected ObjectInfo _info;
+        };
+    }
+
+    /**
+     * Creates a section from the attributes of the supplied <code>&lt;section&gt;</code> element.
+     */
+    protected Section readSection (XMLStreamReader reader)
+    {
+        Section section = new Section();
+        for (int ii = 0, nn = reader.getAttributeCount(); ii < nn; ii++) {
+            String name = reader.getAttributeLocalName(ii), value = reader.getAttributeValue(ii);
+            if (name.equals("x")) {
+                section.x = Short.parseShort(value);
+            } else if (name.equals("y")) {
+                section.y = Short.parseShort(value);
+            } else if (name.equals("width")) {
+                section.width = Integer.parseInt(value);
+            } else {
+                log.warning("Skipping unknown section attribute", "name", name, "value", value);
+            }
+        }
+        return section;
+    }
+
+    protected SparseMisoSceneModel createMisoSceneModel ()
+    {
+        return new SparseMisoSceneModel();
+    }
+
+    /** The paths of our scene and section elements. */
+    protected String _prefix, _sprefix;
+}
@@ -0,0 +1,104 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.tools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Converts between the text map files maintained by the tileset and component ID brokers and
+ * {@link IDLogFile}s, which the brokers use in their place when one is found at the configured
+ * map file path. Also compacts an existing log.
+ */
+public class ConvertIDMap
+{
+    public static void main (String[] args)
+    {
+        try {
+            if (args.length == 2 && "-compact".equals(args[0])) {
+                IDLogFile log = new IDLogFile(new File(args[1]));
+                log.compact();
+                log.close();
+
+            } else if (args.length == 2) {
+                File source = new File(args[0]), target = new File(args[1]);
+                if (IDLogFile.isLogFile(source)) {
+                    exportLog(source, target);
+                } else {
+                    importLog(source, target);
+                }
+
+            } else {
+                System.err.println("Usage: ConvertIDMap source.map target.log\n" +
+                                   "       ConvertIDMap source.log target.map\n" +
+                                   "       ConvertIDMap -compact source.log");
+                System.exit(-1);
+            }
+
+        } catch (IOException ioe) {
+            System.err.println("Unable to convert mapping: " + ioe);
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Adds the mappings in the supplied text map file to the specified log, creating it if it
+     * does not yet exist.
+     */
+    public static void importLog (File mapfile, File logfile)
+        throws IOException
+    {
+        IDLogFile log = new IDLogFile(logfile);
+        try {
+            BufferedReader bin = new BufferedReader(new FileReader(mapfile));
+            try {
+                log.importText(bin);
+            } finally {
+                bin.close();
+            }
+            log.compact();
+        } finally {
+            log.close();
+        }
+    }
+
+    /**
+     * Writes the mappings in the supplied log to the specified text map file.
+     */
+    public static void exportLog (File logfile, File mapfile)
+        throws IOException
+    {
+        IDLogFile log = new IDLogFile(logfile);
+        try {
+            BufferedWriter bout = new BufferedWriter(new FileWriter(mapfile));
+            try {
+                log.exportText(bout);
+            } finally {
+                bout.close();
+            }
+        } finally {
+            log.close();
+        }
+    }
+}
@@ -0,0 +1,674 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.tools;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.google.common.collect.Maps;
+
+/**
+ * An append-only, log-structured file of name to id mappings, from which ids (for tilesets,
+ * components, etc.) can be brokered by any number of threads and processes at once.
+ *
+ * <p> Rather than rewriting the whole file when new ids are assigned, each assignment appends a
+ * small checksummed record to the log. When opened, the log's records are read into an index,
+ * which is consulted without locking when looking up existing mappings. New mappings are made by
+ * a single writer: while holding both a lock on this object's file and an exclusive lock on a
+ * companion <code>.lock</code> file, the writer first reads any records appended by other
+ * processes and then appends its own, so ids remain unique across concurrent builds. A partial
+ * record left by a writer that died mid-append is discarded by the next writer.
+ *
+ * <p> Records superseded by later ones (as when a name is remapped) are only dropped when the log
+ * is {@link #compact}ed, which atomically replaces the log file; other processes notice this by
+ * way of the generation number in the log's header and reload it.
+ *
+ * <p> Mappings can also be imported from and exported to the text format used by {@link
+ * com.threerings.media.tile.tools.MapFileTileSetIDBroker}: a line containing the most recently
+ * assigned id, followed by <code>name := id</code> lines, sorted.
+ */
+public class IDLogFile
+    implements Closeable
+{
+    /**
+     * Returns true if the supplied file exists and is an id log, rather than (for example) a text
+     * map file.
+     */
+    public static boolean isLogFile (File file)
+    {
+        if (!file.isFile() || file.length() < HEADER_SIZE) {
+            return false;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                return raf.readInt() == MAGIC;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens the specified id log, creating it if it does not yet exist.
+     */
+    public IDLogFile (File file)
+        throws IOException
+    {
+        _file = file.getAbsoluteFile();
+        _mutex = getMutex(_file);
+        _lockChannel = FileChannel.open(new File(_file.getPath() + ".lock").toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        synchronized (_mutex) {
+            try {
+                FileLock lock = _lockChannel.lock();
+                try {
+                    open();
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException | RuntimeException e) {
+                // don't leave our files open if we fail to load the log
+                try {
+                    if (_channel != null) {
+                        _channel.close();
+                    }
+                } finally {
+                    _lockChannel.close();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns the id to which the specified name is mapped, or null if it is not mapped.
+     */
+    public Integer get (String name)
+        throws IOException
+    {
+        Integer id = _index.get(name);
+        if (id != null) {
+            return id;
+        }
+        // someone else may have mapped it since we last looked
+        synchronized (_mutex) {
+            FileLock lock = lock();
+            try {
+                return _index.get(name);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Returns the id to which the specified name is mapped, mapping it to a newly assigned id
+     * (one more than the most recently assigned id) if it is not yet mapped.
+     */
+    public int getOrAssign (String name)
+        throws IOException
+    {
+        Integer id = _index.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (_mutex) {
+            FileLock lock = lock();
+            try {
+                id = _index.get(name);
+                if (id == null) {
+                    id = _lastID + 1;
+                    append(name, id);
+                }
+                return id;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Maps the specified name to the specified id, which need not be unique (as when mapping a
+     * new name to the id of an existing name).
+     *
+     * @return true if the mapping was added, false if the name was already so mapped.
+     */
+    public boolean put (String name, int id)
+        throws IOException
+    {
+        synchronized (_mutex) {
+            FileLock lock = lock();
+            try {
+                Integer oid = _index.get(name);
+                if (oid != null && oid == id) {
+                    return false;
+                }
+                append(name, id);
+                return true;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Returns the most recently assigned id.
+     */
+    public int getLastID ()
+        throws IOException
+    {
+        synchronized (_mutex) {
+            FileLock lock = lock();
+            try {
+                return _lastID;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of all of the mappings in the log.
+     */
+    public Map<String, Integer> getMappings ()
+        throws IOException
+    {
+        synchronized (_mutex) {
+            FileLock lock = lock();
+            try {
+                return Maps.newHashMap(_index);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Returns true if this instance has added any mappings to the log.
+     */
+    public boolean isModified ()
+    {
+        return _modified;
+    }
+
+    /**
+     * Forces any records we have appended out to disk.
+     */
+    public void sync ()
+        throws IOException
+    {
+        synchronized (_mutex) {
+            if (_dirty) {
+                _channel.force(false);
+                _dirty = false;
+            }
+        }
+    }
+
+    /**
+     * Rewrites the log so that it contains only the current mapping for each name.
+     */
+    public void compact ()
+        throws IOException
+    {
+        synchronized (_mutex) {
+            FileLock lock = lock();
+            try {
+                String[] names = _index.keySet().toArray(new String[_index.size()]);
+                Arrays.sort(names);
+                ByteArrayOutputStream records = new ByteArrayOutputStream();
+                for (String name : names) {
+                    encode(records, name, _index.get(name));
+                }
+                encode(records, null, _lastID);
+
+                // write the compacted log alongside the real one, then move it into place
+                File tmpfile = new File(_file.getPath() + ".tmp");
+                FileChannel channel = FileChannel.open(tmpfile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+                try {
+                    write(channel, createHeader(_generation + 1), 0);
+                    write(channel, records.toByteArray(), HEADER_SIZE);
+                    channel.force(true);
+                } finally {
+                    channel.close();
+                }
+                try {
+                    Files.move(tmpfile.toPath(), _file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException amnse) {
+                    Files.move(tmpfile.toPath(), _file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                }
+                _channel.close();
+                open();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Adds the mappings in the supplied text map file to the log, replacing any existing mappings
+     * for the same names. The most recently assigned id is raised to that of the map file if
+     * necessary.
+     */
+    public void importText (BufferedReader bin)
+        throws IOException
+    {
+        String line = bin.readLine();
+        int lastID;
+        try {
+            lastID = Integer.parseInt(line);
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Expected number, got '" + line + "'");
+        }
+
+        Map<String, Integer> mappings = Maps.newHashMap();
+        while ((line = bin.readLine()) != null) {
+            int sidx = line.lastIndexOf(SEP_STR);
+            if (sidx == -1) {
+                throw new IOException("Malformed line, no '" + SEP_STR + "': '" + line + "'");
+            }
+            try {
+                String code = line.substring(sidx + SEP_STR.length());
+                mappings.put(line.substring(0, sidx), Integer.valueOf(code));
+            } catch (NumberFormatException nfe) {
+                throw new IOException("Malformed line, invalid code: '" + line + "'");
+            }
+        }
+
+        synchronized (_mutex) {
+            FileLock lock = lock();
+            try {
+                ByteArrayOutputStream records = new ByteArrayOutputStream();
+                for (Map.Entry<String, Integer> entry : mappings.entrySet()) {
+                    if (!entry.getValue().equals(_index.get(entry.getKey()))) {
+                        encode(records, entry.getKey(), entry.getValue());
+                    }
+                }
+                if (lastID > _lastID) {
+                    encode(records, null, lastID);
+                }
+                append(records);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Writes the mappings in the log out in the text map file format.
+     */
+    public void exportText (BufferedWriter bout)
+        throws IOException
+    {
+        int lastID;
+        String[] lines;
+        synchronized (_mutex) {
+            FileLock lock = lock();
+            try {
+                lastID = _lastID;
+                lines = new String[_index.size()];
+                int ii = 0;
+                for (Map.Entry<String, Integer> entry : _index.entrySet()) {
+                    lines[ii++] = entry.getKey() + SEP_STR + entry.getValue();
+                }
+            } finally {
+                lock.release();
+            }
+        }
+
+        String tline = "" + lastID;
+        bout.write(tline, 0, tline.length());
+        bout.newLine();
+        Arrays.sort(lines);
+        for (String line : lines) {
+            bout.write(line, 0, line.length());
+            bout.newLine();
+        }
+        bout.flush();
+    }
+
+    /**
+     * Syncs and closes the log.
+     */
+    public void close ()
+        throws IOException
+    {
+        synchronized (_mutex) {
+            try {
+                sync();
+                _channel.close();
+            } finally {
+                _lockChannel.close();
+            }
+        }
+    }
+
+    /**
+     * Opens (or reopens) our log file, creating it if necessary, and loads its records. Must be
+     * called while holding our locks.
+     */
+    private void open ()
+        throws IOException
+    {
+        _channel = FileChannel.open(_file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = _channel.size();
+        if (size == 0) {
+            write(_channel, createHeader(0), 0);
+            _generation = 0;
+            _end = HEADER_SIZE;
+            _lastID = 0;
+            _index = new ConcurrentHashMap<String, Integer>();
+            return;
+        }
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+            throw new IOException("Invalid id log [file=" + _file + ", size=" + size + "]");
+        }
+
+        // read in the log and load up our index (which holds everything we need, so we don't
+        // map the file, which would keep it mapped until the buffer was collected and prevent
+        // compaction from replacing it on some platforms)
+        ByteBuffer buf = ByteBuffer.allocate((int)size);
+        while (buf.hasRemaining() && _channel.read(buf, buf.position()) >= 0) {
+            // keep reading
+        }
+        buf.flip();
+        if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC) {
+            throw new IOException("Not an id log [file=" + _file + "]");
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported id log [file=" + _file +
+                                  ", version=" + version + "]");
+        }
+        _generation = buf.getInt();
+        buf.getInt(); // reserved
+
+        ConcurrentHashMap<String, Integer> index = new ConcurrentHashMap<String, Integer>(
+            Math.max(16, (int)(size / 32)));
+        _lastID = 0;
+        _end = HEADER_SIZE + read(buf, index);
+        _index = index;
+    }
+
+    /**
+     * Obtains the exclusive lock on our log and brings our index up to date with any records
+     * appended by others. Must be called while synchronized on our mutex.
+     */
+    protected FileLock lock ()
+        throws IOException
+    {
+        FileLock lock = _lockChannel.lock();
+        try {
+            // if the log was compacted by someone else, we need to reload it entirely
+            if (readGeneration() != _generation) {
+                _channel.close();
+                open();
+
+            } else {
+                long size = _channel.size();
+                if (size > _end) {
+                    ByteBuffer buf = ByteBuffer.allocate((int)(size - _end));
+                    while (buf.hasRemaining()) {
+                        if (_channel.read(buf, _end + buf.position()) < 0) {
+                            break;
+                        }
+                    }
+                    buf.flip();
+                    _end += read(buf, _index);
+                    if (_end < size) {
+                        // discard the partial record left by a writer that failed mid-append
+                        _channel.truncate(_end);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            lock.release();
+            throw ioe;
+        }
+        return lock;
+    }
+
+    /**
+     * Returns the generation of the log file currently at our path, or -1 if there is none.
+     */
+    protected int readGeneration ()
+        throws IOException
+    {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException nsfe) {
+            return -1;
+        }
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+            while (buf.hasRemaining() && channel.read(buf, buf.position()) >= 0) {
+                // keep reading
+            }
+            return (buf.position() < HEADER_SIZE) ? -1 : buf.getInt(8);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads records from the supplied buffer into the index (noting the most recently assigned
+     * id), stopping at the end of the buffer or at the first incomplete or corrupt record.
+     *
+     * @return the number of bytes occupied by the valid records.
+     */
+    private int read (ByteBuffer buf, Map<String, Integer> index)
+    {
+        int start = buf.position(), end = start;
+        CRC32 crc = new CRC32();
+        while (buf.remaining() >= RECORD_OVERHEAD) {
+            int rstart = buf.position();
+            int length = buf.getInt();
+            if (length < -1 || length > buf.remaining() - 8) {
+                break;
+            }
+            byte[] data = new byte[Math.max(length, 0)];
+            buf.get(data);
+            int id = buf.getInt();
+
+            ByteBuffer record = buf.duplicate();
+            record.limit(buf.position()).position(rstart);
+            crc.reset();
+            crc.update(record);
+            if (buf.getInt() != (int)crc.getValue()) {
+                break;
+            }
+
+            if (length >= 0) {
+                index.put(new String(data, UTF8), id);
+            }
+            _lastID = Math.max(_lastID, id);
+            end = buf.position();
+        }
+        return end - start;
+    }
+
+    /**
+     * Appends a record mapping the specified name to the specified id to the log and adds it to
+     * our index. Must be called while holding our locks.
+     */
+    protected void append (String name, int id)
+        throws IOException
+    {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        encode(records, name, id);
+        append(records);
+    }
+
+    /**
+     * Appends the supplied encoded records to the log and adds them to our index. Must be called
+     * while holding our locks.
+     */
+    protected void append (ByteArrayOutputStream records)
+        throws IOException
+    {
+        if (records.size() == 0) {
+            return;
+        }
+        byte[] data = records.toByteArray();
+        write(_channel, data, _end);
+        _end += data.length;
+        _dirty = _modified = true;
+
+        // now that they're in the log, make the mappings visible
+        read(ByteBuffer.wrap(data), _index);
+    }
+
+    /**
+     * Returns the header for a log of the specified generation.
+     */
+    protected static byte[] createHeader (int generation)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(generation).putInt(0);
+        return buf.array();
+    }
+
+    /**
+     * Encodes a record mapping the specified name to the specified id, or noting the most
+     * recently assigned id if the name is null.
+     */
+    protected static void encode (ByteArrayOutputStream out, String name, int id)
+    {
+        byte[] data = (name == null) ? new byte[0] : name.getBytes(UTF8);
+        ByteBuffer buf = ByteBuffer.allocate(data.length + RECORD_OVERHEAD);
+        buf.putInt(name == null ? -1 : data.length).put(data).putInt(id);
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int)crc.getValue());
+        out.write(buf.array(), 0, buf.capacity());
+    }
+
+    /**
+     * Writes the supplied data to the channel at the specified position.
+     */
+    protected static void write (FileChannel channel, byte[] data, long position)
+        throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            channel.write(buf, position + buf.position());
+        }
+    }
+
+    /**
+     * Returns the object on which to synchronize access to the specified log, shared by all
+     * instances in this VM (which cannot otherwise hold the file lock concurrently).
+     */
+    protected static Object getMutex (File file)
+        throws IOException
+    {
+        String path = file.getCanonicalPath();
+        Object mutex = _mutexes.get(path);
+        if (mutex == null) {
+            Object omutex = _mutexes.putIfAbsent(path, mutex = new Object());
+            if (omutex != null) {
+                mutex = omutex;
+            }
+        }
+        return mutex;
+    }
+
+    /** The log file. */
+    protected File _file;
+
+    /** The object on which we synchronize access to the log. */
+    protected Object _mutex;
+
+    /** The channel via which we read and append to the log. */
+    protected FileChannel _channel;
+
+    /** The channel via which we lock the log. */
+    protected FileChannel _lockChannel;
+
+    /** The generation of the log we have open. */
+    protected int _generation;
+
+    /** The offset of the end of the last valid record in the log. */
+    protected long _end;
+
+    /** Our mapping from names to ids. */
+    protected volatile ConcurrentHashMap<String, Integer> _index;
+
+    /** The most recently assigned id. */
+    protected int _lastID;
+
+    /** Whether we have appended records that have not been forced to disk. */
+    protected boolean _dirty;
+
+    /** Whether we have appended any records. */
+    protected boolean _modified;
+
+    /** The mutexes for the logs open in this VM, by canonical path. */
+    protected static ConcurrentMap<String, Object> _mutexes =
+        new ConcurrentHashMap<String, Object>();
+
+    /** Identifies an id log ("IDLG"). */
+    protected static final int MAGIC = 0x49444C47;
+
+    /** The version of our log format. */
+    protected static final int VERSION = 1;
+
+    /** The size of the log header: magic, version, generation and a reserved int. */
+    protected static final int HEADER_SIZE = 16;
+
+    /** The size of a record, less its name: length, id and checksum. */
+    protected static final int RECORD_OVERHEAD = 12;
+
+    /** The separator between name and id in the text map format. */
+    protected static final String SEP_STR = " := ";
+
+    /** The encoding of names in the log. */
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+}
@@ -18,6 +18,9 @@
 
 package com.threerings.tools;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.security.AccessController;
@@ -27,9 +30,12 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Primitives;
 
 import com.samskivert.util.ClassUtil;
 import com.samskivert.util.StringUtil;
@@ -288,12 +294,7 @@ public class JSONConversion
         {
             try {
                 FieldConfig<?> config = findConfig(obj.getClass());
-                List<Field> fields = cachedFields.get(obj.getClass());
-                if (fields == null) {
-                    cachedFields.put(obj.getClass(), fields = Lists.newArrayList());
-                    ClassUtil.getFields(obj.getClass(), fields);
-                    vlog("Got fields for class", obj.getClass(), "fields", fields);
-                }
+                List<Field> fields = getFields(obj.getClass());
 
                 JSONObject jobj = new JSONObject();
                 for (Field field : fields) {
@@ -331,12 +332,7 @@ public class JSONConversion
                     public Object run ()
                         throws Exception
                     {
-                        List<Field> fields = cachedFields.get(obj.getClass());
-                        if (fields == null) {
-                            cachedFields.put(obj.getClass(), fields = Lists.newArrayList());
-                            ClassUtil.getFields(obj.getClass(), fields);
-                        }
-                        for (Field field : fields) {
+                        for (Field field : getFields(obj.getClass())) {
                             if (field.getName().equals(fieldName)) {
                                 return field.get(obj);
                             }
@@ -349,6 +345,272 @@ public class JSONConversion
             }
         }
 
+        /**
+         * Appends the json form of the given object to the supplied buffer. The output is exactly
+         * that of the result of {@link #convert} when rendered as an element of a {@link
+         * JSONArray}, but no intermediate json objects are created: fields are read via cached
+         * method handles, arrays of primitives are written directly and only values that json-lib
+         * treats specially (floating point numbers, strings that look like json, etc.) are
+         * handed to json-lib for rendering.
+         */
+        public void write (Object obj, StringBuilder out)
+        {
+            writeValue(obj, out, false);
+        }
+
+        /**
+         * Appends the given object to the supplied buffer as a member of a json object, preceded
+         * by a comma unless it is the first member, exactly as {@link JSONObject#element(String,
+         * Object)} would render the result of {@link #convert}. Nothing is appended if json-lib
+         * would omit the member (because the object or its conversion is null).
+         *
+         * @return true if the member was appended.
+         */
+        public boolean writeMember (String name, Object obj, boolean first, StringBuilder out)
+        {
+            int mark = out.length();
+            if (!first) {
+                out.append(',');
+            }
+            out.append(getKey(name));
+            if (writeValue(obj, out, true)) {
+                return true;
+            }
+            out.setLength(mark);
+            return false;
+        }
+
+        /**
+         * Writes the given object in the manner of {@link #convert}.
+         *
+         * @param member whether the object is the value of a member of a json object (rather than
+         * an element of an array).
+         * @return false if nothing was written because json-lib would omit the member.
+         */
+        protected boolean writeValue (Object obj, StringBuilder out, boolean member)
+        {
+            if (obj == null) {
+                return writeJSON(null, out, member);
+            }
+
+            @SuppressWarnings("unchecked")
+            Converter<Object> converter = (Converter<Object>)converters.get(obj.getClass());
+            if (converter != null) {
+                return writeJSON(converter.convert(obj, this), out, member);
+            }
+
+            if (isPrimitive(obj.getClass())) {
+                return writeJSON(obj, out, member);
+            }
+
+            if (obj.getClass().isArray()) {
+                Object[] arr = (Object[])obj;
+                out.append('[');
+                for (int ii = 0; ii < arr.length; ++ii) {
+                    if (ii > 0) {
+                        out.append(',');
+                    }
+                    writeValue(arr[ii], out, false);
+                }
+                out.append(']');
+                return true;
+            }
+
+            if (List.class.isAssignableFrom(obj.getClass())) {
+                List<?> arr = (List<?>)obj;
+                out.append('[');
+                for (int ii = 0; ii < arr.size(); ++ii) {
+                    if (ii > 0) {
+                        out.append(',');
+                    }
+                    writeValue(arr.get(ii), out, false);
+                }
+                out.append(']');
+                return true;
+            }
+
+            writeFields(obj, out);
+            return true;
+        }
+
+        /**
+         * Writes an object using its declared fields, in the manner of {@link #convertFields}.
+         */
+        protected void writeFields (Object obj, StringBuilder out)
+        {
+            FieldLayout layout = getLayout(obj.getClass());
+            if (layout.duplicates) {
+                // later fields replace earlier ones of the same name; let json-lib sort that out
+                out.append(convertFields(obj).toString());
+                return;
+            }
+
+            FieldConfig<?> config = findConfig(obj.getClass());
+            boolean first = true;
+            out.append('{');
+            for (FieldHandle handle : layout.fields) {
+                if (config != null && config.excludeField(handle.field)) {
+                    continue;
+                }
+                @SuppressWarnings("unchecked")
+                Converter<Object> fieldConverter = config != null ?
+                    (Converter<Object>)config.customFields.get(handle.field.getName()) : null;
+
+                int mark = out.length();
+                if (!first) {
+                    out.append(',');
+                }
+                out.append(handle.key);
+                boolean written;
+                if (fieldConverter != null) {
+                    written = writeJSON(fieldConverter.convert(obj, this), out, true);
+                } else if (handle.integral && !converters.containsKey(handle.boxed)) {
+                    out.append(handle.getLong(obj));
+                    written = true;
+                } else if (handle.bool && !converters.containsKey(handle.boxed)) {
+                    out.append(handle.getBoolean(obj));
+                    written = true;
+                } else {
+                    written = writeValue(handle.get(obj), out, true);
+                }
+                if (written) {
+                    first = false;
+                } else {
+                    out.setLength(mark);
+                }
+            }
+            out.append('}');
+        }
+
+        /**
+         * Writes an already converted value as json-lib would render it once added to a json
+         * object or array.
+         *
+         * @return false if nothing was written because json-lib would omit the member.
+         */
+        protected boolean writeJSON (Object value, StringBuilder out, boolean member)
+        {
+            if (value instanceof Integer || value instanceof Long || value instanceof Short ||
+                value instanceof Byte || value instanceof Boolean) {
+                out.append(value);
+
+            } else if (value instanceof String && isPlain((String)value)) {
+                out.append('"').append((String)value).append('"');
+
+            } else if (value instanceof int[]) {
+                int[] arr = (int[])value;
+                out.append('[');
+                for (int ii = 0; ii < arr.length; ii++) {
+                    if (ii > 0) {
+                        out.append(',');
+                    }
+                    out.append(arr[ii]);
+                }
+                out.append(']');
+
+            } else if (value instanceof short[]) {
+                short[] arr = (short[])value;
+                out.append('[');
+                for (int ii = 0; ii < arr.length; ii++) {
+                    if (ii > 0) {
+                        out.append(',');
+                    }
+                    out.append(arr[ii]);
+                }
+                out.append(']');
+
+            } else if (value instanceof byte[]) {
+                byte[] arr = (byte[])value;
+                out.append('[');
+                for (int ii = 0; ii < arr.length; ii++) {
+                    if (ii > 0) {
+                        out.append(',');
+                    }
+                    out.append(arr[ii]);
+                }
+                out.append(']');
+
+            } else if (value instanceof long[]) {
+                long[] arr = (long[])value;
+                out.append('[');
+                for (int ii = 0; ii < arr.length; ii++) {
+                    if (ii > 0) {
+                        out.append(',');
+                    }
+                    out.append(arr[ii]);
+                }
+                out.append(']');
+
+            } else if (value instanceof boolean[]) {
+                boolean[] arr = (boolean[])value;
+                out.append('[');
+                for (int ii = 0; ii < arr.length; ii++) {
+                    if (ii > 0) {
+                        out.append(',');
+                    }
+                    out.append(arr[ii]);
+                }
+                out.append(']');
+
+            } else if (value instanceof JSONArray ||
+                       (value instanceof JSONObject && !((JSONObject)value).isNullObject())) {
+                out.append(value.toString());
+
+            } else if (member) {
+                // anything else is processed by json-lib in its own special ways
+                String json = new JSONObject().element("v", value).toString();
+                if (json.length() == 2) {
+                    return false; // the member was dropped
+                }
+                out.append(json, 5, json.length() - 1);
+
+            } else {
+                JSONArray array = new JSONArray();
+                array.add(value);
+                String json = array.toString();
+                out.append(json, 1, json.length() - 1);
+            }
+            return true;
+        }
+
+        /**
+         * Returns the quoted member name, with trailing colon, for the supplied name.
+         */
+        protected String getKey (String name)
+        {
+            if (isPlain(name)) {
+                return "\"" + name + "\":";
+            }
+            String json = new JSONObject().element(name, 0).toString();
+            return json.substring(1, json.length() - 2);
+        }
+
+        /**
+         * Returns the fields of the given class that are considered for conversion.
+         */
+        protected List<Field> getFields (Class<?> clazz)
+        {
+            List<Field> fields = cachedFields.get(clazz);
+            if (fields == null) {
+                cachedFields.put(clazz, fields = Lists.newArrayList());
+                ClassUtil.getFields(clazz, fields);
+                vlog("Got fields for class", clazz, "fields", fields);
+            }
+            return fields;
+        }
+
+        /**
+         * Returns the (cached) field handles used to write instances of the given class.
+         */
+        protected FieldLayout getLayout (Class<?> clazz)
+        {
+            FieldLayout layout = cachedLayouts.get(clazz);
+            if (layout == null) {
+                cachedLayouts.put(clazz, layout = new FieldLayout(this, getFields(clazz)));
+            }
+            return layout;
+        }
+
         /**
          * Utility method to call {@link #convert(Object)} each item in an iterable and return
          * an array of the results.
@@ -375,6 +637,143 @@ public class JSONConversion
         }
 
         private Map<Class<?>, List<Field>> cachedFields = Maps.newHashMap();
+        private Map<Class<?>, FieldLayout> cachedLayouts = Maps.newHashMap();
+    }
+
+    /**
+     * The handles via which the fields of a class are written by {@link Config#write}.
+     */
+    protected static class FieldLayout
+    {
+        /** The handles for each field, in order. */
+        public final FieldHandle[] fields;
+
+        /** Whether any two fields have the same (json) name. */
+        public final boolean duplicates;
+
+        public FieldLayout (Config config, List<Field> fields)
+        {
+            this.fields = new FieldHandle[fields.size()];
+            Set<String> names = Sets.newHashSet();
+            boolean duplicates = false;
+            for (int ii = 0; ii < this.fields.length; ii++) {
+                Field field = fields.get(ii);
+                String name = config.getFieldName(field);
+                duplicates |= !names.add(name);
+                this.fields[ii] = new FieldHandle(field, config.getKey(name));
+            }
+            this.duplicates = duplicates;
+        }
+    }
+
+    /**
+     * Reads a single field via a method handle, avoiding boxing for integral and boolean fields.
+     */
+    protected static class FieldHandle
+    {
+        /** The field in question. */
+        public final Field field;
+
+        /** The quoted name of the field, with trailing colon. */
+        public final String key;
+
+        /** Whether the field is of an integral or boolean type, read via {@link #getLong} or
+         * {@link #getBoolean} respectively. */
+        public final boolean integral, bool;
+
+        /** The type of the field's values once boxed. */
+        public final Class<?> boxed;
+
+        public FieldHandle (Field field, String key)
+        {
+            this.field = field;
+            this.key = key;
+            Class<?> type = field.getType();
+            integral = (type == int.class || type == long.class ||
+                        type == short.class || type == byte.class);
+            bool = (type == boolean.class);
+            boxed = Primitives.wrap(type);
+
+            Class<?> rtype = integral ? long.class : (bool ? boolean.class : Object.class);
+            try {
+                _getter = MethodHandles.lookup().unreflectGetter(field).asType(
+                    MethodType.methodType(rtype, Object.class));
+            } catch (IllegalAccessException iae) {
+                // we'll report this if and when we actually need to read the field
+                _error = iae;
+            }
+        }
+
+        /** Reads the value of an integral field. */
+        public long getLong (Object obj)
+        {
+            try {
+                return (long)_getter.invokeExact(obj);
+            } catch (Throwable t) {
+                throw failure(t);
+            }
+        }
+
+        /** Reads the value of a boolean field. */
+        public boolean getBoolean (Object obj)
+        {
+            try {
+                return (boolean)_getter.invokeExact(obj);
+            } catch (Throwable t) {
+                throw failure(t);
+            }
+        }
+
+        /** Reads the (boxed) value of a field. */
+        public Object get (Object obj)
+        {
+            try {
+                return (Object)_getter.invokeExact(obj);
+            } catch (Throwable t) {
+                throw failure(t);
+            }
+        }
+
+        protected RuntimeException failure (Throwable t)
+        {
+            if (_getter == null) {
+                t = _error;
+            }
+            if (t instanceof RuntimeException) {
+                return (RuntimeException)t;
+            } else if (t instanceof Error) {
+                throw (Error)t;
+            }
+            return new RuntimeException("Failed to read field " + field, t);
+        }
+
+        protected MethodHandle _getter;
+        protected IllegalAccessException _error;
+    }
+
+    /**
+     * Tests if json-lib renders the given string simply by quoting it: it contains only
+     * printable ascii characters that need no escaping and does not look like json, a
+     * javascript function or a quoted string.
+     */
+    protected static boolean isPlain (String str)
+    {
+        int len = str.length();
+        if (len > 0) {
+            char c = str.charAt(0);
+            if (c == '[' || c == '{' || c == '"' || c == '\'' ||
+                str.equals("null") || str.startsWith("function")) {
+                return false;
+            }
+        }
+        for (int ii = 0; ii < len; ii++) {
+            char c = str.charAt(ii);
+            if (c < ' ' || c > '~' || c == '"' || c == '\\' ||
+                (c == '/' && ii > 0 && str.charAt(ii - 1) == '<')) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -0,0 +1,134 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.cast.bundle.tools;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.file.Files;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.samskivert.util.Tuple;
+
+/**
+ * Tests the component bundler.
+ */
+public class ComponentBundlerTest
+{
+    @Test
+    public void testParallelMatchesSerial ()
+        throws IOException
+    {
+        File root = getResourceFile(COMPONENTS_PATH);
+        File dir = new File(root, "pirate" + File.separator + "female");
+        List<String> images = Lists.newArrayList();
+        collectImages(dir, "", images);
+        Collections.sort(images);
+        assertFalse(images.isEmpty());
+
+        File tmpdir = Files.createTempDirectory("bundles").toFile();
+        try {
+            File serial = bundle(root, dir, images, tmpdir, "serial", 1);
+            File parallel = bundle(root, dir, images, tmpdir, "parallel", 4);
+
+            // the bundles should have the same entries, with the same contents, in the same order
+            List<Tuple<String, byte[]>> sentries = readEntries(serial);
+            List<Tuple<String, byte[]>> pentries = readEntries(parallel);
+            assertEquals(sentries.size(), pentries.size());
+            for (int ii = 0; ii < sentries.size(); ii++) {
+                assertEquals(sentries.get(ii).left, pentries.get(ii).left);
+                assertArrayEquals(sentries.get(ii).left,
+                                  sentries.get(ii).right, pentries.get(ii).right);
+            }
+        } finally {
+            for (File file : tmpdir.listFiles()) {
+                file.delete();
+            }
+            tmpdir.delete();
+        }
+    }
+
+    protected File bundle (
+        File root, File dir, List<String> images, File tmpdir, String name, final int threads)
+    {
+        File target = new File(tmpdir, name + ".jar");
+        ComponentBundler bundler = new ComponentBundler(
+            new File(tmpdir, name + ".map"), new File(root, "actions.xml")) {
+            @Override protected int threads () { return threads; }
+            @Override protected void logInfo (String message) {}
+        };
+        List<Tuple<File, List<String>>> sources = Lists.newArrayList();
+        sources.add(Tuple.newTuple(dir, images));
+        bundler.execute(root.getPath(), target, sources);
+        return target;
+    }
+
+    protected static void collectImages (File dir, String prefix, List<String> images)
+    {
+        for (File file : dir.listFiles()) {
+            String path = prefix + file.getName();
+            if (file.isDirectory()) {
+                collectImages(file, path + File.separator, images);
+            } else if (path.endsWith(".png")) {
+                images.add(path);
+            }
+        }
+    }
+
+    protected static List<Tuple<String, byte[]>> readEntries (File file)
+        throws IOException
+    {
+        List<Tuple<String, byte[]>> entries = Lists.newArrayList();
+        JarFile jar = new JarFile(file);
+        try {
+            for (Enumeration<JarEntry> iter = jar.entries(); iter.hasMoreElements(); ) {
+                JarEntry entry = iter.nextElement();
+                InputStream in = jar.getInputStream(entry);
+                try {
+                    entries.add(Tuple.newTuple(entry.getName(), ByteStreams.toByteArray(in)));
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            jar.close();
+        }
+        return entries;
+    }
+
+    protected static File getResourceFile (String path)
+    {
+        return new File(ComponentBundlerTest.class.getClassLoader().getResource(path).getPath());
+    }
+
+    protected static final String COMPONENTS_PATH = "rsrc/bundles/components";
+}
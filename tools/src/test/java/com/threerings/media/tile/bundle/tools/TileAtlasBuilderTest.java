@@ -0,0 +1,180 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.media.tile.bundle.tools;
+
+import java.util.List;
+import java.util.Map;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Files;
+
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import javax.imageio.ImageIO;
+
+import com.google.common.collect.Lists;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.threerings.media.tile.ObjectTileSet;
+import com.threerings.media.tile.SimpleCachingImageProvider;
+import com.threerings.media.tile.TrimmedObjectTileSet;
+import com.threerings.media.tile.util.TileSetTrimmer;
+
+/**
+ * Tests the {@link TileAtlasBuilder}.
+ */
+public class TileAtlasBuilderTest
+{
+    @Test
+    public void testSharedTiles ()
+        throws IOException
+    {
+        // two tilesets with the same tiles share a single copy of them
+        TileAtlasBuilder builder = new TileAtlasBuilder("atlas_", 256);
+        List<TrimmedObjectTileSet> tsets = Lists.newArrayList();
+        List<BufferedImage> tiles = Lists.newArrayList();
+        for (int ii = 0; ii < 2; ii++) {
+            TrimmedObjectTileSet tset = trim(createImage(false), null);
+            tsets.add(tset);
+            for (int tt = 0; tt < tset.getTileCount(); tt++) {
+                tiles.add(tset.getRawTileImage(tt));
+            }
+            builder.addTileSet(tset);
+        }
+
+        Map<String, byte[]> written = write(builder);
+        assertEquals(1, written.size());
+        assertTrue(builder.getStats().contains("tiles=4, stored=2"));
+
+        // and their tiles are found in the atlas where they say they are
+        String path = written.keySet().iterator().next();
+        BufferedImage atlas = ImageIO.read(new ByteArrayInputStream(written.get(path)));
+        int idx = 0;
+        for (TrimmedObjectTileSet tset : tsets) {
+            assertEquals(path, tset.getImagePath());
+            for (int tt = 0; tt < tset.getTileCount(); tt++) {
+                Rectangle bounds = tset.computeTileBounds(tt, new Rectangle());
+                BufferedImage tile = tiles.get(idx++);
+                for (int yy = 0; yy < bounds.height; yy++) {
+                    for (int xx = 0; xx < bounds.width; xx++) {
+                        assertEquals(tile.getRGB(xx, yy),
+                                     atlas.getRGB(bounds.x + xx, bounds.y + yy));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testGrouping ()
+        throws IOException
+    {
+        TileAtlasBuilder builder = new TileAtlasBuilder("atlas_", 256);
+        TrimmedObjectTileSet plain = trim(createImage(true), null);
+        TrimmedObjectTileSet plain2 = trim(createImage(true), null);
+        TrimmedObjectTileSet zated = trim(createImage(true), new String[] { "skin" });
+        TrimmedObjectTileSet zated2 = trim(createImage(true), new String[] { "skin" });
+        TrimmedObjectTileSet ozated = trim(createImage(true), new String[] { "hair" });
+        TrimmedObjectTileSet argb = trim(createImage(false), null);
+        for (TrimmedObjectTileSet tset : new TrimmedObjectTileSet[] {
+                plain, zated, ozated, argb, plain2, zated2 }) {
+            builder.addTileSet(tset);
+        }
+        assertEquals(4, write(builder).size());
+
+        // tilesets share an atlas only with the same color model and colorization classes
+        assertEquals(plain.getImagePath(), plain2.getImagePath());
+        assertEquals(zated.getImagePath(), zated2.getImagePath());
+        assertFalse(plain.getImagePath().equals(zated.getImagePath()));
+        assertFalse(zated.getImagePath().equals(ozated.getImagePath()));
+        assertFalse(plain.getImagePath().equals(argb.getImagePath()));
+    }
+
+    protected static Map<String, byte[]> write (TileAtlasBuilder builder)
+        throws IOException
+    {
+        File tmpdir = Files.createTempDirectory("atlases").toFile();
+        try {
+            BundleWriter bwriter = new BundleWriter(tmpdir);
+            Map<String, byte[]> written = builder.write(bwriter, false, null);
+            bwriter.close();
+            return written;
+        } finally {
+            for (File file : tmpdir.listFiles()) {
+                file.delete();
+            }
+            tmpdir.delete();
+        }
+    }
+
+    /**
+     * Creates a two tile image, each of whose tiles has a (differently sized) opaque rectangle
+     * inset in it.
+     */
+    protected static BufferedImage createImage (boolean indexed)
+    {
+        BufferedImage image;
+        if (indexed) {
+            byte[] rgb = { 0, (byte)255, 0, (byte)255 };
+            image = new BufferedImage(16, 8, BufferedImage.TYPE_BYTE_INDEXED,
+                                      new IndexColorModel(2, 4, rgb, rgb, rgb, 0));
+        } else {
+            image = new BufferedImage(16, 8, BufferedImage.TYPE_INT_ARGB);
+        }
+        for (int yy = 2; yy < 6; yy++) {
+            for (int xx = 2; xx < 5; xx++) {
+                image.setRGB(xx, yy, 0xFFFFFFFF);
+                image.setRGB(8 + xx - 1, yy, 0xFFFFFFFF);
+            }
+            image.setRGB(8 + 5, yy, 0xFFFFFFFF);
+        }
+        return image;
+    }
+
+    protected static TrimmedObjectTileSet trim (final BufferedImage image, String[] zations)
+        throws IOException
+    {
+        ObjectTileSet set = new ObjectTileSet();
+        set.setName("test");
+        set.setImagePath("test.png");
+        set.setTileCounts(new int[] { 2 });
+        set.setWidths(new int[] { 8 });
+        set.setHeights(new int[] { 8 });
+        set.setOffsetPos(new Point(0, 0));
+        set.setGapSize(new Dimension(0, 0));
+        set.setObjectWidths(new int[] { 1, 1 });
+        set.setObjectHeights(new int[] { 1, 1 });
+        set.setColorizations(zations);
+        set.setImageProvider(new SimpleCachingImageProvider() {
+            @Override protected BufferedImage loadImage (String path) {
+                return image;
+            }
+        });
+        return TrimmedObjectTileSet.trimObjectTileSet(set, new TileSetTrimmer.StripPacker());
+    }
+}
@@ -0,0 +1,139 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.tools;
+
+import java.util.Map;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link IDLogFile}.
+ */
+public class IDLogFileTest
+{
+    @Before
+    public void createFile ()
+        throws IOException
+    {
+        _file = File.createTempFile("idlog", ".log");
+        _file.delete();
+    }
+
+    @After
+    public void deleteFile ()
+    {
+        _file.delete();
+        new File(_file.getPath() + ".lock").delete();
+        new File(_file.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void testAssignAndReopen ()
+        throws IOException
+    {
+        IDLogFile log = new IDLogFile(_file);
+        assertEquals(1, log.getOrAssign("one"));
+        assertEquals(2, log.getOrAssign("two"));
+        assertEquals(1, log.getOrAssign("one"));
+        assertNull(log.get("three"));
+        log.close();
+
+        assertTrue(IDLogFile.isLogFile(_file));
+        log = new IDLogFile(_file);
+        assertEquals(Integer.valueOf(2), log.get("two"));
+        assertEquals(3, log.getOrAssign("three"));
+        assertEquals(3, log.getLastID());
+        log.close();
+    }
+
+    @Test
+    public void testSharedFile ()
+        throws IOException
+    {
+        IDLogFile log1 = new IDLogFile(_file), log2 = new IDLogFile(_file);
+        assertEquals(1, log1.getOrAssign("one"));
+        assertEquals(2, log2.getOrAssign("two"));
+        assertEquals(1, log2.getOrAssign("one"));
+        assertEquals(Integer.valueOf(2), log1.get("two"));
+
+        // compacting in one instance must not lose mappings made through the other
+        log1.compact();
+        assertEquals(3, log2.getOrAssign("three"));
+        assertEquals(4, log1.getOrAssign("four"));
+        Map<String, Integer> mappings = log2.getMappings();
+        assertEquals(4, mappings.size());
+        assertEquals(Integer.valueOf(3), mappings.get("three"));
+        log1.close();
+        log2.close();
+    }
+
+    @Test
+    public void testTornTail ()
+        throws IOException
+    {
+        IDLogFile log = new IDLogFile(_file);
+        log.getOrAssign("one");
+        log.getOrAssign("two");
+        log.close();
+
+        // simulate a writer that died part way through a record
+        FileOutputStream out = new FileOutputStream(_file, true);
+        out.write(new byte[] { 0, 0, 0, 5, 't', 'h' });
+        out.close();
+
+        log = new IDLogFile(_file);
+        assertEquals(2, log.getMappings().size());
+        assertEquals(3, log.getOrAssign("three"));
+        log.close();
+
+        log = new IDLogFile(_file);
+        assertEquals(Integer.valueOf(3), log.get("three"));
+        log.close();
+    }
+
+    @Test
+    public void testTextRoundTrip ()
+        throws IOException
+    {
+        String text = "10\none := 1\nsome := name := 7\n";
+        IDLogFile log = new IDLogFile(_file);
+        log.importText(new BufferedReader(new StringReader(text)));
+        assertEquals(Integer.valueOf(7), log.get("some := name"));
+        assertEquals(11, log.getOrAssign("two"));
+
+        StringWriter out = new StringWriter();
+        log.exportText(new BufferedWriter(out));
+        String nl = System.getProperty("line.separator");
+        assertEquals("11" + nl + "one := 1" + nl + "some := name := 7" + nl + "two := 11" + nl,
+                     out.toString());
+        log.close();
+    }
+
+    protected File _file;
+}
@@ -0,0 +1,138 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.tools;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.awt.Rectangle;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.threerings.tools.JSONConversion.Config;
+import com.threerings.tools.JSONConversion.ConvertCollectionFieldToArray;
+import com.threerings.tools.JSONConversion.FieldAccessor;
+import com.threerings.tools.JSONConversion.FieldConfig;
+
+/**
+ * Checks that {@link Config#write} produces exactly the output of {@link Config#convert}.
+ */
+public class JSONConversionTest
+{
+    @Test
+    public void testPlain ()
+    {
+        assertSameOutput(new Config(), new Pojo());
+    }
+
+    @Test
+    public void testConfigured ()
+    {
+        Config config = AWTConversions.addAll(new Config());
+        config.addFieldConfig(Pojo.class, new FieldConfig<Pojo>().
+            addExclusions("excluded").
+            addFieldConverter("children", new ConvertCollectionFieldToArray<Pojo>(
+                new FieldAccessor<Pojo, Collection<?>>() {
+                    public Collection<?> get (Pojo pojo) {
+                        return Arrays.asList(pojo.children);
+                    }
+                })));
+        assertSameOutput(config, new Shapes());
+    }
+
+    @Test
+    public void testMembers ()
+    {
+        Config config = new Config();
+        StringBuilder buf = new StringBuilder("{");
+        assertTrue(config.writeMember("id", 3, true, buf));
+        assertFalse(config.writeMember("none", null, false, buf));
+        assertTrue(config.writeMember("set", new Child(), false, buf));
+        buf.append('}');
+        assertEquals("{\"id\":3,\"set\":" + config.convert(new Child()) + "}", buf.toString());
+    }
+
+    protected static void assertSameOutput (Config config, Object obj)
+    {
+        StringBuilder buf = new StringBuilder();
+        config.write(obj, buf);
+        assertEquals(config.convert(obj).toString(), buf.toString());
+
+        // a second time to exercise our cached field handles
+        buf.setLength(0);
+        config.write(obj, buf);
+        assertEquals(config.convert(obj).toString(), buf.toString());
+    }
+
+    protected static class Child
+    {
+        public String name = "child";
+        public int value = -7;
+        public double scale = 2.5;
+    }
+
+    protected static class Base
+    {
+        protected String _imagePath = "tiles/ground.png";
+        protected int _count = 12;
+    }
+
+    protected static class Pojo extends Base
+    {
+        public int[] widths = { 1, 2, 3 };
+        public short[] xs = { -1, 0, 1 };
+        public byte[] priorities = { 0, 5, -5 };
+        public long[] stamps = { 1L, 1L << 40 };
+        public boolean[] flags = { true, false };
+        public float[] scales = { 0.5f, 1f, 0.1f };
+        public String[][] zations = { { "skin", "hair" }, null, {} };
+        public int count = 99; // shadows Base._count
+        public long big = 1L << 40;
+        public short small = -3;
+        public byte tiny = 7;
+        public boolean visible = true;
+        public float alpha = 0.25f;
+        public double ratio = 1.0;
+        public Integer boxed = 42;
+        public Double nothing = null;
+        public String empty = "";
+        public String escaped = "tab\there \"quoted\" </script> \u00e9";
+        public String bracketed = "[1, 2]";
+        public String braced = "{not json";
+        public String nil = "null";
+        public String quoted = "'single'";
+        public Child[] children = { new Child(), null, new Child() };
+        public List<Object> mixed = Arrays.<Object>asList(1, "two", null, new Child(), 2.5);
+        public String excluded = "secret";
+        public transient String ignored = "ignored";
+        public static String shared = "shared";
+    }
+
+    protected static class Shapes extends Pojo
+    {
+        public Rectangle bounds = new Rectangle(1, 2, 3, 4);
+        public Point origin = new Point(5, 6);
+        public Color color = new Color(0x102030);
+    }
+}
@@ -0,0 +1,329 @@
+//
+// Nenya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// https://github.com/threerings/nenya
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.tools.xml;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.google.common.collect.Lists;
+
+import com.samskivert.io.PersistenceException;
+
+import com.threerings.media.tile.TileSet;
+import com.threerings.media.tile.TileSetIDBroker;
+import com.threerings.media.tile.UniformTileSet;
+import com.threerings.media.tile.bundle.tools.TileSetBundler;
+import com.threerings.media.tile.tools.xml.ObjectTileSetRuleSet;
+import com.threerings.media.tile.tools.xml.StaxTileSetParser;
+import com.threerings.media.tile.tools.xml.SwissArmyTileSetRuleSet;
+import com.threerings.media.tile.tools.xml.UniformTileSetRuleSet;
+import com.threerings.media.tile.tools.xml.XMLTileSetParser;
+import com.threerings.miso.data.ObjectInfo;
+import com.threerings.miso.data.SimpleMisoSceneModel;
+import com.threerings.miso.data.SparseMisoSceneModel;
+import com.threerings.miso.tile.FringeConfiguration;
+import com.threerings.miso.tile.tools.xml.FringeConfigurationParser;
+import com.threerings.miso.tile.tools.xml.StaxFringeConfigurationParser;
+import com.threerings.miso.tools.xml.SimpleMisoSceneParser;
+import com.threerings.miso.tools.xml.SparseMisoSceneParser;
+import com.threerings.miso.tools.xml.StaxSimpleMisoSceneParser;
+import com.threerings.miso.tools.xml.StaxSparseMisoSceneParser;
+
+/**
+ * Checks that our streaming parsers produce exactly the same objects as their digester
+ * counterparts.
+ */
+public class StaxParserTest
+{
+    @Test
+    public void testTileSets ()
+        throws Exception
+    {
+        XMLTileSetParser dparser = new XMLTileSetParser();
+        dparser.addRuleSet("tilesets/uniform", new UniformTileSetRuleSet());
+        dparser.addRuleSet("tilesets/swissarmy", new SwissArmyTileSetRuleSet());
+        dparser.addRuleSet("tilesets/object", new ObjectTileSetRuleSet());
+        Map<String, TileSet> dsets = new HashMap<String, TileSet>();
+        dparser.loadTileSets(TILESET_PATH, dsets);
+
+        StaxTileSetParser sparser = new StaxTileSetParser();
+        sparser.addRuleSet("tilesets/uniform", new UniformTileSetRuleSet());
+        sparser.addRuleSet("tilesets/swissarmy", new SwissArmyTileSetRuleSet());
+        sparser.addRuleSet("tilesets/object", new ObjectTileSetRuleSet());
+        Map<String, TileSet> ssets = new HashMap<String, TileSet>();
+        sparser.loadTileSets(TILESET_PATH, ssets);
+
+        assertEquals(3, dsets.size());
+        assertEquals(dsets.keySet(), ssets.keySet());
+        for (String name : dsets.keySet()) {
+            assertEquivalent(name, dsets.get(name), ssets.get(name));
+        }
+    }
+
+    @Test
+    public void testTileSetAttributes ()
+        throws Exception
+    {
+        // attributes set any matching bean property, converting as needed, and others are ignored
+        String xml = "<tilesets><uniform>" +
+            "<tileset name=\"Attrs\" imagePath=\"a.png\" width=\"64\" unknown=\"x\">" +
+            "<height>48</height></tileset></uniform></tilesets>";
+
+        XMLTileSetParser dparser = new XMLTileSetParser();
+        dparser.addRuleSet("tilesets/uniform", new UniformTileSetRuleSet());
+        Map<String, TileSet> dsets = new HashMap<String, TileSet>();
+        dparser.loadTileSets(new ByteArrayInputStream(xml.getBytes("UTF-8")), dsets);
+
+        StaxTileSetParser sparser = new StaxTileSetParser();
+        sparser.addRuleSet("tilesets/uniform", new UniformTileSetRuleSet());
+        Map<String, TileSet> ssets = new HashMap<String, TileSet>();
+        sparser.loadTileSets(new ByteArrayInputStream(xml.getBytes("UTF-8")), ssets);
+
+        assertEquals(1, dsets.size());
+        assertEquals(64, ((UniformTileSet)ssets.get("Attrs")).getWidth());
+        assertEquals("a.png", ssets.get("Attrs").getImagePath());
+        assertEquivalent("Attrs", dsets.get("Attrs"), ssets.get("Attrs"));
+    }
+
+    @Test
+    public void testBundleDescriptions ()
+        throws Exception
+    {
+        File config = getFile("rsrc/bundles/tiles/bundler-config.xml");
+        List<File> descs = Lists.newArrayList(
+            getFile("rsrc/bundles/tiles/ground/bundle.xml"),
+            getFile("rsrc/bundles/tiles/objects/bundle.xml"));
+
+        List<List<TileSet>> dsets = new TileSetBundler(config).parseBundleDescriptions(descs, 1);
+        TileSetBundler bundler = new TileSetBundler(config);
+        bundler.setStreaming(true);
+        List<List<TileSet>> ssets = bundler.parseBundleDescriptions(descs, 2);
+
+        assertEquals(descs.size(), ssets.size());
+        for (int ii = 0; ii < descs.size(); ii++) {
+            assertFalse(dsets.get(ii).isEmpty());
+            assertEquivalent(descs.get(ii).getPath(), dsets.get(ii), ssets.get(ii));
+        }
+    }
+
+    @Test
+    public void testSimpleScenes ()
+        throws Exception
+    {
+        SimpleMisoSceneParser dparser = new SimpleMisoSceneParser("");
+        StaxSimpleMisoSceneParser sparser = new StaxSimpleMisoSceneParser("");
+        List<File> files = Lists.newArrayList(
+            getFile("rsrc/scenes/wooded.xml"), getFile("rsrc/scenes/idyll.xml"));
+
+        // parse in parallel to make sure that gives the same results as well
+        List<SimpleMisoSceneModel> smodels = sparser.parseAll(files, 2);
+        for (int ii = 0; ii < files.size(); ii++) {
+            SimpleMisoSceneModel dmodel = dparser.parseScene(files.get(ii).getPath());
+            SimpleMisoSceneModel smodel = smodels.get(ii);
+            assertEquals(dmodel.width, smodel.width);
+            assertEquals(dmodel.height, smodel.height);
+            assertEquals(dmodel.vwidth, smodel.vwidth);
+            assertEquals(dmodel.vheight, smodel.vheight);
+            assertArrayEquals(dmodel.baseTileIds, smodel.baseTileIds);
+            assertArrayEquals(dmodel.objectTileIds, smodel.objectTileIds);
+            assertArrayEquals(dmodel.objectXs, smodel.objectXs);
+            assertArrayEquals(dmodel.objectYs, smodel.objectYs);
+            assertEquivalent(dmodel.objectInfo, smodel.objectInfo);
+        }
+    }
+
+    @Test
+    public void testSparseScene ()
+        throws Exception
+    {
+        File file = File.createTempFile("sparse", ".xml");
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(SPARSE_SCENE.getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+
+            SparseMisoSceneModel dmodel = new SparseMisoSceneParser("").parseScene(file.getPath());
+            SparseMisoSceneModel smodel =
+                new StaxSparseMisoSceneParser("").parseScene(file.getPath());
+            assertEquals(dmodel.swidth, smodel.swidth);
+            assertEquals(dmodel.sheight, smodel.sheight);
+            assertEquals(dmodel.defTileSet, smodel.defTileSet);
+
+            Map<String, SparseMisoSceneModel.Section> dsects = getSections(dmodel);
+            Map<String, SparseMisoSceneModel.Section> ssects = getSections(smodel);
+            assertEquals(2, dsects.size());
+            assertEquals(dsects.keySet(), ssects.keySet());
+            for (String key : dsects.keySet()) {
+                SparseMisoSceneModel.Section dsect = dsects.get(key), ssect = ssects.get(key);
+                assertEquals(dsect.width, ssect.width);
+                assertArrayEquals(dsect.baseTileIds, ssect.baseTileIds);
+                assertArrayEquals(dsect.objectTileIds, ssect.objectTileIds);
+                assertArrayEquals(dsect.objectXs, ssect.objectXs);
+                assertArrayEquals(dsect.objectYs, ssect.objectYs);
+                assertEquivalent(dsect.objectInfo, ssect.objectInfo);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFringeConfiguration ()
+        throws Exception
+    {
+        File file = getFile("rsrc/config/miso/tile/fringeconf.xml");
+        Serializable dconfig = new FringeConfigurationParser(new MemoryBroker()).parseConfig(file);
+        FringeConfiguration sconfig =
+            new StaxFringeConfigurationParser(new MemoryBroker()).parse(file);
+        assertArrayEquals(serialize(dconfig), serialize(sconfig));
+    }
+
+    protected static void assertEquivalent (String what, List<TileSet> expect, List<TileSet> actual)
+        throws IOException
+    {
+        assertEquals(what, expect.size(), actual.size());
+        for (int ii = 0; ii < expect.size(); ii++) {
+            assertEquivalent(what, expect.get(ii), actual.get(ii));
+        }
+    }
+
+    protected static void assertEquivalent (String what, TileSet expect, TileSet actual)
+        throws IOException
+    {
+        assertEquals(what, expect.getClass(), actual.getClass());
+        assertEquals(what, expect.toString(), actual.toString());
+        assertArrayEquals(what, serialize(expect), serialize(actual));
+    }
+
+    protected static void assertEquivalent (ObjectInfo[] expect, ObjectInfo[] actual)
+    {
+        assertEquals(expect.length, actual.length);
+        for (int ii = 0; ii < expect.length; ii++) {
+            ObjectInfo einfo = expect[ii], ainfo = actual[ii];
+            assertEquals(einfo.tileId, ainfo.tileId);
+            assertEquals(einfo.x, ainfo.x);
+            assertEquals(einfo.y, ainfo.y);
+            assertEquals(einfo.action, ainfo.action);
+            assertEquals(einfo.priority, ainfo.priority);
+            assertEquals(einfo.sx, ainfo.sx);
+            assertEquals(einfo.sy, ainfo.sy);
+            assertEquals(einfo.sorient, ainfo.sorient);
+            assertEquals(einfo.zations, ainfo.zations);
+        }
+    }
+
+    protected static Map<String, SparseMisoSceneModel.Section> getSections (
+        SparseMisoSceneModel model)
+    {
+        Map<String, SparseMisoSceneModel.Section> sections =
+            new HashMap<String, SparseMisoSceneModel.Section>();
+        for (Iterator<SparseMisoSceneModel.Section> iter = model.getSections();
+             iter.hasNext(); ) {
+            SparseMisoSceneModel.Section sect = iter.next();
+            sections.put(sect.x + ":" + sect.y, sect);
+        }
+        return sections;
+    }
+
+    protected static byte[] serialize (Serializable object)
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bout);
+        oout.writeObject(object);
+        oout.close();
+        return bout.toByteArray();
+    }
+
+    protected static File getFile (String path)
+    {
+        return new File(StaxParserTest.class.getClassLoader().getResource(path).getPath());
+    }
+
+    /** Assigns tileset ids in the order in which they are requested. */
+    protected static class MemoryBroker implements TileSetIDBroker
+    {
+        public int getTileSetID (String tileSetName)
+            throws PersistenceException
+        {
+            Integer id = _ids.get(tileSetName);
+            if (id == null) {
+                _ids.put(tileSetName, id = _ids.size() + 1);
+            }
+            return id;
+        }
+
+        public boolean tileSetMapped (String tileSetName)
+            throws PersistenceException
+        {
+            return _ids.containsKey(tileSetName);
+        }
+
+        public void commit ()
+            throws PersistenceException
+        {
+        }
+
+        protected Map<String, Integer> _ids = new HashMap<String, Integer>();
+    }
+
+    protected static final String TILESET_PATH = "rsrc/media/tile/tools/xml/tilesets.xml";
+
+    protected static final String SPARSE_SCENE =
+        "<?xml version=\"1.0\"?>\n" +
+        "<miso>\n" +
+        "  <swidth>2</swidth>\n" +
+        "  <sheight>2</sheight>\n" +
+        "  <defTileSet>7</defTileSet>\n" +
+        "  <sections>\n" +
+        "    <section x=\"0\" y=\"0\" width=\"2\">\n" +
+        "      <base>65537, 65538, 65539, 65540</base>\n" +
+        "      <objects>\n" +
+        "        <object tileId=\"131073\" x=\"1\" y=\"0\"/>\n" +
+        "        <object tileId=\"131074\" x=\"0\" y=\"1\" action=\"door\" priority=\"2\"/>\n" +
+        "      </objects>\n" +
+        "    </section>\n" +
+        "    <section x=\"2\" y=\"0\" width=\"2\">\n" +
+        "      <base>65537, 65537, 65537, 65537</base>\n" +
+        "      <objects>\n" +
+        "        <object tileId=\"131075\" x=\"3\" y=\"1\" sx=\"2\" sy=\"1\" sorient=\"3\"" +
+        " zations=\"258\"/>\n" +
+        "      </objects>\n" +
+        "    </section>\n" +
+        "  </sections>\n" +
+        "</miso>\n";
+}